@@ -0,0 +1,93 @@
+   package mars.benchmarks;
+   import mars.*;
+   import mars.assembler.*;
+   import mars.mips.instructions.*;
+   import java.util.*;
+   import java.util.concurrent.TimeUnit;
+   import org.openjdk.jmh.annotations.*;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * Benchmarks of the front end: decoding binary instructions with
+ * InstructionSet.findByBinaryCode(), as the simulator does for every instruction not
+ * in the predecoded execution cache, and tokenizing source lines with
+ * Tokenizer.tokenizeLine().  Both work through the lines of a generated source (and
+ * the instructions it assembles to) one per call.
+ *
+ * @version October 2014
+ */
+
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    @State(Scope.Thread)
+    public class DecodeBenchmark {
+      private static final int LINES = 4096;
+   
+      private int[] words;
+      private String[] lines;
+      private Tokenizer tokenizer;
+      private ErrorList errors;
+      private int next;
+   
+       @Setup
+       public void setUp() throws Exception {
+         String source = Programs.generate(LINES);
+         lines = source.split("\n");
+         MIPSprogram program = Programs.assemble(Programs.write("decode", source));
+         ArrayList statements = program.getMachineList();
+         words = new int[statements.size()];
+         for (int i = 0; i < words.length; i++) {
+            words[i] = ((ProgramStatement) statements.get(i)).getBinaryStatement();
+         }
+         tokenizer = new Tokenizer();
+         errors = new ErrorList();
+      }
+   
+       @Benchmark
+       public BasicInstruction findByBinaryCode() {
+         next = (next + 1) % words.length;
+         return Globals.instructionSet.findByBinaryCode(words[next]);
+      }
+   
+       @Benchmark
+       public TokenList tokenizeLine() {
+         next = (next + 1) % lines.length;
+         return tokenizer.tokenizeLine(next + 1, lines[next], errors, false);
+      }
+   }
@@ -0,0 +1,104 @@
+   package mars.benchmarks;
+   import mars.mips.hardware.*;
+   import java.util.concurrent.TimeUnit;
+   import org.openjdk.jmh.annotations.*;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * Benchmarks of Memory.setWord(), getWord() and getByte() in each segment of the
+ * default memory configuration.  Each call goes to the next word (or byte) of a 64KB
+ * window at the start of the segment, or just below the initial stack pointer for
+ * the stack, so the page tables are exercised rather than a single address.
+ *
+ * @version October 2014
+ */
+
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 5, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    @Fork(1)
+    @State(Scope.Thread)
+    public class MemoryBenchmark {
+      private static final int WINDOW_MASK = (64 * 1024) - 1;
+   
+      @Param({"data", "heap", "stack", "kdata"})
+      public String segment;
+   
+      private Memory memory;
+      private int base;
+      private int offset;
+   
+       @Setup
+       public void setUp() throws AddressErrorException {
+         Programs.initialize();
+         memory = Memory.getInstance();
+         memory.clear();
+         if (segment.equals("data")) {
+            base = Memory.dataBaseAddress;
+         } 
+         else if (segment.equals("heap")) {
+            base = Memory.heapBaseAddress;
+         } 
+         else if (segment.equals("stack")) {
+            base = Memory.stackPointer - (WINDOW_MASK & ~3); // top word at the stack pointer
+         } 
+         else {
+            base = Memory.kernelDataBaseAddress;
+         }
+         for (int i = 0; i <= WINDOW_MASK; i += 4) {
+            memory.setWord(base + i, i);
+         }
+      }
+   
+       @Benchmark
+       public int setWord() throws AddressErrorException {
+         offset = (offset + 4) & WINDOW_MASK;
+         return memory.setWord(base + offset, offset);
+      }
+   
+       @Benchmark
+       public int getWord() throws AddressErrorException {
+         offset = (offset + 4) & WINDOW_MASK;
+         return memory.getWord(base + offset);
+      }
+   
+       @Benchmark
+       public int getByte() throws AddressErrorException {
+         offset = (offset + 1) & WINDOW_MASK;
+         return memory.getByte(base + offset);
+      }
+   }
@@ -0,0 +1,180 @@
+   package mars.benchmarks;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import java.io.*;
+   import java.util.*;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * Programs for the benchmarks: the reference programs kept as resources with the
+ * benchmarks, and generated sources of any length for the assembler.  Every program
+ * is assembled from a file, as MARS is normally used, so resources and generated
+ * sources are first written to temporary files.
+ *
+ * @version October 2014
+ */
+
+    public class Programs {
+    /** Reference programs, each looping forever without system calls: a loop summing
+     * an array, recursive Fibonacci, word and byte memory copies, and single and double
+     * precision floating point. */
+      public static final String[] REFERENCE = {"loop", "recursion", "memcpy", "float"};
+   
+      private static boolean initialized = false;
+   
+   /**
+    * Initialize MARS without the GUI, if not done already.
+    */
+       public static synchronized void initialize() {
+         if (!initialized) {
+            Globals.initialize(false);
+            initialized = true;
+         }
+      }
+   
+   /**
+    * Set the way the simulator executes instructions.
+    * @param mode "interpreted" to decode every instruction as it is executed,
+    * "predecoded" to use the predecoded execution cache, or "block" to execute hot
+    * basic blocks as a unit as well
+    */
+       public static void setExecutionMode(String mode) {
+         Globals.getSettings().setBooleanSettingNonPersistent(Settings.PREDECODED_EXECUTION_ENABLED, 
+                                                               !mode.equals("interpreted"));
+         Globals.getSettings().setBooleanSettingNonPersistent(Settings.BLOCK_EXECUTION_ENABLED, 
+                                                               mode.equals("block"));
+      }
+   
+   /**
+    * Write one of the reference programs to a temporary file.
+    * @param name the name of the program, one of REFERENCE
+    * @return the file, deleted when the JVM exits
+    * @throws IOException if the program cannot be written
+    */
+       public static File reference(String name) throws IOException {
+         InputStream in = Programs.class.getResourceAsStream(name+".asm");
+         if (in == null) {
+            throw new FileNotFoundException("no reference program "+name);
+         }
+         ByteArrayOutputStream source = new ByteArrayOutputStream();
+         byte[] buffer = new byte[4096];
+         for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+            source.write(buffer, 0, n);
+         }
+         in.close();
+         return write(name, source.toString("ISO-8859-1"));
+      }
+   
+   /**
+    * Generate a source of the given number of lines, with labels, comments, data
+    * directives, basic and pseudo-instructions, loads and stores, branches and
+    * floating point, in about the proportions of a student program.  It assembles
+    * without error but is not meant to be run.
+    * @param lines the number of lines
+    * @return the source, lines separated by newlines
+    */
+       public static String generate(int lines) {
+         String[] body = {
+               "        lw $t1, 0($s0)           # load",
+               "        addu $t2, $t0, $t1",
+               "        sw $t2, 4($s0)",
+               "        sll $t3, $t2, 2",
+               "        li $t4, 0x%1$x",
+               "        la $t5, buffer",
+               "        blt $t0, $t1, L%2$d",
+               "        beq $t2, $zero, L%2$d",
+               "        mul $t6, $t2, $t3",
+               "",
+               "        lwc1 $f0, 8($s0)",
+               "        add.s $f2, $f0, $f0",
+               "        bne $t6, 100, L%2$d",
+               "        jal L%2$d",
+               "# a comment line",
+               "        .data",
+               "value%2$d: .word 1, 2, 3, 4",
+               "        .text",
+               };
+         StringBuffer source = new StringBuffer(40 * lines);
+         source.append("        .data\nbuffer: .space 64\n        .text\n");
+         int label = 0;
+         for (int line = 3; line < lines; line++) {
+            // Each group starts with a new label; %1$ is the line number and %2$ the label.
+            int i = (line - 3) % (body.length + 1);
+            if (i == 0) {
+               source.append("L"+(++label)+":     addiu $t0, $t0, "+(line % 100)+"\n");
+            } 
+            else {
+               source.append(String.format(body[i - 1], new Object[] {new Integer(line), new Integer(label)}));
+               source.append('\n');
+            }
+         }
+         return source.toString();
+      }
+   
+   /**
+    * Write a source to a temporary file.
+    * @param name the start of the file name
+    * @param source the source
+    * @return the file, deleted when the JVM exits
+    * @throws IOException if the source cannot be written
+    */
+       public static File write(String name, String source) throws IOException {
+         File file = File.createTempFile(name, ".asm");
+         file.deleteOnExit();
+         Writer out = new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1");
+         out.write(source);
+         out.close();
+         return file;
+      }
+   
+   /**
+    * Read, tokenize and assemble a program, and set the program counter to its start,
+    * ready to simulate.
+    * @param file the source file
+    * @return the program
+    * @throws ProcessingException if the program does not assemble
+    */
+       public static MIPSprogram assemble(File file) throws ProcessingException {
+         initialize();
+         MIPSprogram program = new MIPSprogram();
+         ArrayList files = new ArrayList();
+         files.add(file.getPath());
+         ArrayList programs = program.prepareFilesForAssembly(files, file.getPath(), null);
+         program.assemble(programs, true, false);
+         RegisterFile.initializeProgramCounter(false);
+         return program;
+      }
+   }
@@ -0,0 +1,79 @@
+   package mars.benchmarks;
+   import mars.*;
+   import java.util.concurrent.TimeUnit;
+   import org.openjdk.jmh.annotations.*;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * Benchmark of simulation from end to end, with MIPSprogram.simulate(maxSteps), of
+ * each reference program in each execution mode.  Every invocation simulates STEPS
+ * more instructions of a program that never ends, so the score, in operations per
+ * second, is the number of MIPS instructions simulated per second.
+ *
+ * @version October 2014
+ */
+
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(SimulationBenchmark.STEPS)
+    @Warmup(iterations = 5, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(1)
+    @State(Scope.Thread)
+    public class SimulationBenchmark {
+    /** Number of instructions simulated by each invocation. */
+      public static final int STEPS = 1000000;
+   
+      @Param({"loop", "recursion", "memcpy", "float"})
+      public String program;
+   
+      @Param({"interpreted", "predecoded", "block"})
+      public String mode;
+   
+      private MIPSprogram code;
+   
+       @Setup
+       public void setUp() throws Exception {
+         Programs.initialize();
+         Programs.setExecutionMode(mode);
+         code = Programs.assemble(Programs.reference(program));
+      }
+   
+       @Benchmark
+       public boolean simulate() throws ProcessingException {
+         return code.simulate(STEPS);
+      }
+   }
@@ -0,0 +1,27 @@
+# Reference program for SimulationBenchmark: square roots by Newton's method in
+# double precision, summed in single precision, over and over.  Coprocessor 1.
+        .data
+values: .double 2.0, 3.0, 5.0, 7.0, 11.0, 13.0, 17.0, 19.0
+half:   .double 0.5
+scale:  .float 1.0001
+        .text
+main:   la $t1, values
+        l.d $f20, half
+        l.s $f22, scale
+        li $t0, 0
+next:   sll $t2, $t0, 3
+        addu $t3, $t1, $t2
+        l.d $f2, 0($t3)
+        mov.d $f4, $f2
+        li $t4, 8
+newton: div.d $f6, $f2, $f4
+        add.d $f6, $f6, $f4
+        mul.d $f4, $f6, $f20
+        addiu $t4, $t4, -1
+        bgtz $t4, newton
+        cvt.s.d $f8, $f4
+        mul.s $f8, $f8, $f22
+        add.s $f12, $f12, $f8
+        addiu $t0, $t0, 1
+        blt $t0, 8, next
+        j main
@@ -0,0 +1,21 @@
+# Reference program for SimulationBenchmark: sums an array of 1024 words over and
+# over.  Loads, adds and a counted loop, like most student programs.
+        .data
+array:  .space 4096
+        .text
+main:   la $t1, array
+        li $t0, 0
+fill:   sll $t2, $t0, 2
+        addu $t3, $t1, $t2
+        sw $t0, 0($t3)
+        addiu $t0, $t0, 1
+        blt $t0, 1024, fill
+again:  li $t0, 0
+        li $t4, 0
+sum:    sll $t2, $t0, 2
+        addu $t3, $t1, $t2
+        lw $t5, 0($t3)
+        addu $t4, $t4, $t5
+        addiu $t0, $t0, 1
+        blt $t0, 1024, sum
+        j again
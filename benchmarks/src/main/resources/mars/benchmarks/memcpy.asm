@@ -0,0 +1,33 @@
+# Reference program for SimulationBenchmark: copies 4KB a word at a time, then a
+# byte at a time, over and over.  Memory bound.
+        .data
+source: .space 4096
+dest:   .space 4096
+        .text
+main:   la $a0, dest
+        la $a1, source
+        li $a2, 4096
+        jal copywords
+        la $a0, dest
+        la $a1, source
+        li $a2, 4096
+        jal copybytes
+        j main
+
+copywords:
+        addu $t0, $a1, $a2
+words:  lw $t1, 0($a1)
+        sw $t1, 0($a0)
+        addiu $a1, $a1, 4
+        addiu $a0, $a0, 4
+        bne $a1, $t0, words
+        jr $ra
+
+copybytes:
+        addu $t0, $a1, $a2
+bytes:  lbu $t1, 0($a1)
+        sb $t1, 0($a0)
+        addiu $a1, $a1, 1
+        addiu $a0, $a0, 1
+        bne $a1, $t0, bytes
+        jr $ra
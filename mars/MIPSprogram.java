@@ -4,6 +4,8 @@
    import mars.assembler.*;
    import mars.simulator.*;
    import mars.mips.hardware.*;
+   import mars.mips.instructions.syscalls.*;
+   import mars.util.*;
 	
    import java.util.*;
    import java.io.*;
@@ -268,11 +270,35 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             filenames.add(0, exceptionHandler);
             leadFilePosition = 1;
          }
+         // Files are read and tokenized in parallel, each by its own Tokenizer.  If any
+      	// fail, the exception is that of the first in the list, as it was when they
+      	// were done one after another.
+         final ArrayList files = filenames;
+         final MIPSprogram[] preparees = new MIPSprogram[filenames.size()];
+         final ProcessingException[] failures = new ProcessingException[filenames.size()];
+         boolean leadFound = false;
          for (int i=0; i<filenames.size(); i++) {
-            String filename = (String) filenames.get(i);  
-            MIPSprogram preparee = (filename.equals(leadFilename)) ? this : new MIPSprogram();
-            preparee.readSource(filename);
-            preparee.tokenize();
+            // Only one may be "this", since they are tokenized at the same time.
+            boolean lead = !leadFound && filenames.get(i).equals(leadFilename);
+            preparees[i] = lead ? this : new MIPSprogram();
+            leadFound |= lead;
+         }
+         new ParallelLoop(1) {
+             protected void iterate(int i) {
+               try {
+                  preparees[i].readSource((String) files.get(i));
+                  preparees[i].tokenize();
+               } 
+                   catch (ProcessingException e) {
+                     failures[i] = e;
+                  }
+            }
+         }.run(filenames.size());
+         for (int i=0; i<filenames.size(); i++) {
+            if (failures[i] != null) {
+               throw failures[i];
+            }
+            MIPSprogram preparee = preparees[i];
          	// I want "this" MIPSprogram to be the first in the list...except for exception handler
             if (preparee == this && MIPSprogramsToAssemble.size()>0) {
                MIPSprogramsToAssemble.add(leadFilePosition,preparee);
@@ -334,6 +360,63 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    
    
+   /**
+    * Simulates execution of the MIPS program from the current program counter address
+    * until it is about to make its first syscall that reads standard input, or until
+    * it completes.  Program must have already been assembled.  This is where a program
+    * first depends on its input, so a good point at which to fork the machine (see
+    * MachineContext.fork()) to run it with several inputs.  Only syscalls present when
+    * the program was assembled are considered.
+    * @param maxSteps maximum number of instruction executions.  0 or less means no maximum.
+    * @return true if execution completed and false if stopped before an input syscall
+    * or when the maximum was reached
+    * @throws ProcessingException Will throw exception if errors occured while simulating.
+    **/
+    
+       public boolean simulateUntilInput(int maxSteps) throws ProcessingException {
+         ArrayList syscalls = new ArrayList();
+         for (int i=0; i<machineList.size(); i++) {
+            ProgramStatement statement = (ProgramStatement) machineList.get(i);
+            if (statement.getInstruction() != null && statement.getInstruction().getName().equals("syscall")) {
+               syscalls.add(Integer.valueOf(statement.getAddress()));
+            }
+         }
+         int[] breakPoints = new int[syscalls.size()];
+         for (int i=0; i<breakPoints.length; i++) {
+            breakPoints[i] = ((Integer) syscalls.get(i)).intValue();
+         }
+         MachineContext context = MachineContext.current();
+         long start = context.getInstructionCount();
+         while (true) {
+            if (isInputSyscall(RegisterFile.getValue(2), RegisterFile.getValue(4)) &&
+                syscalls.contains(Integer.valueOf(RegisterFile.getProgramCounter()))) {
+               return false;
+            }
+            int steps = maxSteps;
+            if (maxSteps > 0) {
+               steps = maxSteps - (int) (context.getInstructionCount() - start);
+               if (steps <= 0) {
+                  return false;
+               }
+            }
+            if (simulateFromPC(breakPoints, steps, null)) {
+               return true;
+            }
+         }
+      }
+   
+      // The syscalls that read standard input: Read (14) only when reading file descriptor 0.
+       private static boolean isInputSyscall(int number, int fileDescriptor) {
+         Syscall service = Globals.instructionSet.findSyscall(number);
+         if (service == null) {
+            return false;
+         }
+         String name = service.getName();
+         return name.equals("ReadInt") || name.equals("ReadFloat") || name.equals("ReadDouble") ||
+                name.equals("ReadString") || name.equals("ReadChar") || 
+                (name.equals("Read") && fileDescriptor == 0);
+      }
+   
    /**
     * Simulates execution of the MIPS program. Program must have already been assembled.
     * Begins simulation at beginning of text segment and continues to completion or
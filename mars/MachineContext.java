@@ -0,0 +1,508 @@
+   package mars;
+   import mars.assembler.*;
+   import mars.simulator.*;
+   import mars.mips.hardware.*;
+   import mars.util.*;
+   import java.io.*;
+   import java.util.*;
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+/**
+ * The complete state of one simulated MIPS machine: memory, the register file,
+ * coprocessors 0 and 1, any pending delayed branch, the syscall file table and
+ * standard streams, the global symbol table, the back-stepper and the Simulator
+ * that runs it.
+ * <p>
+ * The familiar static API (RegisterFile.getValue(), Memory.getInstance(),
+ * Simulator.getInstance(), SystemIO and so on) is a facade that resolves to the
+ * <i>current</i> context of the calling thread.  A thread that has never called
+ * setCurrent() uses the default context, which is the one the GUI, tools and
+ * command-line MARS have always worked with; its memory is Globals.memory, its
+ * symbol table Globals.symbolTable and its back-stepper that of Globals.program.
+ * <p>
+ * To run several programs at once, create a context for each and make it
+ * current in the thread that assembles and simulates the program.  The
+ * simulator thread started by Simulator.simulate() inherits the context of the
+ * thread that started it.  Each context has its own lock, used in place of
+ * Globals.memoryAndRegistersLock, so simulations in different contexts do not
+ * contend with each other.  The GUI and MARS tools always work with the default
+ * context; in particular, external interrupts from tools are delivered only
+ * to the default context.
+ * <p>
+ * Settings, the instruction set and the memory configuration are shared by all
+ * contexts.
+ *
+ * @version October 2014
+ */
+
+    public class MachineContext {
+      private static final MachineContext defaultContext = new MachineContext(true);
+      private static final ThreadLocal<MachineContext> threadContext = new ThreadLocal<MachineContext>();
+      // Set once any thread has called setCurrent().  Until then every thread is in the
+   	// default context and current() need not consult the ThreadLocal.  A thread that
+   	// binds a context sets this itself, so it always sees its own binding.
+      private static boolean anyBound = false;
+   
+      private final boolean isDefault;
+      private final Memory memory;
+      private final RegisterFile registerFile;
+      private final Coprocessor0 coprocessor0;
+      private final Coprocessor1 coprocessor1;
+      private final DelayedBranch delayedBranch;
+      private final SystemIO systemIO;
+      private final HashMap randomStreams;
+      private final Object lock;
+      private SymbolTable symbolTable;
+      private BackStepper backStepper;
+      private Simulator simulator;
+      private InputStream standardInput;
+      private PrintStream standardOutput;
+      private PrintStream standardError;
+      private int exitCode;
+      private long instructionCount;
+      private InputLog inputLog;
+      private ExecutionProfile executionProfile;
+      private CallGraphProfile callGraphProfile;
+      private BranchProfile branchProfile;
+      private Tracer tracer;
+   
+   /**
+    * Create a new machine with empty memory, registers at their reset values
+    * and its own symbol table.  Its standard streams are System.in, System.out
+    * and System.err until changed.
+    */
+       public MachineContext() {
+         this(false, new Memory());
+      }
+   
+       private MachineContext(boolean isDefault) {
+         this(isDefault, new Memory());
+      }
+   
+       private MachineContext(boolean isDefault, Memory memory) {
+         this.isDefault = isDefault;
+         this.memory = memory;
+         this.registerFile = new RegisterFile();
+         this.coprocessor0 = new Coprocessor0();
+         this.coprocessor1 = new Coprocessor1();
+         this.delayedBranch = new DelayedBranch();
+         this.systemIO = new SystemIO();
+         this.randomStreams = new HashMap();
+         this.lock = (isDefault) ? Globals.memoryAndRegistersLock : new Object();
+         this.symbolTable = (isDefault) ? null : new SymbolTable("global");
+         this.backStepper = null;
+         this.simulator = null;
+         this.exitCode = 0;
+      }
+   
+   /**
+    * Get the context of the calling thread.
+    * @return the context most recently made current in this thread, or the
+    * default context if there is none.
+    */
+       public static MachineContext current() {
+         if (!anyBound) {
+            return defaultContext;
+         }
+         MachineContext context = threadContext.get();
+         return (context == null) ? defaultContext : context;
+      }
+   
+   /**
+    * Make the given context current for the calling thread.
+    * @param context the context to use, or null to go back to the default context.
+    */
+       public static void setCurrent(MachineContext context) {
+         if (context == null || context == defaultContext) {
+            threadContext.remove();
+         } 
+         else {
+            anyBound = true;
+            threadContext.set(context);
+         }
+      }
+   
+   /**
+    * @return the default context, used by the GUI, tools and command-line MARS.
+    */
+       public static MachineContext getDefault() {
+         return defaultContext;
+      }
+   
+   /**
+    * @return true if this is the default context.
+    */
+       public boolean isDefault() {
+         return isDefault;
+      }
+   
+   /**
+    * @return this machine's memory.
+    */
+       public Memory getMemory() {
+         return memory;
+      }
+   
+   /**
+    * @return this machine's general purpose registers, PC, hi and lo.
+    */
+       public RegisterFile getRegisterFile() {
+         return registerFile;
+      }
+   
+   /**
+    * @return this machine's coprocessor 0 (exceptions and interrupts) registers.
+    */
+       public Coprocessor0 getCoprocessor0() {
+         return coprocessor0;
+      }
+   
+   /**
+    * @return this machine's coprocessor 1 (floating point) registers and condition flags.
+    */
+       public Coprocessor1 getCoprocessor1() {
+         return coprocessor1;
+      }
+   
+   /**
+    * @return this machine's delayed branch state.
+    */
+       public DelayedBranch getDelayedBranch() {
+         return delayedBranch;
+      }
+   
+   /**
+    * @return this machine's syscall I/O state (open file table).
+    */
+       public SystemIO getSystemIO() {
+         return systemIO;
+      }
+   
+   /**
+    * @return this machine's pseudorandom number streams, used by the Rand-type syscalls.
+    */
+       public HashMap getRandomStreams() {
+         return randomStreams;
+      }
+   
+   /**
+    * Get the object to synchronize on while reading or changing this machine's
+    * memory and registers.  For the default context this is Globals.memoryAndRegistersLock.
+    * @return the lock object.
+    */
+       public Object getLock() {
+         return lock;
+      }
+   
+   /**
+    * @return the global symbol table for the program being assembled into this machine.
+    */
+       public SymbolTable getSymbolTable() {
+         return (isDefault) ? Globals.symbolTable : symbolTable;
+      }
+   
+   /**
+    * Get the back-stepper that records changes to this machine.  For the default
+    * context this is that of Globals.program.
+    * @return the BackStepper, or null if there is none.
+    */
+       public BackStepper getBackStepper() {
+         if (isDefault) {
+            return (Globals.program == null) ? null : Globals.program.getBackStepper();
+         }
+         return backStepper;
+      }
+   
+   /**
+    * Set the back-stepper that records changes to this machine.  Has no effect on
+    * the default context, which always uses that of Globals.program.
+    * @param backStepper the BackStepper to use, null for none.
+    */
+       public void setBackStepper(BackStepper backStepper) {
+         this.backStepper = backStepper;
+      }
+   
+   /**
+    * Get the Simulator for this machine.  Normally obtained through Simulator.getInstance().
+    * @return the Simulator, or null if it has not been created yet.
+    */
+       public Simulator getSimulator() {
+         return simulator;
+      }
+   
+   /**
+    * Set the Simulator for this machine.  Used by Simulator.getInstance() when it
+    * creates the Simulator.
+    * @param simulator the Simulator for this machine.
+    */
+       public void setSimulator(Simulator simulator) {
+         this.simulator = simulator;
+      }
+   
+   /**
+    * @return stream read by the syscalls that read from standard input.
+    */
+       public InputStream getStandardInput() {
+         return (standardInput == null) ? System.in : standardInput;
+      }
+   
+   /**
+    * @return stream written by the syscalls that write to standard output.
+    */
+       public PrintStream getStandardOutput() {
+         return (standardOutput == null) ? System.out : standardOutput;
+      }
+   
+   /**
+    * @return stream written by syscalls writing to the standard error file descriptor.
+    */
+       public PrintStream getStandardError() {
+         return (standardError == null) ? System.err : standardError;
+      }
+   
+   /**
+    * Set the streams used by syscalls for standard input, output and error.
+    * Any of them may be null to use System.in, System.out or System.err.
+    * Takes effect immediately, even for a program part way through its run.
+    * @param in standard input stream.
+    * @param out standard output stream.
+    * @param err standard error stream.
+    */
+       public void setStandardStreams(InputStream in, PrintStream out, PrintStream err) {
+         this.standardInput = in;
+         this.standardOutput = out;
+         this.standardError = err;
+         systemIO.setStandardStreams(getStandardInput(), getStandardOutput(), getStandardError());
+      }
+   
+   /**
+    * Create a new machine in the same state as this one, to continue running the
+    * same program independently, for instance with different input.  Memory is not
+    * copied; the two machines share its 4K blocks copy-on-write (see Memory.fork()).
+    * Registers, coprocessors, any pending delayed branch and the random streams are
+    * copied, and files the program has open are reopened at the same position, as
+    * for a checkpoint.  The new machine shares this one's symbol table and, until
+    * changed, its standard streams.  This machine must not be running.
+    * @return the new machine
+    * @throws IOException if a file open in this machine cannot be reopened
+    */
+       public MachineContext fork() throws IOException {
+         synchronized (lock) {
+            MachineContext fork = new MachineContext(false, memory.fork());
+            fork.symbolTable = getSymbolTable();
+            fork.readState(saveState());
+            fork.instructionCount = instructionCount;
+            fork.setStandardStreams(standardInput, standardOutput, standardError);
+            return fork;
+         }
+      }
+   
+   /**
+    * Save the state of this machine other than its memory: registers, coprocessors,
+    * any pending delayed branch, the open file table and the random streams.  Together
+    * with a fork of its memory (see Memory.fork()) this is a snapshot of the machine,
+    * to be returned to by restoreState().  This machine must not be running.
+    * @return the saved state
+    * @throws IOException if the state cannot be written
+    */
+       public byte[] saveState() throws IOException {
+         synchronized (lock) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            registerFile.writeCheckpoint(out);
+            coprocessor0.writeCheckpoint(out);
+            coprocessor1.writeCheckpoint(out);
+            delayedBranch.writeCheckpoint(out);
+            systemIO.writeCheckpoint(out);
+            ObjectOutputStream objects = new ObjectOutputStream(out);
+            objects.writeObject(randomStreams);
+            objects.close();
+            return bytes.toByteArray();
+         }
+      }
+   
+   /**
+    * Return this machine to a snapshot taken earlier.  Its memory takes the contents of
+    * the saved memory, sharing its pages copy-on-write (see Memory.restore()), and the
+    * rest of its state is read from that saved by saveState().  Files the program has
+    * open are reopened as for a checkpoint.  Observers are not notified.  This machine
+    * must not be running, and must be current in the calling thread.
+    * @param state the state returned by saveState()
+    * @param savedMemory a fork of this machine's memory made at the same time
+    * @param instructionCount the instruction count to go back to
+    * @throws IOException if the state is malformed or a file cannot be reopened
+    */
+       public void restoreState(byte[] state, Memory savedMemory, long instructionCount) throws IOException {
+         synchronized (lock) {
+            memory.restore(savedMemory);
+            readState(state);
+            this.instructionCount = instructionCount;
+         }
+      }
+   
+       private void readState(byte[] state) throws IOException {
+         DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+         registerFile.readCheckpoint(in);
+         coprocessor0.readCheckpoint(in);
+         coprocessor1.readCheckpoint(in);
+         delayedBranch.readCheckpoint(in);
+         systemIO.readCheckpoint(in);
+         randomStreams.clear();
+         try {
+            randomStreams.putAll((HashMap) new ObjectInputStream(in).readObject());
+         } 
+            catch (ClassNotFoundException e) { } // will not occur; the classes are all java.util
+      }
+   
+   /**
+    * Get the number of instructions this machine has executed.  It is counted by the
+    * simulator after each instruction, or after each basic block as a unit, so is exact
+    * whenever the machine is stopped, and to another thread holding the lock.
+    * @return the number of instructions executed since the machine was created
+    */
+       public long getInstructionCount() {
+         return instructionCount;
+      }
+   
+   /**
+    * Count instructions executed.  Used by the simulator.
+    * @param executed the number of instructions just executed
+    */
+       public void addInstructions(int executed) {
+         instructionCount += executed;
+      }
+   
+   /**
+    * Get the profile counting the executions of each instruction of this machine.
+    * @return the ExecutionProfile, or null if execution is not being profiled.
+    */
+       public ExecutionProfile getExecutionProfile() {
+         return executionProfile;
+      }
+   
+   /**
+    * Set the profile to count the executions of each instruction of this machine in.
+    * Takes effect from the next run of the simulator.
+    * @param executionProfile the ExecutionProfile to use, or null to stop profiling.
+    */
+       public void setExecutionProfile(ExecutionProfile executionProfile) {
+         this.executionProfile = executionProfile;
+      }
+   
+   /**
+    * Get the profile following the calls and returns of this machine.
+    * @return the CallGraphProfile, or null if calls are not being profiled.
+    */
+       public CallGraphProfile getCallGraphProfile() {
+         return callGraphProfile;
+      }
+   
+   /**
+    * Set the profile to follow the calls and returns of this machine in.
+    * Takes effect from the next run of the simulator.
+    * @param callGraphProfile the CallGraphProfile to use, or null to stop profiling calls.
+    */
+       public void setCallGraphProfile(CallGraphProfile callGraphProfile) {
+         this.callGraphProfile = callGraphProfile;
+      }
+   
+   /**
+    * Get the profile evaluating branch predictors on the branches of this machine.
+    * @return the BranchProfile, or null if branches are not being profiled.
+    */
+       public BranchProfile getBranchProfile() {
+         return branchProfile;
+      }
+   
+   /**
+    * Set the profile to evaluate branch predictors on the branches of this machine.
+    * Takes effect from the next run of the simulator.
+    * @param branchProfile the BranchProfile to use, or null to stop profiling branches.
+    */
+       public void setBranchProfile(BranchProfile branchProfile) {
+         this.branchProfile = branchProfile;
+      }
+   
+   /**
+    * Get the tracer following the execution of this machine.
+    * @return the Tracer, or null if execution is not being traced.
+    */
+       public Tracer getTracer() {
+         return tracer;
+      }
+   
+   /**
+    * Set the tracer to give the instructions executed by this machine, and the loads
+    * and stores they make, to.  Takes effect from the next run of the simulator.
+    * @param tracer the Tracer to use, such as a TraceWriter, or null to stop tracing.
+    */
+       public void setTracer(Tracer tracer) {
+         this.tracer = tracer;
+         memory.setTracer(tracer);
+      }
+   
+   /**
+    * Get the log recording this machine's nondeterministic input, so its execution can
+    * be replayed.  See ReverseDebugger.
+    * @return the InputLog, or null if input is not being recorded.
+    */
+       public InputLog getInputLog() {
+         return inputLog;
+      }
+   
+   /**
+    * Set the log to record this machine's nondeterministic input to, and replay it from.
+    * @param inputLog the InputLog to use, or null to stop recording.
+    */
+       public void setInputLog(InputLog inputLog) {
+         this.inputLog = inputLog;
+      }
+   
+   /**
+    * @return exit code set by the program (see syscall 17).
+    */
+       public int getExitCode() {
+         return (isDefault) ? Globals.exitCode : exitCode;
+      }
+   
+   /**
+    * Set the exit code.  For the default context this is Globals.exitCode.
+    * @param exitCode the exit code.
+    */
+       public void setExitCode(int exitCode) {
+         if (isDefault) {
+            Globals.exitCode = exitCode;
+         } 
+         else {
+            this.exitCode = exitCode;
+         }
+      }
+   }
@@ -0,0 +1,256 @@
+   package mars;
+   import java.io.*;
+   import java.net.*;
+   import java.util.*;
+   import mars.mips.hardware.*;
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+/**
+ * Runs MARS as a long-lived daemon that carries out command line jobs, so a
+ * stream of small jobs does not pay for JVM startup, instruction set population
+ * and syscall and dump format loading every time.
+ * <p>
+ * Each job is one line of text holding the arguments of an ordinary MARS command,
+ * separated by spaces, e.g. <tt>nc 100000 $v0 prog.asm</tt>.  An argument containing
+ * spaces may be enclosed in double quotes.  A <tt>&lt;</tt> followed by a file name
+ * makes that file the standard input of the MIPS program; otherwise the program
+ * reads an empty stream.  Relative file names are resolved against the working
+ * directory of the daemon.  Blank lines are ignored.
+ * <p>
+ * Every job runs in a new MachineContext, so it starts with fresh memory, registers
+ * and open file table.  The boolean settings, memory configuration, memory image file
+ * and debug flag, which its arguments may change for the whole JVM, are put back
+ * as they were once the job is done.  Everything MARS would have written to standard output or
+ * standard error, including program output and post-mortem register and memory
+ * display, is sent back as it is produced, followed by a line made up of EXIT_MARKER
+ * and the exit code MARS would have terminated with.  That line is preceded by a
+ * newline if the output did not already end with one.
+ * <p>
+ * Jobs are read from standard input, with responses on standard output, or from any
+ * number of connections to a loopback socket.  Settings and the memory configuration
+ * are still shared by the whole JVM, so jobs are carried out one at a time.
+ *
+ * @version October 2014
+ */
+
+    public class MarsDaemon {
+      /** Port value meaning jobs are read from standard input rather than a socket. */
+      public static final int STANDARD_INPUT = -1;
+      /** Start of the line that ends the response to each job.  The exit code follows. */
+      public static final String EXIT_MARKER = "#MARS-EXIT ";
+      private static final String INPUT_REDIRECT = "<";
+      // Exit code reported if a job fails with an unexpected exception, as the JVM would.
+      private static final int INTERNAL_ERROR_EXIT_CODE = 1;
+      private static final Object jobLock = new Object();
+      private final int port;
+   
+   /**
+    * Create a daemon.
+    * @param port loopback port to accept connections on, or STANDARD_INPUT
+    */
+       public MarsDaemon(int port) {
+         this.port = port;
+      }
+   
+   /**
+    * Serve jobs until standard input is exhausted or, for a socket, forever.
+    * Each connection is served by its own thread.
+    * @throws IOException if the socket cannot be opened or standard input read
+    */
+       public void serve() throws IOException {
+         if (port == STANDARD_INPUT) {
+            serveStream(System.in, System.out);
+            return;
+         }
+         ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName(null));
+         System.err.println("MARS daemon listening on "+server.getInetAddress().getHostAddress()+":"+server.getLocalPort());
+         while (true) {
+            final Socket socket = server.accept();
+            socket.setTcpNoDelay(true); // responses are small and streamed a line at a time
+            new Thread(
+                  new Runnable() {
+                     public void run() {
+                        try {
+                           serveStream(socket.getInputStream(), socket.getOutputStream());
+                        } 
+                           catch (IOException e) {
+                           }
+                        finally {
+                           try {
+                              socket.close();
+                           } 
+                              catch (IOException e) {
+                              }
+                        }
+                     }
+                  }, "MARS daemon client").start();
+         }
+      }
+   
+      // Carry out each job line read from the input, writing its response to the output.
+       private void serveStream(InputStream in, OutputStream out) throws IOException {
+         BufferedReader jobs = new BufferedReader(new InputStreamReader(in));
+         JobOutputStream response = new JobOutputStream(out);
+         PrintStream responseStream = new PrintStream(response, true);
+         String line;
+         while ((line = jobs.readLine()) != null) {
+            String[] args = tokenize(line);
+            if (args.length == 0) {
+               continue;
+            }
+            response.reset();
+            int exitCode = runJob(args, responseStream);
+            if (!response.atLineStart()) {
+               responseStream.println();
+            }
+            responseStream.println(EXIT_MARKER+exitCode);
+            responseStream.flush();
+         }
+      }
+   
+   /**
+    * Carry out one job in a new MachineContext, as if MARS had been run from the
+    * command line with the given arguments.
+    * @param args command arguments, optionally including <tt>&lt; file</tt> for
+    * the program's standard input
+    * @param out stream to receive everything MARS and the program would display
+    * @return the exit code MARS would have terminated with
+    */
+       public static int runJob(String[] args, PrintStream out) {
+         ArrayList<String> commandArgs = new ArrayList<String>();
+         String inputFile = null;
+         for (int i=0; i<args.length; i++) {
+            if (args[i].equals(INPUT_REDIRECT) && i+1 < args.length) {
+               inputFile = args[++i];
+            } 
+            else {
+               commandArgs.add(args[i]);
+            }
+         }
+         InputStream input;
+         try {
+            input = (inputFile == null) ? new ByteArrayInputStream(new byte[0]) : new FileInputStream(inputFile);
+         } 
+            catch (FileNotFoundException e) {
+               out.println("Input file "+inputFile+" was not found!");
+               return INTERNAL_ERROR_EXIT_CODE;
+            }
+         synchronized (jobLock) {
+            boolean[] settings = Globals.getSettings().getBooleanSettings();
+            MemoryConfiguration configuration = MemoryConfigurations.getCurrentConfiguration();
+            File memoryImageFile = MemoryConfigurations.getMemoryImageFile();
+            MachineContext context = new MachineContext();
+            context.setStandardStreams(input, out, out);
+            MachineContext.setCurrent(context);
+            Globals.debug = false;
+            try {
+               new MarsLaunch(commandArgs.toArray(new String[commandArgs.size()]), out);
+            } 
+               catch (RuntimeException e) {
+                  out.println("Internal error: "+e);
+                  context.setExitCode(INTERNAL_ERROR_EXIT_CODE);
+               }
+            finally {
+               Globals.getSettings().setBooleanSettingsNonPersistent(settings);
+               MemoryConfigurations.setCurrentConfiguration(configuration);
+               MemoryConfigurations.setMemoryImageFile(memoryImageFile);
+               Globals.debug = false;
+               MachineContext.setCurrent(null);
+               try {
+                  input.close();
+               } 
+                  catch (IOException e) {
+                  }
+            }
+            return context.getExitCode();
+         }
+      }
+   
+      // Split a job line into arguments at spaces, keeping quoted strings together.
+       private static String[] tokenize(String line) {
+         ArrayList<String> args = new ArrayList<String>();
+         StringBuffer arg = new StringBuffer();
+         boolean quoted = false;
+         boolean inArg = false;
+         for (int i=0; i<line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+               quoted = !quoted;
+               inArg = true;
+            } 
+            else if (Character.isWhitespace(c) && !quoted) {
+               if (inArg) {
+                  args.add(arg.toString());
+                  arg.setLength(0);
+                  inArg = false;
+               }
+            } 
+            else {
+               arg.append(c);
+               inArg = true;
+            }
+         }
+         if (inArg) {
+            args.add(arg.toString());
+         }
+         return args.toArray(new String[args.size()]);
+      }
+   
+      // Passes job output through, remembering whether it ended a line so the
+   	// exit marker can be kept on a line of its own.
+       private static class JobOutputStream extends FilterOutputStream {
+         private int lastByte = '\n';
+      
+          JobOutputStream(OutputStream out) {
+            super(new BufferedOutputStream(out));
+         }
+      
+          void reset() {
+            lastByte = '\n';
+         }
+      
+          boolean atLineStart() {
+            return lastByte == '\n';
+         }
+      
+          public void write(int b) throws IOException {
+            out.write(b);
+            lastByte = b & 0xff;
+         }
+      
+          public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (len > 0) {
+               lastByte = b[off+len-1] & 0xff;
+            }
+         }
+      }
+   }
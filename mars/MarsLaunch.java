@@ -4,8 +4,10 @@
    import mars.mips.dump.*;
    import mars.mips.hardware.*;
    import mars.simulator.*;
+   import mars.assembler.SymbolTable;
    import java.io.*;
    import java.util.*;
+   import java.util.concurrent.*;
    import java.awt.*;
    import javax.swing.*;
    import javax.swing.JOptionPane;   // KENV 9/8/2004
@@ -56,8 +58,28 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  ae<n>  -- terminate MARS with integer exit code <n> if an assemble error occurs.<br>
    	  ascii  -- display memory or register contents interpreted as ASCII
    		   b  -- brief - do not display register/memory address along with contents<br>
+         back  -- after the run, take the program back to an earlier point before displaying<br>
+                  results.  Option has 1 argument, e.g. <tt>back &lt;n&gt;</tt> to go back <i>n</i><br>
+                  instructions, or <tt>back &lt;label&gt;</tt> to go back to the last time execution<br>
+                  reached the label.  See ReverseDebugger.<br>
+           bb  -- Basic block execution - predecoded execution, running hot basic blocks as a unit.<br>
+       branch  -- after the run, display the accuracy of each branch predictor described, in<br>
+                  total and for each conditional branch, as comma-separated values.  Option has<br>
+                  1 argument, e.g. <tt>branch bimodal:4K,gshare:4K:12,tournament:4K:12,btb:512</tt>.<br>
+                  See BranchPredictor.<br>
+        cache  -- after the run, display the accesses and misses of each cache of each cache<br>
+                  hierarchy described, as comma-separated values.  Option has 1 argument,<br>
+                  e.g. <tt>cache L1I:4K:1:16+L1D:4K:2:16+L2:64K:8:32:wt</tt>; sizes, ways and<br>
+                  block sizes may be ranges like <tt>1K..64K</tt> to compare many caches at once.<br>
+                  See CacheHierarchy.  Traces can be evaluated the same way with CacheSweep.<br>
+   checkpoint  -- save the machine state to a file after a number of steps.  Option has<br>
+                  3 arguments, e.g. <tt>checkpoint &lt;file&gt; at &lt;n&gt;</tt>.  Simulation then<br>
+                  continues.  See Checkpoint.<br>
    		   d  -- print debugging statements<br>
            da  -- both a and d<br>
+       daemon  -- run as a daemon, accepting command line jobs one per line.  Optional<br>
+                  argument is a loopback port to listen on; otherwise jobs are read from<br>
+                  standard input.  Must be the first option.  See MarsDaemon.<br>
            db  -- MIPS delayed branching is enabled.<br>
           dec  -- display memory or register contents in decimal.<br>
          dump  -- dump memory contents to file.  Option has 3 arguments, e.g. <br>
@@ -65,21 +87,45 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   an address range (see <i>m-n</i> below).  Current supported <br>
                   segments are <tt>.text</tt> and <tt>.data</tt>.  Current supported dump formats <br>
                   are <tt>Binary</tt>, <tt>HexText</tt>, <tt>BinaryText</tt>.<br>
+        flame  -- write the call stacks to a file after the run, in the folded stacks format<br>
+                  read by flame graph tools, with the instructions executed in each.<br>
+                  Option has 1 argument, e.g. <tt>flame &lt;file&gt;</tt>.  See CallGraphProfile.<br>
+         fork  -- run to a fork point, then fork the machine to continue once for each of<br>
+                  several standard input files, in parallel.  Option has 2 arguments, e.g.<br>
+                  <tt>fork &lt;point&gt; &lt;file&gt;,&lt;file&gt;...</tt>, where &lt;point&gt; is a label or<br>
+                  <tt>input</tt> for the first syscall reading standard input.<br>
             h  -- display help.  Use by itself and with no filename</br>
           hex  -- display memory or register contents in hexadecimal (default)<br>
            ic  -- display count of MIPS basic instructions 'executed'");
            mc  -- set memory configuration.  Option has 1 argument, e.g.<br>
                   <tt>mc &lt;config$gt;</tt>, where &lt;config$gt; is <tt>Default</tt><br>
                   for the MARS default 32-bit address space, <tt>CompactDataAtZero</tt> for<br>
-                  a 32KB address space with data segment at address 0, or <tt>CompactTextAtZero</tt><br>
-                  for a 32KB address space with text segment at address 0.<br>
+                  a 32KB address space with data segment at address 0, <tt>CompactTextAtZero</tt><br>
+                  for a 32KB address space with text segment at address 0, <tt>Large</tt> for the<br>
+                  default address space with 768MB of data and heap held off the Java heap,<br>
+                  or <tt>LargeMapped</tt> for the same held in a memory-mapped file.<br>
            me  -- display MARS messages to standard err instead of standard out. Can separate via redirection.</br>
+           mi  -- memory image file for the LargeMapped memory configuration.  Option has 1<br>
+                  argument, e.g. <tt>mi &lt;file&gt;</tt>.  After the run, the byte at offset <i>n</i><br>
+                  of the file is the byte at address <i>n</i>.<br>
            nc  -- do not display copyright notice (for cleaner redirected/piped output).</br>
    		  np  -- No Pseudo-instructions allowed ("ne" will work also).<br>
    		   p  -- Project mode - assemble all files in the same directory as given file.<br>
+   		  pd  -- Predecoded execution - simulate using the predecoded instruction cache.<br>
+      profile  -- write an execution profile to a file after the run: the execution count of<br>
+                  each instruction with its source line, and totals by source line and by<br>
+                  mnemonic.  Option has 2 arguments, e.g. <tt>profile &lt;format&gt; &lt;file&gt;</tt>,<br>
+                  where &lt;format&gt; is <tt>CSV</tt> or <tt>JSON</tt>.  See ExecutionProfile.<br>
+      restore  -- restore the machine state from a checkpoint file after assembling and<br>
+                  continue simulation from there.  Option has 1 argument, e.g.<br>
+                  <tt>restore &lt;file&gt;</tt>.<br>
    	  se<n>  -- terminate MARS with integer exit code <n> if a simulation (run) error occurs.<br>
            sm  -- Start execution at Main - Execution will start at program statement globally labeled main.<br>
           smc  -- Self Modifying Code - Program can write and branch to either text or data segment<br>
+        trace  -- write a trace of the run to a file: the address of each instruction executed<br>
+                  and the address and length of each load and store, in a compact binary<br>
+                  format.  <tt>tracez</tt> deflates it as well.  Option has 1 argument,<br>
+                  e.g. <tt>trace &lt;file&gt;</tt>.  See TraceWriter, and TraceReader to read it.<br>
            we  -- assembler Warnings will be considered Errors<br>
           <n>  -- where <n> is an integer maximum count of steps to simulate.<br>
                   If 0, negative or not specified, there is no maximum.<br>
@@ -108,6 +154,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private boolean startAtMain; // Whether to start execution at statement labeled 'main' 
       private boolean countInstructions; // Whether to count and report number of instructions executed 
       private boolean selfModifyingCode; // Whether to allow self-modifying code (e.g. write to text segment)
+      private boolean predecodedExecution; // Whether to execute through the predecoded execution cache
+      private boolean blockExecution; // Whether to execute hot basic blocks as a unit (implies predecoded)
       private static final String rangeSeparator = "-";
       private static final int splashDuration = 2000; // time in MS to show splash screen
       private static final int memoryWordsPerLine = 4; // display 4 memory words, tab separated, per line
@@ -119,9 +167,27 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private ArrayList filenameList;
       private MIPSprogram code;
       private int maxSteps;
-      private int instructionCount;
+      private ExecutionProfile profile; // instruction execution counts, for ic and profile options
       private PrintStream out; // stream for display of command line output
       private ArrayList dumpTriples = null; // each element holds 3 arguments for dump option
+      private String checkpointFile; // file to save machine state to, if any
+      private int checkpointSteps; // step count at which to save it
+      private String restoreFile; // checkpoint file to restore machine state from, if any
+      private String forkPoint; // label, or "input", at which to fork the machine, if any
+      private String[] forkInputFiles; // standard input file for each fork
+      private static final String FORK_AT_INPUT = "input";
+      private String backTo; // instruction count, or label, to go back to after the run, if any
+      private String profileFormat; // format of the execution profile report, if any
+      private String profileFile; // file to write the execution profile report to
+      private CallGraphProfile callGraph; // calls and returns, for flame option
+      private String flameFile; // file to write the folded call stacks to, if any
+      private TraceWriter trace; // instructions, loads and stores, for trace options
+      private String traceFile; // file to write the execution trace to, if any
+      private boolean compressTrace; // true to deflate the execution trace
+      private CacheSweep cacheSweep; // cache hierarchies evaluated, for cache option
+      private String cacheDescriptions; // cache hierarchies to evaluate, if any
+      private BranchProfile branchProfile; // branch predictors evaluated, for branch option
+      private String branchDescriptions; // branch predictors to evaluate, if any
       private ArrayList programArgumentList; // optional program args for MIPS program (becomes argc, argv)
       private int assembleErrorExitCode;  // MARS command exit code to return if assemble error occurs
       private int simulateErrorExitCode;// MARS command exit code to return if simulation error occurs
@@ -132,42 +198,111 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          if (gui) {
             launchIDE();  
          } 
+         else if (args[0].toLowerCase().equals("daemon")) {
+            System.setProperty("java.awt.headless", "true"); 
+            launchDaemon(args);
+         } 
          else { // running from command line.
             // assure command mode works in headless environment (generates exception if not)
             System.setProperty("java.awt.headless", "true"); 
-            simulate = true;
-            displayFormat = HEXADECIMAL;
-            verbose = true;  
-            assembleProject = false;
-            pseudo = true;
-            delayedBranching = false;
-            warningsAreErrors = false;
-            startAtMain = false;
-            countInstructions = false;
-				selfModifyingCode = false;
-            instructionCount = 0;
-            assembleErrorExitCode = 0;
-            simulateErrorExitCode = 0;
-            registerDisplayList = new ArrayList();
-            memoryDisplayList = new ArrayList();
-            filenameList = new ArrayList();
-            MemoryConfigurations.setCurrentConfiguration(MemoryConfigurations.getDefaultConfiguration());
-         	// do NOT use Globals.program for command line MARS -- it triggers 'backstep' log.
-            code = new MIPSprogram();  
-            maxSteps = -1;
-            out = System.out;  
-            if (parseCommandArgs(args)) {
-               if (runCommand()) {
-                  displayMiscellaneousPostMortem();
-                  displayRegistersPostMortem();
-                  displayMemoryPostMortem();
-               }
-               dumpSegments();
-            }
+            runFromCommandLine(args, System.out);
             System.exit(Globals.exitCode);
          }
       }   		
+   
+   /**
+    * Carry out one command line job, as if MARS had been started with the given
+    * arguments, but without exiting.  Used by MarsDaemon, which has already made
+    * a fresh MachineContext current; the exit code is left in that context.
+    * @param args the command line arguments of the job
+    * @param out stream for display of MARS messages and post-mortem output
+    */
+      MarsLaunch(String[] args, PrintStream out) {
+         runFromCommandLine(args, out);
+      }
+   
+      //////////////////////////////////////////////////////////////////////
+   	// Set option defaults, then parse the arguments and carry out the
+   	// command: assemble, simulate, display and dump as requested.
    	
+      private void runFromCommandLine(String[] args, PrintStream out) {
+         simulate = true;
+         displayFormat = HEXADECIMAL;
+         verbose = true;  
+         assembleProject = false;
+         pseudo = true;
+         delayedBranching = false;
+         warningsAreErrors = false;
+         startAtMain = false;
+         countInstructions = false;
+         selfModifyingCode = false;
+         predecodedExecution = false;
+         blockExecution = false;
+         checkpointFile = null;
+         checkpointSteps = 0;
+         restoreFile = null;
+         forkPoint = null;
+         forkInputFiles = null;
+         backTo = null;
+         profile = null;
+         profileFormat = null;
+         profileFile = null;
+         callGraph = null;
+         flameFile = null;
+         trace = null;
+         traceFile = null;
+         compressTrace = false;
+         cacheSweep = null;
+         cacheDescriptions = null;
+         branchProfile = null;
+         branchDescriptions = null;
+         assembleErrorExitCode = 0;
+         simulateErrorExitCode = 0;
+         registerDisplayList = new ArrayList();
+         memoryDisplayList = new ArrayList();
+         filenameList = new ArrayList();
+         MemoryConfigurations.setCurrentConfiguration(MemoryConfigurations.getDefaultConfiguration());
+         MemoryConfigurations.setMemoryImageFile(null);
+      	// do NOT use Globals.program for command line MARS -- it triggers 'backstep' log.
+         code = new MIPSprogram();  
+         maxSteps = -1;
+         this.out = out;  
+         if (parseCommandArgs(args)) {
+            if (runCommand()) {
+               displayMiscellaneousPostMortem();
+               displayRegistersPostMortem();
+               displayMemoryPostMortem();
+               writeProfile();
+            }
+            dumpSegments();
+         }
+      }
+   
+      /////////////////////////////////////////////////////////////////
+   	// First argument is "daemon": serve command line jobs from standard
+   	// input, or from loopback socket connections if a port is given.
+   	
+      private void launchDaemon(String[] args) {
+         int port = MarsDaemon.STANDARD_INPUT;
+         if (args.length > 1) {
+            try {
+               port = Integer.decode(args[1]).intValue();
+            } 
+               catch (NumberFormatException nfe) {
+                  System.err.println("Invalid daemon port: "+args[1]);
+                  System.exit(1);
+               }
+         }
+         try {
+            new MarsDaemon(port).serve();
+         } 
+            catch (IOException e) {
+               System.err.println("MARS daemon failed: "+e.getMessage());
+               System.exit(1);
+            }
+         System.exit(0);
+      }
+   
       /////////////////////////////////////////////////////////////
    	// Perform any specified dump operations.  See "dump" option.
    	//
@@ -208,7 +343,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                continue;
             }
             try {
-               int highAddress = Globals.memory.getAddressOfFirstNull(segInfo[0].intValue(), segInfo[1].intValue())- Memory.WORD_LENGTH_BYTES;
+               int highAddress = Memory.getInstance().getAddressOfFirstNull(segInfo[0].intValue(), segInfo[1].intValue())- Memory.WORD_LENGTH_BYTES;
                if (highAddress < segInfo[0].intValue()) {
                   out.println("This segment has not been written to, there is nothing to dump.");
                   continue;
@@ -311,6 +446,140 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                }
                continue;
             } 
+            if (args[i].toLowerCase().equals("checkpoint")) {
+               if (args.length <= (i+3) || !args[i+2].toLowerCase().equals("at")) {
+                  out.println("Checkpoint command line argument requires a file name, \"at\" and a step count.");
+                  argsOK = false;
+                  continue;
+               } 
+               checkpointFile = args[++i];
+               i++; // "at"
+               try {
+                  checkpointSteps = Integer.decode(args[++i]).intValue();
+               } 
+                  catch (NumberFormatException nfe) {
+                     checkpointSteps = 0;
+                  }
+               if (checkpointSteps <= 0) {
+                  out.println("Invalid checkpoint step count: "+args[i]);
+                  argsOK = false;
+               }
+               continue;
+            } 
+            if (args[i].toLowerCase().equals("restore")) {
+               if (args.length <= (i+1)) {
+                  out.println("Restore command line argument requires a checkpoint file name.");
+                  argsOK = false;
+               } 
+               else {
+                  restoreFile = args[++i];
+               }
+               continue;
+            } 
+            if (args[i].toLowerCase().equals("fork")) {
+               if (args.length <= (i+2)) {
+                  out.println("Fork command line argument requires a fork point and input file names.");
+                  argsOK = false;
+               } 
+               else {
+                  forkPoint = args[++i];
+                  forkInputFiles = args[++i].split(",");
+               }
+               continue;
+            } 
+            if (args[i].toLowerCase().equals("profile")) {
+               if (args.length <= (i+2)) {
+                  out.println("Profile command line argument requires a format and a file name.");
+                  argsOK = false;
+               } 
+               else if (!args[i+1].equalsIgnoreCase(ExecutionProfile.CSV) && !args[i+1].equalsIgnoreCase(ExecutionProfile.JSON)) {
+                  out.println("Invalid profile format: "+args[i+1]);
+                  argsOK = false;
+                  i += 2;
+               } 
+               else {
+                  profileFormat = args[++i];
+                  profileFile = args[++i];
+               }
+               continue;
+            } 
+            if (args[i].toLowerCase().equals("trace") || args[i].toLowerCase().equals("tracez")) {
+               if (args.length <= (i+1)) {
+                  out.println("Trace command line argument requires a file name.");
+                  argsOK = false;
+               } 
+               else {
+                  compressTrace = args[i].toLowerCase().equals("tracez");
+                  traceFile = args[++i];
+               }
+               continue;
+            } 
+            if (args[i].toLowerCase().equals("cache")) {
+               if (args.length <= (i+1)) {
+                  out.println("Cache command line argument requires a description of the caches.");
+                  argsOK = false;
+               } 
+               else {
+                  try {
+                     CacheHierarchy.parse(args[i+1]);
+                     cacheDescriptions = args[++i];
+                  } 
+                     catch (IllegalArgumentException e) {
+                        out.println("Invalid cache description: "+e.getMessage());
+                        argsOK = false;
+                        i++;
+                     }
+               }
+               continue;
+            } 
+            if (args[i].toLowerCase().equals("branch")) {
+               if (args.length <= (i+1)) {
+                  out.println("Branch command line argument requires a description of the predictors.");
+                  argsOK = false;
+               } 
+               else {
+                  try {
+                     BranchPredictor.parse(args[i+1]);
+                     branchDescriptions = args[++i];
+                  } 
+                     catch (IllegalArgumentException e) {
+                        out.println("Invalid branch predictor description: "+e.getMessage());
+                        argsOK = false;
+                        i++;
+                     }
+               }
+               continue;
+            } 
+            if (args[i].toLowerCase().equals("flame")) {
+               if (args.length <= (i+1)) {
+                  out.println("Flame command line argument requires a file name.");
+                  argsOK = false;
+               } 
+               else {
+                  flameFile = args[++i];
+               }
+               continue;
+            } 
+            if (args[i].toLowerCase().equals("back")) {
+               if (args.length <= (i+1)) {
+                  out.println("Back command line argument requires a step count or a label.");
+                  argsOK = false;
+               } 
+               else {
+                  backTo = args[++i];
+               }
+               continue;
+            } 
+            if (args[i].toLowerCase().equals("mi")) {
+               if (args.length <= (i+1)) {
+                  out.println("Memory image command line argument requires a file name.");
+                  argsOK = false;
+               } 
+               else {
+                  MemoryConfigurations.setMemoryImageFile(new File(args[++i]));
+               }
+               continue;
+            }
             if (args[i].toLowerCase().equals("mc")) {
                String configName = args[++i];
                MemoryConfiguration config = MemoryConfigurations.getConfigurationByName(configName);
@@ -399,6 +668,15 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                selfModifyingCode = true;
                continue;
             }
+            if (args[i].toLowerCase().equals("pd")) {
+               predecodedExecution = true;
+               continue;
+            }
+            if (args[i].toLowerCase().equals("bb")) {
+               predecodedExecution = true;
+               blockExecution = true;
+               continue;
+            }
             if (args[i].toLowerCase().equals("ic")) { // added 19-Jul-2012 DPS
                countInstructions = true;
                continue;
@@ -467,6 +745,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          try {
             Globals.getSettings().setBooleanSettingNonPersistent(Settings.DELAYED_BRANCHING_ENABLED, delayedBranching);
             Globals.getSettings().setBooleanSettingNonPersistent(Settings.SELF_MODIFYING_CODE_ENABLED, selfModifyingCode);
+            Globals.getSettings().setBooleanSettingNonPersistent(Settings.PREDECODED_EXECUTION_ENABLED, predecodedExecution);
+            Globals.getSettings().setBooleanSettingNonPersistent(Settings.BLOCK_EXECUTION_ENABLED, blockExecution);
             File mainFile = new File((String) filenameList.get(0)).getAbsoluteFile();// First file is "main" file
             ArrayList filesToAssemble;
             if (assembleProject) { 
@@ -509,13 +789,74 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             if (simulate) {
                // store program args (if any) in MIPS memory
                new ProgramArgumentList(programArgumentList).storeProgramArguments();
+               if (restoreFile != null && !restoreCheckpoint()) {
+                  return programRan;
+               }
+               int forkAddress = 0;
+               if (forkPoint != null && !forkPoint.equals(FORK_AT_INPUT)) {
+                  forkAddress = code.getLocalSymbolTable().getAddressLocalOrGlobal(forkPoint);
+                  if (forkAddress == SymbolTable.NOT_FOUND) {
+                     out.println("Fork point "+forkPoint+" is not a label in the program.");
+                     return programRan;
+                  }
+               }
+               int backAddress = 0;
+               if (backTo != null && !isBackStepCount(backTo)) {
+                  backAddress = code.getLocalSymbolTable().getAddressLocalOrGlobal(backTo);
+                  if (backAddress == SymbolTable.NOT_FOUND) {
+                     out.println("Back point "+backTo+" is not a label in the program.");
+                     return programRan;
+                  }
+               }
             	// establish observer if specified  
                establishObserver();
                if (Globals.debug) {
                   out.println("--------  SIMULATION BEGINS  -----------");
                }
                programRan = true;
-               boolean done = code.simulate(maxSteps);
+               if (forkPoint != null) {
+                  // Breakpoints are checked after an instruction executes, so a fork
+                  // point at the first instruction is handled here.
+                  long start = MachineContext.current().getInstructionCount();
+                  boolean atForkPoint = !forkPoint.equals(FORK_AT_INPUT) && RegisterFile.getProgramCounter() == forkAddress;
+                  boolean done = false;
+                  if (!atForkPoint) {
+                     done = (forkPoint.equals(FORK_AT_INPUT)) 
+                            ? code.simulateUntilInput(maxSteps) 
+                            : code.simulateFromPC(new int[] {forkAddress}, maxSteps, null);
+                  }
+                  if (done) {
+                     out.println("Program terminated before reaching fork point "+forkPoint+"; no forks were run.");
+                     return programRan;
+                  }
+                  int forkSteps = maxSteps;
+                  if (maxSteps > 0) {
+                     forkSteps = maxSteps - (int) (MachineContext.current().getInstructionCount() - start);
+                     if (forkSteps <= 0) {
+                        out.println("\nProgram terminated when maximum step limit "+maxSteps+" reached before fork point "+forkPoint+"; no forks were run.");
+                        return programRan;
+                     }
+                  }
+                  simulateForks(forkSteps);
+                  return false; // each fork has displayed its own results
+               }
+               boolean done;
+               if (backTo != null) {
+                  done = simulateAndGoBack(backAddress);
+               } 
+               else if (checkpointFile != null && (maxSteps <= 0 || checkpointSteps < maxSteps)) {
+                  done = code.simulate(checkpointSteps);
+                  if (done) {
+                     out.println("Program terminated before checkpoint at "+checkpointSteps+" steps; no checkpoint saved.");
+                  } 
+                  else {
+                     saveCheckpoint();
+                     done = code.simulate((maxSteps <= 0) ? maxSteps : maxSteps - checkpointSteps);
+                  }
+               } 
+               else {
+                  done = code.simulate(maxSteps);
+               }
                if (!done) {
                   out.println("\nProgram terminated when maximum step limit "+maxSteps+" reached.");
                }
@@ -525,7 +866,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             }
          }
             catch (ProcessingException e) {
-               Globals.exitCode = (programRan) ? simulateErrorExitCode : assembleErrorExitCode;
+               MachineContext.current().setExitCode((programRan) ? simulateErrorExitCode : assembleErrorExitCode);
                out.println(e.errors().generateErrorAndWarningReport());
                out.println("Processing terminated due to errors.");
             } 
@@ -533,6 +874,239 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    
    
+   	//////////////////////////////////////////////////////////////////////
+   	// Fork the machine, which is stopped at the fork point, once for each 
+   	// input file, and run the forks in parallel.  Then display each fork's
+   	// output and post-mortem in turn.  The MARS exit code is that of the
+   	// first fork to have a non-zero one.  Each fork may execute up to the
+   	// given number of steps, 0 or less meaning no maximum.  See "fork" option.
+   	
+      private void simulateForks(final int forkSteps) {
+         MachineContext parent = MachineContext.current();
+         int count = forkInputFiles.length;
+         MachineContext[] forks = new MachineContext[count];
+         ByteArrayOutputStream[] outputs = new ByteArrayOutputStream[count];
+         Future[] results = new Future[count];
+         ExecutorService pool = Executors.newFixedThreadPool(Math.min(count, Runtime.getRuntime().availableProcessors()));
+         // A fork that cannot be started is reported with the others, once the
+         // forks already running have finished.
+         for (int i=0; i<count; i++) {
+            outputs[i] = new ByteArrayOutputStream();
+            PrintStream forkOut = new PrintStream(outputs[i], true);
+            InputStream opened = null;
+            try {
+               final MachineContext fork = parent.fork();
+               final InputStream input = opened = new FileInputStream(forkInputFiles[i]);
+               fork.setStandardStreams(input, forkOut, forkOut);
+               results[i] = pool.submit(
+                     new Callable() {
+                        public Object call() throws ProcessingException, IOException {
+                           MachineContext.setCurrent(fork);
+                           try {
+                              return Boolean.valueOf(code.simulate(forkSteps));
+                           } 
+                           finally {
+                              MachineContext.setCurrent(null);
+                              input.close();
+                           }
+                        }
+                     });
+               forks[i] = fork;
+            } 
+               catch (IOException e) {
+                  forkOut.println("Fork could not be started: "+e.getMessage());
+               }
+               catch (RuntimeException e) {
+                  forkOut.println("Fork could not be started: "+e);
+               }
+            finally {
+               if (results[i] == null && opened != null) {
+                  try {
+                     opened.close();
+                  } 
+                     catch (IOException e) {
+                     }
+               }
+            }
+         }
+         pool.shutdown();
+         try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+         } 
+            catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+            }
+         int exitCode = 0;
+         for (int i=0; i<count; i++) {
+            boolean ran = false;
+            String report = "";
+            if (results[i] != null) {
+               MachineContext.setCurrent(forks[i]);
+               try {
+                  ran = true;
+                  if (!((Boolean) results[i].get()).booleanValue()) {
+                     report = "\nProgram terminated when maximum step limit "+maxSteps+" reached.\n";
+                  }
+               } 
+                  catch (ExecutionException e) {
+                     if (e.getCause() instanceof ProcessingException) {
+                        forks[i].setExitCode(simulateErrorExitCode);
+                        report = ((ProcessingException) e.getCause()).errors().generateErrorAndWarningReport()
+                                 + "\nProcessing terminated due to errors.\n";
+                     } 
+                     else {
+                        report = "Fork failed: "+e.getCause()+"\n";
+                        ran = false;
+                     }
+                  }
+                  catch (InterruptedException e) {
+                     ran = false;
+                  }
+            }
+            int forkExitCode = (forks[i] == null) ? 1 : forks[i].getExitCode();
+            if (exitCode == 0) {
+               exitCode = forkExitCode;
+            }
+            out.println("--- fork "+(i+1)+": "+forkInputFiles[i]+" (exit code "+forkExitCode+") ---");
+            out.print(outputs[i].toString());
+            out.print(report);
+            if (ran) {
+               displayRegistersPostMortem();
+               displayMemoryPostMortem();
+            }
+            MachineContext.setCurrent(parent.isDefault() ? null : parent);
+         }
+         parent.setExitCode(exitCode);
+      }
+   
+   	//////////////////////////////////////////////////////////////////////
+   	// Run the program, recording its execution, then take it back the number
+   	// of instructions given, or to the last time it reached the label at the
+   	// given address, so the results displayed are those of that point.  An
+   	// error ending the run is reported first.  Returns true if the program
+   	// terminated.  See "back" option.
+   	
+      private boolean simulateAndGoBack(int backAddress) throws ProcessingException {
+         ReverseDebugger debugger;
+         try {
+            debugger = new ReverseDebugger(code);
+         } 
+            catch (IOException e) {
+               out.println("Cannot record execution to go back: "+e.getMessage());
+               return code.simulate(maxSteps);
+            }
+         boolean done = true;
+         try {
+            done = debugger.run(maxSteps, null);
+         } 
+            catch (ProcessingException e) {
+               MachineContext.current().setExitCode(simulateErrorExitCode);
+               out.println(e.errors().generateErrorAndWarningReport());
+               out.println("Processing terminated due to errors.");
+            } 
+            catch (IOException e) {
+               out.println("Error while recording execution: "+e.getMessage());
+            }
+         try {
+            long end = debugger.getInstructionCount();
+            if (isBackStepCount(backTo)) {
+               debugger.stepBack(Long.decode(backTo).longValue());
+            } 
+            else if (!debugger.reverseContinue(new int[] {backAddress})) {
+               out.println("\nExecution did not reach "+backTo+"; went back to the start.");
+            }
+            out.println("\nWent back to "+debugger.getInstructionCount()+" of "+end+" instructions executed.");
+         } 
+            catch (IOException e) {
+               out.println("Error while going back: "+e.getMessage());
+            } 
+         finally {
+            debugger.close();
+         }
+         return done;
+      }
+   
+      // Whether the argument of the "back" option is a step count rather than a label.
+      private static boolean isBackStepCount(String arg) {
+         try {
+            return Long.decode(arg).longValue() >= 0;
+         } 
+            catch (NumberFormatException nfe) {
+               return false;
+            }
+      }
+   
+   	//////////////////////////////////////////////////////////////////////
+   	// Write the execution profile report and the folded call stacks, finish the
+   	// trace, and display the cache and branch prediction results.  See "profile",
+   	// "flame", "trace", "cache" and "branch" options.
+   	
+      private void writeProfile() {
+         if (profileFile != null) {
+            try {
+               PrintStream report = new PrintStream(new BufferedOutputStream(new FileOutputStream(profileFile)));
+               profile.writeReport(report, profileFormat, Memory.getInstance());
+               report.close();
+            } 
+               catch (IOException e) {
+                  out.println("Error while attempting to write profile "+profileFile+": "+e.getMessage());
+               }
+         }
+         if (flameFile != null) {
+            try {
+               PrintStream stacks = new PrintStream(new BufferedOutputStream(new FileOutputStream(flameFile)));
+               callGraph.writeFoldedStacks(stacks);
+               stacks.close();
+            } 
+               catch (IOException e) {
+                  out.println("Error while attempting to write call stacks "+flameFile+": "+e.getMessage());
+               }
+         }
+         MachineContext.current().setTracer(null);
+         if (trace != null) {
+            try {
+               trace.close();
+            } 
+               catch (IOException e) {
+                  out.println("Error while attempting to write trace "+traceFile+": "+e.getMessage());
+               }
+         }
+         if (cacheSweep != null) {
+            cacheSweep.finish();
+            cacheSweep.writeReport(out);
+         }
+         if (branchProfile != null) {
+            branchProfile.writeReport(out, Memory.getInstance());
+         }
+      }
+   
+   	//////////////////////////////////////////////////////////////////////
+   	// Save machine state to the checkpoint file.  See "checkpoint" option.
+   	
+      private void saveCheckpoint() {
+         try {
+            Checkpoint.save(new File(checkpointFile));
+         } 
+            catch (IOException e) {
+               out.println("Error while attempting to save checkpoint "+checkpointFile+": "+e.getMessage());
+            }
+      }
+   
+   	//////////////////////////////////////////////////////////////////////
+   	// Restore machine state from the restore file.  See "restore" option.
+   	// Returns true if successful, false otherwise.
+   	
+      private boolean restoreCheckpoint() {
+         try {
+            Checkpoint.restore(new File(restoreFile));
+            return true;
+         } 
+            catch (IOException e) {
+               out.println("Error while attempting to restore checkpoint "+restoreFile+": "+e.getMessage());
+               return false;
+            }
+      }
+   
    	//////////////////////////////////////////////////////////////////////
       // Check for memory address subrange.  Has to be two integers separated
       // by "-"; no embedded spaces.  e.g. 0x00400000-0x00400010
@@ -559,36 +1133,32 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    
       /////////////////////////////////////////////////////////////////
-   	// Required for counting instructions executed, if that option is specified.
-   	// DPS 19 July 2012
+   	// Required for counting instructions executed, if that option is specified,
+   	// and for the profile, flame, trace, cache and branch options.  The simulator counts the
+   	// executions of each instruction itself.  DPS 19 July 2012
       private void establishObserver() { 
-         if (countInstructions) {
-            Observer instructionCounter = 
-               new Observer() {
-                  private int lastAddress = 0;
-                  public void update(Observable o, Object obj) { 
-                     if (obj instanceof AccessNotice) {
-                        AccessNotice notice = (AccessNotice) obj;
-                        if (!notice.accessIsFromMIPS()) 
-                           return;
-                        if (notice.getAccessType() != AccessNotice.READ) 
-                           return;
-                        MemoryAccessNotice m = (MemoryAccessNotice) notice;
-                        int a = m.getAddress();
-                        if (a == lastAddress) 
-                           return;
-                        lastAddress = a;
-                        instructionCount++;				  
-                     }
-                  }
-               };
+         profile = (countInstructions || profileFile != null) ? new ExecutionProfile() : null;
+         MachineContext.current().setExecutionProfile(profile);
+         callGraph = (flameFile != null) ? new CallGraphProfile() : null;
+         MachineContext.current().setCallGraphProfile(callGraph);
+         branchProfile = (branchDescriptions != null) ? new BranchProfile(BranchPredictor.parse(branchDescriptions)) : null;
+         MachineContext.current().setBranchProfile(branchProfile);
+         trace = null;
+         if (traceFile != null) {
             try {
-               Globals.memory.addObserver(instructionCounter, Memory.textBaseAddress, Memory.textLimitAddress);
+               trace = new TraceWriter(new File(traceFile), compressTrace);
             } 
-               catch (AddressErrorException aee) {
-                  out.println("Internal error: MarsLaunch uses incorrect text segment address for instruction observer");
+               catch (IOException e) {
+                  out.println("Error while attempting to write trace "+traceFile+": "+e.getMessage());
                }
-         }		
+         }
+         cacheSweep = (cacheDescriptions != null) ? new CacheSweep(CacheHierarchy.parse(cacheDescriptions)) : null;
+         if (trace != null && cacheSweep != null) {
+            MachineContext.current().setTracer(new Tracer.Pair(trace, cacheSweep));
+         } 
+         else {
+            MachineContext.current().setTracer((trace != null) ? (Tracer) trace : cacheSweep);
+         }
       }
    	     		   	
    	//////////////////////////////////////////////////////////////////////
@@ -596,7 +1166,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	// DPS 19 July 2012  	
       private void displayMiscellaneousPostMortem() {
          if (countInstructions) {
-            out.println("\n"+instructionCount);
+            out.println("\n"+profile.getTotal(Memory.textBaseAddress, Memory.textLimitAddress));
          }
       }
    
@@ -722,11 +1292,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                try {
                   // Allow display of binary text segment (machine code) DPS 14-July-2008
                   if (Memory.inTextSegment(addr) || Memory.inKernelTextSegment(addr)) {
-                     Integer iValue = Globals.memory.getRawWordOrNull(addr);
+                     Integer iValue = Memory.getInstance().getRawWordOrNull(addr);
                      value = (iValue==null) ? 0 : iValue.intValue();
                   } 
                   else {
-                     value = Globals.memory.getWord(addr);
+                     value = Memory.getInstance().getWord(addr);
                   }
                   out.print( formatIntForDisplay(value)+"\t");
                }
@@ -746,7 +1316,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private void processDisplayMessagesToErrSwitch(String[] args, String displayMessagesToErrSwitch) {
          for (int i=0; i<args.length; i++) {
             if (args[i].toLowerCase().equals(displayMessagesToErrSwitch)) {
-               out = System.err;
+               out = MachineContext.current().getStandardError();
                return;
             }
          }
@@ -792,7 +1362,23 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          out.println("  ae<n>  -- terminate MARS with integer exit code <n> if an assemble error occurs.");
          out.println("  ascii  -- display memory or register contents interpreted as ASCII codes.");
          out.println("      b  -- brief - do not display register/memory address along with contents");
+         out.println("   back <n>|<label>  -- after the run, go back n instructions, or back to the");
+         out.println("            last time execution reached the label, before displaying results.");
+         out.println("     bb  -- Basic block execution - as pd, also executing hot basic blocks as a unit");
+         out.println(" branch <predictors>  -- after the run, display the accuracy of each branch predictor");
+         out.println("            described, in total and for each branch, such as bimodal:4K,gshare:4K:12,");
+         out.println("            tournament:4K:12,btb:512.  See BranchPredictor for the full description.");
+         out.println("  cache <caches>  -- after the run, display the accesses and misses of each cache of each");
+         out.println("            cache hierarchy described, such as L1I:4K:1:16+L1D:4K:2:16+L2:64K:8:32:wt.");
+         out.println("            Size, ways and block size may be ranges such as 1K..64K, to compare many");
+         out.println("            caches in one run.  See CacheHierarchy for the full description.");
+         out.println("checkpoint <file> at <n> -- save the complete machine state to the file after");
+         out.println("            <n> steps, then continue.  Use with restore to resume from there.");
          out.println("      d  -- display MARS debugging statements");
+         out.println(" daemon [port]  -- run as a daemon, reading one job per line.  Each job has the");
+         out.println("            options of a MARS command and runs with fresh machine state.  Jobs");
+         out.println("            are read from standard input, or from connections to the given");
+         out.println("            loopback port.  Must be the first option.");
          out.println("     db  -- MIPS delayed branching is enabled");
          out.println("    dec  -- display memory or register contents in decimal.");
          out.println("   dump <segment> <format> <file> -- memory dump of specified memory segment");
@@ -801,22 +1387,40 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          out.println("            Segment and format are case-sensitive and possible values are:");
          out.println("            <segment> = "+segments);
          out.println("            <format> = "+formats);
+         out.println("  flame <file>  -- after the run, write the call stacks, with the instructions executed");
+         out.println("            in each, to the file in the folded stacks format read by flame graph tools.");
+         out.println("   fork <point> <file>,<file>...  -- run the program to <point>, which is a label,");
+         out.println("            or \"input\" for the first syscall reading standard input.  Then fork");
+         out.println("            it to continue once with each file as standard input, in parallel,");
+         out.println("            and display the output and results of each fork in turn.");
          out.println("      h  -- display this help.  Use by itself with no filename.");
          out.println("    hex  -- display memory or register contents in hexadecimal (default)");
          out.println("     ic  -- display count of MIPS basic instructions 'executed'");
          out.println("     mc <config>  -- set memory configuration.  Argument <config> is");
          out.println("            case-sensitive and possible values are: Default for the default");
          out.println("            32-bit address space, CompactDataAtZero for a 32KB memory with");
-         out.println("            data segment at address 0, or CompactTextAtZero for a 32KB");
-         out.println("            memory with text segment at address 0.");
+         out.println("            data segment at address 0, CompactTextAtZero for a 32KB memory");
+         out.println("            with text segment at address 0, Large for the default address");
+         out.println("            space with 768MB of data and heap held off the Java heap, or");
+         out.println("            LargeMapped for the same held in a memory-mapped file.");
          out.println("     me  -- display MARS messages to standard err instead of standard out. ");
          out.println("            Can separate messages from program output using redirection");
+         out.println("     mi <file>  -- memory image file for the LargeMapped configuration.  After");
+         out.println("            the run, the byte at offset n of the file is the byte at address n.");
          out.println("     nc  -- do not display copyright notice (for cleaner redirected/piped output).");
          out.println("     np  -- use of pseudo instructions and formats not permitted");
          out.println("      p  -- Project mode - assemble all files in the same directory as given file.");
+         out.println("     pd  -- Predecoded execution - simulate using the predecoded instruction cache");
+         out.println("profile <format> <file>  -- after the run, write the execution count of each");
+         out.println("            instruction, with its source line, and totals by source line and by");
+         out.println("            mnemonic, to the file.  <format> is CSV or JSON.");
+         out.println("restore <file>  -- after assembling, restore the machine state saved by the");
+         out.println("            checkpoint option and continue simulation from there.");
          out.println("  se<n>  -- terminate MARS with integer exit code <n> if a simulation (run) error occurs.");
          out.println("     sm  -- start execution at statement with global label main, if defined");
          out.println("    smc  -- Self Modifying Code - Program can write and branch to either text or data segment");
+         out.println("  trace <file>  -- write the address of each instruction executed, and of each load and");
+         out.println("            store, to the file in a compact binary format.  tracez also compresses it.");
          out.println("    <n>  -- where <n> is an integer maximum count of steps to simulate.");
          out.println("            If 0, negative or not specified, there is no maximum.");
          out.println(" $<reg>  -- where <reg> is number or name (e.g. 5, t3, f10) of register whose ");
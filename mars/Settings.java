@@ -1,6 +1,7 @@
    package mars;
    import mars.*;
    import mars.util.*;
+   import mars.simulator.*;
    import mars.venus.editors.jeditsyntax.*;
    import java.io.*;
    import java.util.*;
@@ -112,6 +113,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     /** Flag to determine whether a program can write binary code to the text or data segment and
         execute that code.  */
       public static final int SELF_MODIFYING_CODE_ENABLED = 20;	
+    /** Flag to determine whether the simulator fetches instructions through the predecoded
+        execution cache instead of decoding each statement from memory as it executes. */
+      public static final int PREDECODED_EXECUTION_ENABLED = 21;
+    /** Flag to determine whether the simulator, when using the predecoded execution cache,
+        executes frequently reached basic blocks as a unit. */
+      public static final int BLOCK_EXECUTION_ENABLED = 22;
    
       // NOTE: key sequence must match up with labels above which are used for array indexes!
       private static String[] booleanSettingsKeys = {"ExtendedAssembler", "BareMachine", "AssembleOnOpen", "AssembleAll",
@@ -120,7 +127,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          												"WarningsAreErrors", "ProgramArguments", "DataSegmentHighlighting",
          												"RegistersHighlighting", "StartAtMain", "EditorCurrentLineHighlighting",
          												"PopupInstructionGuidance", "PopupSyscallInput", "GenericTextEditor", 
-         												"AutoIndent", "SelfModifyingCode" };
+         												"AutoIndent", "SelfModifyingCode", "PredecodedExecution",
+         												"BlockExecution" };
    
       /** Last resort default values for boolean settings; will use only  if neither
    	 *  the Preferences nor the properties file work. If you wish to change them, 
@@ -129,7 +137,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 */
       public static boolean[] defaultBooleanSettingsValues = { // match the above list by position
                                               true, false, false, false, false, true, true, false, false, 
-         												 true, false, false, true, true, false, true, true, false, false, true, false };
+         												 true, false, false, true, true, false, true, true, false, false, true, false, false, false };
    
       // STRING SETTINGS.  Each array position has associated name.
    	/** Current specified exception handler file (a MIPS assembly source file) */
@@ -146,15 +154,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       public static final int EDITOR_TAB_SIZE = 5;
    	/** Number of letters to be matched by editor's instruction guide before popup generated (if popup enabled) */
       public static final int EDITOR_POPUP_PREFIX_LENGTH = 6;
+   	/** What MIPS execution does when a tool receiving accesses asynchronously falls behind: Block, Drop or Sample */
+      public static final int TOOL_EVENT_POLICY = 7;
    	// Match the above by position.
-      private static final String[] stringSettingsKeys = { "ExceptionHandler", "TextColumnOrder", "LabelSortState", "MemoryConfiguration", "CaretBlinkRate", "EditorTabSize", "EditorPopupPrefixLength" };
+      private static final String[] stringSettingsKeys = { "ExceptionHandler", "TextColumnOrder", "LabelSortState", "MemoryConfiguration", "CaretBlinkRate", "EditorTabSize", "EditorPopupPrefixLength", "ToolEventPolicy" };
    
       /** Last resort default values for String settings; 
    	 *  will use only if neither the Preferences nor the properties file work.
    	 *  If you wish to change, do so before instantiating the Settings object.
    	 *  Must match key by list position.
    	 */
-      private static String[] defaultStringSettingsValues = { "", "0 1 2 3 4", "0", "", "500", "8", "2" }; 
+      private static String[] defaultStringSettingsValues = { "", "0 1 2 3 4", "0", "", "500", "8", "2", "Block" }; 
    
    
       // FONT SETTINGS.  Each array position has associated name.
@@ -305,7 +315,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      * @return true if backstepping is permitted, false otherwise.
      */
        public boolean getBackSteppingEnabled() {
-         return (Globals.program!=null && Globals.program.getBackStepper()!=null && Globals.program.getBackStepper().enabled());
+         BackStepper backStepper = MachineContext.current().getBackStepper();
+         return (backStepper!=null && backStepper.enabled());
       }
    
    
@@ -729,6 +740,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    
    	
+   	/**
+   	 * Get the policy applied when a tool receiving accesses asynchronously falls behind.
+   	 * @return Block, Drop or Sample
+   	 */
+       public String getToolEventPolicy() {
+         return stringSettingsValues[TOOL_EVENT_POLICY];
+      }
+   
    	/**
    	 * Get the text editor default tab size in characters
    	 * @return tab size in characters
@@ -993,6 +1012,30 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new IllegalArgumentException("Invalid boolean setting ID");
          } 
       }
+   
+      /**
+   	 * Get a copy of all the boolean settings, for example to reestablish them later
+   	 * with setBooleanSettingsNonPersistent().
+   	 * @return boolean setting values, indexed by setting identifier.
+   	 */
+       public boolean[] getBooleanSettings() {
+         return booleanSettingsValues.clone();
+      }
+   
+      /**
+   	 * Temporarily establish all the boolean settings, such as those returned earlier by
+   	 * getBooleanSettings().  These settings will NOT be written to persisent store!  
+   	 * Currently this is used only when running MARS as a daemon.
+   	 * @param values boolean setting values, indexed by setting identifier.
+   	 */
+       public void setBooleanSettingsNonPersistent(boolean[] values) {
+         if (values.length == booleanSettingsValues.length) {
+            System.arraycopy(values, 0, booleanSettingsValues, 0, values.length);
+         } 
+         else {
+            throw new IllegalArgumentException("Invalid boolean settings");
+         } 
+      }
     
    	
       /**
@@ -1056,6 +1099,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          setStringSetting(EDITOR_POPUP_PREFIX_LENGTH, ""+length);
       }
    
+   	/**
+   	 * Set the policy applied when a tool receiving accesses asynchronously falls behind.
+   	 * @param policy one of the names in mars.tools.AccessEventRing.POLICY_NAMES
+   	 */
+       public void setToolEventPolicy(String policy) {
+         setStringSetting(TOOL_EVENT_POLICY, policy);
+      }
+   
    	/**
    	 * Set editor font to the specified Font object and write it to persistent storage.
    	 * This method retained for compatibility but replaced by: 
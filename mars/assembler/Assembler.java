@@ -7,15 +7,18 @@
    import mars.ErrorList;
    import mars.ErrorMessage;
    import mars.Globals;
+   import mars.MachineContext;
    import mars.MIPSprogram;
    import mars.ProcessingException;
    import mars.ProgramStatement;
    import mars.mips.hardware.AddressErrorException;
    import mars.mips.hardware.Memory;
    import mars.mips.instructions.BasicInstruction;
+   import mars.mips.instructions.CompiledTemplate;
    import mars.mips.instructions.ExtendedInstruction;
    import mars.mips.instructions.Instruction;
    import mars.util.Binary;
+   import mars.util.ParallelLoop;
    import mars.util.SystemIO;
 
 /*
@@ -56,6 +59,8 @@
  **/
 
    public class Assembler {
+   // Number of statements translated by one task in the parallel parts of assembly.
+      private static final int STATEMENTS_PER_TASK = 256;
       private ArrayList machineList;
       private ErrorList errors;
       private boolean inDataSegment; // status maintained by parser
@@ -191,8 +196,8 @@
          externAddress = Memory.externBaseAddress;
          currentFileDataSegmentForwardReferences = new DataSegmentForwardReferences();
          accumulatedDataSegmentForwardReferences = new DataSegmentForwardReferences();
-         Globals.symbolTable.clear();
-         Globals.memory.clear();
+         MachineContext.current().getSymbolTable().clear();
+         Memory.getInstance().clear();
          this.machineList = new ArrayList();
          this.errors = new ErrorList(); 
          if (Globals.debug)
@@ -269,7 +274,7 @@
       // Have processed all source files. Attempt to resolve any remaining forward label
       // references from global symbol table. Those that remain unresolved are undefined
       // and require error message.
-         accumulatedDataSegmentForwardReferences.resolve(Globals.symbolTable);
+         accumulatedDataSegmentForwardReferences.resolve(MachineContext.current().getSymbolTable());
          accumulatedDataSegmentForwardReferences.generateErrorMessages(errors);
       
       // Throw collection of errors accumulated through the first pass.
@@ -280,96 +285,52 @@
             System.out.println("Assembler second pass begins");
       // SECOND PASS OF ASSEMBLER GENERATES BASIC ASSEMBLER THEN MACHINE CODE.
       // Generates basic assembler statements...
+      // All symbols are known by now, so the statements of a file are translated
+      // independently, in parallel.  The results and errors are then combined in
+      // statement order, stopping at the same error a statement-by-statement loop
+      // would, so the outcome does not depend on the order they were done in.
          for (int fileIndex = 0; fileIndex < tokenizedProgramFiles.size(); fileIndex++) {
             if (errors.errorLimitExceeded())
                break;
             this.fileCurrentlyBeingAssembled = (MIPSprogram) tokenizedProgramFiles.get(fileIndex);
-            ArrayList parsedList = fileCurrentlyBeingAssembled.getParsedList();
-            ProgramStatement statement;
+            final MIPSprogram file = this.fileCurrentlyBeingAssembled;
+            final ArrayList parsedList = file.getParsedList();
+            final ErrorList[] basicErrors = new ErrorList[parsedList.size()];
+            final ArrayList[] expansions = new ArrayList[parsedList.size()];
+            final ErrorList[] expansionErrors = new ErrorList[parsedList.size()];
+            new ParallelLoop(STATEMENTS_PER_TASK) {
+                protected void iterate(int i) {
+                  ProgramStatement statement = (ProgramStatement) parsedList.get(i);
+                  ErrorList statementErrors = new ErrorList();
+                  statement.buildBasicStatementFromBasicInstruction(statementErrors);
+                  if (!statementErrors.getErrorMessages().isEmpty()) {
+                     basicErrors[i] = statementErrors;
+                     if (statementErrors.errorsOccurred()) {
+                        return; // assembly stops here
+                     }
+                     statementErrors = new ErrorList();
+                  }
+                  if (!(statement.getInstruction() instanceof BasicInstruction)) {
+                     expansions[i] = new ArrayList();
+                     expandPseudoInstruction(file, statement, statementErrors, expansions[i]);
+                     if (!statementErrors.getErrorMessages().isEmpty()) {
+                        expansionErrors[i] = statementErrors;
+                     }
+                  }
+               }
+            }.run(parsedList.size());
             for (int i = 0; i < parsedList.size(); i++) {
-               statement = (ProgramStatement) parsedList.get(i);
-               statement.buildBasicStatementFromBasicInstruction(errors);
+               addErrors(errors, basicErrors[i]);
                if (errors.errorsOccurred()) {
                   throw new ProcessingException(errors);
                }
-               if (statement.getInstruction() instanceof BasicInstruction) {
-                  this.machineList.add(statement);
+               if (expansions[i] == null) {
+                  this.machineList.add(parsedList.get(i));
                } 
                else {
-               // It is a pseudo-instruction:
-               // 1. Fetch its basic instruction template list
-               // 2. For each template in the list,
-               // 2a. substitute operands from source statement
-               // 2b. tokenize the statement generated by 2a.
-               // 2d. call parseLine() to generate basic instrction
-               // 2e. add returned programStatement to the list
-               // The templates, and the instructions generated by filling
-               // in the templates, are specified
-               // in basic format (e.g. mnemonic register reference $zero
-               // already translated to $0).
-               // So the values substituted into the templates need to be
-               // in this format. Since those
-               // values come from the original source statement, they need
-               // to be translated before
-               // substituting. The next method call will perform this
-               // translation on the original
-               // source statement. Despite the fact that the original
-               // statement is a pseudo
-               // instruction, this method performs the necessary
-               // translation correctly.
-                  ExtendedInstruction inst = (ExtendedInstruction) statement.getInstruction();
-                  String basicAssembly = statement.getBasicAssemblyStatement();
-                  int sourceLine = statement.getSourceLine();
-                  TokenList theTokenList = new Tokenizer().tokenizeLine(sourceLine,
-                     basicAssembly, errors, false);
-               
-               // ////////////////////////////////////////////////////////////////////////////
-               // If we are using compact memory config and there is a compact expansion, use it
-                  ArrayList templateList;
-                  if (compactTranslationCanBeApplied(statement)) {
-                     templateList = inst.getCompactBasicIntructionTemplateList();
-                  } 
-                  else {
-                     templateList = inst.getBasicIntructionTemplateList();
-                  }
-               
-               // subsequent ProgramStatement constructor needs the correct text segment address.
-                  textAddress.set(statement.getAddress());
-               // Will generate one basic instruction for each template in the list.
-                  for (int instrNumber = 0; instrNumber < templateList.size(); instrNumber++) {
-                     String instruction = ExtendedInstruction.makeTemplateSubstitutions(
-                        this.fileCurrentlyBeingAssembled,
-                        (String) templateList.get(instrNumber), theTokenList);
-                  // 23 Jan 2008 by DPS. Template substitution may result in no instruction.
-                  // If this is the case, skip remainder of loop iteration. This should only
-                  // happen if template substitution was for "nop" instruction but delayed branching
-                  // is disabled so the "nop" is not generated.
-                     if (instruction == null || instruction == "") {
-                        continue;
-                     }
-                  
-                  // All substitutions have been made so we have generated
-                  // a valid basic instruction!
-                     if (Globals.debug)
-                        System.out.println("PSEUDO generated: " + instruction);
-                  // For generated instruction: tokenize, build program
-                  // statement, add to list.
-                     TokenList newTokenList = new Tokenizer().tokenizeLine(sourceLine,
-                        instruction, errors,false);
-                     ArrayList instrMatches = this.matchInstruction(newTokenList.get(0));
-                     Instruction instr = OperandFormat.bestOperandMatch(newTokenList,
-                        instrMatches);
-                  // Only first generated instruction is linked to original source
-                     ProgramStatement ps = new ProgramStatement(
-                        this.fileCurrentlyBeingAssembled,
-                        (instrNumber == 0) ? statement.getSource() : "", newTokenList,
-                        newTokenList, instr, textAddress.get(), statement.getSourceLine());
-                     textAddress.increment(Instruction.INSTRUCTION_LENGTH);
-                     ps.buildBasicStatementFromBasicInstruction(errors);
-                     this.machineList.add(ps);
-                  } // end of FOR loop, repeated for each template in list.
-               } // end of ELSE part for extended instruction.
-              	
+                  this.machineList.addAll(expansions[i]);
+                  addErrors(errors, expansionErrors[i]);
+               }
             } // end of assembler second pass.
          }
          if (Globals.debug)
@@ -377,16 +338,29 @@
       ///////////// THIRD MAJOR STEP IS PRODUCE MACHINE CODE FROM ASSEMBLY //////////
       // Generates machine code statements from the list of basic assembler statements
       // and writes the statement to memory.
+      // The statements are translated in parallel, then their errors combined and the
+      // statements written to memory in order.
+         final ArrayList machine = this.machineList;
+         final ErrorList[] machineErrors = new ErrorList[machine.size()];
+         new ParallelLoop(STATEMENTS_PER_TASK) {
+             protected void iterate(int i) {
+               ErrorList statementErrors = new ErrorList();
+               ((ProgramStatement) machine.get(i)).buildMachineStatementFromBasicStatement(statementErrors);
+               if (!statementErrors.getErrorMessages().isEmpty()) {
+                  machineErrors[i] = statementErrors;
+               }
+            }
+         }.run(machine.size());
          ProgramStatement statement;
          for (int i = 0; i < this.machineList.size(); i++) {
             if (errors.errorLimitExceeded())
                break;
             statement = (ProgramStatement) this.machineList.get(i);
-            statement.buildMachineStatementFromBasicStatement(errors);
+            addErrors(errors, machineErrors[i]);
             if (Globals.debug)
                System.out.println(statement);
             try {
-               Globals.memory.setStatement(statement.getAddress(), statement);
+               Memory.getInstance().setStatement(statement.getAddress(), statement);
             } 
                catch (AddressErrorException e) {
                   Token t = statement.getOriginalTokenList().get(0);
@@ -415,6 +389,117 @@
          return this.machineList;
       } // assemble()
    
+   // //////////////////////////////////////////////////////////////////////
+   // Translate a pseudo-instruction statement, from the second pass, into the basic
+   // instructions of its template, adding them to the expansion list.  Uses only its
+   // arguments and things not changed after the first pass, so statements can be
+   // translated in parallel.
+      private void expandPseudoInstruction(MIPSprogram file, ProgramStatement statement,
+       	ErrorList errors, ArrayList expansion) {
+      // It is a pseudo-instruction:
+      // 1. Fetch its basic instruction template list
+      // 2. For each template in the list,
+      // 2a. fill in the compiled template from the source statement's
+      // operands, or if it has none,
+      // substitute operands from source statement
+      // 2b. and tokenize the statement generated by 2a.
+      // 2d. call parseLine() to generate basic instrction
+      // 2e. add returned programStatement to the list
+      // The templates, and the instructions generated by filling
+      // in the templates, are specified
+      // in basic format (e.g. mnemonic register reference $zero
+      // already translated to $0).
+      // So the values substituted into the templates need to be
+      // in this format. Since those
+      // values come from the original source statement, they need
+      // to be translated before
+      // substituting. The next method call will perform this
+      // translation on the original
+      // source statement. Despite the fact that the original
+      // statement is a pseudo
+      // instruction, this method performs the necessary
+      // translation correctly.
+         ExtendedInstruction inst = (ExtendedInstruction) statement.getInstruction();
+         String basicAssembly = statement.getBasicAssemblyStatement();
+         int sourceLine = statement.getSourceLine();
+         TokenList theTokenList = new Tokenizer().tokenizeLine(sourceLine,
+            basicAssembly, errors, false);
+      
+      // ////////////////////////////////////////////////////////////////////////////
+      // If we are using compact memory config and there is a compact expansion, use it
+         ArrayList templateList, compiledList;
+         if (compactTranslationCanBeApplied(statement)) {
+            templateList = inst.getCompactBasicIntructionTemplateList();
+            compiledList = inst.getCompactCompiledTemplateList();
+         } 
+         else {
+            templateList = inst.getBasicIntructionTemplateList();
+            compiledList = inst.getCompiledTemplateList();
+         }
+      
+      // subsequent ProgramStatement constructor needs the correct text segment address.
+         int address = statement.getAddress();
+      // Will generate one basic instruction for each template in the list.
+         for (int instrNumber = 0; instrNumber < templateList.size(); instrNumber++) {
+            CompiledTemplate compiled = (compiledList == null) ? null
+               : (CompiledTemplate) compiledList.get(instrNumber);
+            TokenList newTokenList = (compiled == null) ? null
+               : compiled.fill(file, theTokenList, sourceLine);
+            ArrayList instrMatches;
+            if (newTokenList != null) {
+            // Compiled template filled in; its operator was looked up when compiled.
+            // An empty list is a "nop" omitted because delayed branching is disabled.
+               if (newTokenList.isEmpty()) {
+                  continue;
+               }
+               if (Globals.debug)
+                  System.out.println("PSEUDO generated: " + newTokenList);
+               instrMatches = compiled.getInstructionMatches();
+            } 
+            else {
+               String instruction = ExtendedInstruction.makeTemplateSubstitutions(
+                  file,
+                  (String) templateList.get(instrNumber), theTokenList);
+            // 23 Jan 2008 by DPS. Template substitution may result in no instruction.
+            // If this is the case, skip remainder of loop iteration. This should only
+            // happen if template substitution was for "nop" instruction but delayed branching
+            // is disabled so the "nop" is not generated.
+               if (instruction == null || instruction == "") {
+                  continue;
+               }
+            
+            // All substitutions have been made so we have generated
+            // a valid basic instruction!
+               if (Globals.debug)
+                  System.out.println("PSEUDO generated: " + instruction);
+            // For generated instruction: tokenize, build program
+            // statement, add to list.
+               newTokenList = new Tokenizer().tokenizeLine(sourceLine,
+                  instruction, errors,false);
+               instrMatches = this.matchInstruction(newTokenList.get(0), errors);
+            }
+            Instruction instr = OperandFormat.bestOperandMatch(newTokenList,
+               instrMatches);
+         // Only first generated instruction is linked to original source
+            ProgramStatement ps = new ProgramStatement(
+               file,
+               (instrNumber == 0) ? statement.getSource() : "", newTokenList,
+               newTokenList, instr, address, statement.getSourceLine());
+            address += Instruction.INSTRUCTION_LENGTH;
+            ps.buildBasicStatementFromBasicInstruction(errors);
+            expansion.add(ps);
+         } // end of FOR loop, repeated for each template in list.
+      } // expandPseudoInstruction()
+   
+   // Add the messages of one list, if any, to the end of another.
+      private static void addErrors(ErrorList errors, ErrorList more) {
+         if (more != null) {
+            for (int i = 0; i < more.getErrorMessages().size(); i++) {
+               errors.add((ErrorMessage) more.getErrorMessages().get(i));
+            }
+         }
+      }
+   
    // //////////////////////////////////////////////////////////////////////
    // Will check for duplicate text addresses, which can happen inadvertantly when using
    // operand on .text directive. Will generate error message for each one that occurs.
@@ -579,7 +664,7 @@
       // is not
       // yet implemented.
          if (!this.inDataSegment) {
-            ArrayList instrMatches = this.matchInstruction(token);
+            ArrayList instrMatches = this.matchInstruction(token, this.errors);
             if (instrMatches == null)
                return ret;
          // OK, we've got an operator match, let's check the operands.
@@ -622,7 +707,7 @@
    // alternate compact translation.
       private boolean compactTranslationCanBeApplied(ProgramStatement statement) {
          return (statement.getInstruction() instanceof ExtendedInstruction
-            && Globals.memory.usingCompactMemoryConfiguration() && ((ExtendedInstruction) statement
+            && Memory.getInstance().usingCompactMemoryConfiguration() && ((ExtendedInstruction) statement
             	.getInstruction()).hasCompactTranslation());
       }
    
@@ -849,8 +934,8 @@
             }
             int size = Binary.stringToInt(tokens.get(2).getValue());
          // If label already in global symtab, do nothing. If not, add it right now.
-            if (Globals.symbolTable.getAddress(tokens.get(1).getValue()) == SymbolTable.NOT_FOUND) {
-               Globals.symbolTable.addSymbol(tokens.get(1), this.externAddress,
+            if (MachineContext.current().getSymbolTable().getAddress(tokens.get(1).getValue()) == SymbolTable.NOT_FOUND) {
+               MachineContext.current().getSymbolTable().addSymbol(tokens.get(1), this.externAddress,
                   Symbol.DATA_SYMBOL, errors);
                this.externAddress += size;
             }
@@ -905,14 +990,14 @@
                   		+ "\" declared global label but not defined."));
             } 
             else {
-               if (Globals.symbolTable.getAddress(label.getValue()) != SymbolTable.NOT_FOUND) {
+               if (MachineContext.current().getSymbolTable().getAddress(label.getValue()) != SymbolTable.NOT_FOUND) {
                   errors.add(new ErrorMessage(fileCurrentlyBeingAssembled, label.getSourceLine(),
                      label.getStartPos(), "\"" + label.getValue()
                      		+ "\" already defined as global in a different file."));
                } 
                else {
                   fileCurrentlyBeingAssembled.getLocalSymbolTable().removeSymbol(label);
-                  Globals.symbolTable.addSymbol(label, symtabEntry.getAddress(),
+                  MachineContext.current().getSymbolTable().addSymbol(label, symtabEntry.getAddress(),
                      symtabEntry.getType(), errors);
                }
             }
@@ -940,22 +1025,22 @@
    // //////////////////////////////////////////////////////////////////////////////////
    // Given token, find the corresponding Instruction object. If token was not
    // recognized as OPERATOR, there is a problem.
-      private ArrayList matchInstruction(Token token) { 
+      private ArrayList matchInstruction(Token token, ErrorList errors) { 
          if (token.getType() != TokenTypes.OPERATOR) {
             if (token.getSourceMIPSprogram().getLocalMacroPool()
             	.matchesAnyMacroName(token.getValue()))
-               this.errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token
+               errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token
                   .getSourceLine(), token.getStartPos(), "forward reference or invalid parameters for macro \""
                   + token.getValue() + "\""));
             else
-               this.errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token
+               errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token
                   .getSourceLine(), token.getStartPos(), "\"" + token.getValue()
                   + "\" is not a recognized operator"));
             return null;
          }
          ArrayList inst = Globals.instructionSet.matchOperator(token.getValue());
          if (inst == null) { // This should NEVER happen...
-            this.errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token.getSourceLine(),
+            errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token.getSourceLine(),
                token.getStartPos(), "Internal Assembler error: \"" + token.getValue()
                		+ "\" tokenized OPERATOR then not recognized"));
          }
@@ -1034,7 +1119,7 @@
           * 
           * else { // not in data segment...which we assume to mean in text
           * segment. try { for (int i=0; i < repetitions; i++) {
-          * Globals.memory.set(this.textAddress.get(),
+          * Memory.getInstance().set(this.textAddress.get(),
           * Binary.stringToInt(valueToken.getValue()), lengthInBytes);
           * this.textAddress.increment(lengthInBytes); } } catch
           * (AddressErrorException e) { errors.add(new
@@ -1099,7 +1184,7 @@
             ********/
             else {
                try {
-                  Globals.memory.set(this.textAddress.get(), value, lengthInBytes);
+                  Memory.getInstance().set(this.textAddress.get(), value, lengthInBytes);
                } 
                   catch (AddressErrorException e) {
                      errors.add(new ErrorMessage(token.getSourceMIPSprogram(),
@@ -1242,7 +1327,7 @@
                      }
                   }
                   try {
-                     Globals.memory.set(this.dataAddress.get(), (int) theChar,
+                     Memory.getInstance().set(this.dataAddress.get(), (int) theChar,
                         DataTypes.CHAR_SIZE);
                   } 
                      catch (AddressErrorException e) {
@@ -1254,7 +1339,7 @@
                }
                if (direct == Directives.ASCIIZ) {
                   try {
-                     Globals.memory.set(this.dataAddress.get(), 0, DataTypes.CHAR_SIZE);
+                     Memory.getInstance().set(this.dataAddress.get(), 0, DataTypes.CHAR_SIZE);
                   } 
                      catch (AddressErrorException e) {
                         errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token
@@ -1290,7 +1375,7 @@
             this.dataAddress.set(this.alignToBoundary(this.dataAddress.get(), lengthInBytes));
          }
          try {
-            Globals.memory.set(this.dataAddress.get(), value, lengthInBytes);
+            Memory.getInstance().set(this.dataAddress.get(), value, lengthInBytes);
          } 
             catch (AddressErrorException e) {
                errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token.getSourceLine(), token
@@ -1314,7 +1399,7 @@
             this.dataAddress.set(this.alignToBoundary(this.dataAddress.get(), lengthInBytes));
          }
          try {
-            Globals.memory.setDouble(this.dataAddress.get(), value);
+            Memory.getInstance().setDouble(this.dataAddress.get(), value);
          } 
             catch (AddressErrorException e) {
                errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token.getSourceLine(), token
@@ -1474,7 +1559,7 @@
                if (labelAddress != SymbolTable.NOT_FOUND) {
                // patch address has to be valid b/c we already stored there...
                   try {
-                     Globals.memory.set(entry.patchAddress, labelAddress, entry.length);
+                     Memory.getInstance().set(entry.patchAddress, labelAddress, entry.length);
                   } 
                      catch (AddressErrorException aee) {
                      }
@@ -74,14 +74,48 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             return null;
          if (instrMatches.size() == 1)
             return (Instruction) instrMatches.get(0);
+         // Results are remembered by the instruction set, with the candidate list.
+         InstructionSet instructionSet = Globals.instructionSet;
+         String signature = operandSignature(tokenList);
+         Instruction match = instructionSet.getOperandMatch(instrMatches, signature);
+         if (match != null) {
+            // Same token types as an earlier statement, so the same format matches.
+            // Apply the operator-as-label retyping the full check would have done.
+            for (int i=1; i<match.getTokenList().size(); i++) {
+               Token candToken = tokenList.get(i);
+               if (match.getTokenList().get(i).getType() == TokenTypes.IDENTIFIER && candToken.getType() == TokenTypes.OPERATOR) {
+                  tokenList.set(i, new Token(TokenTypes.IDENTIFIER, candToken.getValue(), candToken.getSourceMIPSprogram(), candToken.getSourceLine(), candToken.getStartPos()));
+               }
+            }
+            return match;
+         }
          for (int i=0; i<instrMatches.size(); i++) {
             Instruction potentialMatch = (Instruction) instrMatches.get(i);
-            if (tokenOperandMatch(tokenList, potentialMatch, new ErrorList())) 
+            if (tokenOperandMatch(tokenList, potentialMatch, new ErrorList())) {
+               instructionSet.putOperandMatch(instrMatches, signature, potentialMatch);
                return potentialMatch;
+            }
          }
+         // No format matches; not cached so the client reports the mismatch as before.
          return (Instruction) instrMatches.get(0);
       }
    
+   // Everything operandTypeCheck looks at besides the instruction: the operand count and 
+   // types, whether an INTEGER_16U value also fits in a signed halfword, and the bare
+   // machine setting that rejects register names.
+       private static String operandSignature(TokenList cand) {
+         StringBuffer signature = new StringBuffer(Globals.getSettings().getBareMachineEnabled() ? "B" : "X");
+         for (int i=1; i<cand.size(); i++) {
+            Token candToken = cand.get(i);
+            signature.append(',').append(candToken.getType());
+            if (candToken.getType() == TokenTypes.INTEGER_16U && 
+                Binary.stringToInt(candToken.getValue()) <= DataTypes.MAX_HALF_VALUE) {
+               signature.append('+');
+            }
+         }
+         return signature.toString();
+      }
+   
    // Simply check to see if numbers of operands are correct and generate error message if not.
        private static boolean numOperandsCheck(TokenList cand, Instruction spec, ErrorList errors) {
          int numOperands = cand.size()-1;
@@ -40,6 +40,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private static String startLabel = "main";
       private String filename;
       private ArrayList table;
+      // Indexes over the same Symbol objects as table.  Names map to their Symbol;
+      // addresses (keyed as unsigned values so that ordering matches the address
+      // space) map to the list of symbols at that address, in definition order.
+      private HashMap symbolsByName;
+      private TreeMap symbolsByAddress;
+      private ArrayList dataSymbols;
+      private ArrayList textSymbols;
    	// Note -1 is legal 32 bit address (0xFFFFFFFF) but it is the high address in 
    	// kernel address space so highly unlikely that any symbol will have this as 
    	// its associated address!
@@ -52,7 +59,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 */
        public SymbolTable(String filename) {
          this.filename = filename;
-         this.table = new ArrayList();
+         this.clear();
       }    
    	/**
    	  *  Adds a Symbol object into the array of Symbols.
@@ -64,12 +71,15 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public void addSymbol(Token token, int address, boolean b, ErrorList errors) {
          String label = token.getValue();
-         if (getSymbol(label) != null) {
+         if (symbolsByName.containsKey(label)) {
             errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token.getSourceLine(),token.getStartPos(),"label \""+label+"\" already defined"));
          } 
          else {
             Symbol s= new Symbol(label, address, b);
             table.add(s);
+            symbolsByName.put(label, s);
+            addToAddressIndex(s);
+            (b ? dataSymbols : textSymbols).add(s);
             if (Globals.debug) System.out.println("The symbol " + label + " with address " + address + " has been added to the "+this.filename+" symbol table.");
          }
       }
@@ -84,12 +94,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public void removeSymbol(Token token) {
          String label = token.getValue();
-         for (int i=0; i < table.size(); i++) {
-            if (((Symbol)(table.get(i))).getName().equals(label)){
-               table.remove(i);
-               if (Globals.debug) System.out.println("The symbol " + label + " has been removed from the "+this.filename+" symbol table.");
-               break;
-            }
+         Symbol s = (Symbol) symbolsByName.remove(label);
+         if (s != null) {
+            table.remove(s);
+            removeFromAddressIndex(s);
+            (s.getType() ? dataSymbols : textSymbols).remove(s);
+            if (Globals.debug) System.out.println("The symbol " + label + " has been removed from the "+this.filename+" symbol table.");
          }
          return; 
       }
@@ -101,12 +111,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  *   @return The memory address of the label given, or NOT_FOUND if not found in symbol table.
    	  **/
        public int getAddress(String s){
-         for(int i=0; i < table.size(); i++){
-            if (((Symbol)(table.get(i))).getName().equals(s)){
-               return((Symbol) table.get(i)).getAddress();
-            }
-         }
-         return NOT_FOUND;
+         Symbol symbol = (Symbol) symbolsByName.get(s);
+         return (symbol == null) ? NOT_FOUND : symbol.getAddress();
       }
       
    	/**
@@ -118,7 +124,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/		
        public int getAddressLocalOrGlobal(String s) {
          int address = this.getAddress(s);
-         return (address==NOT_FOUND) ? Globals.symbolTable.getAddress(s) : address ;
+         return (address==NOT_FOUND) ? MachineContext.current().getSymbolTable().getAddress(s) : address ;
       }
    	
    	
@@ -129,12 +135,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        **/
        
        public Symbol getSymbol(String s){
-         for(int i=0; i < table.size(); i++){
-            if (((Symbol)(table.get(i))).getName().equals(s)){
-               return (Symbol) table.get(i);
-            }
-         }
-         return null;
+         return (Symbol) symbolsByName.get(s);
       }
    
       /**
@@ -151,12 +152,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
              catch (NumberFormatException e) {
                return null;
             }
-         for(int i=0; i < table.size(); i++){
-            if (((Symbol)(table.get(i))).getAddress() == address){
-               return (Symbol) table.get(i);
-            }
-         }
-         return null;
+         ArrayList symbols = (ArrayList) symbolsByAddress.get(addressKey(address));
+         return (symbols == null) ? null : (Symbol) symbols.get(0);
       }      
    
       /**
@@ -167,7 +164,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        **/
        public Symbol getSymbolGivenAddressLocalOrGlobal(String s){
          Symbol sym = this.getSymbolGivenAddress(s);
-         return (sym==null) ? Globals.symbolTable.getSymbolGivenAddress(s) : sym ;
+         return (sym==null) ? MachineContext.current().getSymbolTable().getSymbolGivenAddress(s) : sym ;
       }
    			  
    
@@ -178,13 +175,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
       
        public ArrayList getDataSymbols(){
-         ArrayList list= new ArrayList();
-         for(int i=0; i<table.size(); i++){
-            if(((Symbol)table.get(i)).getType()){
-               list.add(table.get(i));
-            }	
-         }
-         return list;
+         return new ArrayList(dataSymbols);
       }
       
    	
@@ -194,13 +185,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
       
        public ArrayList getTextSymbols(){
-         ArrayList list= new ArrayList();
-         for(int i=0; i<table.size(); i++){
-            if(!((Symbol)table.get(i)).getType()){
-               list.add(table.get(i));
-            }	
-         }
-         return list;
+         return new ArrayList(textSymbols);
       }		
    	
    	/**
@@ -209,12 +194,34 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
       
        public ArrayList getAllSymbols(){
-         ArrayList list= new ArrayList();
-         for(int i=0; i<table.size(); i++){
-            list.add(table.get(i));
+         return new ArrayList(table);
+      }	
+   
+   	/**
+   	  *  For obtaining Symbols ordered by address, taken from the address index
+   	  *  rather than sorted on each call.  Addresses are ordered as unsigned values,
+   	  *  so kernel symbols follow user symbols.  Symbols sharing an address appear
+   	  *  in the order they were defined.
+   	  *   @param text true to include text symbols.
+   	  *   @param data true to include data symbols.
+   	  *   @param descending true for descending address order, false for ascending.
+   	  *   @return An ArrayList of Symbol objects.
+   	  **/
+      
+       public ArrayList getSymbolsByAddress(boolean text, boolean data, boolean descending){
+         ArrayList list = new ArrayList();
+         Iterator addresses = ((descending) ? symbolsByAddress.descendingMap() : symbolsByAddress).values().iterator();
+         while (addresses.hasNext()) {
+            ArrayList symbols = (ArrayList) addresses.next();
+            for (int i=0; i<symbols.size(); i++) {
+               Symbol s = (Symbol) symbols.get(i);
+               if (s.getType() ? data : text) {
+                  list.add(s);
+               }
+            }
          }
          return list;
-      }	
+      }
    
    	 /**
    	   *  Get the count of entries currently in the table.
@@ -231,6 +238,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 
        public void clear(){
          table= new ArrayList();
+         symbolsByName = new HashMap();
+         symbolsByAddress = new TreeMap();
+         dataSymbols = new ArrayList();
+         textSymbols = new ArrayList();
       }
    	
    /**
@@ -243,14 +254,44 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     */
    
        public void fixSymbolTableAddress(int originalAddress, int replacementAddress) {
-         Symbol label = getSymbolGivenAddress(Integer.toString(originalAddress));
-         while (label != null) {
-            label.setAddress(replacementAddress);
-            label = getSymbolGivenAddress(Integer.toString(originalAddress));
+         ArrayList labels = (ArrayList) symbolsByAddress.remove(addressKey(originalAddress));
+         if (labels != null) {
+            for (int i=0; i<labels.size(); i++) {
+               Symbol label = (Symbol) labels.get(i);
+               label.setAddress(replacementAddress);
+               addToAddressIndex(label);
+            }
          }
          return;
       }
    
+      // Key for the address index.  Flipping the sign bit makes the natural Integer
+      // ordering agree with unsigned address ordering.
+       private static Integer addressKey(int address) {
+         return Integer.valueOf(address ^ 0x80000000);
+      }
+   
+       private void addToAddressIndex(Symbol s) {
+         Integer key = addressKey(s.getAddress());
+         ArrayList symbols = (ArrayList) symbolsByAddress.get(key);
+         if (symbols == null) {
+            symbols = new ArrayList(1);
+            symbolsByAddress.put(key, symbols);
+         }
+         symbols.add(s);
+      }
+   
+       private void removeFromAddressIndex(Symbol s) {
+         Integer key = addressKey(s.getAddress());
+         ArrayList symbols = (ArrayList) symbolsByAddress.get(key);
+         if (symbols != null) {
+            symbols.remove(s);
+            if (symbols.isEmpty()) {
+               symbolsByAddress.remove(key);
+            }
+         }
+      }
+   
      /**
       *  Fetches the text segment label (symbol) which, if declared global, indicates
    	*  the starting address for execution.
@@ -54,6 +54,14 @@ public abstract class AccessNotice {
 		accessType = type;
 		thread = Thread.currentThread();
 	}
+	// Used when Memory reuses a notice for another access by the same thread.
+	void setAccessType(int type) {
+	   if (type != READ && type != WRITE) {
+		   throw new IllegalArgumentException();
+		}
+		accessType = type;
+	}
+	
 	/** Get the access type: READ or WRITE.  
 	 * @return Access type, either AccessNotice.READ or AccessNotice.WRITE
 	 */
@@ -1,6 +1,9 @@
    package mars.mips.hardware;
    import mars.Globals;
+   import mars.MachineContext;
+   import mars.simulator.BackStepper;
    import java.util.*;
+   import java.io.*;
 
 /*
 Copyright (c) 2003-2009,  Pete Sanderson and Kenneth Vollmar
@@ -32,6 +35,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 
 /**
   *  Represents Coprocessor 0.  We will use only its interrupt/exception registers.
+  *  Each MachineContext has its own; the static methods operate on that of the
+  *  calling thread's current context.
   *   @author 	Pete Sanderson
   *   @version August 2005
   **/
@@ -49,19 +54,47 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 		// bit 1 (exception level) not set, bit 0 (interrupt enable) set.
 		public static final int DEFAULT_STATUS_VALUE = 0x0000FF11;
 		
-      private static Register [] registers = 
-          { new Register("$8 (vaddr)", 8, 0),  
-            new Register("$12 (status)", 12, DEFAULT_STATUS_VALUE),
-         	new Register("$13 (cause)", 13, 0),  
-         	new Register("$14 (epc)", 14, 0)
+      private static final int REGISTER_NUMBERS = 32;
+   
+   	// Register values and observation flags, indexed by register number.  The
+   	// Register objects below are views onto these; see Register.  Only the
+   	// registers listed are implemented; byNumber is null for the others.
+      private final int[] values = new int[REGISTER_NUMBERS];
+      private final Register.ObservedFlags observed = new Register.ObservedFlags(REGISTER_NUMBERS);
+      private final Register[] byNumber = new Register[REGISTER_NUMBERS];
+   
+      private Register [] registers = 
+          { register("$8 (vaddr)", VADDR, 0),  
+            register("$12 (status)", STATUS, DEFAULT_STATUS_VALUE),
+         	register("$13 (cause)", CAUSE, 0),  
+         	register("$14 (epc)", EPC, 0)
            };
         												  
+   	/**
+   	  *  Create coprocessor 0 with all registers at their reset values.  Used by
+   	  *  MachineContext; everything else should use the static methods.
+   	  **/
+       public Coprocessor0() {
+      }
+   
+      // Coprocessor 0 of the current MachineContext.
+       private static Coprocessor0 current() {
+         return MachineContext.current().getCoprocessor0();
+      }
+   	
+      // Create a register held in the values slot given by its number.
+       private Register register(String name, int number, int resetValue) {
+         Register register = new Register(name, number, resetValue, values, observed, number);
+         byNumber[number] = register;
+         return register;
+      }
    	 
    	/**
    	  *  Method for displaying the register values for debugging.
    	  **/	 
    		 
        public static void showRegisters(){
+         Register[] registers = current().registers;
          for (int i=0; i< registers.length; i++){
             System.out.println("Name: " + registers[i].getName());
             System.out.println("Number: " + registers[i].getNumber());
@@ -78,6 +111,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static int updateRegister(String n, int val){
+         Register[] registers = current().registers;
 		   int oldValue = 0;
          for (int i=0; i< registers.length; i++){
             if(("$"+registers[i].getNumber()).equals(n) || registers[i].getName().equals(n)) {
@@ -96,19 +130,25 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 		  *   @return old value in register prior to update
    	  **/
        public static int updateRegister(int num, int val){
-         int old = 0;
-         for (int i=0; i< registers.length; i++){
-            if(registers[i].getNumber()== num) {
-               old = (Globals.getSettings().getBackSteppingEnabled())
-                        ? Globals.program.getBackStepper().addCoprocessor0Restore(num,registers[i].setValue(val))
-                  		: registers[i].setValue(val);
-               break;
-            }
+         MachineContext context = MachineContext.current();
+         Coprocessor0 cop0 = context.getCoprocessor0();
+         if (num < 0 || num >= REGISTER_NUMBERS || cop0.byNumber[num] == null) {
+            return 0;
+         }
+         int old;
+         if (cop0.observed.isSet(num)) {
+            old = cop0.byNumber[num].setValue(val);
+         } 
+         else {
+            old = cop0.values[num];
+            cop0.values[num] = val;
+         }
+         BackStepper backStepper = context.getBackStepper();
+         if (backStepper != null && backStepper.enabled()) {
+            backStepper.addCoprocessor0Restore(num, old);
          }
          return old;
 			}
-
-      
       /**
    	  *  Returns the value of the register who's number is num.
    	  *   @param num The register number.
@@ -116,14 +156,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static int getValue(int num){
-         for (int i=0; i< registers.length; i++){
-            if(registers[i].getNumber()== num) {
-               return registers[i].getValue();
-            }
+         Coprocessor0 cop0 = current();
+         if (num < 0 || num >= REGISTER_NUMBERS) {
+            return 0;
          }
-         return 0;
+         return cop0.observed.isSet(num) ? cop0.byNumber[num].getValue() : cop0.values[num];
       }
-      		
       	/**
    		  *  For getting the number representation of the register.
    		  *   @param n The string formatted register name to look for.
@@ -131,6 +169,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    		  **/	
       		
        public static int getNumber(String n){
+         Register[] registers = current().registers;
          for (int i=0; i< registers.length; i++){
             if(("$"+registers[i].getNumber()).equals(n) || registers[i].getName().equals(n)) {
                return registers[i].getNumber();
@@ -145,7 +184,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static Register[] getRegisters(){
-         return registers;
+         return current().registers;
       }
 
       
@@ -158,6 +197,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static int getRegisterPosition(Register r){
+         Register[] registers = current().registers;
          for (int i=0; i< registers.length; i++){
             if(registers[i]==r) {
                return i;
@@ -173,6 +213,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static Register getRegister(String rname) {
+         Register[] registers = current().registers;
          for (int i=0; i< registers.length; i++){
             if(("$"+registers[i].getNumber()).equals(rname) || registers[i].getName().equals(rname)) {
                return registers[i];
@@ -187,6 +228,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static void resetRegisters(){
+         Register[] registers = current().registers;
          for(int i=0; i< registers.length; i++){
             registers[i].resetValue();
          }
@@ -197,6 +239,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  will add the given Observer to each one.  
    	 */
        public static void addRegistersObserver(Observer observer) {
+         Register[] registers = current().registers;
          for (int i=0; i<registers.length; i++) {
             registers[i].addObserver(observer);
          }
@@ -207,9 +250,31 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  will delete the given Observer from each one.  
    	 */
        public static void deleteRegistersObserver(Observer observer) {
+         Register[] registers = current().registers;
          for (int i=0; i<registers.length; i++) {
             registers[i].deleteObserver(observer);
          }
       }
-
+   	
+      /**
+   	 *  Write the values of all registers to a checkpoint.
+   	 *
+   	 *  @param out stream to write the checkpoint to
+   	 */
+       public void writeCheckpoint(DataOutputStream out) throws IOException {
+         for (int i=0; i<registers.length; i++) {
+            out.writeInt(registers[i].getValueNoNotify());
+         }
+      }
+   	
+      /**
+   	 *  Set the values of all registers from a checkpoint written by writeCheckpoint().
+   	 *
+   	 *  @param in stream to read the checkpoint from
+   	 */
+       public void readCheckpoint(DataInputStream in) throws IOException {
+         for (int i=0; i<registers.length; i++) {
+            registers[i].setValue(in.readInt());
+         }
+      }
    }
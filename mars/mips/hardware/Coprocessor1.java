@@ -1,7 +1,10 @@
    package mars.mips.hardware;
    import mars.util.*;
    import mars.Globals;
+   import mars.MachineContext;
+   import mars.simulator.BackStepper;
    import java.util.*;
+   import java.io.*;
 
 /*
 Copyright (c) 2003-2009,  Pete Sanderson and Kenneth Vollmar
@@ -32,7 +35,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
 /**
-  *  Represents Coprocessor 1, the Floating Point Unit (FPU)
+  *  Represents Coprocessor 1, the Floating Point Unit (FPU).  Each MachineContext
+  *  has its own; the static methods operate on that of the calling thread's current context.
   *   @author 	Pete Sanderson
   *   @version July 2005
   **/
@@ -48,33 +52,75 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 // storing into registers, and reassembled upon retrieval.
 
     public  class Coprocessor1 {
-      private static Register [] registers = 
-          { new Register("$f0", 0, 0),  new Register("$f1", 1, 0),
-         	new Register("$f2", 2, 0),  new Register("$f3", 3, 0),
-         	new Register("$f4", 4, 0),  new Register("$f5", 5, 0),
-         	new Register("$f6", 6, 0),  new Register("$f7", 7, 0),
-         	new Register("$f8", 8, 0),  new Register("$f9", 9, 0),
-         	new Register("$f10", 10, 0),new Register("$f11", 11, 0), 
-         	new Register("$f12", 12, 0),new Register("$f13", 13, 0),
-         	new Register("$f14", 14, 0),new Register("$f15", 15, 0),
-         	new Register("$f16", 16, 0),new Register("$f17", 17, 0),
-         	new Register("$f18", 18, 0),new Register("$f19", 19, 0),
-         	new Register("$f20", 20, 0),new Register("$f21", 21, 0),
-         	new Register("$f22", 22, 0),new Register("$f23", 23, 0),
-         	new Register("$f24", 24, 0),new Register("$f25", 25, 0),
-         	new Register("$f26", 26, 0),new Register("$f27", 27, 0),
-         	new Register("$f28", 28, 0),new Register("$f29", 29, 0),
-         	new Register("$f30", 30, 0),new Register("$f31", 31, 0)
+      private static final int CONDITION = 32;
+   
+   	// Register values and observation flags, indexed by register number with the
+   	// condition flags last.  The Register objects below are views onto these;
+   	// see Register.
+      private final int[] values = new int[CONDITION+1];
+      private final Register.ObservedFlags observed = new Register.ObservedFlags(CONDITION+1);
+   
+      private Register [] registers = 
+          { register("$f0", 0, 0),  register("$f1", 1, 0),
+         	register("$f2", 2, 0),  register("$f3", 3, 0),
+         	register("$f4", 4, 0),  register("$f5", 5, 0),
+         	register("$f6", 6, 0),  register("$f7", 7, 0),
+         	register("$f8", 8, 0),  register("$f9", 9, 0),
+         	register("$f10", 10, 0),register("$f11", 11, 0), 
+         	register("$f12", 12, 0),register("$f13", 13, 0),
+         	register("$f14", 14, 0),register("$f15", 15, 0),
+         	register("$f16", 16, 0),register("$f17", 17, 0),
+         	register("$f18", 18, 0),register("$f19", 19, 0),
+         	register("$f20", 20, 0),register("$f21", 21, 0),
+         	register("$f22", 22, 0),register("$f23", 23, 0),
+         	register("$f24", 24, 0),register("$f25", 25, 0),
+         	register("$f26", 26, 0),register("$f27", 27, 0),
+         	register("$f28", 28, 0),register("$f29", 29, 0),
+         	register("$f30", 30, 0),register("$f31", 31, 0)
            };
    	// The 8 condition flags will be stored in bits 0-7 for flags 0-7.
-      private static Register condition = new Register("cf",32, 0);	 
+      private Register condition = register("cf", CONDITION, 0);	 
       private static int numConditionFlags = 8;
+   
+   	/**
+   	  *  Create coprocessor 1 with all registers and condition flags at their reset
+   	  *  values.  Used by MachineContext; everything else should use the static methods.
+   	  **/
+       public Coprocessor1() {
+      }
+   
+      // Coprocessor 1 of the current MachineContext.
+       private static Coprocessor1 current() {
+         return MachineContext.current().getCoprocessor1();
+      }
+   	
+      // Create a register held in the values slot given by its number.
+       private Register register(String name, int number, int resetValue) {
+         return new Register(name, number, resetValue, values, observed, number);
+      }
+   	
+      // Read a register value, going through its Register object only if observed.
+       private int read(int num) {
+         return observed.isSet(num) ? ((num == CONDITION) ? condition : registers[num]).getValue() : values[num];
+      }
+   	
+      // Write a register value, going through its Register object only if observed.
+      // Returns the previous value.
+       private int write(int num, int val) {
+         if (observed.isSet(num)) {
+            return ((num == CONDITION) ? condition : registers[num]).setValue(val);
+         }
+         int old = values[num];
+         values[num] = val;
+         return old;
+      }
    	
    	/**
    	  *  Method for displaying the register values for debugging.
    	  **/	 
    		 
        public static void showRegisters(){
+         Register[] registers = current().registers;
          for (int i=0; i< registers.length; i++){
           
             System.out.println("Name: " + registers[i].getName());
@@ -102,8 +148,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	  
        public static void setRegisterToFloat(int reg, float val){
-         if(reg >= 0 && reg < registers.length) {
-            registers[reg].setValue(Float.floatToRawIntBits(val));
+         if(reg >= 0 && reg < CONDITION) {
+            current().write(reg, Float.floatToRawIntBits(val));
          }
       }
    
@@ -127,8 +173,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	  
        public static void setRegisterToInt(int reg, int val){
-         if(reg >= 0 && reg < registers.length) {
-            registers[reg].setValue(val);
+         if(reg >= 0 && reg < CONDITION) {
+            current().write(reg, val);
          }
       }
    
@@ -144,12 +190,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public static void setRegisterPairToDouble(int reg, double val) 
                                     throws InvalidRegisterAccessException {
+         Coprocessor1 cop1 = current();
          if (reg % 2 != 0) {
             throw new InvalidRegisterAccessException();
          } 
          long bits = Double.doubleToRawLongBits(val); 
-         registers[reg+1].setValue(Binary.highOrderLongToInt(bits));  // high order 32 bits
-         registers[reg].setValue(Binary.lowOrderLongToInt(bits)); // low order 32 bits
+         cop1.write(reg+1, Binary.highOrderLongToInt(bits));  // high order 32 bits
+         cop1.write(reg, Binary.lowOrderLongToInt(bits)); // low order 32 bits
       }
    
    
@@ -179,11 +226,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public static void setRegisterPairToLong(int reg, long val) 
                                     throws InvalidRegisterAccessException {
+         Coprocessor1 cop1 = current();
          if (reg % 2 != 0) {
             throw new InvalidRegisterAccessException();
          } 
-         registers[reg+1].setValue(Binary.highOrderLongToInt(val));  // high order 32 bits
-         registers[reg].setValue(Binary.lowOrderLongToInt(val)); // low order 32 bits
+         cop1.write(reg+1, Binary.highOrderLongToInt(val));  // high order 32 bits
+         cop1.write(reg, Binary.lowOrderLongToInt(val)); // low order 32 bits
       }
    
    
@@ -211,8 +259,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public static float getFloatFromRegister(int reg){
          float result = 0F;
-         if(reg >= 0 && reg < registers.length) {
-            result = Float.intBitsToFloat(registers[reg].getValue());
+         if(reg >= 0 && reg < CONDITION) {
+            result = Float.intBitsToFloat(current().read(reg));
          }
          return result;
       }
@@ -237,8 +285,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public static int getIntFromRegister(int reg){
          int result = 0;
-         if(reg >= 0 && reg < registers.length) {
-            result = registers[reg].getValue();
+         if(reg >= 0 && reg < CONDITION) {
+            result = current().read(reg);
          }
          return result;
       }
@@ -264,11 +312,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public static double getDoubleFromRegisterPair(int reg) 
                                     throws InvalidRegisterAccessException {
-         double result = 0.0;
+         Coprocessor1 cop1 = current();
          if (reg % 2 != 0) {
             throw new InvalidRegisterAccessException();
          } 
-         long bits = Binary.twoIntsToLong(registers[reg+1].getValue(),registers[reg].getValue());
+         long bits = Binary.twoIntsToLong(cop1.read(reg+1),cop1.read(reg));
          return Double.longBitsToDouble(bits);
       }
    
@@ -296,11 +344,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public static long getLongFromRegisterPair(int reg) 
                                     throws InvalidRegisterAccessException {
-         double result = 0.0;
+         Coprocessor1 cop1 = current();
          if (reg % 2 != 0) {
             throw new InvalidRegisterAccessException();
          } 
-         return Binary.twoIntsToLong(registers[reg+1].getValue(),registers[reg].getValue());
+         return Binary.twoIntsToLong(cop1.read(reg+1),cop1.read(reg));
       }
    
    
@@ -326,18 +374,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	  
        public static int updateRegister(int num, int val){
-         int old = 0;
-         for (int i=0; i< registers.length; i++){
-            if(registers[i].getNumber()== num) {
-               old = (Globals.getSettings().getBackSteppingEnabled())
-                        ? Globals.program.getBackStepper().addCoprocessor1Restore(num,registers[i].setValue(val))
-                  		: registers[i].setValue(val);
-               break;
-            }
+         if (num < 0 || num >= CONDITION) {
+            return 0;
+         }
+         MachineContext context = MachineContext.current();
+         int old = context.getCoprocessor1().write(num, val);
+         BackStepper backStepper = context.getBackStepper();
+         if (backStepper != null && backStepper.enabled()) {
+            backStepper.addCoprocessor1Restore(num, old);
          }
          return old;
       }
-      
       /**
    	  *  Returns the value of the FPU register who's number is num.  Returns the
    	  *  raw int value actually stored there.  If you need a float, use
@@ -347,7 +394,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static int getValue(int num){
-         return registers[num].getValue();
+         return current().read(num);
       }
       		
       	/**
@@ -357,6 +404,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    		  **/	
       		
        public static int getRegisterNumber(String n){
+         Register[] registers = current().registers;
          int j=-1;
          for (int i=0; i< registers.length; i++){
             if(registers[i].getName().equals(n)) {
@@ -373,7 +421,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static Register[] getRegisters(){
-         return registers;
+         return current().registers;
       }
       
    	/**
@@ -383,6 +431,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static Register getRegister(String rName) {
+         Register[] registers = current().registers;
          Register reg = null;
          if (rName.charAt(0) == '$' && rName.length() > 1 && rName.charAt(1) == 'f') {
             try {
@@ -403,6 +452,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static void resetRegisters(){
+         Register[] registers = current().registers;
          for(int i=0; i < registers.length; i++)
             registers[i].resetValue();
          clearConditionFlags();
@@ -414,6 +464,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  will add the given Observer to each one.  
    	 */
        public static void addRegistersObserver(Observer observer) {
+         Register[] registers = current().registers;
          for (int i=0; i<registers.length; i++) {
             registers[i].addObserver(observer);
          }
@@ -425,6 +476,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  will delete the given Observer from each one.  
    	 */
        public static void deleteRegistersObserver(Observer observer) {
+         Register[] registers = current().registers;
          for (int i=0; i<registers.length; i++) {
             registers[i].deleteObserver(observer);
          }
@@ -437,16 +489,18 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  @return previous flag setting (0 or 1)
    	 */
        public static int setConditionFlag(int flag) {
+         MachineContext context = MachineContext.current();
+         Coprocessor1 cop1 = context.getCoprocessor1();
          int old = 0;
          if (flag >= 0 && flag < numConditionFlags) {
-            old = getConditionFlag(flag);
-            condition.setValue(Binary.setBit(condition.getValue(),flag));
-            if (Globals.getSettings().getBackSteppingEnabled())
+            old = Binary.bitValue(cop1.write(CONDITION, Binary.setBit(cop1.read(CONDITION),flag)), flag);
+            BackStepper backStepper = context.getBackStepper();
+            if (backStepper != null && backStepper.enabled())
                if (old==0) {
-                  Globals.program.getBackStepper().addConditionFlagClear(flag);
+                  backStepper.addConditionFlagClear(flag);
                } 
                else {
-                  Globals.program.getBackStepper().addConditionFlagSet(flag);
+                  backStepper.addConditionFlagSet(flag);
                }
          }
          return old;
@@ -459,16 +513,18 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  @return previous flag setting (0 or 1)
    	 */
        public static int clearConditionFlag(int flag) {
+         MachineContext context = MachineContext.current();
+         Coprocessor1 cop1 = context.getCoprocessor1();
          int old = 0;
          if (flag >= 0 && flag < numConditionFlags) {
-            old = getConditionFlag(flag);
-            condition.setValue(Binary.clearBit(condition.getValue(),flag));
-            if (Globals.getSettings().getBackSteppingEnabled())
+            old = Binary.bitValue(cop1.write(CONDITION, Binary.clearBit(cop1.read(CONDITION),flag)), flag);
+            BackStepper backStepper = context.getBackStepper();
+            if (backStepper != null && backStepper.enabled())
                if (old==0) {
-                  Globals.program.getBackStepper().addConditionFlagClear(flag);
+                  backStepper.addConditionFlagClear(flag);
                } 
                else {
-                  Globals.program.getBackStepper().addConditionFlagSet(flag);
+                  backStepper.addConditionFlagSet(flag);
                }
          }
          return old;
@@ -484,7 +540,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public static int getConditionFlag(int flag) {
          if (flag < 0 || flag >= numConditionFlags) 
             flag = 0;
-         return Binary.bitValue(condition.getValue(), flag);
+         return Binary.bitValue(current().read(CONDITION), flag);
       }		
    	
    	
@@ -494,7 +550,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  @return array of int condition flags
    	 */
        public static int getConditionFlags() {
-         return condition.getValue();
+         return current().read(CONDITION);
       }	
    	
    	
@@ -503,7 +559,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *
    	 */
        public static void clearConditionFlags() {
-         condition.setValue(0);  // sets all 32 bits to 0.
+         current().write(CONDITION, 0);  // sets all 32 bits to 0.
       }		
    	
       /**
@@ -511,7 +567,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *
    	 */
        public static void setConditionFlags() {
-         condition.setValue(-1);  // sets all 32 bits to 1.
+         current().write(CONDITION, -1);  // sets all 32 bits to 1.
       }	
    	
       /**
@@ -521,5 +577,30 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 */
        public static int getConditionFlagCount() {
          return numConditionFlags;        
+      }
+   	
+      /**
+   	 *  Write the values of all registers and the condition flags to a checkpoint.
+   	 *
+   	 *  @param out stream to write the checkpoint to
+   	 */
+       public void writeCheckpoint(DataOutputStream out) throws IOException {
+         for (int i=0; i<registers.length; i++) {
+            out.writeInt(registers[i].getValueNoNotify());
+         }
+         out.writeInt(condition.getValueNoNotify());
+      }	
+   	
+      /**
+   	 *  Set the values of all registers and the condition flags from a checkpoint
+   	 *  written by writeCheckpoint().
+   	 *
+   	 *  @param in stream to read the checkpoint from
+   	 */
+       public void readCheckpoint(DataInputStream in) throws IOException {
+         for (int i=0; i<registers.length; i++) {
+            registers[i].setValue(in.readInt());
+         }
+         condition.setValue(in.readInt());
       }	
    }
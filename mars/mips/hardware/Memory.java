@@ -4,6 +4,8 @@
    import mars.simulator.*;
    import mars.mips.instructions.*;
    import java.util.*;
+   import java.io.*;
+   import java.lang.ref.WeakReference;
 	
 	/*
 Copyright (c) 2003-2009,  Pete Sanderson and Kenneth Vollmar
@@ -89,7 +91,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	/** Current setting for endian (default LITTLE_ENDIAN) **/
       private static boolean byteOrder = LITTLE_ENDIAN;
    	
-      public static int heapAddress;
+      public int heapAddress;
    
     // Memory will maintain a collection of observables.  Each one is associated
     // with a specific memory address or address range, and each will have at least
@@ -98,71 +100,73 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     // This assures that observers are not bombarded with notices from memory
     // addresses they do not care about.
     //
-    // Would like a tree-like implementation, but that is complicated by this fact:
-    // key for insertion into the tree would be based on Comparable using both low 
-    // and high end of address range, but retrieval from the tree has to be based
-    // on target address being ANYWHERE IN THE RANGE (not an exact key match).
-      
+    // For dispatch the observables are indexed by an ObserverIndex, rebuilt whenever
+    // the collection changes.  A bitmap with one bit per page rules out most accesses
+    // with a single test; the rest are matched against the observables sorted by low
+    // address along with a running maximum of their high ends, which serves as a
+    // flattened interval tree.
       Collection observables = getNewMemoryObserversCollection();
-   
-    // The data segment is allocated in blocks of 1024 ints (4096 bytes).  Each block is
-    // referenced by a "block table" entry, and the table has 1024 entries.  The capacity
-    // is thus 1024 entries * 4096 bytes = 4 MB.  Should be enough to cover most
-    // programs!!  Beyond that it would go to an "indirect" block (similar to Unix i-nodes),
-    // which is not implemented.
+      private volatile ObserverIndex observerIndex = null;
+   
+    // Each thread that notifies observers keeps one notice of its own, reused for its
+    // successive accesses so that observed accesses do not allocate.  Whichever thread
+    // notifies first, the simulation thread and the GUI each get their own notice.
+    // See notifyAnyObservers().
+      private static final ThreadLocal<MemoryAccessNotice> pooledNotice = new ThreadLocal<MemoryAccessNotice>();
+   
+    // The data segment, kernel data segment, stack and memory mapped I/O are all
+    // stored in one two-level page table spanning the whole 32-bit address space.
+    // The top 10 bits of an address select a page table from the page directory, the
+    // next 10 bits a 4K byte page (1024 ints) from that table, and the rest the byte
+    // within the page.  A page table is not created until an address within its 4MB
+    // is written to, nor a page until an address within its 4K is written to, so most
+    // small programs use only a few pages.  Reading from a page that has never been
+    // written gives 0.  Access time is constant.
     //
-    // Although this scheme is an array of arrays, it is relatively space-efficient since
-    // only the table is created initially. A 4096-byte block is not allocated until a value 
-    // is written to an address within it.  Thus most small programs will use only 8K bytes 
-    // of space (the table plus one block).  The index into both arrays is easily computed 
-    // from the address; access time is constant.
+    // Each segment still has the limits it had when each was a separate table of
+    // 1024 4K blocks: 4MB, except memory mapped I/O which is limited to 64KB by range.
+    // The stack, which grows downward from its base address, is stored the same way
+    // as the others; only its limit lies below its base.
     //
     // SPIM stores statically allocated data (following first .data directive) starting
     // at location 0x10010000.  This is the first Data Segment word beyond the reach of $gp
     // used in conjunction with signed 16 bit immediate offset.  $gp has value 0x10008000
     // and with the signed 16 bit offset can reach from 0x10008000 - 0xFFFF = 0x10000000 
     // (Data Segment base) to 0x10008000 + 0x7FFF = 0x1000FFFF (the byte preceding 0x10010000).
-    //
-    // Using my scheme, 0x10010000 falls at the beginning of the 17'th block -- table entry 16.
-    // SPIM uses a heap base address of 0x10040000 which is not part of the MIPS specification.
-    // (I don't have a reference for that offhand...)  Using my scheme, 0x10040000 falls at
-    // the start of the 65'th block -- table entry 64.  That leaves (1024-64) * 4096 = 3,932,160
-    // bytes of space available without going indirect.
     
       private static final int BLOCK_LENGTH_WORDS = 1024;  // allocated blocksize 1024 ints == 4K bytes
       private static final int BLOCK_TABLE_LENGTH = 1024; // Each entry of table points to a block.
-      private int[][] dataBlockTable;
-      private int[][] kernelDataBlockTable;
-    
-    // The stack is modeled similarly to the data segment.  It cannot share the same
-    // data structure because the stack base address is very large.  To store it in the
-    // same data structure would require implementation of indirect blocks, which has not
-    // been realized.  So the stack gets its own table of blocks using the same dimensions 
-    // and allocation scheme used for data segment.
-    //
-    // The other major difference is the stack grows DOWNWARD from its base address, not
-    // upward.  I.e., the stack base is the largest stack address. This turns the whole 
-    // scheme for translating memory address to block-offset on its head!  The simplest
-    // solution is to calculate relative address (offset from base) by subtracting the 
-    // desired address from the stack base address (rather than subtracting base address 
-    // from desired address).  Thus as the address gets smaller the offset gets larger.
-    // Everything else works the same, so it shares some private helper methods with
-    // data segment algorithms.
-    
-      private int[][] stackBlockTable;
-   
-    // Memory mapped I/O is simulated with a separate table using the same structure and
-    // logic as data segment.  Memory is allocated in 4K byte blocks.  But since MMIO
-    // address range is limited to 0xffff0000 to 0xfffffffc, there are only 64K bytes 
-    // total.  Thus there will be a maximum of 16 blocks, and I suspect never more than
-    // one since only the first few addresses are typically used.  The only exception
-    // may be a rogue program generating such addresses in a loop.  Note that the
-    // MMIO addresses are interpreted by Java as negative numbers since it does not 
-    // have unsigned types.  As long as the absolute address is correctly translated
-    // into a table offset, this is of no concern.
-   
       private static final int MMIO_TABLE_LENGTH = 16; // Each entry of table points to a 4K block.
-      private int[][] memoryMapBlockTable;
+      private static final int PAGE_LENGTH_WORDS = BLOCK_LENGTH_WORDS; // 4K byte pages
+      private static final int PAGE_TABLE_LENGTH = 1024;  // Each page table covers 4MB.
+      private static final int PAGE_DIRECTORY_LENGTH = 1024; // The directory covers 4GB.
+      private static final int PAGE_SHIFT = 12;
+      private static final int PAGE_TABLE_SHIFT = 22;
+      private int[][][] pageDirectory;
+   
+    // When the memory configuration calls for off-heap storage, it replaces the page
+    // table above; see OffHeapMemoryStore.  Like the segment addresses, the kind of
+    // storage is set by setConfiguration() and used by every Memory cleared afterwards.
+    // The one Memory using the memory image file is remembered so no other maps it.
+      private static int backingStore = MemoryConfiguration.HEAP_STORE;
+      private static WeakReference imageFileUser = null;
+      private OffHeapMemoryStore offHeap;
+   	 
+    // Every page of the address space has a segment attribute, held in a two-level
+    // table shaped like the page table.  A page lying entirely within the data, stack,
+    // memory mapped I/O or kernel data segment, and not touching a text segment, is
+    // marked with that segment.  Any address in such a page is valid, so aligned
+    // accesses to it (little-endian only) skip the chain of segment range checks.
+    // Every other page is SLOW_PAGE and accesses to it take the range checks.  The
+    // attributes depend only on the memory configuration, which is JVM-wide, so they
+    // are static and rebuilt by setConfiguration().
+    
+      private static final byte SLOW_PAGE = 0;
+      private static final byte DATA_PAGE = 1;
+      private static final byte STACK_PAGE = 2;
+      private static final byte MEMORY_MAP_PAGE = 3;
+      private static final byte KERNEL_DATA_PAGE = 4;
+      private static byte[][] pageSegments;
    	    
     // I use a similar scheme for storing instructions.  MIPS text segment ranges from
     // 0x00400000 all the way to data segment (0x10000000) a range of about 250 MB!  So
@@ -174,6 +178,16 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private static final int TEXT_BLOCK_TABLE_LENGTH = 1024; // Each entry of table points to a block.
       private ProgramStatement[][] textBlockTable;
       private ProgramStatement[][] kernelTextBlockTable;
+   
+    // Predecoded form of the two text segments, created on demand by the simulator.
+    // It must be told about every change to the tables above.  See setStatement().
+      private ExecutionCache executionCache;
+   
+    // Pages and text blocks shared with a forked Memory, which must be copied before
+    // being written to.  Null unless this Memory has been forked or is a fork.  It holds
+    // the arrays themselves, compared by identity.  Each Memory copies a shared block on its first
+    // write, so the last one to write copies too; that is simpler than reference counts.
+      private IdentityHashMap sharedBlocks;
     
     // Set "top" address boundary to go with each "base" address.  This determines permissable
     // address range for user program.  Currently limit is 4MB, or 1024 * 1024 * 4 bytes based
@@ -191,27 +205,37 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       														  BLOCK_LENGTH_WORDS * BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES;
       public static int memoryMapLimitAddress   = memoryMapBaseAddress + 
                                  					  BLOCK_LENGTH_WORDS * MMIO_TABLE_LENGTH * WORD_LENGTH_BYTES;  
-    // This will be a Singleton class, only one instance is ever created.  Since I know the 
-    // Memory object is always needed, I'll go ahead and create it at the time of class loading.
-    // (greedy rather than lazy instantiation).  The constructor is private and getInstance()
-    // always returns this instance.
-    
-      private static Memory uniqueMemoryInstance = new Memory(); 
-   	
+   
+       static {
+         mapSegmentPages();
+      }
+   
+    // Set once an observer is added, so that memory accesses need not look at the
+    // observables otherwise.
+      private volatile boolean observed = false;
+   
+    // Given the loads and stores made, if execution is being traced.  Called directly
+    // from the access paths, as observers cost too much.
+      private Tracer tracer = null;
+   
+    // Each MachineContext owns one Memory, created along with the context.  getInstance()
+    // returns that of the calling thread's current context, which unless the thread has
+    // chosen a different one is the default context used by the GUI and command line.
     
-    /*
-     * Private constructor for Memory.  Separate data structures for text and data segments. 
+    /**
+     * Create an empty Memory.  Separate data structures for text and data segments.
+     * Used by MachineContext; everything else should use getInstance().
      **/
-       private Memory() {
+       public Memory() {
          initialize();
       }
    
      /**
-      * Returns the unique Memory instance, which becomes in essence global.
+      * Returns the Memory of the current MachineContext, which becomes in essence global.
    	*/
    	
        public static Memory getInstance() {
-         return uniqueMemoryInstance;
+         return MachineContext.current().getMemory();
       }
    	
    	/**
@@ -221,6 +245,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public void clear() {
          setConfiguration();
          initialize(); 		
+         // Collect the table memory just deallocated.  Only worthwhile for the long-lived
+      	// default machine; other contexts are typically many small, short-lived jobs.
+         if (this == MachineContext.getDefault().getMemory()) {
+            System.gc(); 
+         }
       }
    
      /**
@@ -245,6 +274,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          kernelDataBaseAddress = MemoryConfigurations.getCurrentConfiguration().getKernelDataBaseAddress(); //0x90000000;
          memoryMapBaseAddress = MemoryConfigurations.getCurrentConfiguration().getMemoryMapBaseAddress(); //0xffff0000;
          kernelHighAddress = MemoryConfigurations.getCurrentConfiguration().getKernelHighAddress(); //0xffffffff;		
+         backingStore = MemoryConfigurations.getCurrentConfiguration().getBackingStore();
          dataSegmentLimitAddress = Math.min(MemoryConfigurations.getCurrentConfiguration().getDataSegmentLimitAddress(),
                                       dataSegmentBaseAddress + 
             								  BLOCK_LENGTH_WORDS * BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES);
@@ -263,6 +293,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          memoryMapLimitAddress   = Math.min(MemoryConfigurations.getCurrentConfiguration().getMemoryMapLimitAddress(),
                                       memoryMapBaseAddress + 
                                  	  BLOCK_LENGTH_WORDS * MMIO_TABLE_LENGTH * WORD_LENGTH_BYTES);
+         // Off-heap stores are not limited to 4MB per segment, except for the text
+      	// segments which are still tables of ProgramStatement blocks.
+         if (backingStore != MemoryConfiguration.HEAP_STORE) {
+            dataSegmentLimitAddress = MemoryConfigurations.getCurrentConfiguration().getDataSegmentLimitAddress();
+            kernelDataSegmentLimitAddress = MemoryConfigurations.getCurrentConfiguration().getKernelDataSegmentLimitAddress();
+            stackLimitAddress = MemoryConfigurations.getCurrentConfiguration().getStackLimitAddress();
+         }
       /*	System.out.println("dataSegmentLimitAddress "+Binary.intToHexString(dataSegmentLimitAddress));
       	System.out.println("textLimitAddress "+Binary.intToHexString(textLimitAddress));
       	System.out.println("kernelDataSegmentLimitAddress "+Binary.intToHexString(kernelDataSegmentLimitAddress));
@@ -270,6 +307,42 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       	System.out.println("stackLimitAddress "+Binary.intToHexString(stackLimitAddress));
       	System.out.println("memoryMapLimitAddress "+Binary.intToHexString(memoryMapLimitAddress));
       */
+         mapSegmentPages();
+      }
+   
+    // Build the page segment attributes for the current configuration.  Segments are
+    // marked in reverse of the order in which get() and set() check them, so that a page
+    // in two segments gets the one checked first.  Pages touching a text segment are
+    // left to the range checks, which decide between text and data per address.
+       private static void mapSegmentPages() {
+         byte[][] segments = new byte[PAGE_DIRECTORY_LENGTH][];
+         mapSegmentPages(segments, KERNEL_DATA_PAGE, kernelDataBaseAddress, kernelDataSegmentLimitAddress - 1);
+         mapSegmentPages(segments, MEMORY_MAP_PAGE, memoryMapBaseAddress, memoryMapLimitAddress - 1);
+         mapSegmentPages(segments, STACK_PAGE, stackLimitAddress + 1, stackBaseAddress);
+         mapSegmentPages(segments, DATA_PAGE, dataSegmentBaseAddress, dataSegmentLimitAddress - 1);
+         mapSegmentPages(segments, SLOW_PAGE, textBaseAddress, textLimitAddress - 1);
+         mapSegmentPages(segments, SLOW_PAGE, kernelTextBaseAddress, kernelTextLimitAddress - 1);
+         pageSegments = segments;
+      }
+   
+    // Mark with the given segment every page lying entirely within the address range
+    // low to high inclusive, compared as the range checks do (signed).  SLOW_PAGE
+    // instead marks every page the range touches.
+       private static void mapSegmentPages(byte[][] segments, byte segment, int low, int high) {
+         long pageLength = 1 << PAGE_SHIFT;
+         for (long page = low & ~(pageLength-1); page <= high; page += pageLength) {
+            boolean inside = page >= low && page + pageLength - 1 <= high;
+            if (inside || segment == SLOW_PAGE) {
+               int address = (int) page;
+               if (segments[address >>> PAGE_TABLE_SHIFT] == null) {
+                  if (segment == SLOW_PAGE) {
+                     continue;
+                  }
+                  segments[address >>> PAGE_TABLE_SHIFT] = new byte[PAGE_TABLE_LENGTH];
+               }
+               segments[address >>> PAGE_TABLE_SHIFT][(address >>> PAGE_SHIFT) & (PAGE_TABLE_LENGTH-1)] = segment;
+            }
+         }
       }
    
    
@@ -287,14 +360,74 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        private void initialize() {
          heapAddress = heapBaseAddress;
          textBlockTable  = new ProgramStatement[TEXT_BLOCK_TABLE_LENGTH][];
-         dataBlockTable  = new int[BLOCK_TABLE_LENGTH][]; // array of null int[] references
          kernelTextBlockTable  = new ProgramStatement[TEXT_BLOCK_TABLE_LENGTH][];
-         kernelDataBlockTable  = new int[BLOCK_TABLE_LENGTH][];      
-         stackBlockTable = new int[BLOCK_TABLE_LENGTH][];
-         memoryMapBlockTable = new int[MMIO_TABLE_LENGTH][];
-         System.gc(); // call garbage collector on any Table memory just deallocated. 	  
+         initializePages();
+         executionCache = null;
+         sharedBlocks = null;
       }  
      
+    // Start with empty data storage of the kind the configuration calls for.
+       private void initializePages() {
+         if (offHeap != null) {
+            offHeap.close();
+            offHeap = null;
+         }
+         releaseMemoryImageFile();
+         pageDirectory = null;
+         if (backingStore == MemoryConfiguration.HEAP_STORE) {
+            pageDirectory = new int[PAGE_DIRECTORY_LENGTH][][]; // array of null page tables
+         } 
+         else if (backingStore == MemoryConfiguration.DIRECT_STORE) {
+            offHeap = new OffHeapMemoryStore();
+         } 
+         else {
+            File file = claimMemoryImageFile();
+            try {
+               offHeap = (file == null) 
+                        ? new OffHeapMemoryStore(File.createTempFile("mars", ".mem"), true) 
+                        : new OffHeapMemoryStore(file, false);
+            } 
+                catch (IOException e) {
+                  MachineContext.current().getStandardOutput().println("Cannot use memory image file: "+e.getMessage()+"; using direct buffers");
+                  offHeap = new OffHeapMemoryStore();
+               }
+         }
+      }
+   
+    // Returns the memory image file if no other live Memory is using it, and notes
+    // that this one is.  Otherwise returns null.
+       private File claimMemoryImageFile() {
+         synchronized (Memory.class) {
+            File file = MemoryConfigurations.getMemoryImageFile();
+            Memory user = (imageFileUser == null) ? null : (Memory) imageFileUser.get();
+            if (file == null || (user != null && user != this)) {
+               return null;
+            }
+            imageFileUser = new WeakReference(this);
+            return file;
+         }
+      }
+   
+    // Allows another Memory to use the memory image file, if this one was.
+       private void releaseMemoryImageFile() {
+         synchronized (Memory.class) {
+            if (imageFileUser != null && imageFileUser.get() == this) {
+               imageFileUser = null;
+            }
+         }
+      }
+   
+     /**
+      * Returns the file this memory is mapped from, if its configuration uses the 
+   	* memory image file (see MemoryConfigurations.setMemoryImageFile()).  The byte
+   	* at offset <i>n</i> of the file is the byte at address <i>n</i>, for the data,
+   	* stack, kernel data and memory mapped I/O segments.
+   	* @return the memory image file, or null if memory is not mapped from it.
+   	*/
+       public File getMemoryImageFile() {
+         return (offHeap == null) ? null : offHeap.getImageFile();
+      }
+     
    	/**
    	 * Returns the next available word-aligned heap address.  There is no recycling and
    	 * no heap management!  There is however nearly 4MB of heap space available in Mars.
@@ -358,17 +491,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public int set(int address, int value, int length) throws AddressErrorException {
          int oldValue = 0;
          if (Globals.debug) System.out.println("memory["+address+"] set to "+value+"("+length+" bytes)");
-         int relativeByteAddress;
-         if (inDataSegment(address)) {
+         if (isFastAccess(address, length)) {
+           // aligned, and in a page entirely within a data segment.
+            oldValue = storeAligned(address, value, length);
+         }
+         else if (inDataSegment(address)) {
            // in data segment.  Will write one byte at a time, w/o regard to boundaries.
-            relativeByteAddress = address - dataSegmentBaseAddress; // relative to data segment start, in bytes
-            oldValue = storeBytesInTable(dataBlockTable, relativeByteAddress, length, value);
+            oldValue = storeBytes(address, length, value);
          } 
          else if (address > stackLimitAddress && address <= stackBaseAddress) {
-           // in stack.  Handle similarly to data segment write, except relative byte
-           // address calculated "backward" because stack addresses grow down from base.
-            relativeByteAddress = stackBaseAddress - address; 
-            oldValue = storeBytesInTable(stackBlockTable, relativeByteAddress, length, value);
+           // in stack.  Stored the same way as the data segment.
+            oldValue = storeBytes(address, length, value);
          } 
          else if (inTextSegment(address)) {
            // Burch Mod (Jan 2013): replace throw with call to setStatement 
@@ -389,13 +522,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          } 
          else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
            // memory mapped I/O.
-            relativeByteAddress = address - memoryMapBaseAddress;
-            oldValue = storeBytesInTable(memoryMapBlockTable, relativeByteAddress, length, value);
+            oldValue = storeBytes(address, length, value);
          }
          else if (inKernelDataSegment(address)) {
            // in kernel data segment.  Will write one byte at a time, w/o regard to boundaries.
-            relativeByteAddress = address - kernelDataBaseAddress; // relative to data segment start, in bytes
-            oldValue = storeBytesInTable(kernelDataBlockTable, relativeByteAddress, length, value);
+            oldValue = storeBytes(address, length, value);
          } 
          else if (inKernelTextSegment(address)) {
            // DEVELOPER: PLEASE USE setStatement() TO WRITE TO KERNEL TEXT SEGMENT...
@@ -408,7 +539,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("address out of range ",
                Exceptions.ADDRESS_EXCEPTION_STORE, address);
          }
-         notifyAnyObservers(AccessNotice.WRITE, address, length, value);
+         if (observed) {
+            notifyAnyObservers(AccessNotice.WRITE, address, length, value);
+         }
+         if (tracer != null) {
+            tracer.store(address, length);
+         }
          return oldValue;
       }
    	
@@ -424,21 +560,22 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      * @throws AddressErrorException If address is not on word boundary.
     **/
        public int setRawWord(int address, int value) throws AddressErrorException {
-         int relative, oldValue=0;
+         int oldValue=0;
          if (address % WORD_LENGTH_BYTES != 0) {
             throw new AddressErrorException("store address not aligned on word boundary ",
                Exceptions.ADDRESS_EXCEPTION_STORE, address);
          }
-         if (inDataSegment(address)) {
+         if (inFastPage(address)) {
+           // in a page entirely within a data segment
+            oldValue = storeWord(address, value);
+         }
+         else if (inDataSegment(address)) {
            // in data segment
-            relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
-            oldValue = storeWordInTable(dataBlockTable, relative, value);
+            oldValue = storeWord(address, value);
          } 
          else if (address > stackLimitAddress && address <= stackBaseAddress) {
-           // in stack.  Handle similarly to data segment write, except relative 
-           // address calculated "backward" because stack addresses grow down from base.
-            relative = (stackBaseAddress - address) >> 2; // convert byte address to words
-            oldValue = storeWordInTable(stackBlockTable, relative, value);
+           // in stack.  Stored the same way as the data segment.
+            oldValue = storeWord(address, value);
          }
          else if (inTextSegment(address)) {	
            // Burch Mod (Jan 2013): replace throw with call to setStatement 
@@ -458,13 +595,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          } 
          else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
            // memory mapped I/O.
-            relative = (address - memoryMapBaseAddress) >> 2; // convert byte address to word
-            oldValue = storeWordInTable(memoryMapBlockTable, relative, value);
+            oldValue = storeWord(address, value);
          }
          else if (inKernelDataSegment(address)) {
            // in data segment
-            relative = (address - kernelDataBaseAddress) >> 2; // convert byte address to words
-            oldValue = storeWordInTable(kernelDataBlockTable, relative, value);
+            oldValue = storeWord(address, value);
          }
          else if (inKernelTextSegment(address)) {
            // DEVELOPER: PLEASE USE setStatement() TO WRITE TO KERNEL TEXT SEGMENT...
@@ -477,9 +612,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("store address out of range ",
                Exceptions.ADDRESS_EXCEPTION_STORE,	address);
          }
-         notifyAnyObservers(AccessNotice.WRITE, address, WORD_LENGTH_BYTES, value);
+         if (observed) {
+            notifyAnyObservers(AccessNotice.WRITE, address, WORD_LENGTH_BYTES, value);
+         }
+         if (tracer != null) {
+            tracer.store(address, WORD_LENGTH_BYTES);
+         }
          if (Globals.getSettings().getBackSteppingEnabled()) {
-            Globals.program.getBackStepper().addMemoryRestoreRawWord(address,oldValue);
+            MachineContext.current().getBackStepper().addMemoryRestoreRawWord(address,oldValue);
          }
          return oldValue;
       }
@@ -501,7 +641,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                Exceptions.ADDRESS_EXCEPTION_STORE,address);
          }
          return (Globals.getSettings().getBackSteppingEnabled())
-            ? Globals.program.getBackStepper().addMemoryRestoreWord(address,set(address, value, WORD_LENGTH_BYTES))
+            ? MachineContext.current().getBackStepper().addMemoryRestoreWord(address,set(address, value, WORD_LENGTH_BYTES))
             : set(address, value, WORD_LENGTH_BYTES);
       }
    
@@ -522,7 +662,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                Exceptions.ADDRESS_EXCEPTION_STORE, address);
          }
          return (Globals.getSettings().getBackSteppingEnabled())
-            ? Globals.program.getBackStepper().addMemoryRestoreHalf(address,set(address,value,2))
+            ? MachineContext.current().getBackStepper().addMemoryRestoreHalf(address,set(address,value,2))
             : set(address, value, 2);
       }
    
@@ -537,7 +677,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      
        public int setByte(int address, int value) throws AddressErrorException {
          return (Globals.getSettings().getBackSteppingEnabled())
-            ? Globals.program.getBackStepper().addMemoryRestoreByte(address,set(address,value,1))
+            ? MachineContext.current().getBackStepper().addMemoryRestoreByte(address,set(address,value,1))
             : set(address, value, 1);
       }
    
@@ -583,11 +723,247 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          else {
             storeProgramStatement(address, statement, kernelTextBaseAddress, kernelTextBlockTable);
          }
+         if (executionCache != null) {
+            executionCache.invalidate(address);
+         }
       }
    	
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Returns the predecoded execution cache for the text segments, creating it if
+    * necessary.  The cache is discarded whenever memory is cleared, and its entries
+    * are invalidated by setStatement().
+    * @return the ExecutionCache for this memory.
+    * @see ExecutionCache
+    **/
    
+       public ExecutionCache getExecutionCache() {
+         if (executionCache == null) {
+            executionCache = new ExecutionCache(this);
+         }
+         return executionCache;
+      }
+   	
+
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Writes the contents of memory to a checkpoint: the heap pointer followed by
+    * every allocated 4K page and the blocks of each text segment.  Pages never
+    * written to are not allocated and so take no space.  Text segment statements
+    * are written as their binary machine code.
+    * @param out stream to write the checkpoint to
+    * @throws IOException if writing fails
+    * @see mars.simulator.Checkpoint
+    **/
+   
+       public void writeCheckpoint(DataOutputStream out) throws IOException {
+         out.writeInt(heapAddress);
+         writeCheckpointPages(out);
+         writeCheckpointTextBlocks(out, textBlockTable);
+         writeCheckpointTextBlocks(out, kernelTextBlockTable);
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Replaces the contents of memory with those read from a checkpoint written by
+    * writeCheckpoint().  A text segment statement whose binary code matches that of
+    * the statement already at its address is kept, so an assembled program retains
+    * its source information.  Observers are not notified.
+    * @param in stream to read the checkpoint from
+    * @throws IOException if reading fails or the checkpoint is malformed
+    * @see mars.simulator.Checkpoint
+    **/
+   
+       public void readCheckpoint(DataInputStream in) throws IOException {
+         heapAddress = in.readInt();
+         sharedBlocks = null;
+         readCheckpointPages(in);
+         textBlockTable = readCheckpointTextBlocks(in, textBlockTable, textBaseAddress);
+         kernelTextBlockTable = readCheckpointTextBlocks(in, kernelTextBlockTable, kernelTextBaseAddress);
+         executionCache = null;
+         sharedBlocks = null;
+      }
+   	
+      // Each page written to is written as its page number (address >>> 12) followed
+   	// by its words.  The list ends with -1.
+       private void writeCheckpointPages(DataOutputStream out) throws IOException {
+         int pageLength = PAGE_LENGTH_WORDS * WORD_LENGTH_BYTES;
+         for (int pageNumber=0; pageNumber<PAGE_DIRECTORY_LENGTH * PAGE_TABLE_LENGTH; pageNumber++) {
+            int address = pageNumber << PAGE_SHIFT;
+            if (isPageWritten(address)) {
+               out.writeInt(pageNumber);
+               for (int i=0; i<pageLength; i+=WORD_LENGTH_BYTES) {
+                  out.writeInt(fetchWord(address+i));
+               }
+            }
+         }
+         out.writeInt(-1);
+      }
+   
+       private void readCheckpointPages(DataInputStream in) throws IOException {
+         int pageLength = PAGE_LENGTH_WORDS * WORD_LENGTH_BYTES;
+         int pageNumber;
+         initializePages();
+         while ((pageNumber = in.readInt()) != -1) {
+            if (pageNumber < 0 || pageNumber >= PAGE_DIRECTORY_LENGTH * PAGE_TABLE_LENGTH) {
+               throw new IOException("invalid memory page "+pageNumber+" in checkpoint");
+            }
+            int address = pageNumber << PAGE_SHIFT;
+            for (int i=0; i<pageLength; i+=WORD_LENGTH_BYTES) {
+               storeWord(address+i, in.readInt());
+            }
+         }
+      }
+   
+      // As above, but every word of a text block need not hold a statement, so each
+   	// block's words are preceded by a bitmap of those that do.
+       private void writeCheckpointTextBlocks(DataOutputStream out, ProgramStatement[][] blockTable) throws IOException {
+         int[] present = new int[TEXT_BLOCK_LENGTH_WORDS / 32];
+         for (int block=0; block<blockTable.length; block++) {
+            if (blockTable[block] != null) {
+               Arrays.fill(present, 0);
+               for (int i=0; i<TEXT_BLOCK_LENGTH_WORDS; i++) {
+                  if (blockTable[block][i] != null) {
+                     present[i >> 5] |= 1 << (i & 31);
+                  }
+               }
+               out.writeInt(block);
+               for (int i=0; i<present.length; i++) {
+                  out.writeInt(present[i]);
+               }
+               for (int i=0; i<TEXT_BLOCK_LENGTH_WORDS; i++) {
+                  if (blockTable[block][i] != null) {
+                     out.writeInt(blockTable[block][i].getBinaryStatement());
+                  }
+               }
+            }
+         }
+         out.writeInt(-1);
+      }
    
-   /********************************  THE GETTER METHODS  ******************************/
+       private ProgramStatement[][] readCheckpointTextBlocks(DataInputStream in, ProgramStatement[][] oldTable, 
+                                                              int baseAddress) throws IOException {
+         ProgramStatement[][] blockTable = new ProgramStatement[TEXT_BLOCK_TABLE_LENGTH][];
+         int[] present = new int[TEXT_BLOCK_LENGTH_WORDS / 32];
+         int block;
+         while ((block = in.readInt()) != -1) {
+            if (block < 0 || block >= TEXT_BLOCK_TABLE_LENGTH) {
+               throw new IOException("invalid text block "+block+" in checkpoint");
+            }
+            for (int i=0; i<present.length; i++) {
+               present[i] = in.readInt();
+            }
+            blockTable[block] = new ProgramStatement[TEXT_BLOCK_LENGTH_WORDS];
+            for (int i=0; i<TEXT_BLOCK_LENGTH_WORDS; i++) {
+               if ((present[i >> 5] & (1 << (i & 31))) != 0) {
+                  int binary = in.readInt();
+                  ProgramStatement old = (oldTable[block] == null) ? null : oldTable[block][i];
+                  blockTable[block][i] = (old != null && old.getBinaryStatement() == binary) 
+                                          ? old 
+                                          : new ProgramStatement(binary, baseAddress + ((block * TEXT_BLOCK_LENGTH_WORDS + i) << 2));
+               }
+            }
+         }
+         return blockTable;
+      }
+   
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Creates a copy of this memory for a forked machine.  No memory is copied: the
+    * copy shares every allocated 4K page and text block with this one, and whichever
+    * of the two first writes to a shared one gets its own copy of it.  The exception
+    * is memory in an off-heap store, whose pages are copied to the fork's store.  The heap pointer is
+    * copied; observers and the execution cache are not.
+    * @return a Memory with the same contents as this one
+    * @see mars.MachineContext#fork()
+    **/
+   
+       public synchronized Memory fork() {
+         Memory copy = new Memory();
+         shareInto(copy);
+         return copy;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Replaces the contents of this memory with those of a fork made earlier, to return
+    * to the state it was in then.  As for fork(), the pages and text blocks of the fork
+    * are shared copy-on-write rather than copied, so the fork can be restored again.
+    * Observers are kept but not notified.
+    * @param snapshot a Memory returned by fork()
+    * @see mars.MachineContext#restoreState(byte[], Memory, long)
+    **/
+   
+       public void restore(Memory snapshot) {
+         synchronized (snapshot) {
+            synchronized (this) {
+               initializePages();
+               snapshot.shareInto(this);
+               executionCache = null;
+            }
+         }
+      }
+   
+      // Make the given memory, whose pages are empty, hold the same contents as this one.
+       private void shareInto(Memory copy) {
+         if (sharedBlocks == null) {
+            sharedBlocks = new IdentityHashMap();
+         }
+         copy.sharedBlocks = new IdentityHashMap();
+         copy.heapAddress = heapAddress;
+         if (offHeap == null) {
+            if (copy.offHeap != null) {
+               // configuration changed since this memory was cleared; stay on the heap
+               copy.offHeap.close();
+               copy.offHeap = null;
+               copy.pageDirectory = new int[PAGE_DIRECTORY_LENGTH][][];
+            }
+            for (int table=0; table<PAGE_DIRECTORY_LENGTH; table++) {
+               if (pageDirectory[table] != null) {
+                  copy.pageDirectory[table] = (int[][]) shareBlocks(pageDirectory[table], copy);
+               }
+            }
+         } 
+         else {
+            int pageLength = PAGE_LENGTH_WORDS * WORD_LENGTH_BYTES;
+            for (int pageNumber=0; pageNumber<PAGE_DIRECTORY_LENGTH * PAGE_TABLE_LENGTH; pageNumber++) {
+               int address = pageNumber << PAGE_SHIFT;
+               if (offHeap.isPageWritten(address)) {
+                  for (int i=0; i<pageLength; i+=WORD_LENGTH_BYTES) {
+                     copy.storeWord(address+i, fetchWord(address+i));
+                  }
+               }
+            }
+         }
+         copy.textBlockTable = (ProgramStatement[][]) shareBlocks(textBlockTable, copy);
+         copy.kernelTextBlockTable = (ProgramStatement[][]) shareBlocks(kernelTextBlockTable, copy);
+      }
+   
+      // Copy a page table or text block table, marking each of its pages or blocks as
+   	// shared by this and the copy.
+       private Object[] shareBlocks(Object[] blockTable, Memory copy) {
+         Object[] table = blockTable.clone();
+         for (int block=0; block<table.length; block++) {
+            if (table[block] != null) {
+               sharedBlocks.put(table[block], table[block]);
+               copy.sharedBlocks.put(table[block], table[block]);
+            }
+         }
+         return table;
+      }
+   
+      // Called before writing to an allocated text block.  If the block is shared with a
+   	// fork, replace it with a private copy.  Returns the block to write to.  Pages are
+   	// handled likewise by getPageForWrite().
+       private ProgramStatement[] ownTextBlock(ProgramStatement[][] blockTable, int block) {
+         if (sharedBlocks != null && sharedBlocks.remove(blockTable[block]) != null) {
+            blockTable[block] = blockTable[block].clone();
+         }
+         return blockTable[block];
+      }
+   
+      /********************************  THE GETTER METHODS  ******************************/
    
    //////////////////////////////////////////////////////////////////////////////////////////
    /**
@@ -606,22 +982,22 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	// Does the real work, but includes option to NOT notify observers.
        private int get(int address, int length, boolean notify) throws AddressErrorException {
          int value = 0;
-         int relativeByteAddress;
-         if (inDataSegment(address)) {
+         if (isFastAccess(address, length)) {
+           // aligned, and in a page entirely within a data segment.
+            value = fetchAligned(address, length);
+         }
+         else if (inDataSegment(address)) {
            // in data segment.  Will read one byte at a time, w/o regard to boundaries.
-            relativeByteAddress = address - dataSegmentBaseAddress; // relative to data segment start, in bytes
-            value = fetchBytesFromTable(dataBlockTable, relativeByteAddress, length);
+            value = fetchBytes(address, length);
          } 
          else if (address > stackLimitAddress && address <= stackBaseAddress) {
-           // in stack. Similar to data, except relative address computed "backward"
-            relativeByteAddress = stackBaseAddress - address;
-            value = fetchBytesFromTable(stackBlockTable, relativeByteAddress, length);
+           // in stack.  Stored the same way as the data segment.
+            value = fetchBytes(address, length);
          } 
          
          else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
            // memory mapped I/O.
-            relativeByteAddress = address - memoryMapBaseAddress;
-            value = fetchBytesFromTable(memoryMapBlockTable, relativeByteAddress, length);
+            value = fetchBytes(address, length);
          }
          else if (inTextSegment(address)) {
            // Burch Mod (Jan 2013): replace throw with calls to getStatementNoNotify & getBinaryStatement 
@@ -638,8 +1014,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          } 
          else if (inKernelDataSegment(address)) {
            // in kernel data segment.  Will read one byte at a time, w/o regard to boundaries.
-            relativeByteAddress = address - kernelDataBaseAddress; // relative to data segment start, in bytes
-            value = fetchBytesFromTable(kernelDataBlockTable, relativeByteAddress, length);
+            value = fetchBytes(address, length);
          } 
          else if (inKernelTextSegment(address)) {
            // DEVELOPER: PLEASE USE getStatement() TO READ FROM KERNEL TEXT SEGMENT...
@@ -652,7 +1027,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("address out of range ",
                Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
-         if (notify) notifyAnyObservers(AccessNotice.READ, address, length, value);
+         if (notify && observed) notifyAnyObservers(AccessNotice.READ, address, length, value);
+         if (notify && tracer != null) tracer.load(address, length);
          return value;
       }
    
@@ -675,25 +1051,25 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     // I decided to keep the duplicate logic.
        public int getRawWord(int address) throws AddressErrorException {
          int value = 0;
-         int relative;
          if (address % WORD_LENGTH_BYTES != 0) {
             throw new AddressErrorException("address for fetch not aligned on word boundary",
                Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
-         if (inDataSegment(address)) {
+         if (inFastPage(address)) {
+           // in a page entirely within a data segment
+            value = fetchWord(address);
+         }
+         else if (inDataSegment(address)) {
            // in data segment
-            relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
-            value = fetchWordFromTable(dataBlockTable, relative);
+            value = fetchWord(address);
          } 
          else if (address > stackLimitAddress && address <= stackBaseAddress) {
-           // in stack. Similar to data, except relative address computed "backward"
-            relative = (stackBaseAddress - address) >> 2; // convert byte address to words
-            value = fetchWordFromTable(stackBlockTable, relative);
+           // in stack.  Stored the same way as the data segment.
+            value = fetchWord(address);
          }
          else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
            // memory mapped I/O.
-            relative = (address - memoryMapBaseAddress) >> 2;
-            value = fetchWordFromTable(memoryMapBlockTable, relative);
+            value = fetchWord(address);
          }
          else if (inTextSegment(address)) {
            // Burch Mod (Jan 2013): replace throw with calls to getStatementNoNotify & getBinaryStatement 
@@ -710,8 +1086,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          }  
          else if (inKernelDataSegment(address)) {
            // in kernel data segment
-            relative = (address - kernelDataBaseAddress) >> 2; // convert byte address to words
-            value = fetchWordFromTable(kernelDataBlockTable, relative);
+            value = fetchWord(address);
          } 
          else if (inKernelTextSegment(address)) {
            // DEVELOPER: PLEASE USE getStatement() TO READ FROM KERNEL TEXT SEGMENT...
@@ -724,7 +1099,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("address out of range ", 
                Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
-         notifyAnyObservers(AccessNotice.READ, address, Memory.WORD_LENGTH_BYTES,value);
+         if (observed) {
+            notifyAnyObservers(AccessNotice.READ, address, Memory.WORD_LENGTH_BYTES,value);
+         }
+         if (tracer != null) {
+            tracer.load(address, Memory.WORD_LENGTH_BYTES);
+         }
          return value;
       } 
    
@@ -752,20 +1132,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 
        public Integer getRawWordOrNull(int address) throws AddressErrorException {
          Integer value = null;
-         int relative;
          if (address % WORD_LENGTH_BYTES != 0) {
             throw new AddressErrorException("address for fetch not aligned on word boundary",
                   Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
          if (inDataSegment(address)) {
               // in data segment
-            relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
-            value = fetchWordOrNullFromTable(dataBlockTable, relative);
+            value = fetchWordOrNull(address);
          } 
          else if (address > stackLimitAddress && address <= stackBaseAddress) {
-              // in stack. Similar to data, except relative address computed "backward"
-            relative = (stackBaseAddress - address) >> 2; // convert byte address to words
-            value = fetchWordOrNullFromTable(stackBlockTable, relative);
+              // in stack.  Stored the same way as the data segment.
+            value = fetchWordOrNull(address);
          }
          else if (inTextSegment(address) || inKernelTextSegment(address)) {
             try { 
@@ -776,8 +1153,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          }  
          else if (inKernelDataSegment(address)) {
               // in kernel data segment
-            relative = (address - kernelDataBaseAddress) >> 2; // convert byte address to words
-            value = fetchWordOrNullFromTable(kernelDataBlockTable, relative);
+            value = fetchWordOrNull(address);
          } 
          else {
               // falls outside Mars addressing range
@@ -1048,6 +1424,15 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return  address >= memoryMapBaseAddress && address < kernelHighAddress;
       }   
    
+   /**
+    * Give the loads and stores made to a tracer, or stop doing so.  Used by
+    * MachineContext.setTracer().
+    * @param tracer the Tracer to give accesses to, or null for none
+    */
+       public void setTracer(Tracer tracer) {
+         this.tracer = tracer;
+      }
+   
    
    
    
@@ -1119,6 +1504,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                Exceptions.ADDRESS_EXCEPTION_LOAD, startAddr);
          }
          observables.add(new MemoryObservable(obs, startAddr, endAddr));
+         rebuildObserverIndex();
+         observed = true;
       }
    
       /**
@@ -1128,6 +1515,16 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return observables.size();
       }
    
+      /**
+   	 *  Whether any observer may be registered.  Stays true from the first addObserver()
+   	 *  until deleteObservers(), so a false result means accesses need not notify anyone.
+   	 *  Unlike countObservers() this takes no lock, so suits the simulator's fetch path.
+   	 *  @return false if no observer is registered
+   	 */
+       public boolean isObserved() {
+         return observed;
+      }
+   
    	/**
    	 *  Remove specified memory observers
    	 *  @param obs  Observer to be removed
@@ -1137,6 +1534,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          while (it.hasNext()) {
             ((MemoryObservable)it.next()).deleteObserver(obs);
          }	
+         rebuildObserverIndex();
       }
    	
    	/**
@@ -1145,6 +1543,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public void deleteObservers() {
          // just drop the collection
          observables = getNewMemoryObserversCollection();
+         observerIndex = null;
+         observed = false;
       }
    	
    	/**
@@ -1171,12 +1571,37 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        private Collection getNewMemoryObserversCollection() {
          return new Vector();  // Vectors are thread-safe
       }
+   
+    // Replaces the index with one built from the observables that still have observers.
+    // Dispatch reads whichever index is current without locking, so it is never modified
+    // once published.
+       private void rebuildObserverIndex() {
+         Collection current = observables;
+         ArrayList live = new ArrayList();
+         synchronized (current) {  // Vector synchronizes on itself
+            Iterator it = current.iterator();
+            while (it.hasNext()) {
+               MemoryObservable mo = (MemoryObservable) it.next();
+               if (mo.countObservers() > 0) {
+                  live.add(mo);
+               }
+            }
+         }
+         if (live.isEmpty()) {
+            observerIndex = null;
+            return;
+         }
+         Collections.sort(live);
+         observerIndex = new ObserverIndex((MemoryObservable[]) live.toArray(new MemoryObservable[live.size()]));
+      }
    		
        /////////////////////////////////////////////////////////////////////////
        // Private class whose objects will represent an observable-observer pair 
-   	 // for a given memory address or range.
+   	 // for a given memory address or range.  Its observers are also kept in an
+   	 // array replaced on every change, so notifying them neither locks nor copies.
        private class MemoryObservable extends Observable implements Comparable {
          private int lowAddress, highAddress; 
+         private volatile Observer[] observers = new Observer[0];
       	
           public MemoryObservable(Observer obs, int startAddr, int endAddr) {
             lowAddress = startAddr;
@@ -1185,16 +1610,52 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          }
       	
           public boolean match(int address) {
-            return (address >= lowAddress && address <= highAddress-1+WORD_LENGTH_BYTES);
+            return (address >= lowAddress && address <= getHighEnd());
          }
-      	
+      
+      	// Address of the last byte in the range.
+          public int getHighEnd() {
+            return highAddress-1+WORD_LENGTH_BYTES;
+         }
+      
+          public synchronized void addObserver(Observer obs) {
+            super.addObserver(obs);
+            if (super.countObservers() != observers.length) {
+               Observer[] grown = new Observer[observers.length+1];
+               System.arraycopy(observers, 0, grown, 0, observers.length);
+               grown[observers.length] = obs;
+               observers = grown;
+            }
+         }
+      
+          public synchronized void deleteObserver(Observer obs) {
+            super.deleteObserver(obs);
+            if (super.countObservers() != observers.length) {
+               Observer[] shrunk = new Observer[observers.length-1];
+               int j = 0;
+               for (int i = 0; i < observers.length; i++) {
+                  if (observers[i] != obs) {
+                     shrunk[j++] = observers[i];
+                  }
+               }
+               observers = shrunk;
+            }
+         }
+      
+          public synchronized void deleteObservers() {
+            super.deleteObservers();
+            observers = new Observer[0];
+         }
+      
+      	// Same order as Observable.notifyObservers(), most recently added first.
           public void notifyObserver(MemoryAccessNotice notice) {
-            this.setChanged();
-            this.notifyObservers(notice);
+            Observer[] current = observers;
+            for (int i = current.length-1; i >= 0; i--) {
+               current[i].update(this, notice);
+            }
          }
          
-      	// Useful to have for future refactoring, if it actually becomes worthwhile to sort
-      	// these or put 'em in a tree (rather than sequential search through list).
+      	// Orders by low address, then by high address.
           public int compareTo(Object obj) {
             if (!(obj instanceof MemoryObservable)) {
                throw new ClassCastException();
@@ -1204,11 +1665,68 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                return -1;
             }
             if (this.lowAddress > mo.lowAddress || this.lowAddress==mo.lowAddress && this.highAddress > mo.highAddress) {
-               return -1;
+               return 1;
             }
             return 0;  // they have to be equal at this point.
          }
       }
+   
+       /////////////////////////////////////////////////////////////////////////
+       // Immutable index of the observables, built by rebuildObserverIndex().  An
+       // observed range never crosses 0x80000000, so signed comparison orders the
+       // ranges and addresses consistently.
+       private static class ObserverIndex {
+         private final MemoryObservable[] observables;  // sorted by low address
+         private final int[] lowAddress;
+         private final int[] highEnd;
+         private final int[] maxHighEnd;  // maximum of highEnd[0..i]
+         private final long[] pages;      // one bit per page, set if any range touches it
+      
+          ObserverIndex(MemoryObservable[] sorted) {
+            observables = sorted;
+            lowAddress = new int[sorted.length];
+            highEnd = new int[sorted.length];
+            maxHighEnd = new int[sorted.length];
+            pages = new long[(PAGE_DIRECTORY_LENGTH * PAGE_TABLE_LENGTH) >>> 6];
+            for (int i = 0; i < sorted.length; i++) {
+               lowAddress[i] = sorted[i].lowAddress;
+               highEnd[i] = sorted[i].getHighEnd();
+               maxHighEnd[i] = (i == 0 || highEnd[i] > maxHighEnd[i-1]) ? highEnd[i] : maxHighEnd[i-1];
+               int lastPage = highEnd[i] >>> PAGE_SHIFT;
+               for (int page = lowAddress[i] >>> PAGE_SHIFT; page <= lastPage; page++) {
+                  pages[page >>> 6] |= 1L << page;
+               }
+            }
+         }
+      
+          boolean observesPage(int address) {
+            int page = address >>> PAGE_SHIFT;
+            return (pages[page >>> 6] & (1L << page)) != 0;
+         }
+      
+      	// Index of the first observable whose range, or that of one before it, reaches
+      	// the address.  Since maxHighEnd never decreases, no earlier one can match.
+          int firstCandidate(int address) {
+            int low = 0, high = observables.length;
+            while (low < high) {
+               int mid = (low + high) >>> 1;
+               if (maxHighEnd[mid] < address) low = mid + 1; 
+               else high = mid;
+            }
+            return low;
+         }
+      
+      	// One past the index of the last observable whose range starts at or below the address.
+          int endCandidate(int address) {
+            int low = 0, high = observables.length;
+            while (low < high) {
+               int mid = (low + high) >>> 1;
+               if (lowAddress[mid] <= address) low = mid + 1; 
+               else high = mid;
+            }
+            return low;
+         }
+      }
       
    
    /*********************************  THE HELPERS  *************************************/
@@ -1220,45 +1738,172 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    //
    // The "|| Globals.getGui()==null" is a hack added 19 July 2012 DPS.  IF MIPS simulation
    // is from command mode, Globals.program is null but still want ability to observe.
+   //
+   // Observers receive one notice object, reused for later accesses by the same thread
+   // once they return.  Should an observer itself access memory, or another thread
+   // notify meanwhile, a fresh notice is made instead.
        private void notifyAnyObservers(int type, int address, int length, int value) {
-         if ((Globals.program != null || Globals.getGui()==null) && this.observables.size() > 0) {
-            Iterator it = this.observables.iterator();
-            MemoryObservable mo;
-            while (it.hasNext()) {
-               mo = (MemoryObservable)it.next();
-               if (mo.match(address)) {
-                  mo.notifyObserver(new MemoryAccessNotice(type, address, length, value));
+         ObserverIndex index = observerIndex;
+         if (index == null || !index.observesPage(address) ||
+             (Globals.program == null && Globals.getGui()!=null)) {
+            return;
+         }
+         int end = index.endCandidate(address);
+         MemoryAccessNotice notice = null;
+         MemoryAccessNotice pooled = null;
+         try {
+            for (int i = index.firstCandidate(address); i < end; i++) {
+               if (index.highEnd[i] < address) {
+                  continue;
+               }
+               if (notice == null) {
+                  pooled = pooledNotice.get();
+                  if (pooled == null) {
+                     pooled = new MemoryAccessNotice(type, address, length, value);
+                     pooledNotice.set(pooled);
+                     pooled.inUse = true;
+                     notice = pooled;
+                  } 
+                  else if (!pooled.inUse) {
+                     pooled.reset(type, address, length, value);
+                     pooled.inUse = true;
+                     notice = pooled;
+                  } 
+                  else {
+                     pooled = null;
+                     notice = new MemoryAccessNotice(type, address, length, value);
+                  }
                }
+               index.observables[i].notifyObserver(notice);
+            }
+         } 
+         finally {
+            if (pooled != null) {
+               pooled.inUse = false;
             }
-         } 		
+         }
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Page table access.  None of the helpers below is synchronized: a Memory is used
+   // by the thread simulating its MachineContext, and by others only while they hold
+   // that context's lock (for the default context, Globals.memoryAndRegistersLock).
+   //
+   // Returns the page holding the given address, or null if none has been allocated.
+   //
+       private int[] getPage(int address) {
+         int[][] pageTable = pageDirectory[address >>> PAGE_TABLE_SHIFT];
+         return (pageTable == null) ? null : pageTable[(address >>> PAGE_SHIFT) & (PAGE_TABLE_LENGTH-1)];
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Returns the page holding the given address for writing to it.  The page (and
+   // its page table) is allocated if this is the first write within it, and copied
+   // if it is shared with a fork.
+   //
+       private int[] getPageForWrite(int address) {
+         int[][] pageTable = pageDirectory[address >>> PAGE_TABLE_SHIFT];
+         if (pageTable == null) {
+            pageTable = pageDirectory[address >>> PAGE_TABLE_SHIFT] = new int[PAGE_TABLE_LENGTH][];
+         }
+         int index = (address >>> PAGE_SHIFT) & (PAGE_TABLE_LENGTH-1);
+         int[] page = pageTable[index];
+         if (page == null) {
+            // First time writing to this page, so allocate the space.
+            page = pageTable[index] = new int[PAGE_LENGTH_WORDS];
+         } 
+         else if (sharedBlocks != null && sharedBlocks.remove(page) != null) {
+            page = pageTable[index] = page.clone();
+         }
+         return page;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Whether the given address is in a page lying entirely within the data, stack,
+   // memory mapped I/O or kernel data segment; see pageSegments.
+   //
+       private static boolean inFastPage(int address) {
+         byte[] segments = pageSegments[address >>> PAGE_TABLE_SHIFT];
+         return segments != null && segments[(address >>> PAGE_SHIFT) & (PAGE_TABLE_LENGTH-1)] != SLOW_PAGE;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Whether an access of the given length can use storeAligned() or fetchAligned():
+   // a word, halfword or byte on its own boundary, little-endian, in a fast page.
+   //
+       private static boolean isFastAccess(int address, int length) {
+         return (length == WORD_LENGTH_BYTES || length == 2 || length == 1) 
+               && (address & (length-1)) == 0 
+               && byteOrder == LITTLE_ENDIAN 
+               && inFastPage(address);
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Store an aligned word, halfword or byte (low order bits of value) directly in its
+   // page or off-heap store, little-endian.  Returns the value of the replaced bytes.
+   //
+       private int storeAligned(int address, int value, int length) {
+         if (offHeap != null) {
+            return offHeap.store(address, value, length);
+         }
+         int[] page = getPageForWrite(address);
+         int offset = (address >>> 2) & (PAGE_LENGTH_WORDS-1);
+         int oldWord = page[offset];
+         if (length == WORD_LENGTH_BYTES) {
+            page[offset] = value;
+            return oldWord;
+         }
+         int shift = (address & 3) << 3;
+         int mask = (length == 2) ? 0xFFFF : 0xFF;
+         page[offset] = (oldWord & ~(mask << shift)) | ((value & mask) << shift);
+         return (oldWord >>> shift) & mask;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Fetch an aligned word, halfword or byte directly from its page or off-heap store,
+   // little-endian.
+   //
+       private int fetchAligned(int address, int length) {
+         if (offHeap != null) {
+            return offHeap.fetch(address, length);
+         }
+         int[] page = getPage(address);
+         if (page == null) {
+            return 0;
+         }
+         int word = page[(address >>> 2) & (PAGE_LENGTH_WORDS-1)];
+         if (length == WORD_LENGTH_BYTES) {
+            return word;
+         }
+         return (word >>> ((address & 3) << 3)) & ((length == 2) ? 0xFFFF : 0xFF);
       }
    
    ////////////////////////////////////////////////////////////////////////////////
    //
-   // Helper method to store 1, 2 or 4 byte value in table that represents MIPS
-   // memory. Originally used just for data segment, but now also used for stack.
-   // Both use different tables but same storage method and same table size
-   // and block size.
-   // Modified 29 Dec 2005 to return old value of replaced bytes.
+   // Helper method to store 1, 2 or 4 byte value starting at any address, in either
+   // byte order.  Returns old value of replaced bytes.
    //
       private static final boolean STORE = true;
       private static final boolean FETCH = false;
    	 
-       private int storeBytesInTable(int [][] blockTable, 
-                                   int relativeByteAddress, int length, int value) {
-         return storeOrFetchBytesInTable(blockTable, relativeByteAddress, length, value, STORE);
+       private int storeBytes(int address, int length, int value) {
+         return storeOrFetchBytes(address, length, value, STORE);
       }
    	
    ////////////////////////////////////////////////////////////////////////////////
    //
-   // Helper method to fetch 1, 2 or 4 byte value from table that represents MIPS
-   // memory.  Originally used just for data segment, but now also used for stack.
-   // Both use different tables but same storage method and same table size
-   // and block size.
+   // Helper method to fetch 1, 2 or 4 byte value starting at any address, in either
+   // byte order.
    //	
    
-       private int fetchBytesFromTable(int[][] blockTable, int relativeByteAddress, int length) {
-         return storeOrFetchBytesInTable(blockTable, relativeByteAddress, length, 0, FETCH);
+       private int fetchBytes(int address, int length) {
+         return storeOrFetchBytes(address, length, 0, FETCH);
       }
    
    ////////////////////////////////////////////////////////////////////////////////		
@@ -1269,120 +1914,82 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    // client using STORE or FETCH in last arg.
    // Modified 29 Dec 2005 to return old value of replaced bytes, for STORE.
    //
-       private synchronized int storeOrFetchBytesInTable(int [][] blockTable, 
-                                   int relativeByteAddress, int length, int value, boolean op) {
-         int relativeWordAddress, block, offset, bytePositionInMemory, bytePositionInValue;
+       private int storeOrFetchBytes(int address, int length, int value, boolean op) {
+         int wordAddress, word, bytePositionInMemory, bytePositionInValue;
          int oldValue = 0; // for STORE, return old values of replaced bytes
          int loopStopper = 3-length;
-      	// IF added DPS 22-Dec-2008. NOTE: has NOT been tested with Big-Endian.
-      	// Fix provided by Saul Spatz; comments that follow are his.
-      	// If address in stack segment is 4k + m, with 0 < m < 4, then the
-         // relativeByteAddress we want is stackBaseAddress - 4k + m, but the
-         // address actually passed in is stackBaseAddress - (4k + m), so we
-         // need to add 2m.  Because of the change in sign, we get the
-         // expression 4-delta below in place of m.
-         if (blockTable == stackBlockTable) {
-            int delta = relativeByteAddress % 4;
-            if (delta != 0) {
-               relativeByteAddress += ( 4 - delta ) << 1;
-            }
-         }
          for (bytePositionInValue = 3; bytePositionInValue > loopStopper; bytePositionInValue--) {
-            bytePositionInMemory = relativeByteAddress % 4;
-            relativeWordAddress = relativeByteAddress >> 2;
-            block = relativeWordAddress / BLOCK_LENGTH_WORDS;  // Block number
-            offset = relativeWordAddress % BLOCK_LENGTH_WORDS; // Word within that block
-            if (blockTable[block] == null) {
-               if (op==STORE) 
-                  blockTable[block] = new int[BLOCK_LENGTH_WORDS];
-               else 
-                  return 0;
-            }
+            bytePositionInMemory = address & 3;
+            wordAddress = address - bytePositionInMemory;
+            word = fetchWord(wordAddress);
             if (byteOrder == LITTLE_ENDIAN) bytePositionInMemory = 3 - bytePositionInMemory;
             if (op == STORE) {
-               oldValue = replaceByte(blockTable[block][offset], bytePositionInMemory,
+               oldValue = replaceByte(word, bytePositionInMemory,
                   								oldValue, bytePositionInValue);
-               blockTable[block][offset] = replaceByte(value, bytePositionInValue, 
-                                         blockTable[block][offset], bytePositionInMemory);
+               storeWord(wordAddress, replaceByte(value, bytePositionInValue, 
+                                         word, bytePositionInMemory));
             } 
             else {// op == FETCH
-               value = replaceByte(blockTable[block][offset], bytePositionInMemory, 
+               value = replaceByte(word, bytePositionInMemory, 
                                                           value, bytePositionInValue);
             }
-            relativeByteAddress++;
+            address++;
          }
          return (op == STORE)	? oldValue : value;
       }	
    
    ////////////////////////////////////////////////////////////////////////////////
    //
-   // Helper method to store 4 byte value in table that represents MIPS memory.
-   // Originally used just for data segment, but now also used for stack.
-   // Both use different tables but same storage method and same table size
-   // and block size.  Assumes address is word aligned, no endian processing.
-   // Modified 29 Dec 2005 to return overwritten value.
+   // Helper method to store 4 byte value.  Assumes address is word aligned, no endian
+   // processing.  Returns overwritten value.
          
-       private synchronized int storeWordInTable(int[][] blockTable, int relative, int value) {
-         int  block, offset, oldValue;
-         block = relative / BLOCK_LENGTH_WORDS;
-         offset = relative % BLOCK_LENGTH_WORDS; 
-         if (blockTable[block] == null) {
-               // First time writing to this block, so allocate the space.
-            blockTable[block] = new int[BLOCK_LENGTH_WORDS];
-         }
-         oldValue = blockTable[block][offset];
-         blockTable[block][offset] = value;
+       private int storeWord(int address, int value) {
+         if (offHeap != null) {
+            return offHeap.store(address, value, WORD_LENGTH_BYTES);
+         }
+         int[] page = getPageForWrite(address);
+         int offset = (address >>> 2) & (PAGE_LENGTH_WORDS-1);
+         int oldValue = page[offset];
+         page[offset] = value;
          return oldValue;
       }
       
    ////////////////////////////////////////////////////////////////////////////////
    //
-   // Helper method to fetch 4 byte value from table that represents MIPS memory.
-   // Originally used just for data segment, but now also used for stack.
-   // Both use different tables but same storage method and same table size
-   // and block size.  Assumes word alignment, no endian processing.
+   // Helper method to fetch 4 byte value.  Assumes word alignment, no endian processing.
    //
    
-       private synchronized int fetchWordFromTable(int[][] blockTable, int relative) {
-         int value = 0;
-         int block, offset;
-         block = relative / BLOCK_LENGTH_WORDS;
-         offset = relative % BLOCK_LENGTH_WORDS; 
-         if (blockTable[block] == null) {
-                   // first reference to an address in this block.  Assume initialized to 0.
-            value = 0;
-         } 
-         else {
-            value = blockTable[block][offset];
+       private int fetchWord(int address) {
+         if (offHeap != null) {
+            return offHeap.fetch(address, WORD_LENGTH_BYTES);
          }
-         return value;
+         int[] page = getPage(address);
+         // first reference to an address in a page is assumed initialized to 0.
+         return (page == null) ? 0 : page[(address >>> 2) & (PAGE_LENGTH_WORDS-1)];
       }     
        
        ////////////////////////////////////////////////////////////////////////////////
        //
-       // Helper method to fetch 4 byte value from table that represents MIPS memory.
-       // Originally used just for data segment, but now also used for stack.
-       // Both use different tables but same storage method and same table size
-       // and block size.  Assumes word alignment, no endian processing.
+       // Helper method to fetch 4 byte value.  Assumes word alignment, no endian processing.
    	 //
-   	 // This differs from "fetchWordFromTable()" in that it returns an Integer and
-   	 // returns null instead of 0 if the 4K table has not been allocated.  Developed
-   	 // by Greg Gibeling of UC Berkeley, fall 2007.
+   	 // This differs from "fetchWord()" in that it returns an Integer and returns null 
+   	 // instead of 0 if the 4K page has not been allocated.  Developed by Greg Gibeling 
+   	 // of UC Berkeley, fall 2007.
        //
        
-       private synchronized Integer fetchWordOrNullFromTable(int[][] blockTable, int relative) {
-         int value = 0;
-         int block, offset;
-         block = relative / BLOCK_LENGTH_WORDS;
-         offset = relative % BLOCK_LENGTH_WORDS; 
-         if (blockTable[block] == null) {
-                       // first reference to an address in this block.  Assume initialized to 0.
+       private Integer fetchWordOrNull(int address) {
+         if (!isPageWritten(address)) {
             return null;
-         } 
-         else {
-            value = blockTable[block][offset];
          }
-         return new Integer(value);
+         return Integer.valueOf(fetchWord(address));
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Whether anything has been stored in the 4K page holding the given address.
+   //
+       private boolean isPageWritten(int address) {
+         return (offHeap != null) ? offHeap.isPageWritten(address) : getPage(address) != null;
       }
    	   
    ////////////////////////////////////////////////////////////////////////////////////
@@ -1422,6 +2029,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             if (blockTable[block] == null) {
                // No instructions are stored in this block, so allocate the block.
                blockTable[block] = new ProgramStatement[BLOCK_LENGTH_WORDS];
+            } 
+            else if (sharedBlocks != null) {
+               ownTextBlock(blockTable, block);
             }
             blockTable[block][offset] = statement;
          }
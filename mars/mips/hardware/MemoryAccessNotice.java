@@ -31,6 +31,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 /**
  * Object provided to Observers of runtime access to MIPS memory.
  * Observer can get the access type (R/W), address and length in bytes (4,2,1).
+ * A notice delivered by Memory is only valid during the Observer's update() call:
+ * Memory keeps one notice per thread and overwrites it for that thread's next
+ * access, so unlike other notices it is not immutable.  An Observer should copy out
+ * whatever it needs to keep rather than hold on to the notice itself.
  * 
  * @author Pete Sanderson 
  * @version July 2005
@@ -40,11 +44,12 @@ public class MemoryAccessNotice extends AccessNotice {
    private int address;
 	private int length;
 	private int value;
+	boolean inUse;  // set by Memory while the notice is being delivered
 
-  /** Constructor will be called only within this package, so assume
+  /** Constructor is called mostly within this package, so assume
    *  address and length are in valid ranges.
 	*/
-   MemoryAccessNotice(int type, int address, int length, int value) {
+   public MemoryAccessNotice(int type, int address, int length, int value) {
      super(type);
 	  this.address = address;
 	  this.length = length;
@@ -59,6 +64,13 @@ public class MemoryAccessNotice extends AccessNotice {
 	  this.length = Memory.WORD_LENGTH_BYTES;
 	  this.value = value;
   }
+  /** Reuse this notice for another access; see Memory.notifyAnyObservers() */
+   protected void reset(int type, int address, int length, int value) {
+     setAccessType(type);
+	  this.address = address;
+	  this.length = length;
+	  this.value = value;
+  }
   /** Fetch the memory address that was accessed. */
   public int getAddress() {
      return address;
@@ -41,17 +41,34 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 
 
     public class MemoryConfiguration {
+      /** Backing store: <tt>int</tt> arrays on the Java heap.  The data, stack and
+   	  *  kernel data segments are limited to 4MB each. */
+      public static final int HEAP_STORE = 0;
+      /** Backing store: direct (off-heap) byte buffers.  Segments are limited only
+   	  *  by the configured limit addresses. */
+      public static final int DIRECT_STORE = 1;
+      /** Backing store: a memory-mapped file, laid out so that the byte at file offset 
+   	  *  <i>n</i> is the byte at address <i>n</i>.  Segments are limited only by the
+   	  *  configured limit addresses.  See MemoryConfigurations.setMemoryImageFile(). */
+      public static final int MAPPED_STORE = 2;
+   
 	   // Identifier is used for saving setting; name is used for display
       private String configurationIdentifier, configurationName;
       private String[] configurationItemNames;
       private int[] configurationItemValues;
+      private int backingStore;
    	
    
        public MemoryConfiguration(String ident, String name, String[] items, int[] values) {
+         this(ident, name, items, values, HEAP_STORE);
+      }
+   
+       public MemoryConfiguration(String ident, String name, String[] items, int[] values, int store) {
 		   this.configurationIdentifier = ident;
          this.configurationName = name;
          this.configurationItemNames = items;
          this.configurationItemValues = values;
+         this.backingStore = store;
       }
    	
    	public String getConfigurationIdentifier() {
@@ -62,6 +79,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return configurationName;
       }
    
+       public int getBackingStore() {
+         return backingStore;
+      }
+   
        public int[] getConfigurationItemValues() {
          return configurationItemValues;
       }
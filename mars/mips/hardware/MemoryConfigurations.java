@@ -1,6 +1,7 @@
    package mars.mips.hardware;
    import mars.Globals;
    import java.util.*;
+   import java.io.File;
 
 /*
 Copyright (c) 2003-2009,  Pete Sanderson and Kenneth Vollmar
@@ -45,6 +46,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private static ArrayList configurations = null;
       private static MemoryConfiguration defaultConfiguration;
       private static MemoryConfiguration currentConfiguration;
+      private static File memoryImageFile = null;
    	
    	// Be careful, these arrays are parallel and position-sensitive.
    	// The getters in this and in MemoryConfiguration depend on this
@@ -100,6 +102,32 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          0xffffffff  // memory map limit address
          };
    
+      // Large is the default address space with the 4MB segment limits of on-heap
+   	// memory lifted: 768MB of data and heap, and the stack may grow down to meet it.
+      private static int[] largeConfigurationItemValues = { 
+         0x00400000, // .text Base Address
+         0x10000000, // Data Segment base address
+         0x10000000, // .extern Base Address
+         0x10008000, // Global Pointer $gp)
+         0x10010000, // .data base Address
+         0x10040000, // heap base address
+         0x7fffeffc, // stack pointer $sp (from SPIM not MIPS)
+         0x7ffffffc, // stack base address
+         0x7fffffff, // highest address in user space
+         0x80000000, // lowest address in kernel space
+         0x80000000, // .ktext base address
+         0x80000180, // exception handler address
+         0x90000000, // .kdata base address
+         0xffff0000, // MMIO base address
+         0xffffffff, // highest address in kernel (and memory)
+         0x40000000, // data segment limit address
+         0x0ffffffc, // text limit address
+         0xfffeffff, // kernel data segment limit address
+         0x8ffffffc, // kernel text limit address
+         0x3fffffff, // stack limit address
+         0xffffffff  // memory map limit address
+         };
+   
       // Compact allows 16 bit addressing, data segment starts at 0
       private static int[] dataBasedCompactConfigurationItemValues = { 
          0x00003000, // .text Base Address
@@ -163,6 +191,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             configurations.add(new MemoryConfiguration("Default", "Default", configurationItemNames, defaultConfigurationItemValues));
             configurations.add(new MemoryConfiguration("CompactDataAtZero", "Compact, Data at Address 0", configurationItemNames, dataBasedCompactConfigurationItemValues));
             configurations.add(new MemoryConfiguration("CompactTextAtZero", "Compact, Text at Address 0", configurationItemNames, textBasedCompactConfigurationItemValues));
+            configurations.add(new MemoryConfiguration("Large", "Large, off-heap", configurationItemNames, largeConfigurationItemValues,
+                                                       MemoryConfiguration.DIRECT_STORE));
+            configurations.add(new MemoryConfiguration("LargeMapped", "Large, memory-mapped file", configurationItemNames, largeConfigurationItemValues,
+                                                       MemoryConfiguration.MAPPED_STORE));
             defaultConfiguration = (MemoryConfiguration) configurations.get(0);
             currentConfiguration = defaultConfiguration;
          	// Get current config from settings
@@ -217,7 +249,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             return false;
          if (config != currentConfiguration) {
             currentConfiguration = config;
-            Globals.memory.clear();
+            Memory.getInstance().clear();
             RegisterFile.getUserRegister("$gp").changeResetValue(config.getGlobalPointer());
             RegisterFile.getUserRegister("$sp").changeResetValue(config.getStackPointer());
             RegisterFile.getProgramCounterRegister().changeResetValue(config.getTextBaseAddress());
@@ -231,6 +263,28 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    	
    
+   
+     /**
+      * Set the file backing memory in configurations whose backing store is 
+   	* MemoryConfiguration.MAPPED_STORE.  Its previous contents are discarded when
+   	* memory is next cleared, and afterwards it holds the memory image, so it can be
+   	* kept and examined after the run.  Only one memory at a time uses the file;
+   	* others, such as those of forked machines, use temporary files.
+   	* @param file the memory image file, or null to use a temporary file
+   	*/
+       public static void setMemoryImageFile(File file) {
+         memoryImageFile = file;
+      }
+   	
+     /**
+      * Get the file backing memory in configurations whose backing store is 
+   	* MemoryConfiguration.MAPPED_STORE.
+   	* @return the memory image file, or null if a temporary file is used
+   	*/
+       public static File getMemoryImageFile() {
+         return memoryImageFile;
+      }
+   
    ////  Use these to intialize Memory static variables at launch
    			
        public static int getDefaultTextBaseAddress() {
@@ -0,0 +1,206 @@
+   package mars.mips.hardware;
+   import java.io.*;
+   import java.nio.*;
+   import java.nio.channels.FileChannel;
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+/**
+ * Off-heap storage for the data, stack, kernel data and memory mapped I/O
+ * segments, used by Memory in place of its <tt>int</tt> page table when the
+ * memory configuration's backing store is MemoryConfiguration.DIRECT_STORE or
+ * MAPPED_STORE.  Storage is allocated in 4MB chunks, each a direct byte buffer or
+ * a region mapped from the memory image file, so that hundreds of megabytes of
+ * simulated memory add nothing to the Java heap.  Chunks are little-endian and
+ * placed by address: in the image file, the byte at offset <i>n</i> is the byte at
+ * address <i>n</i>.  The file is sparse where the file system allows, so only the
+ * chunks written to take disk space.
+ * <p>
+ * Like Memory's page table, the store remembers which 4K pages have been written
+ * to, for Memory.getRawWordOrNull() and checkpoints.  Addresses given to the
+ * store have already been checked by Memory, and are aligned to the access length.
+ *
+ * @version October 2014
+ */
+
+    public class OffHeapMemoryStore {
+      private static final int CHUNK_SHIFT = 22;  // 4MB chunks
+      private static final int CHUNK_LENGTH_BYTES = 1 << CHUNK_SHIFT;
+      private static final int CHUNK_COUNT = 1024; // covering the 4GB address space
+      private static final int PAGE_SHIFT = 12;   // 4K pages
+      private static final int PAGES_PER_CHUNK = 1 << (CHUNK_SHIFT - PAGE_SHIFT);
+   
+      private final ByteBuffer[] chunks = new ByteBuffer[CHUNK_COUNT];
+      private final boolean[][] pagesWritten = new boolean[CHUNK_COUNT][];
+      private final File imageFile;
+      private RandomAccessFile image;
+   
+   /**
+    * Create a store of direct byte buffers.
+    */
+       public OffHeapMemoryStore() {
+         this.imageFile = null;
+      }
+   
+   /**
+    * Create a store mapped from the given file.  The file is truncated, so the
+    * store starts out empty.  If the file is a temporary one, it is deleted at once
+    * where the platform allows deleting a file that is open, otherwise on exit.
+    *
+    * @param file the memory image file
+    * @param temporary true if the file is of no use once the store is gone
+    * @throws IOException if the file cannot be opened or truncated
+    */
+       public OffHeapMemoryStore(File file, boolean temporary) throws IOException {
+         this.imageFile = (temporary) ? null : file;
+         this.image = new RandomAccessFile(file, "rw");
+         this.image.setLength(0);
+         if (temporary && !file.delete()) {
+            file.deleteOnExit();
+         }
+      }
+   
+   /**
+    * @return the memory image file, or null if this store uses direct buffers or
+    * a temporary file.
+    */
+       public File getImageFile() {
+         return imageFile;
+      }
+   
+   /**
+    * Close the image file, if any.  The store must not be used afterwards.  Its
+    * mappings remain until they are garbage collected.
+    */
+       public void close() {
+         if (image != null) {
+            try {
+               image.close();
+            } 
+                catch (IOException e) {
+                  // nothing more to be done with it
+               }
+            image = null;
+         }
+      }
+   
+   /**
+    * Fetch an aligned word, halfword or byte.  Memory never written to reads as 0.
+    *
+    * @param address address of the first byte
+    * @param length 4, 2 or 1
+    * @return the value, zero-extended
+    */
+       public int fetch(int address, int length) {
+         ByteBuffer chunk = chunks[address >>> CHUNK_SHIFT];
+         if (chunk == null) {
+            return 0;
+         }
+         int offset = address & (CHUNK_LENGTH_BYTES-1);
+         switch (length) {
+            case 4:
+               return chunk.getInt(offset);
+            case 2:
+               return chunk.getShort(offset) & 0xFFFF;
+            default:
+               return chunk.get(offset) & 0xFF;
+         }
+      }
+   
+   /**
+    * Store an aligned word, or the low order bits of the value into an aligned
+    * halfword or byte.
+    *
+    * @param address address of the first byte
+    * @param value the value to store
+    * @param length 4, 2 or 1
+    * @return the value replaced, zero-extended
+    */
+       public int store(int address, int value, int length) {
+         int chunkNumber = address >>> CHUNK_SHIFT;
+         ByteBuffer chunk = chunks[chunkNumber];
+         if (chunk == null) {
+            chunk = allocateChunk(chunkNumber);
+         }
+         pagesWritten[chunkNumber][(address >>> PAGE_SHIFT) & (PAGES_PER_CHUNK-1)] = true;
+         int offset = address & (CHUNK_LENGTH_BYTES-1);
+         int oldValue;
+         switch (length) {
+            case 4:
+               oldValue = chunk.getInt(offset);
+               chunk.putInt(offset, value);
+               break;
+            case 2:
+               oldValue = chunk.getShort(offset) & 0xFFFF;
+               chunk.putShort(offset, (short) value);
+               break;
+            default:
+               oldValue = chunk.get(offset) & 0xFF;
+               chunk.put(offset, (byte) value);
+               break;
+         }
+         return oldValue;
+      }
+   
+   /**
+    * Determine whether anything has been stored in the 4K page holding an address.
+    *
+    * @param address any address in the page
+    * @return true if the page has been written to
+    */
+       public boolean isPageWritten(int address) {
+         boolean[] written = pagesWritten[address >>> CHUNK_SHIFT];
+         return written != null && written[(address >>> PAGE_SHIFT) & (PAGES_PER_CHUNK-1)];
+      }
+   
+      // Create the chunk with the given number, mapping it from the image file if
+   	// there is one.  A failure to map is not a MIPS error, so it is unchecked.
+       private ByteBuffer allocateChunk(int chunkNumber) {
+         ByteBuffer chunk;
+         if (image == null) {
+            chunk = ByteBuffer.allocateDirect(CHUNK_LENGTH_BYTES);
+         } 
+         else {
+            try {
+               chunk = image.getChannel().map(FileChannel.MapMode.READ_WRITE, 
+                                              (long) chunkNumber << CHUNK_SHIFT, CHUNK_LENGTH_BYTES);
+            } 
+                catch (IOException e) {
+                  throw new IllegalStateException("cannot map memory image file: "+e.getMessage());
+               }
+         }
+         chunk.order(ByteOrder.LITTLE_ENDIAN);
+         pagesWritten[chunkNumber] = new boolean[PAGES_PER_CHUNK];
+         chunks[chunkNumber] = chunk;
+         return chunk;
+      }
+   }
@@ -39,11 +39,23 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     public class Register extends Observable {
       private String name;
       private int number, resetValue;
-   	// volatile should be enough to allow safe multi-threaded access  
-   	// w/o the use of synchronized methods.  getValue and setValue
-   	// are the only methods here used by the register collection
-   	// (RegisterFile, Coprocessor0, Coprocessor1) methods. 
-      private volatile int value;
+   	// The value is kept in slot index of a primitive array owned by the register
+   	// collection (RegisterFile, Coprocessor0, Coprocessor1), which reads and writes
+   	// the slot directly on its fast paths.  Slot index of the collection's
+   	// ObservedFlags is set while this register has observers, and the collection
+   	// only goes through the Register (and its notification) when it is.  Registers
+   	// created standalone get arrays and flags of their own.
+   	//
+   	// Threads: values are written by the thread running the simulation, which holds
+   	// the MachineContext lock (Globals.memoryAndRegistersLock for the default context)
+   	// while it executes instructions.  Other threads, such as the GUI and tools, see
+   	// current values if they read while holding that lock, or after the run has ended.
+   	// Observed flags may be changed by any thread.  Each change publishes a new flag
+   	// array through a volatile field (see ObservedFlags), so the simulation thread
+   	// sees an observer attached mid-run on its next access of the register.
+      private final int[] values;
+      private final ObservedFlags observed;
+      private final int index;
       
    	 /**
         *  Creates a new register with specified name, number, and value.
@@ -53,10 +65,28 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
         */
    	  
        public Register(String n, int num, int val){
+         this(n, num, val, new int[1], new ObservedFlags(1), 0);
+      }
+   	
+   	 /**
+        *  Creates a new register whose value is held in the given slot of a register
+   	  *  collection's value and observation arrays.
+        *   @param n The name of the register.
+        *   @param num The number of the register.
+        *   @param val The inital (and reset) value of the register.
+        *   @param values Array holding the register values of the collection.
+        *   @param observed Observation flags of the collection.
+        *   @param index Slot of this register in the values and the flags.
+        */
+   	  
+       Register(String n, int num, int val, int[] values, ObservedFlags observed, int index){
          name= n;
          number=num;
-         value= val;
          resetValue = val;
+         this.values = values;
+         this.observed = observed;
+         this.index = index;
+         values[index] = val;
       }
       
    	/**
@@ -74,9 +104,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  *   @return value The value of the Register.
    	  */
    	  
-       public synchronized int getValue(){
-         notifyAnyObservers(AccessNotice.READ);
-         return value;
+       public int getValue(){
+         if (observed.isSet(index)) {
+            notifyAnyObservers(AccessNotice.READ);
+         }
+         return values[index];
       }
 
       
@@ -86,8 +118,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  *   @return value The value of the Register.
    	  */
    	  
-       public synchronized int getValueNoNotify(){
-         return value;
+       public int getValueNoNotify(){
+         return values[index];
       }
 		
    
@@ -115,10 +147,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  *   @return previous value of register
    	  */
    	  
-       public synchronized int setValue(int val){
-         int old = value;
-         value = val;
-         notifyAnyObservers(AccessNotice.WRITE);
+       public int setValue(int val){
+         int old = values[index];
+         values[index] = val;
+         if (observed.isSet(index)) {
+            notifyAnyObservers(AccessNotice.WRITE);
+         }
          return old;
       }
    	
@@ -127,8 +161,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  *  Observers are not notified.  
    	  */
    	  
-       public synchronized void resetValue(){
-         value = resetValue;
+       public void resetValue(){
+         values[index] = resetValue;
       }
    	
    	/**
@@ -140,6 +174,66 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          resetValue = reset;
       }
    
+   	/**
+   	  *  Adds an observer and marks the register as observed, so that the register
+   	  *  collection routes accesses through this object.
+   	  *   @param o Observer to be notified of reads and writes.
+   	  */
+   	  
+       public synchronized void addObserver(Observer o) {
+         super.addObserver(o);
+         observed.set(index, true);
+      }
+   	
+   	/**
+   	  *  Deletes an observer, and clears the observed mark if it was the last one.
+   	  *   @param o Observer to be deleted.
+   	  */
+   	  
+       public synchronized void deleteObserver(Observer o) {
+         super.deleteObserver(o);
+         observed.set(index, countObservers() > 0);
+      }
+   	
+   	/**
+   	  *  Deletes all observers and clears the observed mark.
+   	  */
+   	  
+       public synchronized void deleteObservers() {
+         super.deleteObservers();
+         observed.set(index, false);
+      }
+   
+   	/**
+   	  *  The observation flags of a register collection, one per slot.  The flags are
+   	  *  never changed in place: a change copies the array and publishes the copy
+   	  *  through a volatile field, so a reader on another thread sees the whole
+   	  *  updated array with one volatile read and no locking.  Changes are rare (an
+   	  *  observer being added or removed), reads happen on every register access.
+   	  */
+   	  
+       static final class ObservedFlags {
+         private volatile boolean[] flags;
+      
+          ObservedFlags(int length) {
+            flags = new boolean[length];
+         }
+      
+         // Whether the register in the given slot currently has observers.
+          boolean isSet(int index) {
+            return flags[index];
+         }
+      
+         // Set or clear the flag of the given slot.
+          synchronized void set(int index, boolean value) {
+            if (flags[index] != value) {
+               boolean[] changed = (boolean[]) flags.clone();
+               changed[index] = value;
+               flags = changed;
+            }
+         }
+      }
+   
    //
    // Method to notify any observers of register operation that has just occurred.
    //
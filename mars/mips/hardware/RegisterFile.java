@@ -1,8 +1,11 @@
    package mars.mips.hardware;
 
    import java.util.Observer;
+   import java.io.*;
 
    import mars.Globals;
+   import mars.MachineContext;
+   import mars.simulator.BackStepper;
    import mars.assembler.SymbolTable;
    import mars.mips.instructions.Instruction;
    import mars.util.Binary;
@@ -36,7 +39,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 
 /**
-  *  Represents the collection of MIPS registers.
+  *  Represents the collection of MIPS registers.  Each MachineContext has its own;
+  *  the static methods operate on that of the calling thread's current context.
   *   @author Jason Bumgarner, Jason Shrewsbury
   *   @version June 2003
   **/
@@ -45,30 +49,85 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
       public static final int GLOBAL_POINTER_REGISTER = 28;
       public static final int STACK_POINTER_REGISTER = 29;
+      private static final int PROGRAM_COUNTER = 32;
+      private static final int HI = 33;
+      private static final int LO = 34;
    
-      private static Register [] regFile = 
-          { new Register("$zero", 0, 0), new Register("$at", 1, 0),
-         	new Register("$v0", 2, 0),new Register("$v1", 3, 0),
-         	new Register("$a0", 4, 0),new Register("$a1", 5, 0),
-         	new Register("$a2", 6, 0),new Register("$a3", 7, 0),
-         	new Register("$t0", 8, 0),new Register("$t1", 9, 0),
-         	new Register("$t2", 10, 0),new Register("$t3", 11, 0), 
-         	new Register("$t4", 12, 0),new Register("$t5", 13, 0),
-         	new Register("$t6", 14, 0),new Register("$t7", 15, 0),
-         	new Register("$s0", 16, 0),new Register("$s1", 17, 0),
-         	new Register("$s2", 18, 0),new Register("$s3", 19, 0),
-         	new Register("$s4", 20, 0),new Register("$s5", 21, 0),
-         	new Register("$s6", 22, 0),new Register("$s7", 23, 0),
-         	new Register("$t8", 24, 0),new Register("$t9", 25, 0),
-         	new Register("$k0", 26, 0),new Register("$k1", 27, 0),
-         	new Register("$gp", GLOBAL_POINTER_REGISTER, Memory.globalPointer),
-         	new Register("$sp", STACK_POINTER_REGISTER, Memory.stackPointer),
-         	new Register("$fp", 30, 0),new Register("$ra", 31, 0)
+   	// Register values and observation flags, indexed by register number.  The
+   	// Register objects below are views onto these; see Register.
+      private final int[] values = new int[LO+1];
+      private final Register.ObservedFlags observed = new Register.ObservedFlags(LO+1);
+   
+      private Register [] regFile = 
+          { register("$zero", 0, 0), register("$at", 1, 0),
+         	register("$v0", 2, 0),register("$v1", 3, 0),
+         	register("$a0", 4, 0),register("$a1", 5, 0),
+         	register("$a2", 6, 0),register("$a3", 7, 0),
+         	register("$t0", 8, 0),register("$t1", 9, 0),
+         	register("$t2", 10, 0),register("$t3", 11, 0), 
+         	register("$t4", 12, 0),register("$t5", 13, 0),
+         	register("$t6", 14, 0),register("$t7", 15, 0),
+         	register("$s0", 16, 0),register("$s1", 17, 0),
+         	register("$s2", 18, 0),register("$s3", 19, 0),
+         	register("$s4", 20, 0),register("$s5", 21, 0),
+         	register("$s6", 22, 0),register("$s7", 23, 0),
+         	register("$t8", 24, 0),register("$t9", 25, 0),
+         	register("$k0", 26, 0),register("$k1", 27, 0),
+         	register("$gp", GLOBAL_POINTER_REGISTER, Memory.globalPointer),
+         	register("$sp", STACK_POINTER_REGISTER, Memory.stackPointer),
+         	register("$fp", 30, 0),register("$ra", 31, 0)
            };
          												  
-      private static Register programCounter= new Register("pc", 32, Memory.textBaseAddress); 
-      private static Register hi= new Register("hi", 33, 0);//this is an internal register with arbitrary number
-      private static Register lo= new Register("lo", 34, 0);// this is an internal register with arbitrary number
+      private Register programCounter= register("pc", PROGRAM_COUNTER, Memory.textBaseAddress); 
+      private Register hi= register("hi", HI, 0);//this is an internal register with arbitrary number
+      private Register lo= register("lo", LO, 0);// this is an internal register with arbitrary number
+   
+   	/**
+   	  *  Create a register file with all registers at their reset values.  Used by
+   	  *  MachineContext; everything else should use the static methods.
+   	  **/
+       public RegisterFile() {
+      }
+   
+      // The register file of the current MachineContext.
+       private static RegisterFile current() {
+         return MachineContext.current().getRegisterFile();
+      }
+   	
+      // Create a register held in the values slot given by its number.
+       private Register register(String name, int number, int resetValue) {
+         return new Register(name, number, resetValue, values, observed, number);
+      }
+   	
+      // The Register object for the given number: 0-31, PROGRAM_COUNTER, HI or LO.
+       private Register getRegister(int num) {
+         switch (num) {
+            case PROGRAM_COUNTER: 
+               return programCounter;
+            case HI: 
+               return hi;
+            case LO: 
+               return lo;
+            default: 
+               return regFile[num];
+         }
+      }
+   	
+      // Read a register value, going through its Register object only if observed.
+       private int read(int num) {
+         return observed.isSet(num) ? getRegister(num).getValue() : values[num];
+      }
+   	
+      // Write a register value, going through its Register object only if observed.
+      // Returns the previous value.
+       private int write(int num, int val) {
+         if (observed.isSet(num)) {
+            return getRegister(num).setValue(val);
+         }
+         int old = values[num];
+         values[num] = val;
+         return old;
+      }
    		 
    
    	/**
@@ -76,6 +135,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/	 
    		 
        public static void showRegisters(){
+         Register[] regFile = current().regFile;
          for (int i=0; i< regFile.length; i++){
             System.out.println("Name: " + regFile[i].getName());
             System.out.println("Number: " + regFile[i].getNumber());
@@ -93,29 +153,15 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	  
        public static int updateRegister(int num, int val){
-         int old = 0;
-         if(num == 0){
+         if (num <= 0 || num == PROGRAM_COUNTER || num > LO) {
             //System.out.println("You can not change the value of the zero register.");
+            return 0;
          }
-         else {
-            for (int i=0; i< regFile.length; i++){
-               if(regFile[i].getNumber()== num) {
-                  old = (Globals.getSettings().getBackSteppingEnabled())
-                        ? Globals.program.getBackStepper().addRegisterFileRestore(num,regFile[i].setValue(val))
-                     	: regFile[i].setValue(val);
-                  break;
-               }
-            }
-         }
-         if(num== 33){//updates the hi register
-            old = (Globals.getSettings().getBackSteppingEnabled())
-               	      ? Globals.program.getBackStepper().addRegisterFileRestore(num,hi.setValue(val))
-               			: hi.setValue(val);
-         }
-         else if(num== 34){// updates the low register
-            old = (Globals.getSettings().getBackSteppingEnabled())
-               	      ? Globals.program.getBackStepper().addRegisterFileRestore(num,lo.setValue(val))
-               			: lo.setValue(val);
+         MachineContext context = MachineContext.current();
+         int old = context.getRegisterFile().write(num, val);
+         BackStepper backStepper = context.getBackStepper();
+         if (backStepper != null && backStepper.enabled()) {
+            backStepper.addRegisterFileRestore(num, old);
          }
          return old;
       }
@@ -127,6 +173,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static void updateRegister(String reg, int val){
+         Register[] regFile = current().regFile;
          if(reg.equals("zero")){
             //System.out.println("You can not change the value of the zero register.");
          }
@@ -146,15 +193,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static int getValue(int num){
-         if(num==33){
-            return hi.getValue();
-         }
-         else if(num==34){
-            return lo.getValue();
-         }
-         else  
-            return regFile[num].getValue();
-            
+         return current().read(num);
       }
       		
       	/**
@@ -165,6 +204,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    		  **/	
       		
        public static int getNumber(String n){
+         Register[] regFile = current().regFile;
          int j=-1;
          for (int i=0; i< regFile.length; i++){
             if(regFile[i].getName().equals(n)) {
@@ -181,7 +221,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static Register[] getRegisters(){
-         return regFile;
+         return current().regFile;
       }
       
    	/**
@@ -191,6 +231,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static Register getUserRegister(String Rname) {
+         Register[] regFile = current().regFile;
          Register reg = null;
          if (Rname.charAt(0) == '$') {
             try {
@@ -221,7 +262,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
      
        public static void initializeProgramCounter(int value){
-         programCounter.setValue(value);
+         current().write(PROGRAM_COUNTER, value);
       }
    	
    	/**
@@ -234,7 +275,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 **/
    	 
        public static void initializeProgramCounter(boolean startAtMain) {  
-         int mainAddr = Globals.symbolTable.getAddress(SymbolTable.getStartLabel());
+         Register programCounter = current().programCounter;
+         int mainAddr = MachineContext.current().getSymbolTable().getAddress(SymbolTable.getStartLabel());
          if (startAtMain && mainAddr != SymbolTable.NOT_FOUND && (Memory.inTextSegment(mainAddr) || Memory.inKernelTextSegment(mainAddr))) {
             initializeProgramCounter(mainAddr);
          } 
@@ -251,10 +293,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
      
        public static int setProgramCounter(int value){
-         int old = programCounter.getValue();
-         programCounter.setValue(value);
-         if (Globals.getSettings().getBackSteppingEnabled()) {
-            Globals.program.getBackStepper().addPCRestore(old);
+         MachineContext context = MachineContext.current();
+         int old = context.getRegisterFile().write(PROGRAM_COUNTER, value);
+         BackStepper backStepper = context.getBackStepper();
+         if (backStepper != null && backStepper.enabled()) {
+            backStepper.addPCRestore(old);
          } 
          return old;
       }
@@ -265,7 +308,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	 
        public static int getProgramCounter(){
-         return programCounter.getValue();
+         return current().read(PROGRAM_COUNTER);
       }
    
      /**
@@ -273,7 +316,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	*  @return program counter's Register object.
    	*/
        public static Register getProgramCounterRegister() {
-         return programCounter;
+         return current().programCounter;
       }
    	
      /**
@@ -282,7 +325,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	 
        public static int getInitialProgramCounter(){
-         return programCounter.getResetValue();
+         return current().programCounter.getResetValue();
       }
    	
    	/**
@@ -295,6 +338,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static void resetRegisters(){
+         RegisterFile file = current();
+         Register[] regFile = file.regFile;
+         Register programCounter = file.programCounter;
+         Register hi = file.hi;
+         Register lo = file.lo;
          for(int i=0; i< regFile.length; i++){
             regFile[i].resetValue();
          }
@@ -308,7 +356,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 **/
    
        public static void incrementPC(){
-         programCounter.setValue(programCounter.getValue() + Instruction.INSTRUCTION_LENGTH);
+         RegisterFile file = current();
+         file.write(PROGRAM_COUNTER, file.read(PROGRAM_COUNTER) + Instruction.INSTRUCTION_LENGTH);
       }
    
       /**
@@ -317,6 +366,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  Counter.
    	 */
        public static void addRegistersObserver(Observer observer) {
+         RegisterFile file = current();
+         Register[] regFile = file.regFile;
+         Register hi = file.hi;
+         Register lo = file.lo;
          for (int i=0; i<regFile.length; i++) {
             regFile[i].addObserver(observer);
          }
@@ -330,10 +383,43 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 *  Counter.
    	 */
        public static void deleteRegistersObserver(Observer observer) {
+         RegisterFile file = current();
+         Register[] regFile = file.regFile;
+         Register hi = file.hi;
+         Register lo = file.lo;
          for (int i=0; i<regFile.length; i++) {
             regFile[i].deleteObserver(observer);
          }
          hi.deleteObserver(observer);
          lo.deleteObserver(observer);
       }
+   	
+      /**
+   	 *  Write the values of all registers, including the program counter, hi and lo,
+   	 *  to a checkpoint.
+   	 *
+   	 *  @param out stream to write the checkpoint to
+   	 */
+       public void writeCheckpoint(DataOutputStream out) throws IOException {
+         for (int i=0; i<regFile.length; i++) {
+            out.writeInt(regFile[i].getValueNoNotify());
+         }
+         out.writeInt(programCounter.getValueNoNotify());
+         out.writeInt(hi.getValueNoNotify());
+         out.writeInt(lo.getValueNoNotify());
+      }
+   	
+      /**
+   	 *  Set the values of all registers from a checkpoint written by writeCheckpoint().
+   	 *
+   	 *  @param in stream to read the checkpoint from
+   	 */
+       public void readCheckpoint(DataInputStream in) throws IOException {
+         for (int i=0; i<regFile.length; i++) {
+            regFile[i].setValue(in.readInt());
+         }
+         programCounter.setValue(in.readInt());
+         hi.setValue(in.readInt());
+         lo.setValue(in.readInt());
+      }
    }
@@ -0,0 +1,403 @@
+   package mars.mips.instructions;
+   import mars.*;
+   import mars.util.*;
+   import mars.assembler.*;
+   import mars.mips.hardware.*;
+   import java.util.*;
+   import java.util.regex.*;
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * One basic instruction template of an extended (pseudo) instruction, compiled when
+ * the instruction set is loaded.  The template is split into its tokens, and each
+ * substitution marker (see ExtendedInstruction.makeTemplateSubstitutions) becomes a
+ * slot recording which source operands it reads and how it combines them.  Filling
+ * the slots yields the same TokenList as substituting into the template String and
+ * tokenizing the result, without building or scanning that String, and the candidate
+ * Instructions for the template's operator are looked up once here rather than for
+ * every expansion.
+ * <p>
+ * Templates whose String substitution depends on the order replacements are made in
+ * (a marker appearing in more than one form, for instance) are not compiled, and a
+ * template is not filled when a substituted value would not tokenize as one token.
+ * In both cases the caller uses the String substitution instead.
+ *
+ * @version October 2014
+ */
+
+    public class CompiledTemplate {
+   
+      // Slot kinds.  "Value" means the operand's integer value (label operands have
+      // already been translated to addresses) plus the slot's addend; the P forms that
+      // take a label and a constant, such as LLP and LHPA, add tokens 2 and 4.
+      private static final int LITERAL = 0;           // template text
+      private static final int OPERAND = 1;           // RGn, OPn: operand text as is
+      private static final int NEXT_REGISTER = 2;     // NRn: register after operand n
+      private static final int HIGH = 3;              // VHLn[Pm], LHL, LHPN: value >> 16
+      private static final int HIGH_ADJUSTED = 4;     // LHn[Pm], VHn[Pm], LHPA[Pm]: high half, plus 1 if bit 15 set
+      private static final int LOW = 5;               // LLn[Pm], VLn[Pm], LLP[Pm]: low half, sign extended
+      private static final int LOW_UNSIGNED = 6;      // LLnU, VLn[Pm]U, LLPU: low half, zero extended
+      private static final int SUBTRACT_FROM_32 = 7;  // S32: 32 minus the last operand
+      private static final int LABEL = 8;             // LAB: name of the label at the last operand's address
+      private static final int BRANCH_OFFSET = 9;     // BROFFnm: n, or m if delayed branching is enabled
+   
+      private static final int LAST_OPERAND = -1;
+   
+      // Marker syntax, group 1 is the root used to detect a marker appearing in more than
+      // one form.  The trailing U, and Pm on the op-numbered forms, are only accepted where
+      // the String substitution handles them.
+      private static final Pattern[] MARKERS = {
+         Pattern.compile("((?:RG|OP|NR)\\d)"),
+         Pattern.compile("((?:LH|VH|VHL)\\d)(?:P(\\d))?"),
+         Pattern.compile("(LL\\d)(?:P(\\d)|(U))?"),
+         Pattern.compile("(VL\\d)(?:P(\\d))?(U)?"),
+         Pattern.compile("(LHL|LHPN|S32|LAB)"),
+         Pattern.compile("(LHPA)(?:P(\\d))?"),
+         Pattern.compile("(LLP)(?:P(\\d)|(U))?"),
+         Pattern.compile("(BROFF)(\\d)(\\d)")
+         };
+      private static final String[] MARKER_ROOTS = {"RG", "OP", "NR", "LH", "LL", "VH", "VL", "LAB", "S32", "BROFF", "DBNOP"};
+   
+      private boolean delayedBranchNop;
+      private int[] kinds;
+      private String[] literals;
+      private TokenTypes[] literalTypes;
+      private int[] operands;
+      private int[] addends;
+      private int[] constantOperands; // 4 for the P forms taking label+constant, else 0
+      private int[] gaps;             // template characters before each token
+      private ArrayList instructionMatches;
+   
+       private CompiledTemplate() {
+      }
+   
+   	/**
+   	 * Compile a list of templates, as returned by ExtendedInstruction.getBasicIntructionTemplateList().
+   	 * Must be called after the instruction set is populated, since each template's operator
+   	 * is looked up.
+   	 * @param templates ArrayList of template Strings, may be null.
+   	 * @return ArrayList of the same length holding a CompiledTemplate for each template, or null
+   	 * where the template cannot be compiled.  Returns null if templates is null.
+   	 */
+       public static ArrayList compileList(ArrayList templates) {
+         if (templates == null) {
+            return null;
+         }
+         ArrayList compiled = new ArrayList(templates.size());
+         for (int i=0; i<templates.size(); i++) {
+            compiled.add(compile((String) templates.get(i)));
+         }
+         return compiled;
+      }
+   
+   	/**
+   	 * Compile a single template.
+   	 * @param template the template String from PseudoOps.txt.
+   	 * @return the CompiledTemplate, or null if the template cannot be compiled.
+   	 */
+       public static CompiledTemplate compile(String template) {
+         CompiledTemplate compiled = new CompiledTemplate();
+         if (template.indexOf("DBNOP") >= 0) {
+            compiled.delayedBranchNop = true;
+            template = "nop";
+         }
+         // Split the way Tokenizer would: blanks, tabs and commas separate tokens and
+      	// parentheses are tokens of their own.  Characters with other special meaning to
+      	// the Tokenizer are not expected in templates.
+         ArrayList tokens = new ArrayList();
+         ArrayList gaps = new ArrayList();
+         int gap = 0;
+         int start = -1;
+         for (int i=0; i<=template.length(); i++) {
+            char c = (i < template.length()) ? template.charAt(i) : ' ';
+            if (c == '#' || c == ':' || c == '"' || c == '\'' || c == '+') {
+               return null;
+            }
+            boolean delimiter = (c == ' ' || c == '\t' || c == ',' || c == '(' || c == ')');
+            if (delimiter && start >= 0) {
+               tokens.add(template.substring(start, i));
+               start = -1;
+            }
+            if (c == '(' || c == ')') {
+               gaps.add(Integer.valueOf(gap));
+               tokens.add(String.valueOf(c));
+               gap = 0;
+            } 
+            else if (delimiter) {
+               gap++;
+            } 
+            else if (start < 0) {
+               gaps.add(Integer.valueOf(gap));
+               start = i;
+               gap = 0;
+            }
+         }
+         if (tokens.isEmpty()) {
+            return null;
+         }
+         int size = tokens.size();
+         compiled.kinds = new int[size];
+         compiled.literals = new String[size];
+         compiled.literalTypes = new TokenTypes[size];
+         compiled.operands = new int[size];
+         compiled.addends = new int[size];
+         compiled.constantOperands = new int[size];
+         compiled.gaps = new int[size];
+         HashMap markerForms = new HashMap(); // root -> marker text
+         for (int k=0; k<size; k++) {
+            String token = (String) tokens.get(k);
+            compiled.gaps[k] = ((Integer) gaps.get(k)).intValue();
+            Matcher matcher = null;
+            for (int m=0; m<MARKERS.length && matcher == null; m++) {
+               matcher = MARKERS[m].matcher(token);
+               if (!matcher.matches()) {
+                  matcher = null;
+               }
+            }
+            if (matcher == null) {
+               for (int r=0; r<MARKER_ROOTS.length; r++) {
+                  if (token.indexOf(MARKER_ROOTS[r]) >= 0) {
+                     return null; // looks like a marker, but not one compiled here
+                  }
+               }
+               compiled.kinds[k] = LITERAL;
+               compiled.literals[k] = token;
+               compiled.literalTypes[k] = TokenTypes.matchTokenType(token);
+               if (compiled.literalTypes[k] == TokenTypes.ERROR) {
+                  return null;
+               }
+               continue;
+            }
+            Object previous = markerForms.put(matcher.group(1), token);
+            if (previous != null && (!previous.equals(token) || token.equals("LAB"))) {
+               return null; // String substitution would replace only one of the forms
+            }
+            if (!compiled.compileMarker(k, token, matcher)) {
+               return null;
+            }
+         }
+         if (compiled.kinds[0] != LITERAL || compiled.literalTypes[0] != TokenTypes.OPERATOR) {
+            return null;
+         }
+         compiled.instructionMatches = Globals.instructionSet.matchOperator(compiled.literals[0]);
+         return (compiled.instructionMatches == null) ? null : compiled;
+      }
+   
+      // Record the slot for a marker token that matched one of the MARKERS patterns.
+       private boolean compileMarker(int k, String token, Matcher matcher) {
+         String root = matcher.group(1);
+         boolean unsigned = token.endsWith("U");
+         int addend = 0;
+         if (matcher.groupCount() >= 2 && matcher.group(2) != null && !root.equals("BROFF")) {
+            addend = matcher.group(2).charAt(0) - '0';
+         }
+         addends[k] = addend;
+         if (root.equals("LAB") || root.equals("S32")) {
+            kinds[k] = (root.equals("LAB")) ? LABEL : SUBTRACT_FROM_32;
+            operands[k] = LAST_OPERAND;
+         } 
+         else if (root.equals("BROFF")) {
+            kinds[k] = BRANCH_OFFSET;
+            operands[k] = matcher.group(2).charAt(0) - '0';
+            addends[k] = matcher.group(3).charAt(0) - '0';
+         } 
+         else if (root.equals("LHL") || root.equals("LHPN") || root.equals("LHPA") || root.equals("LLP")) {
+            // label is token 2; all but LHL add the constant in token 4
+            operands[k] = 2;
+            constantOperands[k] = (root.equals("LHL")) ? 0 : 4;
+            kinds[k] = (root.equals("LHL") || root.equals("LHPN")) ? HIGH
+                     : (root.equals("LHPA")) ? HIGH_ADJUSTED
+                     : (unsigned) ? LOW_UNSIGNED : LOW;
+         } 
+         else {
+            String prefix = root.substring(0, root.length()-1);
+            operands[k] = root.charAt(root.length()-1) - '0';
+            if (prefix.equals("RG") || prefix.equals("OP")) {
+               kinds[k] = OPERAND;
+            } 
+            else if (prefix.equals("NR")) {
+               kinds[k] = NEXT_REGISTER;
+            } 
+            else if (prefix.equals("VHL")) {
+               kinds[k] = HIGH;
+            } 
+            else if (prefix.equals("LH") || prefix.equals("VH")) {
+               kinds[k] = HIGH_ADJUSTED;
+            } 
+            else {
+               kinds[k] = (unsigned) ? LOW_UNSIGNED : LOW;
+            }
+         }
+         return true;
+      }
+   
+   	/**
+   	 * Get the Instructions matching this template's operator, for OperandFormat.bestOperandMatch().
+   	 * @return ArrayList of Instruction, as from InstructionSet.matchOperator().
+   	 */
+       public ArrayList getInstructionMatches() {
+         return instructionMatches;
+      }
+   
+   	/**
+   	 * Fill in the template from the tokens of an extended instruction statement in basic
+   	 * assembly form.  The result matches what tokenizing the String produced by
+   	 * ExtendedInstruction.makeTemplateSubstitutions() would give, including token positions.
+   	 * @param program MIPSprogram containing the statement, used to look up label names.
+   	 * @param theTokenList tokens of the extended instruction statement.
+   	 * @param sourceLine source line number to record in the tokens.
+   	 * @return TokenList of the basic statement; an empty list if the template generates no
+   	 * instruction (DBNOP with delayed branching disabled); or null if the template cannot be
+   	 * filled for these operands, in which case the caller should use the String substitution.
+   	 */
+       public TokenList fill(MIPSprogram program, TokenList theTokenList, int sourceLine) {
+         TokenList result = new TokenList();
+         if (delayedBranchNop && !Globals.getSettings().getDelayedBranchingEnabled()) {
+            return result;
+         }
+         int column = 1;
+         TokenTypes previous = null;
+         for (int k=0; k<kinds.length; k++) {
+            String value;
+            TokenTypes type;
+            if (kinds[k] == LITERAL) {
+               value = literals[k];
+               type = literalTypes[k];
+            } 
+            else {
+               value = substitution(k, program, theTokenList);
+               if (value == null) {
+                  return null;
+               }
+               type = TokenTypes.matchTokenType(value);
+               if (type == TokenTypes.ERROR) {
+                  return null;
+               }
+            }
+            if (!isSingleToken(value, previous)) {
+               return null;
+            }
+            column += gaps[k];
+            result.add(new Token(type, value, null, sourceLine, column));
+            column += value.length();
+            previous = type;
+         }
+         return result;
+      }
+   
+      // Text to substitute for slot k, or null if the String substitution would not
+      // produce the same thing.
+       private String substitution(int k, MIPSprogram program, TokenList theTokenList) {
+         int operand = (operands[k] == LAST_OPERAND) ? theTokenList.size()-1 : operands[k];
+         if (kinds[k] == BRANCH_OFFSET) {
+            return String.valueOf(Globals.getSettings().getDelayedBranchingEnabled() ? addends[k] : operands[k]);
+         }
+         if (operand < 1 || operand >= theTokenList.size()) {
+            return null;
+         }
+         String text = theTokenList.get(operand).getValue();
+         switch (kinds[k]) {
+            case OPERAND :
+               // Later substitutions would also apply to any marker text within it.
+               for (int i=0; i<text.length(); i++) {
+                  if (Character.isUpperCase(text.charAt(i))) {
+                     return null;
+                  }
+               }
+               return text;
+            case NEXT_REGISTER :
+               Register register = RegisterFile.getUserRegister(text);
+               if (register != null) {
+                  return "$"+(register.getNumber()+1);
+               }
+               int regNumber = Coprocessor1.getRegisterNumber(text);
+               return (regNumber >= 0) ? "$f"+(regNumber+1) : null;
+            case LABEL :
+               Symbol sym = program.getLocalSymbolTable().getSymbolGivenAddressLocalOrGlobal(text);
+               return (sym == null) ? null : sym.getName();
+         }
+         int value;
+         try {
+            value = Binary.stringToInt(text);
+            if (kinds[k] == SUBTRACT_FROM_32) {
+               return Integer.toString(32-value);
+            }
+            if (constantOperands[k] != 0) {
+               if (constantOperands[k] >= theTokenList.size()) {
+                  return null;
+               }
+               value += Binary.stringToInt(theTokenList.get(constantOperands[k]).getValue());
+            }
+         } 
+             catch (NumberFormatException e) {
+               return null;
+            }
+         value += addends[k];
+         switch (kinds[k]) {
+            case HIGH :
+               return String.valueOf(value >> 16);
+            case HIGH_ADJUSTED :
+               return String.valueOf((value >> 16) + Binary.bitValue(value,15));
+            case LOW :
+               return String.valueOf(value << 16 >> 16);
+            default : // LOW_UNSIGNED
+               return String.valueOf(value & 0xffff);
+         }
+      }
+   
+      // Whether the value of token should be accepted by the Tokenizer as one token,
+   	// following a token of the given type.  A leading minus sign is part of the token
+   	// only if a digit follows and the previous token is not an identifier.
+       private static boolean isSingleToken(String value, TokenTypes previous) {
+         if (value.equals("(") || value.equals(")")) {
+            return true;
+         }
+         if (value.length() == 0) {
+            return false;
+         }
+         for (int i=0; i<value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ' ' || c == '\t' || c == ',' || c == '#' || c == ':' || c == '(' || c == ')' || 
+                c == '"' || c == '\'' || c == '+') {
+               return false;
+            }
+            if (c == '-' && (i > 0 || value.length() < 2 || !Character.isDigit(value.charAt(1)) || 
+                previous == TokenTypes.IDENTIFIER)) {
+               return false;
+            }
+         }
+         return true;
+      }
+   }
@@ -46,6 +46,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     public class ExtendedInstruction extends Instruction {
    
       private ArrayList translationStrings, compactTranslationStrings;
+      private ArrayList compiledTranslations, compactCompiledTranslations;
     /**
      * Constructor for ExtendedInstruction.
      * 
@@ -160,6 +161,38 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public ArrayList getCompactBasicIntructionTemplateList() {
          return compactTranslationStrings;
       }
+   
+    /**
+     * Compile the translation templates, so that the assembler can fill them in directly
+     * instead of substituting into and re-tokenizing Strings.  Called by InstructionSet
+     * once all instructions are loaded, since compiling looks up each template's operator.
+     * @see CompiledTemplate
+     */
+       public void compileTemplates() {
+         compiledTranslations = CompiledTemplate.compileList(translationStrings);
+         compactCompiledTranslations = CompiledTemplate.compileList(compactTranslationStrings);
+      }
+   
+    /**
+     * Get ArrayList of compiled templates corresponding by position to 
+     * getBasicIntructionTemplateList().
+     * @return ArrayList of CompiledTemplate, with null for each template that could not be
+     * compiled.  Returns null if templates have not been compiled.
+     */
+       public ArrayList getCompiledTemplateList() {
+         return compiledTranslations;
+      }
+   
+    /**
+     * Get ArrayList of compiled templates corresponding by position to 
+     * getCompactBasicIntructionTemplateList().
+     * @return ArrayList of CompiledTemplate, with null for each template that could not be
+     * compiled.  Returns null if there is no compact translation or templates have not
+     * been compiled.
+     */
+       public ArrayList getCompactCompiledTemplateList() {
+         return compactCompiledTranslations;
+      }
 		   
       /**
    	 * Given a basic instruction template and the list of tokens from an extended
@@ -5,6 +5,7 @@
    import mars.*;
    import mars.util.*;
    import java.util.*;
+   import java.util.concurrent.ConcurrentHashMap;
    import java.io.*;
 	
 	/*
@@ -48,7 +49,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    {
       private ArrayList instructionList;
 	  private ArrayList opcodeMatchMaps;
+      private HashMap operatorMap;      // folded mnemonic -> ArrayList of Instruction
+      private IdentityHashMap operandMatches; // operatorMap list -> Map of operand signature -> Instruction
+      private PrefixNode operatorPrefixes;
       private SyscallLoader syscallLoader;
+      // Most operand signatures remembered per mnemonic; see putOperandMatch().
+      private static final int MAX_OPERAND_MATCHES = 128;
     /**
      * Creates a new InstructionSet object.
      */
@@ -657,7 +663,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      try
                      {
                         RegisterFile.updateRegister(operands[0],
-                            Globals.memory.getWord(
+                            Memory.getInstance().getWord(
                             RegisterFile.getValue(operands[2]) + operands[1]));
                      } 
                          catch (AddressErrorException e)
@@ -687,7 +693,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      try
                      {
                         RegisterFile.updateRegister(operands[0],
-                            Globals.memory.getWord(
+                            Memory.getInstance().getWord(
                             RegisterFile.getValue(operands[2]) + operands[1]));
                      } 
                          catch (AddressErrorException e)
@@ -710,8 +716,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      {
                         int address = RegisterFile.getValue(operands[2]) + operands[1];
                         int result = RegisterFile.getValue(operands[0]);
-                        for (int i=0; i<=address % Globals.memory.WORD_LENGTH_BYTES; i++) {
-                           result = Binary.setByte(result,3-i,Globals.memory.getByte(address-i));
+                        for (int i=0; i<=address % Memory.getInstance().WORD_LENGTH_BYTES; i++) {
+                           result = Binary.setByte(result,3-i,Memory.getInstance().getByte(address-i));
                         }
                         RegisterFile.updateRegister(operands[0], result);
                      } 
@@ -735,8 +741,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      {
                         int address = RegisterFile.getValue(operands[2]) + operands[1];
                         int result = RegisterFile.getValue(operands[0]);
-                        for (int i=0; i<=3-(address % Globals.memory.WORD_LENGTH_BYTES); i++) {
-                           result = Binary.setByte(result,i,Globals.memory.getByte(address+i));
+                        for (int i=0; i<=3-(address % Memory.getInstance().WORD_LENGTH_BYTES); i++) {
+                           result = Binary.setByte(result,i,Memory.getInstance().getByte(address+i));
                         }
                         RegisterFile.updateRegister(operands[0], result);
                      } 
@@ -758,7 +764,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      int[] operands = statement.getOperands();
                      try
                      {
-                        Globals.memory.setWord(
+                        Memory.getInstance().setWord(
                             RegisterFile.getValue(operands[2]) + operands[1],
                             RegisterFile.getValue(operands[0]));
                      } 
@@ -782,7 +788,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      int[] operands = statement.getOperands();
                      try
                      {
-                        Globals.memory.setWord(
+                        Memory.getInstance().setWord(
                             RegisterFile.getValue(operands[2]) + operands[1],
                             RegisterFile.getValue(operands[0]));
                      } 
@@ -807,8 +813,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      {
                         int address = RegisterFile.getValue(operands[2]) + operands[1];
                         int source = RegisterFile.getValue(operands[0]);
-                        for (int i=0; i<=address % Globals.memory.WORD_LENGTH_BYTES; i++) {
-                           Globals.memory.setByte(address-i,Binary.getByte(source,3-i));
+                        for (int i=0; i<=address % Memory.getInstance().WORD_LENGTH_BYTES; i++) {
+                           Memory.getInstance().setByte(address-i,Binary.getByte(source,3-i));
                         }
                      } 
                          catch (AddressErrorException e)
@@ -831,8 +837,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      {
                         int address = RegisterFile.getValue(operands[2]) + operands[1];
                         int source = RegisterFile.getValue(operands[0]);
-                        for (int i=0; i<=3-(address % Globals.memory.WORD_LENGTH_BYTES); i++) {
-                           Globals.memory.setByte(address+i,Binary.getByte(source,i));
+                        for (int i=0; i<=3-(address % Memory.getInstance().WORD_LENGTH_BYTES); i++) {
+                           Memory.getInstance().setByte(address+i,Binary.getByte(source,i));
                         }
                      } 
                          catch (AddressErrorException e)
@@ -1281,7 +1287,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      try
                      {
                         RegisterFile.updateRegister(operands[0],
-                            Globals.memory.getByte(
+                            Memory.getInstance().getByte(
                             RegisterFile.getValue(operands[2])
                                     + (operands[1] << 16 >> 16))
                                             << 24
@@ -1306,7 +1312,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      try
                      {
                         RegisterFile.updateRegister(operands[0],
-                            Globals.memory.getHalf(
+                            Memory.getInstance().getHalf(
                             RegisterFile.getValue(operands[2])
                                     + (operands[1] << 16 >> 16))
                                             << 16
@@ -1332,7 +1338,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      {
                      // offset is sign-extended and loaded halfword value is zero-extended
                         RegisterFile.updateRegister(operands[0],
-                            Globals.memory.getHalf(
+                            Memory.getInstance().getHalf(
                             RegisterFile.getValue(operands[2])
                                     + (operands[1] << 16 >> 16))
                                             & 0x0000ffff);
@@ -1356,7 +1362,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      try
                      {
                         RegisterFile.updateRegister(operands[0],
-                            Globals.memory.getByte(
+                            Memory.getInstance().getByte(
                             RegisterFile.getValue(operands[2])
                                     + (operands[1] << 16 >> 16))
                                             & 0x000000ff);
@@ -1379,7 +1385,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      int[] operands = statement.getOperands();
                      try
                      {
-                        Globals.memory.setByte(
+                        Memory.getInstance().setByte(
                             RegisterFile.getValue(operands[2])
                                     + (operands[1] << 16 >> 16),
                                     RegisterFile.getValue(operands[0])
@@ -1403,7 +1409,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      int[] operands = statement.getOperands();
                      try
                      {
-                        Globals.memory.setHalf(
+                        Memory.getInstance().setHalf(
                             RegisterFile.getValue(operands[2])
                                     + (operands[1] << 16 >> 16),
                                     RegisterFile.getValue(operands[0])
@@ -2724,7 +2730,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      try
                      {
                         Coprocessor1.updateRegister(operands[0],
-                            Globals.memory.getWord(
+                            Memory.getInstance().getWord(
                             RegisterFile.getValue(operands[2]) + operands[1]));
                      } 
                          catch (AddressErrorException e)
@@ -2747,7 +2753,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                         throw new ProcessingException(statement, "first register must be even-numbered");
                      }
                   	// IF statement added by DPS 13-July-2011.
-                     if (!Globals.memory.doublewordAligned(RegisterFile.getValue(operands[2]) + operands[1])) {
+                     if (!Memory.getInstance().doublewordAligned(RegisterFile.getValue(operands[2]) + operands[1])) {
                         throw new ProcessingException(statement,
                            new AddressErrorException("address not aligned on doubleword boundary ",
                            Exceptions.ADDRESS_EXCEPTION_LOAD, RegisterFile.getValue(operands[2]) + operands[1]));
@@ -2756,10 +2762,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      try
                      {
                         Coprocessor1.updateRegister(operands[0],
-                            Globals.memory.getWord(
+                            Memory.getInstance().getWord(
                             RegisterFile.getValue(operands[2]) + operands[1]));
                         Coprocessor1.updateRegister(operands[0]+1,
-                            Globals.memory.getWord(
+                            Memory.getInstance().getWord(
                             RegisterFile.getValue(operands[2]) + operands[1] + 4));
                      } 
                          catch (AddressErrorException e)
@@ -2780,7 +2786,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      int[] operands = statement.getOperands();
                      try
                      {
-                        Globals.memory.setWord(
+                        Memory.getInstance().setWord(
                             RegisterFile.getValue(operands[2]) + operands[1],
                             Coprocessor1.getValue(operands[0]));
                      } 
@@ -2804,17 +2810,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                         throw new ProcessingException(statement, "first register must be even-numbered");
                      }
                   	// IF statement added by DPS 13-July-2011.
-                     if (!Globals.memory.doublewordAligned(RegisterFile.getValue(operands[2]) + operands[1])) {
+                     if (!Memory.getInstance().doublewordAligned(RegisterFile.getValue(operands[2]) + operands[1])) {
                         throw new ProcessingException(statement,
                            new AddressErrorException("address not aligned on doubleword boundary ",
                            Exceptions.ADDRESS_EXCEPTION_STORE, RegisterFile.getValue(operands[2]) + operands[1]));
                      }
                      try
                      {
-                        Globals.memory.setWord(
+                        Memory.getInstance().setWord(
                             RegisterFile.getValue(operands[2]) + operands[1],
                             Coprocessor1.getValue(operands[0]));
-                        Globals.memory.setWord(
+                        Memory.getInstance().setWord(
                             RegisterFile.getValue(operands[2]) + operands[1] + 4,
                             Coprocessor1.getValue(operands[0]+1));
                      } 
@@ -3066,12 +3072,39 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          syscallLoader = new SyscallLoader();
          syscallLoader.loadSyscalls();
       	
+        // Index the mnemonics for matchOperator and prefixMatchOperator.  Both keep
+        // the instructionList order among instructions sharing a mnemonic.  Each list
+        // gets its own memo of operand matches, dropped with the lists on a rebuild.
+         HashMap operators = new HashMap();
+         IdentityHashMap memos = new IdentityHashMap();
+         PrefixNode prefixes = new PrefixNode();
+         for (int i = 0; i < instructionList.size(); i++)
+         {
+            Instruction inst = (Instruction) instructionList.get(i);
+            String name = foldCase(inst.getName());
+            ArrayList matches = (ArrayList) operators.get(name);
+            if (matches == null) {
+               matches = new ArrayList();
+               operators.put(name, matches);
+               memos.put(matches, new ConcurrentHashMap());
+            }
+            matches.add(inst);
+            prefixes.add(name, inst);
+         }
+         this.operandMatches = memos;
+         this.operatorMap = operators;
+         this.operatorPrefixes = prefixes;
+      
         // Initialization step.  Create token list for each instruction example.  This is
-        // used by parser to determine user program correct syntax.
+        // used by parser to determine user program correct syntax.  Also compile the 
+        // pseudo-instruction templates, which needs the complete instruction set.
          for (int i = 0; i < instructionList.size(); i++)
          {
             Instruction inst = (Instruction) instructionList.get(i);
             inst.createExampleTokenList();
+            if (inst instanceof ExtendedInstruction) {
+               ((ExtendedInstruction) inst).compileTemplates();
+            }
          }
 
 		 HashMap maskMap = new HashMap();
@@ -3182,14 +3215,19 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
     /**
      *  Given an operator mnemonic, will return the corresponding Instruction object(s)
-     *  from the instruction set.  Uses straight linear search technique.
+     *  from the instruction set.  Case-insensitive.  Uses a hash index of the mnemonics
+     *  built by populate(); the returned list is shared and must not be modified.
      *  @param name operator mnemonic (e.g. addi, sw,...)
      *  @return list of corresponding Instruction object(s), or null if not found.
      */
        public ArrayList matchOperator(String name)
       {
+         if (operatorMap != null) {
+            return (ArrayList) operatorMap.get(foldCase(name));
+         }
+        // Index not built yet: populate() is still adding instructions, and each
+        // ExtendedInstruction tokenizes its example as it is constructed.
          ArrayList matchingInstructions = null;
-        // Linear search for now....
          for (int i = 0; i < instructionList.size(); i++)
          {
             if (((Instruction) instructionList.get(i)).getName().equalsIgnoreCase(name))
@@ -3203,29 +3241,87 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    
    
+    /**
+     *  Get the Instruction previously recorded by putOperandMatch() as the one whose
+     *  operands match a statement with the given operand signature.
+     *  @param matches list of Instruction returned by matchOperator()
+     *  @param signature the statement's operand signature
+     *  @return the recorded Instruction, or null if there is none or the list did not
+     *  come from matchOperator().
+     */
+       public Instruction getOperandMatch(ArrayList matches, String signature)
+      {
+         Map memo = (operandMatches == null) ? null : (Map) operandMatches.get(matches);
+         return (memo == null) ? null : (Instruction) memo.get(signature);
+      }
+   
+    /**
+     *  Record the Instruction whose operands match a statement with the given operand
+     *  signature, for later getOperandMatch() calls.  The memo is kept with the list
+     *  itself, so it is discarded when the instruction set is rebuilt, and at most 
+     *  MAX_OPERAND_MATCHES signatures are kept per mnemonic.  Ignored if the list did 
+     *  not come from matchOperator().
+     *  @param matches list of Instruction returned by matchOperator()
+     *  @param signature the statement's operand signature
+     *  @param match the member of matches whose operands match the statement
+     */
+       public void putOperandMatch(ArrayList matches, String signature, Instruction match)
+      {
+         Map memo = (operandMatches == null) ? null : (Map) operandMatches.get(matches);
+         if (memo != null && memo.size() < MAX_OPERAND_MATCHES) {
+            memo.put(signature, match);
+         }
+      }
+   
     /**
      *  Given a string, will return the Instruction object(s) from the instruction
      *  set whose operator mnemonic prefix matches it.  Case-insensitive.  For example
-     *  "s" will match "sw", "sh", "sb", etc.  Uses straight linear search technique.
+     *  "s" will match "sw", "sh", "sb", etc.  Walks a character trie of the mnemonics
+     *  built by populate(); the returned list is shared and must not be modified.
      *  @param name a string
      *  @return list of matching Instruction object(s), or null if none match.
      */
        public ArrayList prefixMatchOperator(String name)
       {
-         ArrayList matchingInstructions = null;
-        // Linear search for now....
-         if (name != null) {
-            for (int i = 0; i < instructionList.size(); i++)
-            {
-               if (((Instruction) instructionList.get(i)).getName().toLowerCase().startsWith(name.toLowerCase()))
-               {
-                  if (matchingInstructions == null) 
-                     matchingInstructions = new ArrayList();
-                  matchingInstructions.add(instructionList.get(i));
+         if (name == null) {
+            return null;
+         }
+         PrefixNode node = operatorPrefixes;
+         String prefix = foldCase(name);
+         for (int i = 0; node != null && i < prefix.length(); i++)
+         {
+            node = (PrefixNode) node.children.get(Character.valueOf(prefix.charAt(i)));
+         }
+         return (node == null) ? null : node.instructions;
+      }
+   
+   	/*
+   	 * Case folding used for the mnemonic indexes.  Two strings fold to the same value
+   	 * exactly when String.equalsIgnoreCase would consider them equal, which is the
+   	 * comparison the linear search used.  Returns the string itself when it is already
+   	 * folded, the usual case for assembly source.
+   	 */
+       private static String foldCase(String name) {
+         for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.toLowerCase(Character.toUpperCase(c)) != c) {
+               char[] folded = name.toCharArray();
+               for (int j = i; j < folded.length; j++) {
+                  folded[j] = Character.toLowerCase(Character.toUpperCase(folded[j]));
                }
+               return new String(folded);
             }
          }
-         return matchingInstructions;
+         return name;
+      }
+   	
+   	/**
+   	 * Find the syscall with the given service number.
+   	 * @param number the syscall service number, as placed in $v0
+   	 * @return the Syscall, or null if none has that number
+   	 */
+       public Syscall findSyscall(int number) {
+         return syscallLoader.findSyscall(number);
       }
    	
    	/*
@@ -3312,6 +3408,31 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             	  Instruction.INSTRUCTION_LENGTH : 0) );	 
       }
 
+   	/*
+   	 * Node of the mnemonic trie used by prefixMatchOperator.  Each node holds every
+   	 * instruction whose folded mnemonic starts with the path to the node, so a prefix
+   	 * lookup is a walk of prefix.length() steps with no further filtering.
+   	 */
+       private static class PrefixNode {
+         private HashMap children = new HashMap();
+         private ArrayList instructions = new ArrayList();
+      
+          private void add(String name, Instruction inst) {
+            PrefixNode node = this;
+            node.instructions.add(inst);
+            for (int i = 0; i < name.length(); i++) {
+               Character key = Character.valueOf(name.charAt(i));
+               PrefixNode child = (PrefixNode) node.children.get(key);
+               if (child == null) {
+                  child = new PrefixNode();
+                  node.children.put(key, child);
+               }
+               child.instructions.add(inst);
+               node = child;
+            }
+         }
+      }
+   
 	  private static class MatchMap implements Comparable {
 	  	private int mask;
 		private int maskLength; // number of 1 bits in mask
@@ -1,5 +1,8 @@
    package mars.mips.instructions.syscalls;
 	import java.util.HashMap;
+	import java.util.Random;
+	import mars.MachineContext;
+	import mars.simulator.InputLog;
 
 /*
 Copyright (c) 2003-2008,  Pete Sanderson and Kenneth Vollmar
@@ -31,13 +34,23 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 
 
 /** 
- * This small class serves only to hold a static HashMap for storing
+ * This small class serves only to locate the HashMap for storing
  * random number generators for use by all the random number generator
- * syscalls.
+ * syscalls.  Each MachineContext holds its own collection.
  */
  
     public class RandomStreams {
-      /** Collection of pseudorandom number streams available for use in Rand-type syscalls.
-       * The streams are by default not seeded. */
-		 static final HashMap randomStreams = new HashMap();
+      /** Collection of pseudorandom number streams available for use in Rand-type syscalls
+       * of the current machine context.  The streams are by default not seeded. */
+       static HashMap getRandomStreams() {
+         return MachineContext.current().getRandomStreams();
+      }
+   
+      /** Create a stream the program has not seeded.  If the machine's input is being
+       * recorded its seed is recorded, and when replaying the recorded seed is used, so
+       * the stream gives the same numbers.  See mars.simulator.InputLog. */
+       static Random newUnseededStream() {
+         InputLog log = MachineContext.current().getInputLog();
+         return (log == null) ? new Random() : new Random(log.input(new Random().nextLong()));
+      }
    }
\ No newline at end of file
@@ -52,8 +52,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    * return value is ignored.
    */
        public void simulate(ProgramStatement statement) throws ProcessingException {
-         if (Globals.getGui()==null) {
-            Globals.exitCode = RegisterFile.getValue(4);
+         MachineContext context = MachineContext.current();
+         if (Globals.getGui()==null || !context.isDefault()) {
+            context.setExitCode(RegisterFile.getValue(4));
          }
          throw new ProcessingException(); // empty error list
       }
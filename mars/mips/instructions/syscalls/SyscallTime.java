@@ -52,6 +52,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    */
        public void simulate(ProgramStatement statement) throws ProcessingException {
 			long value = new java.util.Date().getTime();
+			if (MachineContext.current().getInputLog() != null) {
+			   value = MachineContext.current().getInputLog().input(value); // same time when replayed
+			}
          RegisterFile.updateRegister(4, Binary.lowOrderLongToInt(value)); // $a0 
 			RegisterFile.updateRegister(5, Binary.highOrderLongToInt(value)); // $a1
       }
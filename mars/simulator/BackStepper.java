@@ -41,7 +41,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  
     public class BackStepper {
       // The types of "undo" actions.  Under 1.5, these would be enumerated type.
-   	// These fit better in the BackStep class below but inner classes cannot have static members.
       private static final int MEMORY_RESTORE_RAW_WORD = 0;
       private static final int MEMORY_RESTORE_WORD = 1;
       private static final int MEMORY_RESTORE_HALF = 2;
@@ -52,22 +51,40 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private static final int COPROC1_REGISTER_RESTORE = 7;
       private static final int COPROC1_CONDITION_CLEAR = 8;
       private static final int COPROC1_CONDITION_SET = 9;
-      private static final int DO_NOTHING = 10;  // instruction does not write anything.
    
-      // Flag to mark BackStep object as prepresenting specific situation: user manipulates
+      // Flag to mark an instruction record as representing specific situation: user manipulates
    	// memory/register value via GUI after assembling program but before running it.
       private static final int NOT_PC_VALUE = -1;
+      
+      // Room for undo steps per recorded instruction.  Most instructions write once or not
+   	// at all, a few twice; syscalls reading into memory write once per byte.
+      private static final int STEPS_PER_INSTRUCTION = 2;
    	
       private boolean engaged;
-      private BackstepStack backSteps;
-   	
-   	// One can argue using java.util.Stack, given its clumsy implementation.
-   	// A homegrown linked implementation will be more streamlined, but
-   	// I anticipate that backstepping will only be used during timed
-   	// (currently max 30 instructions/second) or stepped execution, where
-   	// performance is not an issue.  Its Vector implementation may result
-   	// in quicker garbage collection than a pure linked list implementation.
    
+   	// The undo log is kept in two circular buffers of primitives, so recording allocates
+   	// nothing.  The step log holds one entry per undo action, in parallel arrays.  The
+   	// instruction log holds one entry per executed instruction: its address, whether it
+   	// was in a delay slot, and the number of the first step it recorded.  Every step
+   	// belongs to the latest instruction, so backStep() undoes the steps recorded since
+   	// that instruction's first and drops its entry.  Instructions that write nothing,
+   	// such as "nop" and branches not taken, still have an entry, so backstepping visits
+   	// every instruction.  
+   	//
+   	// Only one thread writes at a time: the simulation thread while MIPS is running,
+   	// and the GUI thread (backstepping or editing a value) while it is not.  So there
+   	// is no locking; the counts are volatile so either thread sees the other's work.
+      private final int[] stepActions;
+      private final int[] stepParam1;
+      private final int[] stepParam2;
+      private volatile long stepCount;  // steps ever recorded less those undone; next is at stepCount % length
+   
+      private final int[] instructionPCs;
+      private final long[] instructionFirstSteps;
+      private final boolean[] instructionInDelaySlot;
+      private int instructionTop;  // index of latest entry
+      private volatile int instructionSize;
+   	
        /**
    	  * Create a fresh BackStepper.  It is enabled, which means all
    	  * subsequent instruction executions will have their "undo" action
@@ -75,7 +92,16 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  */
        public BackStepper() {
          engaged = true;
-         backSteps = new BackstepStack(Globals.maximumBacksteps);
+         int capacity = Math.max(1, Globals.maximumBacksteps);
+         stepActions = new int[capacity * STEPS_PER_INSTRUCTION];
+         stepParam1 = new int[capacity * STEPS_PER_INSTRUCTION];
+         stepParam2 = new int[capacity * STEPS_PER_INSTRUCTION];
+         instructionPCs = new int[capacity];
+         instructionFirstSteps = new long[capacity];
+         instructionInDelaySlot = new boolean[capacity];
+         stepCount = 0;
+         instructionTop = -1;
+         instructionSize = 0;
       }
    
        /**
@@ -94,12 +120,22 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          engaged = state;
       }
    
+      /**
+   	 * Discard all recorded steps, as when the machine has been returned to an
+   	 * earlier state by other means.  See ReverseDebugger.
+   	 */
+       public void clear() {
+         stepCount = 0;
+         instructionTop = -1;
+         instructionSize = 0;
+      }
+   
       /**
    	 * Test whether there are steps that can be undone.
    	 * @return true if there are no steps to be undone, false otherwise.
    	 */
        public boolean empty() {
-         return backSteps.empty();
+         return instructionSize == 0;
       }
    	
    	/**
@@ -110,7 +146,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 */
    	// Added 25 June 2007
        public boolean inDelaySlot() {
-         return !empty() && backSteps.peek().inDelaySlot;
+         return !empty() && instructionInDelaySlot[instructionTop];
       }
    	
       /**
@@ -121,57 +157,57 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 // Note that there may be more than one "step" in an instruction execution; for
    	 // instance the multiply, divide, and double-precision floating point operations 
    	 // all store their result in register pairs which results in two store operations.  
-   	 // Both must be undone transparently, so we need to detect that multiple steps happen
-   	 // together and carry out all of them here.  
-   	 // Use a do-while loop based on the backstep's program statement reference.
+   	 // Both must be undone transparently, which the instruction log makes simple: undo
+   	 // every step recorded since the instruction's first.
    	 
        public void backStep() {
-         if (engaged && !backSteps.empty()) {
-            ProgramStatement statement = ((BackStep)backSteps.peek()).ps;
+         if (engaged && !empty()) {
+            int pc = instructionPCs[instructionTop];
+            long firstStep = instructionFirstSteps[instructionTop];
+            popInstruction();
             engaged = false; // GOTTA DO THIS SO METHOD CALL IN SWITCH WILL NOT RESULT IN NEW ACTION ON STACK!
-            do {
-               BackStep step = (BackStep) backSteps.pop();
+            if (pc != NOT_PC_VALUE) {
+               RegisterFile.setProgramCounter(pc);
+            }
+            for (long step = stepCount-1; step >= firstStep; step--) {
+               int i = (int) (step % stepActions.length);
+               int param1 = stepParam1[i];
+               int param2 = stepParam2[i];
             /*
-            	System.out.println("backstep POP: action "+step.action+" pc "+mars.util.Binary.intToHexString(step.pc)+
-            	                   " source "+((step.ps==null)? "none":step.ps.getSource())+
-            							 " parm1 "+step.param1+" parm2 "+step.param2);
+            	System.out.println("backstep POP: action "+stepActions[i]+" pc "+mars.util.Binary.intToHexString(pc)+
+            							 " parm1 "+param1+" parm2 "+param2);
             */
-               if (step.pc != NOT_PC_VALUE) {
-                  RegisterFile.setProgramCounter(step.pc);
-               }
                try {
-                  switch (step.action) {
+                  switch (stepActions[i]) {
                      case MEMORY_RESTORE_RAW_WORD : 
-                        Globals.memory.setRawWord(step.param1, step.param2);
+                        Memory.getInstance().setRawWord(param1, param2);
                         break;
                      case MEMORY_RESTORE_WORD : 
-                        Globals.memory.setWord(step.param1, step.param2);
+                        Memory.getInstance().setWord(param1, param2);
                         break;
                      case MEMORY_RESTORE_HALF :
-                        Globals.memory.setHalf(step.param1, step.param2);
+                        Memory.getInstance().setHalf(param1, param2);
                         break;
                      case MEMORY_RESTORE_BYTE :
-                        Globals.memory.setByte(step.param1, step.param2);
+                        Memory.getInstance().setByte(param1, param2);
                         break;
                      case REGISTER_RESTORE :
-                        RegisterFile.updateRegister(step.param1, step.param2);
+                        RegisterFile.updateRegister(param1, param2);
                         break;
                      case PC_RESTORE : 
-                        RegisterFile.setProgramCounter(step.param1);
+                        RegisterFile.setProgramCounter(param1);
                         break;
                      case COPROC0_REGISTER_RESTORE :
-                        Coprocessor0.updateRegister(step.param1, step.param2);
+                        Coprocessor0.updateRegister(param1, param2);
                         break;
                      case COPROC1_REGISTER_RESTORE :
-                        Coprocessor1.updateRegister(step.param1, step.param2);
+                        Coprocessor1.updateRegister(param1, param2);
                         break;
                      case COPROC1_CONDITION_CLEAR :
-                        Coprocessor1.clearConditionFlag(step.param1);
+                        Coprocessor1.clearConditionFlag(param1);
                         break;
                      case COPROC1_CONDITION_SET :
-                        Coprocessor1.setConditionFlag(step.param1);
-                        break;
-                     case DO_NOTHING :
+                        Coprocessor1.setConditionFlag(param1);
                         break;
                   }
                } 
@@ -180,21 +216,24 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      System.out.println("Internal MARS error: address exception while back-stepping.");
                      System.exit(0);
                   }
-            } while (!backSteps.empty() && statement == ((BackStep)backSteps.peek()).ps);
+            }
+            stepCount = firstStep;
             engaged = true;  // RESET IT (was disabled at top of loop -- see comment)
          }
       }
+   
+       /**
+   	  * Record that the instruction at the given address is about to be executed.  Undo
+   	  * steps added from now until the next call belong to it, and are undone together
+   	  * by one backStep().  Called by the simulator before executing each instruction,
+   	  * also those that write nothing, so that backstepping passes through them too.
+   	  * @param pc address of the instruction
+   	  */
+       public void beginInstruction(int pc) {
+         pushInstruction(pc, Simulator.inDelaySlot());
+      }
   
      
-      /* Convenience method called below to get program counter value.  If it needs to be
-   	 * be modified (e.g. to subtract 4) that can be done here in one place.
-   	 */
-   	 
-       private int pc() {
-       // PC incremented prior to instruction simulation, so need to adjust for that.
-         return RegisterFile.getProgramCounter()-Instruction.INSTRUCTION_LENGTH;
-      }
-   
        /**
    	  * Add a new "back step" (the undo action) to the stack. The action here
    	  * is to restore a raw memory word value (setRawWord).
@@ -203,7 +242,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addMemoryRestoreRawWord(int address, int value) {
-         backSteps.push(MEMORY_RESTORE_RAW_WORD, pc(), address, value);
+         push(MEMORY_RESTORE_RAW_WORD, address, value);
          return value;
       }   
    	
@@ -215,7 +254,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addMemoryRestoreWord(int address, int value) {
-         backSteps.push(MEMORY_RESTORE_WORD, pc(), address, value);
+         push(MEMORY_RESTORE_WORD, address, value);
          return value;
       }   
    
@@ -227,7 +266,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addMemoryRestoreHalf(int address, int value) {
-         backSteps.push(MEMORY_RESTORE_HALF, pc(), address, value);
+         push(MEMORY_RESTORE_HALF, address, value);
          return value;
       }
    
@@ -239,7 +278,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addMemoryRestoreByte(int address, int value) {
-         backSteps.push(MEMORY_RESTORE_BYTE, pc(), address, value);
+         push(MEMORY_RESTORE_BYTE, address, value);
          return value;
       }   
    
@@ -251,7 +290,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addRegisterFileRestore(int register, int value) {
-         backSteps.push(REGISTER_RESTORE, pc(), register, value);
+         push(REGISTER_RESTORE, register, value);
          return value;
       } 
    
@@ -264,9 +303,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public int addPCRestore(int value) {
          // adjust for value reflecting incremented PC.  
          value -= Instruction.INSTRUCTION_LENGTH; 
-         // Use "value" insead of "pc()" for second arg because RegisterFile.getProgramCounter() 
-         // returns branch target address at this point.
-         backSteps.push(PC_RESTORE, value, value); 
+         push(PC_RESTORE, value, 0); 
          return value;
       }		
    
@@ -278,7 +315,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addCoprocessor0Restore(int register, int value) {
-         backSteps.push(COPROC0_REGISTER_RESTORE, pc(), register, value);
+         push(COPROC0_REGISTER_RESTORE, register, value);
          return value;
       }		
    
@@ -290,7 +327,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addCoprocessor1Restore(int register, int value) {
-         backSteps.push(COPROC1_REGISTER_RESTORE, pc(), register, value);
+         push(COPROC1_REGISTER_RESTORE, register, value);
          return value;
       }		
    
@@ -301,7 +338,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addConditionFlagSet(int flag) {
-         backSteps.push(COPROC1_CONDITION_SET, pc(), flag);
+         push(COPROC1_CONDITION_SET, flag, 0);
          return flag;
       }	
    
@@ -312,149 +349,55 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addConditionFlagClear(int flag) {
-         backSteps.push(COPROC1_CONDITION_CLEAR, pc(), flag);
+         push(COPROC1_CONDITION_CLEAR, flag, 0);
          return flag;
       }	
    		
-       /**
-   	  * Add a new "back step" (the undo action) to the stack.  The action here
-   	  * is to do nothing!  This is just a place holder so when user is backstepping
-   	  * through the program no instructions will be skipped.  Cosmetic. If the top of the
-   	  * stack has the same PC counter, the do-nothing action will not be added.  
-   	  * @return 0
-   	  */
-       public int addDoNothing(int pc) {
-         if (backSteps.empty() || backSteps.peek().pc != pc) { 
-            backSteps.push(DO_NOTHING, pc);
+   	// Add a step for the latest instruction.  A step made with no instruction recorded
+   	// comes from the user editing a value before running the program; it is given an
+   	// instruction entry of its own that leaves the PC alone when backstepped.  Edits
+   	// made while paused belong to the last instruction executed, as they always have.
+       private void push(int action, int param1, int param2) {
+         if (instructionSize == 0) {
+            pushInstruction(NOT_PC_VALUE, false);
+         }
+         long step = stepCount;
+         int i = (int) (step % stepActions.length);
+         stepActions[i] = action;
+         stepParam1[i] = param1;
+         stepParam2[i] = param2;
+         stepCount = step+1;
+         // Should the step log wrap around onto the oldest instructions' steps, those
+         // instructions can no longer be undone and are dropped.
+         while (instructionSize > 0 && 
+                instructionFirstSteps[oldestInstruction()] <= step - stepActions.length) {
+            instructionSize--;
          }
-         return 0;
+      /*				
+         System.out.println("backstep PUSH: action "+action+" pc "+mars.util.Binary.intToHexString(instructionPCs[instructionTop])+
+         								 " parm1 "+param1+" parm2 "+param2);
+      */
       }
    	
-   		   	 	
-   	// Represents a "back step" (undo action) on the stack.
-       private class BackStep {
-         private int action;  // what do do MEMORY_RESTORE_WORD, etc
-         private int pc;      // program counter value when original step occurred
-         private ProgramStatement ps;   // statement whose action is being "undone" here
-         private int param1;  // first parameter required by that action
-         private int param2;  // optional second parameter required by that action
-         private boolean inDelaySlot; // true if instruction executed in "delay slot" (delayed branching enabled)
-      
-         // it is critical that BackStep object get its values by calling this method
-      	// rather than assigning to individual members, because of the technique used
-      	// to set its ps member (and possibly pc).
-          private void assign(int act, int programCounter, int parm1, int parm2) {
-            action = act;
-            pc     = programCounter;
-            try {
-            // Client does not have direct access to program statement, and rather than making all
-            // of them go through the methods below to obtain it, we will do it here.  
-            // Want the program statement but do not want observers notified.
-               ps = Globals.memory.getStatementNoNotify(programCounter);
-            } 
-                catch (Exception e) {
-                // The only situation causing this so far: user modifies memory or register
-                // contents through direct manipulation on the GUI, after assembling the program but
-                // before starting to run it (or after backstepping all the way to the start).
-                // The action will not be associated with any instruction, but will be carried out
-                // when popped.
-                  ps = null;
-                  pc = NOT_PC_VALUE; // Backstep method above will see this as flag to not set PC
-               } 
-            param1 = parm1;
-            param2 = parm2;
-            inDelaySlot = Simulator.inDelaySlot(); // ADDED 25 June 2007
-         /*				
-            System.out.println("backstep PUSH: action "+action+" pc "+mars.util.Binary.intToHexString(pc)+
-         		                   " source "+((ps==null)? "none":ps.getSource())+
-         								 " parm1 "+param1+" parm2 "+param2);
-         */
+   	// Add an instruction entry, overwriting the oldest when full.
+       private void pushInstruction(int pc, boolean inDelaySlot) {
+         int capacity = instructionPCs.length;
+         instructionTop = (instructionTop + 1) % capacity;
+         instructionPCs[instructionTop] = pc;
+         instructionFirstSteps[instructionTop] = stepCount;
+         instructionInDelaySlot[instructionTop] = inDelaySlot;
+         if (instructionSize < capacity) {
+            instructionSize++;
          }
       }
    	
-   	// *****************************************************************************
-   	// special purpose stack class for backstepping.  You've heard of circular queues
-   	// implemented with an array, right?  This is a circular stack!  When full, the
-   	// newly-pushed item overwrites the oldest item, with circular top!  All operations 
-   	// are constant time.  It's synchronized too, to be safe (is used by both the 
-   	// simulation thread and the GUI thread for the back-step button).
-   	// Upon construction, it is filled with newly-created empty BackStep objects which
-   	// will exist for the life of the stack.  Push does not create a BackStep object 
-   	// but instead overwrites the contents of the existing one.  Thus during MIPS
-   	// program (simulated) execution, BackStep objects are never created or junked
-   	// regardless of how many steps are executed.  This will speed things up a bit
-   	// and make life easier for the garbage collector.
-   	
-       private class BackstepStack {
-         private int capacity;
-         private int size;
-         private int top;
-         private BackStep[] stack;
-      
-          // Stack is created upon successful assembly or reset.  The one-time overhead of
-      	 // creating all the BackStep objects will not be noticed by the user, and enhances
-      	 // runtime performance by not having to create or recycle them during MIPS
-      	 // program execution.
-          private BackstepStack(int capacity) {
-            this.capacity = capacity;
-            this.size = 0;
-            this.top = -1;
-            this.stack = new BackStep[capacity];
-            for (int i=0; i<capacity; i++) {
-               this.stack[i] = new BackStep();
-            }
-         }
-      	
-          private synchronized boolean empty() {
-            return size==0;
-         }
-         
-          private synchronized void push(int act, int programCounter, int parm1, int parm2) {
-            if (size==0) {
-               top=0;
-               size++;
-            } 
-            else if (size < capacity) {
-               top = (top + 1) % capacity;
-               size++;
-            } 
-            else { // size == capacity.  The top moves up one, replacing oldest entry (goodbye!)
-               top = (top + 1) % capacity;
-            }
-         	// We'll re-use existing objects rather than create/discard each time.
-         	// Must use assign() method rather than series of assignment statements!
-            stack[top].assign(act, programCounter, parm1, parm2);
-         }
-      	
-          private synchronized void push(int act, int programCounter, int parm1) {
-            push(act, programCounter, parm1, 0);
-         }
-      	
-          private synchronized void push(int act, int programCounter) {
-            push(act, programCounter, 0, 0);
-         }
-         
-      	// NO PROTECTION.  This class is used only within this file so there is no excuse
-      	// for trying to pop from empty stack.
-          private synchronized BackStep pop() {
-            BackStep bs;
-            bs = stack[top];
-            if (size==1) {
-               top = -1;
-            } 
-            else {
-               top = (top + capacity - 1) % capacity;
-            }
-            size--;
-            return bs;
-         }
-      
-      	// NO PROTECTION.  This class is used only within this file so there is no excuse
-      	// for trying to peek from empty stack.         
-          private synchronized BackStep peek() {
-            return stack[top];
-         }
-      			
+       private void popInstruction() {
+         instructionTop = (instructionTop + instructionPCs.length - 1) % instructionPCs.length;
+         instructionSize--;
+      }
+   
+       private int oldestInstruction() {
+         return (instructionTop - instructionSize + 1 + instructionPCs.length) % instructionPCs.length;
       }
    
-   }
\ No newline at end of file
+   }
@@ -0,0 +1,119 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.hardware.*;
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+	
+/**
+ * A straight-line run of predecoded instructions, entered only at its first
+ * instruction and left only after its last.  Every instruction but the last
+ * falls through to the next; the last is a branch or jump, or the instruction
+ * preceding one the interpreter must handle itself (syscall, break, eret or an
+ * undefined instruction).
+ * <p>
+ * Blocks are formed by the ExecutionCache once their first instruction becomes
+ * hot and are executed by the simulator as a unit: the per-instruction work of
+ * the interpreter loop (locking, interrupt, stop and breakpoint checks, fetch)
+ * is done once per block instead of once per instruction.  The simulator
+ * executes a block only when doing so cannot be observed, and otherwise falls
+ * back to executing one instruction at a time.  See Simulator for the conditions.
+ *
+ * @version October 2014
+ * @see ExecutionCache#getBlock(PredecodedInstruction)
+ */
+
+    public final class BasicBlock {
+   /** Maximum number of instructions in a block. */
+      public static final int MAX_LENGTH = 64;
+   
+      private final PredecodedInstruction[] instructions;
+      private final int startAddress;
+      private final int lastAddress;
+   
+   /**
+    * Create a block from consecutive instructions.
+    * @param instructions the block's instructions, in address order.
+    */
+       BasicBlock(PredecodedInstruction[] instructions) {
+         this.instructions = instructions;
+         this.startAddress = instructions[0].getAddress();
+         this.lastAddress = instructions[instructions.length-1].getAddress();
+      }
+   
+   /**
+    * Execute the block.  The caller must already have incremented the program
+    * counter past the first instruction, just as for a single instruction; the
+    * program counter is incremented before each of the others.  If an instruction
+    * raises an exception, the program counter is therefore left pointing just past
+    * that instruction, which is what exception processing expects.  As only the
+    * last instruction can change the program counter otherwise, the faulting
+    * instruction is at address getProgramCounter()-4.
+    * @throws ProcessingException if a run-time exception occurs.
+    */
+       public void execute() throws ProcessingException {
+         PredecodedInstruction[] instructions = this.instructions;
+         instructions[0].simulate();
+         for (int i = 1; i < instructions.length; i++) {
+            RegisterFile.incrementPC();
+            instructions[i].simulate();
+         }
+      }
+   
+   /**
+    * @return number of instructions in the block.
+    */
+       public int getLength() {
+         return instructions.length;
+      }
+   
+   /**
+    * @return text segment address of the block's first instruction.
+    */
+       public int getStartAddress() {
+         return startAddress;
+      }
+   
+   /**
+    * @return text segment address of the block's last instruction.
+    */
+       public int getLastAddress() {
+         return lastAddress;
+      }
+   
+   /**
+    * Determine whether the block contains the given address.
+    * @param address a text segment address.
+    * @return true if the address is that of one of the block's instructions.
+    */
+       public boolean contains(int address) {
+         return address >= startAddress && address <= lastAddress;
+      }
+   }
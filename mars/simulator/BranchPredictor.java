@@ -0,0 +1,332 @@
+   package mars.simulator;
+   import java.util.*;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * A branch predictor, for measuring prediction accuracy without the GUI.  Each
+ * predictor keeps its state in fixed arrays allocated when it is made, so predicting
+ * a branch allocates nothing.  The families are:
+ * <ul>
+ * <li><b>bimodal</b>: a table of 2-bit saturating counters indexed by the branch address.
+ * <li><b>gshare</b>: 2-bit counters indexed by the branch address exclusive-or the
+ * outcomes of the most recent branches (the global history).
+ * <li><b>tournament</b>: a bimodal and a gshare predictor of the same size, and a table
+ * of 2-bit counters indexed by the branch address choosing which of the two to believe.
+ * <li><b>btb</b>: a direct mapped branch target buffer holding the address, target and
+ * a 2-bit counter of taken branches.  A branch not in the buffer is predicted not taken;
+ * a branch predicted taken is only correct if the target in the buffer is right too.
+ * </ul>
+ * parse() makes predictors from descriptions such as <tt>gshare:4K:12</tt>, so that
+ * several can be evaluated side by side by a BranchProfile.
+ *
+ * @version October 2014
+ */
+
+    public abstract class BranchPredictor {
+    /** Number of table entries when a description does not give it. */
+      public static final int DEFAULT_ENTRIES = 4096;
+    /** Number of branch target buffer entries when a description does not give it. */
+      public static final int DEFAULT_TARGET_ENTRIES = 512;
+    /** Number of global history bits when a description does not give it. */
+      public static final int DEFAULT_HISTORY = 12;
+   
+      private static final String[] KINDS = {"bimodal", "gshare", "tournament", "btb"};
+      private static final byte WEAKLY_NOT_TAKEN = 1;
+      private static final byte WEAKLY_TAKEN = 2;
+   
+      private final String description;
+   
+   /**
+    * @param description the description of the predictor, as parse() takes it
+    */
+       protected BranchPredictor(String description) {
+         this.description = description;
+      }
+   
+   /**
+    * Predict a conditional branch, then update the predictor with its actual outcome.
+    * @param address address of the branch instruction
+    * @param taken true if the branch was taken
+    * @param target address the branch goes to if taken
+    * @return true if the prediction was correct
+    */
+       public abstract boolean predict(int address, boolean taken, int target);
+   
+   /**
+    * Forget every branch seen, returning the predictor to its initial state.
+    */
+       public abstract void reset();
+   
+   /**
+    * @return the description of the predictor, as parse() takes it
+    */
+       public String toString() {
+         return description;
+      }
+   
+   /**
+    * Make the predictors described.  Descriptions are separated by commas, and each
+    * is <tt>kind[:entries[:history]]</tt>.  The kind is <tt>bimodal</tt>,
+    * <tt>gshare</tt>, <tt>tournament</tt> or <tt>btb</tt>; entries is the number of
+    * entries in each table, a power of 2 that may end in K; and history, for gshare
+    * and tournament, is the number of branch outcomes in the global history, no more
+    * than the number of bits needed to index the table.  For example
+    * <tt>bimodal:4K,gshare:4K:12,tournament:4K:12,btb:512</tt>.
+    * @param descriptions the predictors wanted
+    * @return ArrayList of BranchPredictor, in the order described
+    * @throws IllegalArgumentException if a description is not valid
+    */
+       public static ArrayList parse(String descriptions) {
+         ArrayList predictors = new ArrayList();
+         StringTokenizer tokens = new StringTokenizer(descriptions, ",");
+         while (tokens.hasMoreTokens()) {
+            String[] fields = tokens.nextToken().trim().split(":");
+            String kind = fields[0].trim().toLowerCase();
+            int k = Arrays.asList(KINDS).indexOf(kind);
+            boolean global = kind.equals("gshare") || kind.equals("tournament");
+            if (k < 0 || fields.length > (global ? 3 : 2)) {
+               throw new IllegalArgumentException("\""+fields[0]+"\" is not a predictor with "+(fields.length-1)+
+                                                  " parameters; use bimodal:entries, gshare:entries:history, "+
+                                                  "tournament:entries:history or btb:entries");
+            }
+            int entries = (fields.length > 1) ? parseEntries(fields[1]) 
+                          : kind.equals("btb") ? DEFAULT_TARGET_ENTRIES : DEFAULT_ENTRIES;
+            int history = (fields.length > 2) ? parseHistory(fields[2]) : Math.min(DEFAULT_HISTORY, log2(entries));
+            if (history > log2(entries)) {
+               throw new IllegalArgumentException(kind+" history of "+history+" bits is longer than the "+
+                                                  log2(entries)+" bits of index to "+entries+" entries");
+            }
+            switch (k) {
+               case 0: 
+                  predictors.add(new Bimodal(entries));
+                  break;
+               case 1: 
+                  predictors.add(new Gshare(entries, history));
+                  break;
+               case 2: 
+                  predictors.add(new Tournament(entries, history));
+                  break;
+               default: 
+                  predictors.add(new TargetBuffer(entries));
+                  break;
+            }
+         }
+         if (predictors.isEmpty()) {
+            throw new IllegalArgumentException("no predictor described");
+         }
+         return predictors;
+      }
+   
+       private static int parseEntries(String field) {
+         String number = field.trim().toUpperCase();
+         int multiplier = 1;
+         if (number.endsWith("K")) {
+            multiplier = 1 << 10;
+            number = number.substring(0, number.length() - 1);
+         }
+         try {
+            int value = Integer.parseInt(number);
+            if (value > 0 && value <= (1 << 24) / multiplier && (value & (value - 1)) == 0) {
+               return value * multiplier;
+            }
+         } 
+             catch (NumberFormatException e) { }
+         throw new IllegalArgumentException("invalid number of entries \""+field+"\", must be a power of 2 up to 16M");
+      }
+   
+       private static int parseHistory(String field) {
+         try {
+            int value = Integer.parseInt(field.trim());
+            if (value >= 0) {
+               return value;
+            }
+         } 
+             catch (NumberFormatException e) { }
+         throw new IllegalArgumentException("invalid history length \""+field+"\"");
+      }
+   
+       private static int log2(int powerOf2) {
+         return Integer.numberOfTrailingZeros(powerOf2);
+      }
+   
+      // Move a 2-bit saturating counter towards the outcome.
+       private static void train(byte[] counters, int i, boolean taken) {
+         if (taken) {
+            if (counters[i] < 3) {
+               counters[i]++;
+            }
+         } 
+         else if (counters[i] > 0) {
+            counters[i]--;
+         }
+      }
+   
+      //////////////////////////////////////////////////////////////////////////////
+      //  Table of 2-bit counters indexed by branch address.
+   
+       private static class Bimodal extends BranchPredictor {
+         private final byte[] counters;
+         private final int mask;
+      
+          Bimodal(int entries) {
+            super("bimodal:"+entries);
+            counters = new byte[entries];
+            mask = entries - 1;
+            reset();
+         }
+      
+          public boolean predict(int address, boolean taken, int target) {
+            int i = (address >>> 2) & mask;
+            boolean predicted = counters[i] >= WEAKLY_TAKEN;
+            train(counters, i, taken);
+            return predicted == taken;
+         }
+      
+          public void reset() {
+            Arrays.fill(counters, WEAKLY_NOT_TAKEN);
+         }
+      }
+   
+      //////////////////////////////////////////////////////////////////////////////
+      //  Table of 2-bit counters indexed by branch address exclusive-or global history.
+   
+       private static class Gshare extends BranchPredictor {
+         private final byte[] counters;
+         private final int mask, historyMask;
+         private int history;
+      
+          Gshare(int entries, int historyBits) {
+            super("gshare:"+entries+":"+historyBits);
+            counters = new byte[entries];
+            mask = entries - 1;
+            historyMask = (1 << historyBits) - 1;
+            reset();
+         }
+      
+          public boolean predict(int address, boolean taken, int target) {
+            int i = ((address >>> 2) ^ history) & mask;
+            boolean predicted = counters[i] >= WEAKLY_TAKEN;
+            train(counters, i, taken);
+            history = ((history << 1) | (taken ? 1 : 0)) & historyMask;
+            return predicted == taken;
+         }
+      
+          public void reset() {
+            Arrays.fill(counters, WEAKLY_NOT_TAKEN);
+            history = 0;
+         }
+      }
+   
+      //////////////////////////////////////////////////////////////////////////////
+      //  Bimodal and gshare, with 2-bit counters choosing between them: high for gshare.
+   
+       private static class Tournament extends BranchPredictor {
+         private final Bimodal bimodal;
+         private final Gshare gshare;
+         private final byte[] choosers;
+         private final int mask;
+      
+          Tournament(int entries, int historyBits) {
+            super("tournament:"+entries+":"+historyBits);
+            bimodal = new Bimodal(entries);
+            gshare = new Gshare(entries, historyBits);
+            choosers = new byte[entries];
+            mask = entries - 1;
+            reset();
+         }
+      
+          public boolean predict(int address, boolean taken, int target) {
+            int i = (address >>> 2) & mask;
+            boolean useGshare = choosers[i] >= WEAKLY_TAKEN;
+            boolean bimodalCorrect = bimodal.predict(address, taken, target);
+            boolean gshareCorrect = gshare.predict(address, taken, target);
+            if (bimodalCorrect != gshareCorrect) {
+               train(choosers, i, gshareCorrect);
+            }
+            return useGshare ? gshareCorrect : bimodalCorrect;
+         }
+      
+          public void reset() {
+            bimodal.reset();
+            gshare.reset();
+            Arrays.fill(choosers, WEAKLY_NOT_TAKEN);
+         }
+      }
+   
+      //////////////////////////////////////////////////////////////////////////////
+      //  Direct mapped branch target buffer with a 2-bit counter in each entry.
+   
+       private static class TargetBuffer extends BranchPredictor {
+         private static final int EMPTY = 1; // no instruction is at an odd address
+         private final int[] addresses;
+         private final int[] targets;
+         private final byte[] counters;
+         private final int mask;
+      
+          TargetBuffer(int entries) {
+            super("btb:"+entries);
+            addresses = new int[entries];
+            targets = new int[entries];
+            counters = new byte[entries];
+            mask = entries - 1;
+            reset();
+         }
+      
+          public boolean predict(int address, boolean taken, int target) {
+            int i = (address >>> 2) & mask;
+            boolean hit = addresses[i] == address;
+            boolean predicted = hit && counters[i] >= WEAKLY_TAKEN;
+            boolean correct = (predicted == taken) && (!taken || targets[i] == target);
+            if (hit) {
+               train(counters, i, taken);
+               if (taken) {
+                  targets[i] = target;
+               }
+            } 
+            else if (taken) {
+               addresses[i] = address;
+               targets[i] = target;
+               counters[i] = WEAKLY_TAKEN;
+            }
+            return correct;
+         }
+      
+          public void reset() {
+            Arrays.fill(addresses, EMPTY);
+            Arrays.fill(counters, WEAKLY_NOT_TAKEN);
+         }
+      }
+   }
@@ -0,0 +1,294 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import mars.mips.instructions.*;
+   import mars.util.*;
+   import java.io.*;
+   import java.util.*;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * Evaluates branch predictors side by side on the conditional branches of a run.  The
+ * simulator gives it the outcome of each branch it executes; every predictor predicts
+ * the branch and learns its outcome, and the predictions each gets wrong are counted,
+ * in total and for each branch address.  A profile is attached to a machine with
+ * MachineContext.setBranchProfile().
+ * <p>
+ * Counts are kept in primitive arrays: an open addressing hash table of branch
+ * addresses, with the mispredictions of all predictors for a branch in consecutive
+ * elements.  It only grows when a new branch is first executed.
+ *
+ * @version October 2014
+ */
+
+    public class BranchProfile {
+      private static final int EMPTY = 1; // no instruction is at an odd address
+      private static final int INITIAL_CAPACITY = 256;
+   
+      private final BranchPredictor[] predictors;
+      private final long[] totalMispredictions;
+      private long totalBranches, totalTaken;
+      private int size;
+      private int[] addresses;
+      private long[] executions, taken, mispredictions;
+   
+   /**
+    * Create a profile evaluating the given predictors, which are reset.
+    * @param predictors ArrayList of BranchPredictor, as BranchPredictor.parse() returns
+    */
+       public BranchProfile(ArrayList predictors) {
+         this.predictors = (BranchPredictor[]) predictors.toArray(new BranchPredictor[predictors.size()]);
+         this.totalMispredictions = new long[this.predictors.length];
+         reset();
+      }
+   
+   /**
+    * Reset the predictors and set all counts to zero.
+    */
+       public void reset() {
+         for (int p = 0; p < predictors.length; p++) {
+            predictors[p].reset();
+         }
+         Arrays.fill(totalMispredictions, 0);
+         totalBranches = totalTaken = 0;
+         allocate(INITIAL_CAPACITY);
+      }
+   
+   /**
+    * Determine whether an instruction is a conditional branch: one of beq, bne, blez,
+    * bgtz, bltz, bgez, bltzal, bgezal, their branch-likely forms, bc1f or bc1t.
+    * @param word the binary instruction
+    * @return true if it is a conditional branch
+    */
+       public static boolean isConditionalBranch(int word) {
+         int opcode = word >>> 26;
+         if (opcode == 0x01) { // REGIMM, the condition is in the rt field
+            int rt = (word >>> 16) & 0x1F;
+            return rt <= 0x03 || (rt >= 0x10 && rt <= 0x13);
+         }
+         if (opcode == 0x11) { // COP1, bc1f and bc1t
+            return ((word >>> 21) & 0x1F) == 0x08;
+         }
+         return (opcode >= 0x04 && opcode <= 0x07) || (opcode >= 0x14 && opcode <= 0x17);
+      }
+   
+   /**
+    * @param address address of a conditional branch
+    * @param word the binary branch instruction
+    * @return the address the branch goes to if taken
+    */
+       public static int getTarget(int address, int word) {
+         return address + Instruction.INSTRUCTION_LENGTH + (((short) word) << 2);
+      }
+   
+   /**
+    * Predict a conditional branch with every predictor, and count the mispredictions.
+    * Called by the simulator after executing the branch.
+    * @param address address of the branch instruction
+    * @param word the binary branch instruction
+    * @param branchTaken true if the branch was taken
+    */
+       public void branch(int address, int word, boolean branchTaken) {
+         int i = find(address);
+         int target = getTarget(address, word);
+         executions[i]++;
+         totalBranches++;
+         if (branchTaken) {
+            taken[i]++;
+            totalTaken++;
+         }
+         int first = i * predictors.length;
+         for (int p = 0; p < predictors.length; p++) {
+            if (!predictors[p].predict(address, branchTaken, target)) {
+               mispredictions[first + p]++;
+               totalMispredictions[p]++;
+            }
+         }
+      }
+   
+   /**
+    * @return the predictors evaluated
+    */
+       public BranchPredictor[] getPredictors() {
+         return predictors.clone();
+      }
+   
+   /**
+    * @return the number of conditional branches executed
+    */
+       public long getBranches() {
+         return totalBranches;
+      }
+   
+   /**
+    * @return the number of conditional branches taken
+    */
+       public long getTaken() {
+         return totalTaken;
+      }
+   
+   /**
+    * @param predictor index of a predictor in the order given
+    * @return the number of branches that predictor got wrong
+    */
+       public long getMispredictions(int predictor) {
+         return totalMispredictions[predictor];
+      }
+   
+   /**
+    * @param predictor index of a predictor in the order given
+    * @return the fraction of branches that predictor got right, 1 if there were none
+    */
+       public double getAccuracy(int predictor) {
+         return accuracy(totalBranches, totalMispredictions[predictor]);
+      }
+   
+   /**
+    * @return the address of every branch executed, in the order of the address space
+    * (that is, with the addresses taken as unsigned)
+    */
+       public int[] getAddresses() {
+         int[] result = new int[size];
+         int n = 0;
+         for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] != EMPTY) {
+               result[n++] = addresses[i] ^ Integer.MIN_VALUE;
+            }
+         }
+         Arrays.sort(result);
+         for (int i = 0; i < size; i++) {
+            result[i] ^= Integer.MIN_VALUE;
+         }
+         return result;
+      }
+   
+   /**
+    * Write the results as comma-separated values: the branches, mispredictions and
+    * accuracy of each predictor; then, after a blank line, the executions and times
+    * taken of each branch with the accuracy of each predictor on it, its source line,
+    * its basic instruction and, if it is the first instruction of the line, its source.
+    * @param out stream to write the results to
+    * @param memory the memory holding the program run, for the source of each branch
+    */
+       public void writeReport(PrintStream out, Memory memory) {
+         out.println("predictor,branches,taken,mispredictions,accuracy");
+         for (int p = 0; p < predictors.length; p++) {
+            out.println(predictors[p]+","+totalBranches+","+totalTaken+","+totalMispredictions[p]+","+
+                        (float) getAccuracy(p));
+         }
+         out.println();
+         StringBuffer heading = new StringBuffer("address,executions,taken");
+         for (int p = 0; p < predictors.length; p++) {
+            heading.append(","+predictors[p]);
+         }
+         out.println(heading.append(",line,instruction,source"));
+         int[] branches = getAddresses();
+         for (int b = 0; b < branches.length; b++) {
+            int i = find(branches[b]);
+            StringBuffer line = new StringBuffer(Binary.intToHexString(branches[b]));
+            line.append(","+executions[i]+","+taken[i]);
+            for (int p = 0; p < predictors.length; p++) {
+               line.append(","+(float) accuracy(executions[i], mispredictions[i * predictors.length + p]));
+            }
+            ProgramStatement statement = null;
+            try {
+               statement = memory.getStatementNoNotify(branches[b]);
+            } 
+                catch (AddressErrorException e) { } // report it without source
+            String instruction = (statement == null) ? "" : statement.getBasicAssemblyStatement();
+            String source = (statement == null || statement.getSource() == null) ? "" : statement.getSource().trim();
+            line.append(","+((statement == null) ? 0 : statement.getSourceLine())+","+csvString(instruction)+
+                        ","+csvString(source));
+            out.println(line);
+         }
+         out.flush();
+      }
+   
+       private static double accuracy(long branches, long mispredicted) {
+         return (branches == 0) ? 1.0 : (double) (branches - mispredicted) / branches;
+      }
+   
+      // Index of the address in the table, adding it if new.  The table is kept at most
+   	// half full so the search is short.
+       private int find(int address) {
+         int mask = addresses.length - 1;
+         int i = ((address * 0x9E3779B9) >>> 8) & mask;
+         while (addresses[i] != address) {
+            if (addresses[i] == EMPTY) {
+               if (2 * (size + 1) > addresses.length) {
+                  grow();
+                  return find(address);
+               }
+               addresses[i] = address;
+               size++;
+               return i;
+            }
+            i = (i + 1) & mask;
+         }
+         return i;
+      }
+   
+       private void allocate(int capacity) {
+         size = 0;
+         addresses = new int[capacity];
+         Arrays.fill(addresses, EMPTY);
+         executions = new long[capacity];
+         taken = new long[capacity];
+         mispredictions = new long[capacity * predictors.length];
+      }
+   
+       private void grow() {
+         int[] oldAddresses = addresses;
+         long[] oldExecutions = executions, oldTaken = taken, oldMispredictions = mispredictions;
+         allocate(2 * oldAddresses.length);
+         for (int j = 0; j < oldAddresses.length; j++) {
+            if (oldAddresses[j] != EMPTY) {
+               int i = find(oldAddresses[j]);
+               executions[i] = oldExecutions[j];
+               taken[i] = oldTaken[j];
+               System.arraycopy(oldMispredictions, j * predictors.length, 
+                                mispredictions, i * predictors.length, predictors.length);
+            }
+         }
+      }
+   
+       private static String csvString(String s) {
+         if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+         }
+         return "\""+s.replaceAll("\"", "\"\"")+"\"";
+      }
+   }
@@ -0,0 +1,225 @@
+   package mars.simulator;
+   import mars.mips.hardware.*;
+   import mars.mips.instructions.*;
+   import java.util.*;
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+	
+/**
+ * The set of breakpoints for a running simulation, arranged so the simulator
+ * can test the program counter after every instruction in constant time.
+ * Addresses in the text and kernel text segments are kept as bitmaps with one
+ * bit per word, indexed by word offset from the segment base address; each
+ * bitmap grows as needed to cover its highest breakpoint.  Any other address
+ * (e.g. in the data segment when self-modifying code is enabled) is kept in a
+ * small sorted array.
+ * <p>
+ * Breakpoints may be added and removed by another thread while the simulation
+ * is running.  Changes are made under the object's lock and published through
+ * volatile fields, so the simulator reads the set without locking and sees each
+ * change before its next test.
+ *
+ * @version October 2014
+ */
+
+    public class BreakpointSet {
+      private final int textBase, kernelTextBase;
+      private volatile long[] textBits;
+      private volatile long[] kernelTextBits;
+      private volatile int[] others; // sorted
+      private volatile int size;
+   
+   /**
+    * Create an empty set.  Segment base addresses are those of the current
+    * memory configuration.
+    */
+       public BreakpointSet() {
+         textBase = Memory.textBaseAddress;
+         kernelTextBase = Memory.kernelTextBaseAddress;
+         textBits = new long[0];
+         kernelTextBits = new long[0];
+         others = new int[0];
+         size = 0;
+      }
+   
+   /**
+    * Create a set containing the given breakpoints.
+    * @param addresses breakpoint addresses, in any order.  May be null.
+    */
+       public BreakpointSet(int[] addresses) {
+         this();
+         if (addresses != null) {
+            for (int i = 0; i < addresses.length; i++) {
+               add(addresses[i]);
+            }
+         }
+      }
+   
+   /**
+    * Determine whether there is a breakpoint at the given address.
+    * @param address instruction address.
+    * @return true if a breakpoint is set there.
+    */
+       public boolean contains(int address) {
+         if (size == 0) {
+            return false;
+         }
+         if (Memory.wordAligned(address)) {
+            if (Memory.inTextSegment(address)) {
+               return testBit(textBits, (address - textBase) >>> 2);
+            }
+            if (Memory.inKernelTextSegment(address)) {
+               return testBit(kernelTextBits, (address - kernelTextBase) >>> 2);
+            }
+         }
+         return Arrays.binarySearch(others, address) >= 0;
+      }
+   
+   /**
+    * Determine whether there is a breakpoint at any instruction in the given range.
+    * @param first address of first instruction in range.
+    * @param last address of last instruction in range.
+    * @return true if a breakpoint is set at any word address from first to last inclusive.
+    */
+       public boolean containsAny(int first, int last) {
+         if (size == 0) {
+            return false;
+         }
+         for (int address = first; address <= last; address += Instruction.INSTRUCTION_LENGTH) {
+            if (contains(address)) {
+               return true;
+            }
+         }
+         return false;
+      }
+   
+   /**
+    * @return true if there are no breakpoints.
+    */
+       public boolean isEmpty() {
+         return size == 0;
+      }
+   
+   /**
+    * @return number of breakpoints.
+    */
+       public int size() {
+         return size;
+      }
+   
+   /**
+    * Set a breakpoint.  Has no effect if one is already set at that address.
+    * @param address instruction address.
+    */
+       public synchronized void add(int address) {
+         if (contains(address)) {
+            return;
+         }
+         if (Memory.wordAligned(address) && Memory.inTextSegment(address)) {
+            textBits = setBit(textBits, (address - textBase) >>> 2, true);
+         } 
+         else if (Memory.wordAligned(address) && Memory.inKernelTextSegment(address)) {
+            kernelTextBits = setBit(kernelTextBits, (address - kernelTextBase) >>> 2, true);
+         } 
+         else {
+            int[] bigger = new int[others.length+1];
+            System.arraycopy(others, 0, bigger, 0, others.length);
+            bigger[others.length] = address;
+            Arrays.sort(bigger);
+            others = bigger;
+         }
+         size++;
+      }
+   
+   /**
+    * Clear a breakpoint.  Has no effect if none is set at that address.
+    * @param address instruction address.
+    */
+       public synchronized void remove(int address) {
+         if (!contains(address)) {
+            return;
+         }
+         if (Memory.wordAligned(address) && Memory.inTextSegment(address)) {
+            textBits = setBit(textBits, (address - textBase) >>> 2, false);
+         } 
+         else if (Memory.wordAligned(address) && Memory.inKernelTextSegment(address)) {
+            kernelTextBits = setBit(kernelTextBits, (address - kernelTextBase) >>> 2, false);
+         } 
+         else {
+            int[] smaller = new int[others.length-1];
+            int position = Arrays.binarySearch(others, address);
+            System.arraycopy(others, 0, smaller, 0, position);
+            System.arraycopy(others, position+1, smaller, position, smaller.length-position);
+            others = smaller;
+         }
+         size--;
+      }
+   
+   /**
+    * Set or clear a breakpoint.
+    * @param address instruction address.
+    * @param set true to set the breakpoint, false to clear it.
+    */
+       public void set(int address, boolean set) {
+         if (set) {
+            add(address);
+         } 
+         else {
+            remove(address);
+         }
+      }
+   
+       private static boolean testBit(long[] bits, int index) {
+         int word = index >>> 6;
+         return word < bits.length && (bits[word] & (1L << index)) != 0;
+      }
+   
+      // Returns the bitmap, enlarged if necessary, with the bit changed.  Caller
+   	// stores the result back into the volatile field to publish the change.
+       private static long[] setBit(long[] bits, int index, boolean set) {
+         int word = index >>> 6;
+         if (word >= bits.length) {
+            if (!set) {
+               return bits;
+            }
+            long[] bigger = new long[Math.max(word+1, 2*bits.length)];
+            System.arraycopy(bits, 0, bigger, 0, bits.length);
+            bits = bigger;
+         }
+         if (set) {
+            bits[word] |= (1L << index);
+         } 
+         else {
+            bits[word] &= ~(1L << index);
+         }
+         return bits;
+      }
+   }
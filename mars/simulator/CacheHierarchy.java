@@ -0,0 +1,345 @@
+   package mars.simulator;
+   import java.util.*;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * A hierarchy of caches: first level instruction and data caches, or one unified
+ * first level cache, optionally backed by a second level cache shared by both.
+ * Instruction fetches go to the instruction cache (or the unified one) and are not
+ * modelled if there is none; likewise loads and stores with the data cache.
+ * <p>
+ * Hierarchies are described by strings of the form
+ * <tt>level+level...</tt>, each level being <tt>name:size:ways:block</tt> optionally
+ * followed by <tt>:option</tt>s.  The name is <tt>L1I</tt>, <tt>L1D</tt>, <tt>L1</tt>
+ * (unified) or <tt>L2</tt>.  The size and block size are in bytes, with an optional
+ * <tt>K</tt> or <tt>M</tt> suffix.  Ways is the number of blocks in a set: 1 for direct
+ * mapped, or <tt>full</tt> for fully associative.  Options are <tt>lru</tt> (the
+ * default) or <tt>random</tt> replacement, <tt>wb</tt> (the default) or <tt>wt</tt> for
+ * write-back or write-through, and <tt>wa</tt> (the default) or <tt>nwa</tt> for
+ * write-allocate or not.  For example <tt>L1I:4K:1:16+L1D:4K:2:16+L2:64K:8:32:wt</tt>.
+ * <p>
+ * To describe a sweep, the size, ways and block size may each be a range
+ * <tt>low..high</tt>, taking every power of 2 between, and several descriptions may be
+ * given separated by commas.  parse() makes one hierarchy for every combination,
+ * leaving out those that are impossible (more ways than blocks, say).
+ *
+ * @see CacheSweep
+ * @version October 2014
+ */
+
+    public class CacheHierarchy {
+      private static final String[] LEVEL_NAMES = {"L1I", "L1D", "L1", "L2"};
+      private static final int INSTRUCTION = 0, DATA = 1, UNIFIED = 2, SECOND = 3;
+      private static final int FULL = -1; // ways for fully associative
+   
+      private final CacheModel instructionCache; // may be the same as dataCache
+      private final CacheModel dataCache;
+      private final CacheModel secondLevelCache;
+   
+   /**
+    * Create a hierarchy of caches, which must not already be part of one.
+    * @param instructionCache first level instruction cache, or null for none
+    * @param dataCache first level data cache, or null for none; may be the same as
+    * instructionCache for a unified cache
+    * @param secondLevelCache second level cache, or null for none
+    */
+       public CacheHierarchy(CacheModel instructionCache, CacheModel dataCache, CacheModel secondLevelCache) {
+         this.instructionCache = instructionCache;
+         this.dataCache = dataCache;
+         this.secondLevelCache = secondLevelCache;
+         if (instructionCache != null) {
+            instructionCache.setNext(secondLevelCache);
+         }
+         if (dataCache != null) {
+            dataCache.setNext(secondLevelCache);
+         }
+      }
+   
+   /**
+    * An instruction fetch.
+    * @param address the instruction's address
+    */
+       public void fetch(int address) {
+         if (instructionCache != null) {
+            instructionCache.read(address);
+         }
+      }
+   
+   /**
+    * A load.
+    * @param address the address loaded from
+    */
+       public void load(int address) {
+         if (dataCache != null) {
+            dataCache.read(address);
+         }
+      }
+   
+   /**
+    * A store.
+    * @param address the address stored to
+    */
+       public void store(int address) {
+         if (dataCache != null) {
+            dataCache.write(address);
+         }
+      }
+   
+   /**
+    * @return the caches of the hierarchy, first level first, each just once
+    */
+       public CacheModel[] getLevels() {
+         ArrayList levels = new ArrayList();
+         if (instructionCache != null) {
+            levels.add(instructionCache);
+         }
+         if (dataCache != null && dataCache != instructionCache) {
+            levels.add(dataCache);
+         }
+         if (secondLevelCache != null) {
+            levels.add(secondLevelCache);
+         }
+         return (CacheModel[]) levels.toArray(new CacheModel[levels.size()]);
+      }
+   
+   /**
+    * Empty all caches and zero their counts.
+    */
+       public void reset() {
+         CacheModel[] levels = getLevels();
+         for (int i = 0; i < levels.length; i++) {
+            levels[i].reset();
+         }
+      }
+   
+   /**
+    * @return the description of the hierarchy, as parse() takes it
+    */
+       public String toString() {
+         StringBuffer description = new StringBuffer();
+         CacheModel[] levels = getLevels();
+         for (int i = 0; i < levels.length; i++) {
+            description.append((i == 0) ? "" : "+").append(levels[i]);
+         }
+         return description.toString();
+      }
+   
+   /**
+    * Make the hierarchies described.  See the class description for the form.
+    * @param descriptions one or more descriptions of hierarchies, separated by commas
+    * @return ArrayList of CacheHierarchy, one for each combination of the ranges given
+    * @throws IllegalArgumentException if a description is not valid, or no hierarchy
+    * it describes is possible
+    */
+       public static ArrayList parse(String descriptions) {
+         ArrayList hierarchies = new ArrayList();
+         StringTokenizer st = new StringTokenizer(descriptions, ",");
+         while (st.hasMoreTokens()) {
+            String description = st.nextToken().trim();
+            String[] levelDescriptions = description.split("\\+");
+            ArrayList[] variants = new ArrayList[LEVEL_NAMES.length];
+            for (int i = 0; i < levelDescriptions.length; i++) {
+               String[] fields = levelDescriptions[i].trim().split(":");
+               int level = indexOf(LEVEL_NAMES, fields[0]);
+               if (level < 0 || fields.length < 4) {
+                  throw new IllegalArgumentException("\""+levelDescriptions[i]+"\" is not name:size:ways:block");
+               }
+               if (variants[level] != null) {
+                  throw new IllegalArgumentException(LEVEL_NAMES[level]+" is given twice in \""+description+"\"");
+               }
+               variants[level] = parseLevel(LEVEL_NAMES[level], fields);
+            }
+            if (variants[UNIFIED] != null && (variants[INSTRUCTION] != null || variants[DATA] != null)) {
+               throw new IllegalArgumentException("\""+description+"\" has both unified and split first level caches");
+            }
+            if (variants[UNIFIED] == null && variants[INSTRUCTION] == null && variants[DATA] == null) {
+               throw new IllegalArgumentException("\""+description+"\" has no first level cache");
+            }
+            int found = hierarchies.size();
+            addCombinations(hierarchies, variants, new int[variants.length], 0);
+            if (hierarchies.size() == found) {
+               throw new IllegalArgumentException("no cache described by \""+description+"\" is possible");
+            }
+         }
+         if (hierarchies.isEmpty()) {
+            throw new IllegalArgumentException("no cache described");
+         }
+         return hierarchies;
+      }
+   
+   /**
+    * @param bytes a number of bytes
+    * @return the number, in K or M if it is a whole number of them
+    */
+       public static String formatSize(int bytes) {
+         if (bytes >= 1 << 20 && bytes % (1 << 20) == 0) {
+            return (bytes >> 20)+"M";
+         }
+         if (bytes >= 1 << 10 && bytes % (1 << 10) == 0) {
+            return (bytes >> 10)+"K";
+         }
+         return Integer.toString(bytes);
+      }
+   
+      // Every variant of a level described by name:size:ways:block:options, as
+   	// int[] {size, ways, block, replacement, write back, write allocate}.
+       private static ArrayList parseLevel(String name, String[] fields) {
+         int replacement = CacheModel.LRU;
+         int writeBack = 1;
+         int writeAllocate = 1;
+         for (int i = 4; i < fields.length; i++) {
+            String option = fields[i].trim().toLowerCase();
+            if (option.equals("lru") || option.equals("random")) {
+               replacement = option.equals("lru") ? CacheModel.LRU : CacheModel.RANDOM;
+            } 
+            else if (option.equals("wb") || option.equals("wt")) {
+               writeBack = option.equals("wb") ? 1 : 0;
+            } 
+            else if (option.equals("wa") || option.equals("nwa")) {
+               writeAllocate = option.equals("wa") ? 1 : 0;
+            } 
+            else {
+               throw new IllegalArgumentException("unknown cache option \""+fields[i]+"\" for "+name);
+            }
+         }
+         int[] sizes = parseRange(fields[1], name+" size");
+         int[] ways = fields[2].trim().equalsIgnoreCase("full") ? new int[] {FULL} : parseRange(fields[2], name+" ways");
+         int[] blocks = parseRange(fields[3], name+" block size");
+         ArrayList variants = new ArrayList();
+         for (int s = 0; s < sizes.length; s++) {
+            for (int w = 0; w < ways.length; w++) {
+               for (int b = 0; b < blocks.length; b++) {
+                  variants.add(new int[] {sizes[s], ways[w], blocks[b], replacement, writeBack, writeAllocate});
+               }
+            }
+         }
+         return variants;
+      }
+   
+      // A number of bytes, or a range low..high of powers of 2.
+       private static int[] parseRange(String field, String what) {
+         field = field.trim();
+         int dots = field.indexOf("..");
+         int low = parseSize((dots < 0) ? field : field.substring(0, dots), what);
+         if (dots < 0) {
+            return new int[] {low};
+         }
+         int high = parseSize(field.substring(dots + 2), what);
+         if ((low & (low - 1)) != 0 || (high & (high - 1)) != 0 || high < low) {
+            throw new IllegalArgumentException(what+" range \""+field+"\" is not from a power of 2 up to another");
+         }
+         int[] range = new int[Integer.numberOfTrailingZeros(high) - Integer.numberOfTrailingZeros(low) + 1];
+         for (int i = 0; i < range.length; i++) {
+            range[i] = low << i;
+         }
+         return range;
+      }
+   
+       private static int parseSize(String field, String what) {
+         String number = field.trim().toUpperCase();
+         int multiplier = 1;
+         if (number.endsWith("K")) {
+            multiplier = 1 << 10;
+         } 
+         else if (number.endsWith("M")) {
+            multiplier = 1 << 20;
+         }
+         if (multiplier != 1) {
+            number = number.substring(0, number.length() - 1);
+         }
+         try {
+            int value = Integer.parseInt(number);
+            if (value > 0 && value <= Integer.MAX_VALUE / multiplier) {
+               return value * multiplier;
+            }
+         } 
+             catch (NumberFormatException e) { }
+         throw new IllegalArgumentException("invalid "+what+" \""+field+"\"");
+      }
+   
+      // Add a hierarchy for every combination of variants from level onwards, given the
+   	// variants chosen for the levels before.
+       private static void addCombinations(ArrayList hierarchies, ArrayList[] variants, int[] chosen, int level) {
+         if (level == variants.length) {
+            CacheModel[] caches = new CacheModel[variants.length];
+            for (int i = 0; i < variants.length; i++) {
+               if (variants[i] != null) {
+                  caches[i] = makeCache(LEVEL_NAMES[i], (int[]) variants[i].get(chosen[i]));
+                  if (caches[i] == null) {
+                     return;
+                  }
+               }
+            }
+            if (caches[UNIFIED] != null) {
+               hierarchies.add(new CacheHierarchy(caches[UNIFIED], caches[UNIFIED], caches[SECOND]));
+            } 
+            else {
+               hierarchies.add(new CacheHierarchy(caches[INSTRUCTION], caches[DATA], caches[SECOND]));
+            }
+            return;
+         }
+         int count = (variants[level] == null) ? 1 : variants[level].size();
+         for (int i = 0; i < count; i++) {
+            chosen[level] = i;
+            addCombinations(hierarchies, variants, chosen, level + 1);
+         }
+      }
+   
+      // A cache of the given variant, or null if it is impossible.
+       private static CacheModel makeCache(String name, int[] variant) {
+         int size = variant[0], ways = variant[1], block = variant[2];
+         if (size % block != 0) {
+            return null;
+         }
+         int numberOfBlocks = size / block;
+         try {
+            return new CacheModel(name, numberOfBlocks, block, (ways == FULL) ? numberOfBlocks : ways,
+                                  variant[3], variant[4] != 0, variant[5] != 0);
+         } 
+             catch (IllegalArgumentException e) {
+               return null;
+            }
+      }
+   
+       private static int indexOf(String[] names, String name) {
+         for (int i = 0; i < names.length; i++) {
+            if (names[i].equalsIgnoreCase(name.trim())) {
+               return i;
+            }
+         }
+         return -1;
+      }
+   }
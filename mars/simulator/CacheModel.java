@@ -0,0 +1,342 @@
+   package mars.simulator;
+   import java.util.*;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * One level of a cache, for measuring cache performance without the GUI.  Only the
+ * presence of blocks is modelled, not their contents.  Any placement is possible: a
+ * cache of B blocks with sets of N blocks is direct mapped if N is 1, fully associative
+ * if N is B, and N-way set associative otherwise.  An address is divided into
+ * [ tag | set | offset ], the offset selecting the byte within the block and the set
+ * the group of blocks it may be placed in; all blocks of the set are searched for
+ * the tag.  The block to replace in a full set is the least recently used or one
+ * chosen at random.
+ * <p>
+ * On a miss the block is read from the next level (memory if there is none).  Stores
+ * are write-back, marking the block dirty so it is written to the next level when
+ * replaced, or write-through, writing every store to the next level as well.  A store
+ * miss allocates the block (write-allocate) or only writes to the next level
+ * (no-write-allocate).
+ * <p>
+ * Extracted from the Data Cache Simulator tool, which is a write-back, write-allocate
+ * cache in these terms.
+ *
+ * @version October 2014
+ */
+
+    public class CacheModel {
+    /** Replacement policy: least recently used. */
+      public static final int LRU = 0;
+    /** Replacement policy: random. */
+      public static final int RANDOM = 1;
+   
+      private final String name;
+      private final int numberOfBlocks, blockSizeInBytes, setSizeInBlocks, numberOfSets;
+      private final int offsetBits, setBits;
+      private final int replacementPolicy;
+      private final boolean writeBack, writeAllocate;
+      private CacheModel next;
+      private final Random random = new Random(0); // reproducible, for testing
+      // One entry per block, blocks of a set consecutive.
+      private final int[] tags;
+      private final boolean[] valid;
+      private final boolean[] dirty;
+      private final long[] lastAccessTime;
+      private long time;
+      private int lastBlock;
+      private long reads, writes, readMisses, writeMisses, writeBacks, writeThroughs;
+   
+   /**
+    * Create an empty cache.  Sizes must be powers of 2.
+    * @param name name of the level, for reports, such as "L1D"
+    * @param numberOfBlocks number of blocks in the cache
+    * @param blockSizeInBytes number of bytes in a block, at least 4
+    * @param setSizeInBlocks number of blocks in a set (the associativity)
+    * @param replacementPolicy LRU or RANDOM
+    * @param writeBack true for write-back, false for write-through
+    * @param writeAllocate true to allocate a block on a store miss
+    * @throws IllegalArgumentException if the sizes are not possible
+    */
+       public CacheModel(String name, int numberOfBlocks, int blockSizeInBytes, int setSizeInBlocks,
+                         int replacementPolicy, boolean writeBack, boolean writeAllocate) {
+         if (!isPowerOf2(numberOfBlocks) || !isPowerOf2(blockSizeInBytes) || blockSizeInBytes < 4 
+             || !isPowerOf2(setSizeInBlocks) || setSizeInBlocks > numberOfBlocks) {
+            throw new IllegalArgumentException("impossible cache geometry: "+numberOfBlocks+" blocks of "+
+                                               blockSizeInBytes+" bytes, "+setSizeInBlocks+" to a set");
+         }
+         this.name = name;
+         this.numberOfBlocks = numberOfBlocks;
+         this.blockSizeInBytes = blockSizeInBytes;
+         this.setSizeInBlocks = setSizeInBlocks;
+         this.numberOfSets = numberOfBlocks / setSizeInBlocks;
+         this.offsetBits = log2(blockSizeInBytes);
+         this.setBits = log2(numberOfSets);
+         this.replacementPolicy = replacementPolicy;
+         this.writeBack = writeBack;
+         this.writeAllocate = writeAllocate;
+         this.tags = new int[numberOfBlocks];
+         this.valid = new boolean[numberOfBlocks];
+         this.dirty = new boolean[numberOfBlocks];
+         this.lastAccessTime = new long[numberOfBlocks];
+      }
+   
+   /**
+    * Set the next level, which misses, write-backs and write-throughs go to.
+    * @param next the next level, or null for memory
+    */
+       public void setNext(CacheModel next) {
+         this.next = next;
+      }
+   
+   /**
+    * @return the next level, or null if it is memory
+    */
+       public CacheModel getNext() {
+         return next;
+      }
+   
+   /**
+    * Empty the cache and zero its counts.
+    */
+       public void reset() {
+         Arrays.fill(valid, false);
+         Arrays.fill(dirty, false);
+         Arrays.fill(lastAccessTime, 0);
+         random.setSeed(0);
+         time = 0;
+         reads = writes = readMisses = writeMisses = writeBacks = writeThroughs = 0;
+      }
+   
+   /**
+    * Read the byte at an address, as for a load or an instruction fetch.
+    * @param address the address read
+    * @return true if it was a hit
+    */
+       public boolean read(int address) {
+         reads++;
+         int tag = address >>> (offsetBits + setBits);
+         int first = ((address >>> offsetBits) & (numberOfSets - 1)) * setSizeInBlocks;
+         int block = find(first, tag);
+         if (block >= 0) {
+            lastAccessTime[block] = ++time;
+            lastBlock = block;
+            return true;
+         }
+         readMisses++;
+         allocate(first, tag, address);
+         return false;
+      }
+   
+   /**
+    * Write the byte at an address, as for a store.
+    * @param address the address written
+    * @return true if it was a hit
+    */
+       public boolean write(int address) {
+         writes++;
+         int tag = address >>> (offsetBits + setBits);
+         int first = ((address >>> offsetBits) & (numberOfSets - 1)) * setSizeInBlocks;
+         int block = find(first, tag);
+         boolean hit = block >= 0;
+         if (hit) {
+            lastAccessTime[block] = ++time;
+            lastBlock = block;
+         } 
+         else {
+            writeMisses++;
+            if (writeAllocate) {
+               block = allocate(first, tag, address);
+            }
+         }
+         if (writeBack && block >= 0) {
+            dirty[block] = true;
+         } 
+         else {
+            writeThroughs++;
+            if (next != null) {
+               next.write(address);
+            }
+         }
+         return hit;
+      }
+   
+   /**
+    * @return the block last found or allocated, counting from 0 with the blocks of a set
+    * consecutive
+    */
+       public int getLastBlock() {
+         return lastBlock;
+      }
+   
+       public String getName() {
+         return name;
+      }
+   
+       public int getNumberOfBlocks() {
+         return numberOfBlocks;
+      }
+   
+       public int getBlockSizeInBytes() {
+         return blockSizeInBytes;
+      }
+   
+       public int getSetSizeInBlocks() {
+         return setSizeInBlocks;
+      }
+   
+       public int getCacheSizeInBytes() {
+         return numberOfBlocks * blockSizeInBytes;
+      }
+   
+       public long getAccesses() {
+         return reads + writes;
+      }
+   
+       public long getMisses() {
+         return readMisses + writeMisses;
+      }
+   
+       public long getHits() {
+         return getAccesses() - getMisses();
+      }
+   
+       public long getReads() {
+         return reads;
+      }
+   
+       public long getReadMisses() {
+         return readMisses;
+      }
+   
+       public long getWrites() {
+         return writes;
+      }
+   
+       public long getWriteMisses() {
+         return writeMisses;
+      }
+   
+   /**
+    * @return the number of dirty blocks written to the next level when replaced
+    */
+       public long getWriteBacks() {
+         return writeBacks;
+      }
+   
+   /**
+    * @return the number of stores written through to the next level
+    */
+       public long getWriteThroughs() {
+         return writeThroughs;
+      }
+   
+   /**
+    * @return the fraction of accesses that missed, 0 if there were none
+    */
+       public double getMissRate() {
+         long accesses = getAccesses();
+         return (accesses == 0) ? 0 : getMisses() / (double) accesses;
+      }
+   
+   /**
+    * @return a description of the geometry and policies, in the form taken by
+    * CacheHierarchy
+    */
+       public String toString() {
+         return name+":"+CacheHierarchy.formatSize(getCacheSizeInBytes())+":"+setSizeInBlocks+":"+
+                CacheHierarchy.formatSize(blockSizeInBytes)+((replacementPolicy == RANDOM) ? ":random" : "")+
+                (writeBack ? "" : ":wt")+(writeAllocate ? "" : ":nwa");
+      }
+   
+      // The block of the set holding the tag, or -1 if none.
+       private int find(int first, int tag) {
+         int last = first + setSizeInBlocks;
+         for (int block = first; block < last; block++) {
+            if (valid[block] && tags[block] == tag) {
+               return block;
+            }
+         }
+         return -1;
+      }
+   
+      // Read the block into the set, replacing one if the set is full.  Returns its block.
+       private int allocate(int first, int tag, int address) {
+         int block = selectBlockToReplace(first);
+         if (valid[block] && dirty[block]) {
+            writeBacks++;
+            if (next != null) {
+               next.write(((tags[block] << setBits) | (first / setSizeInBlocks)) << offsetBits);
+            }
+         }
+         if (next != null) {
+            next.read(address & -blockSizeInBytes);
+         }
+         valid[block] = true;
+         dirty[block] = false;
+         tags[block] = tag;
+         lastAccessTime[block] = ++time;
+         lastBlock = block;
+         return block;
+      }
+   
+      // An empty block of the set if any, otherwise the one the policy chooses.
+       private int selectBlockToReplace(int first) {
+         int last = first + setSizeInBlocks;
+         for (int block = first; block < last; block++) {
+            if (!valid[block]) {
+               return block;
+            }
+         }
+         if (replacementPolicy == RANDOM) {
+            return first + random.nextInt(setSizeInBlocks);
+         }
+         int leastRecent = first;
+         for (int block = first + 1; block < last; block++) {
+            if (lastAccessTime[block] < lastAccessTime[leastRecent]) {
+               leastRecent = block;
+            }
+         }
+         return leastRecent;
+      }
+   
+       private static boolean isPowerOf2(int n) {
+         return n > 0 && (n & (n - 1)) == 0;
+      }
+   
+       private static int log2(int n) {
+         return 31 - Integer.numberOfLeadingZeros(n);
+      }
+   }
@@ -0,0 +1,297 @@
+   package mars.simulator;
+   import java.io.*;
+   import java.util.*;
+   import java.util.concurrent.*;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * Evaluates many cache hierarchies in one pass over the accesses a program makes, to
+ * measure how cache performance varies with geometry and policy without running the
+ * program once for each.  As a Tracer, it can be attached to a machine to evaluate
+ * them as the program runs; or replay() evaluates them from a trace written by
+ * TraceWriter.  The hierarchies are divided among worker threads, by default one for
+ * each processor, and accesses are handed to the workers in batches, so the simulator
+ * only stores each access in a buffer.  Call finish() at the end before taking the
+ * results.
+ * <p>
+ * As a program, evaluates hierarchies from a trace file and writes the results to
+ * standard output:
+ * <pre>
+ *   java mars.simulator.CacheSweep trace-file "L1D:1K..64K:1..8:16"
+ * </pre>
+ *
+ * @see CacheHierarchy
+ * @version October 2014
+ */
+
+    public class CacheSweep implements Tracer {
+    /** Number of accesses handed to the workers at a time. */
+      public static final int BATCH_LENGTH = 1 << 16;
+   
+      private static final byte FETCH = 0, LOAD = 1, STORE = 2;
+   
+      private final ArrayList hierarchies;
+      private final CacheHierarchy[][] groups; // the hierarchies of each worker
+      private final ExecutorService workers;
+      // Two batches, so one can be filled while the workers evaluate the other.
+      private final byte[][] kinds = new byte[2][BATCH_LENGTH];
+      private final int[][] addresses = new int[2][BATCH_LENGTH];
+      private int batch;
+      private int length;
+      private Future[] pending;
+      private Thread thread; // the thread whose memory accesses are evaluated
+      private boolean finished;
+   
+   /**
+    * Prepare to evaluate hierarchies with one worker thread for each processor.
+    * @param hierarchies ArrayList of CacheHierarchy, with nothing in their caches
+    */
+       public CacheSweep(ArrayList hierarchies) {
+         this(hierarchies, Runtime.getRuntime().availableProcessors());
+      }
+   
+   /**
+    * Prepare to evaluate hierarchies.
+    * @param hierarchies ArrayList of CacheHierarchy, with nothing in their caches
+    * @param numberOfWorkers number of worker threads to evaluate them with
+    */
+       public CacheSweep(ArrayList hierarchies, int numberOfWorkers) {
+         this.hierarchies = hierarchies;
+         int n = Math.max(1, Math.min(numberOfWorkers, hierarchies.size()));
+         groups = new CacheHierarchy[n][];
+         for (int w = 0; w < n; w++) {
+            groups[w] = new CacheHierarchy[(hierarchies.size() - w + n - 1) / n];
+            for (int i = 0; i < groups[w].length; i++) {
+               groups[w][i] = (CacheHierarchy) hierarchies.get(w + i * n);
+            }
+         }
+         workers = Executors.newFixedThreadPool(n, 
+                new ThreadFactory() {
+                   public Thread newThread(Runnable r) {
+                     Thread worker = new Thread(r, "MARS cache sweep");
+                     worker.setDaemon(true);
+                     return worker;
+                  }
+               });
+         thread = Thread.currentThread();
+      }
+   
+   /**
+    * Evaluate memory accesses made by the current thread from now on.  Called by the
+    * simulator when it starts running.
+    */
+       public void start() {
+         thread = Thread.currentThread();
+      }
+   
+       public void instruction(int pc) {
+         add(FETCH, pc);
+      }
+   
+       public void load(int address, int length) {
+         if (Thread.currentThread() == thread) {
+            add(LOAD, address);
+         }
+      }
+   
+       public void store(int address, int length) {
+         if (Thread.currentThread() == thread) {
+            add(STORE, address);
+         }
+      }
+   
+   /**
+    * Evaluate the accesses in a trace.
+    * @param trace the trace, read to the end but not closed
+    * @throws IOException if the trace cannot be read
+    */
+       public void replay(TraceReader trace) throws IOException {
+         int kind;
+         while ((kind = trace.next()) != TraceReader.END) {
+            add((kind == TraceReader.INSTRUCTION) ? FETCH : (kind == TraceReader.LOAD) ? LOAD : STORE, trace.getAddress());
+         }
+      }
+   
+   /**
+    * Finish evaluating the accesses given so far, and stop the workers.  Nothing more
+    * is evaluated.
+    */
+       public void finish() {
+         if (!finished) {
+            flush();
+            await();
+            finished = true;
+            workers.shutdown();
+         }
+      }
+   
+   /**
+    * @return ArrayList of the CacheHierarchy evaluated
+    */
+       public ArrayList getHierarchies() {
+         return hierarchies;
+      }
+   
+   /**
+    * Write the results of each cache of each hierarchy, as comma-separated values.
+    * @param out stream to write to
+    */
+       public void writeReport(PrintStream out) {
+         out.println("hierarchy,cache,size,ways,block,accesses,misses,miss rate,write backs,write throughs");
+         for (int i = 0; i < hierarchies.size(); i++) {
+            CacheHierarchy hierarchy = (CacheHierarchy) hierarchies.get(i);
+            CacheModel[] levels = hierarchy.getLevels();
+            for (int j = 0; j < levels.length; j++) {
+               CacheModel cache = levels[j];
+               out.println(hierarchy+","+cache.getName()+","+cache.getCacheSizeInBytes()+","+cache.getSetSizeInBlocks()+","+
+                           cache.getBlockSizeInBytes()+","+cache.getAccesses()+","+cache.getMisses()+","+
+                           (float) cache.getMissRate()+","+cache.getWriteBacks()+","+cache.getWriteThroughs());
+            }
+         }
+         out.flush();
+      }
+   
+   /**
+    * Evaluate cache hierarchies from a trace file, and write the results to standard
+    * output.
+    * @param args the trace file, and the hierarchies as CacheHierarchy.parse() takes them
+    */
+       public static void main(String[] args) {
+         if (args.length != 2) {
+            System.out.println("Usage: java mars.simulator.CacheSweep trace-file hierarchies");
+            System.out.println("where hierarchies are as described by CacheHierarchy, such as L1D:1K..64K:1..8:16");
+            System.exit(1);
+         }
+         try {
+            CacheSweep sweep = new CacheSweep(CacheHierarchy.parse(args[1]));
+            TraceReader trace = new TraceReader(new File(args[0]));
+            try {
+               sweep.replay(trace);
+            } 
+            finally {
+               trace.close();
+               sweep.finish();
+            }
+            sweep.writeReport(System.out);
+         } 
+             catch (IllegalArgumentException e) {
+               System.out.println("Invalid cache description: "+e.getMessage());
+               System.exit(1);
+            }
+             catch (IOException e) {
+               System.out.println("Error reading trace "+args[0]+": "+e.getMessage());
+               System.exit(1);
+            }
+      }
+   
+       private void add(byte kind, int address) {
+         if (finished) {
+            return;
+         }
+         kinds[batch][length] = kind;
+         addresses[batch][length] = address;
+         if (++length == BATCH_LENGTH) {
+            flush();
+         }
+      }
+   
+      // Hand the batch being filled to the workers, once they are done with the other.
+       private void flush() {
+         await();
+         if (length == 0) {
+            return;
+         }
+         final byte[] batchKinds = kinds[batch];
+         final int[] batchAddresses = addresses[batch];
+         final int batchLength = length;
+         pending = new Future[groups.length];
+         for (int w = 0; w < groups.length; w++) {
+            final CacheHierarchy[] group = groups[w];
+            pending[w] = workers.submit(
+                   new Runnable() {
+                      public void run() {
+                        evaluate(group, batchKinds, batchAddresses, batchLength);
+                     }
+                  });
+         }
+         batch = 1 - batch;
+         length = 0;
+      }
+   
+      // Wait for the workers to finish the batch they were given, if any.
+       private void await() {
+         if (pending == null) {
+            return;
+         }
+         for (int w = 0; w < pending.length; w++) {
+            boolean interrupted = false;
+            while (true) {
+               try {
+                  pending[w].get();
+                  break;
+               } 
+                   catch (InterruptedException e) {
+                     interrupted = true;
+                  }
+                   catch (ExecutionException e) {
+                     throw new RuntimeException("cache sweep failed", e.getCause());
+                  }
+            }
+            if (interrupted) {
+               Thread.currentThread().interrupt();
+            }
+         }
+         pending = null;
+      }
+   
+       private static void evaluate(CacheHierarchy[] group, byte[] kinds, int[] addresses, int length) {
+         for (int h = 0; h < group.length; h++) {
+            CacheHierarchy hierarchy = group[h];
+            for (int i = 0; i < length; i++) {
+               switch (kinds[i]) {
+                  case FETCH:
+                     hierarchy.fetch(addresses[i]);
+                     break;
+                  case LOAD:
+                     hierarchy.load(addresses[i]);
+                     break;
+                  default:
+                     hierarchy.store(addresses[i]);
+               }
+            }
+         }
+      }
+   }
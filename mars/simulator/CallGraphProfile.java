@@ -0,0 +1,424 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.assembler.*;
+   import mars.mips.hardware.*;
+   import mars.mips.instructions.*;
+   import mars.util.*;
+   import java.io.*;
+   import java.util.*;
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * Profiles execution by function.  The simulator reports each instruction (or basic
+ * block) it executes, and the profile follows calls and returns to keep a shadow of the
+ * MIPS call stack: a <tt>jal</tt> or <tt>jalr</tt> enters a function and a <tt>jr $ra</tt>
+ * returns from it.  Instructions executed are charged to the calling context tree, one
+ * node for each distinct chain of calls, so a function's exclusive count (executed in
+ * the function itself) and inclusive count (executed in it or anything it called) can be
+ * told apart, and recursion is only counted once.  A profile is attached to a machine
+ * with MachineContext.setCallGraphProfile().
+ * <p>
+ * A function is named by the text label at its entry address, or by the nearest text
+ * label before it, looked up in the symbol table of the file it is in and the global
+ * symbol table.  The call stacks can be written in the "folded stacks" format read by
+ * flame graph tools: one line per stack, the function names from the outermost call
+ * separated by semicolons, followed by a space and the instructions executed with
+ * exactly that stack.
+ * <p>
+ * A return is matched to the innermost call whose return address it goes to, popping
+ * any calls that did not return normally.  A <tt>jr $ra</tt> that matches no call is
+ * taken as returning from the innermost one, unless that is the outermost function.
+ * A <tt>jr</tt> through another register is taken as a return only if it matches a
+ * call, as it may be a switch statement's jump table instead.
+ *
+ * @version October 2014
+ */
+
+    public class CallGraphProfile {
+      private static final int NONE = 0;
+      private static final int CALL = 1;
+      private static final int RETURN = 2;
+      private static final int JUMP = 3; // through a register other than $ra
+      private static final int OPCODE_SPECIAL = 0;
+      private static final int OPCODE_JAL = 3;
+      private static final int FUNCT_JR = 8;
+      private static final int FUNCT_JALR = 9;
+      private static final int RA = 31;
+   
+      private HashMap functionsByName;
+      private HashMap functionsByAddress;
+      private Node root;
+      private Node[] stack;
+      private int[] returnAddresses;
+      private int depth;
+      private int pending; // call or return taken by the last instruction, not yet followed
+      private int pendingAddress; // address of that instruction
+      private boolean pendingDelaySlot; // true if its delay slot has been executed
+      private long total;
+   
+   /**
+    * Create an empty profile.
+    */
+       public CallGraphProfile() {
+         reset();
+      }
+   
+   /**
+    * Discard everything profiled so far.  The next instruction executed is taken as
+    * the start of the outermost function.
+    */
+       public void reset() {
+         functionsByName = new HashMap();
+         functionsByAddress = new HashMap();
+         root = null;
+         stack = new Node[64];
+         returnAddresses = new int[64];
+         depth = 0;
+         pending = NONE;
+         total = 0;
+      }
+   
+   /**
+    * Account for consecutive instructions just executed.  Called by the simulator after
+    * executing an instruction, or a basic block as a unit.
+    * @param address address of the first instruction executed
+    * @param executed number of instructions executed from that address
+    * @param lastAddress address of the last instruction executed
+    * @param lastWord binary encoding of the last instruction executed
+    */
+       public void count(int address, int executed, int lastAddress, int lastWord) {
+         if (root == null) {
+            root = new Node(getFunction(address), null);
+            root.function.calls++;
+            root.function.active++;
+            stack[0] = root;
+            depth = 1;
+         }
+         if (pending != NONE) {
+            if (address == pendingAddress + Instruction.INSTRUCTION_LENGTH && !pendingDelaySlot) {
+               // The delay slot: the jump takes effect after it.
+               pendingDelaySlot = true;
+            } 
+            else {
+               int returnAddress = pendingAddress + ((pendingDelaySlot ? 2 : 1) * Instruction.INSTRUCTION_LENGTH);
+               if (pending == CALL) {
+                  enter(address, returnAddress);
+               } 
+               else {
+                  leave(address, pending == RETURN);
+               }
+               pending = NONE;
+            }
+         }
+         stack[depth-1].count += executed;
+         total += executed;
+         int kind = classify(lastWord);
+         if (kind != NONE) {
+            pending = kind;
+            pendingAddress = lastAddress;
+            pendingDelaySlot = false;
+         }
+      }
+   
+   /**
+    * @return the total number of instructions executed
+    */
+       public long getTotal() {
+         return total;
+      }
+   
+   /**
+    * @return the current depth of the shadow call stack: 1 in the outermost function,
+    * 0 before anything is executed
+    */
+       public int getDepth() {
+         return depth;
+      }
+   
+   /**
+    * Get the totals of each function so far.  They are not updated as execution goes on.
+    * @return ArrayList of Function, in decreasing order of inclusive count
+    */
+       public ArrayList getFunctions() {
+         // Totals go in copies, so they stay as they are.
+         HashMap totals = new HashMap();
+         for (Iterator it = functionsByName.values().iterator(); it.hasNext(); ) {
+            Function function = (Function) it.next();
+            Function copy = new Function(function.name);
+            copy.calls = function.calls;
+            totals.put(function, copy);
+         }
+         ArrayList nodes = getNodes();
+         // Subtree totals, children before parents.
+         for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node node = (Node) nodes.get(i);
+            node.total = node.count;
+            for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+               node.total += child.total;
+            }
+            Function function = (Function) totals.get(node.function);
+            function.exclusive += node.count;
+            if (!node.recursive) {
+               function.inclusive += node.total;
+            }
+         }
+         ArrayList result = new ArrayList(totals.values());
+         Collections.sort(result, 
+               new Comparator() {
+                   public int compare(Object a, Object b) {
+                     Function x = (Function) a;
+                     Function y = (Function) b;
+                     if (x.inclusive != y.inclusive) {
+                        return (x.inclusive > y.inclusive) ? -1 : 1;
+                     }
+                     return x.name.compareTo(y.name);
+                  }
+               });
+         return result;
+      }
+   
+   /**
+    * Write the call stacks in folded stacks format, for flame graph tools.  Stacks with
+    * no instructions executed in their innermost function are left out.
+    * @param out stream to write to
+    */
+       public void writeFoldedStacks(PrintStream out) {
+         ArrayList nodes = getNodes();
+         for (int i = 0; i < nodes.size(); i++) {
+            Node node = (Node) nodes.get(i);
+            if (node.count == 0) {
+               continue;
+            }
+            StringBuffer line = new StringBuffer(node.function.name);
+            for (Node caller = node.parent; caller != null; caller = caller.parent) {
+               line.insert(0, ';').insert(0, caller.function.name);
+            }
+            out.println(line.append(' ').append(node.count));
+         }
+         out.flush();
+      }
+   
+      // Calling context tree nodes in depth-first order, parents before children.  Done
+   	// without recursion as deeply recursive MIPS programs give deep trees.
+       private ArrayList getNodes() {
+         ArrayList nodes = new ArrayList();
+         if (root == null) {
+            return nodes;
+         }
+         ArrayList toVisit = new ArrayList();
+         toVisit.add(root);
+         while (!toVisit.isEmpty()) {
+            Node node = (Node) toVisit.remove(toVisit.size() - 1);
+            nodes.add(node);
+            for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+               toVisit.add(child);
+            }
+         }
+         return nodes;
+      }
+   
+      // Kind of control transfer done by an instruction: jal and jalr call, jr $ra returns
+   	// and jr through any other register may return.
+       private static int classify(int word) {
+         int opcode = word >>> 26;
+         if (opcode == OPCODE_JAL) {
+            return CALL;
+         }
+         if (opcode == OPCODE_SPECIAL) {
+            int funct = word & 0x3F;
+            if (funct == FUNCT_JALR) {
+               return CALL;
+            }
+            if (funct == FUNCT_JR) {
+               return (((word >>> 21) & 0x1F) == RA) ? RETURN : JUMP;
+            }
+         }
+         return NONE;
+      }
+   
+      // Push a call to the function at the given address.
+       private void enter(int address, int returnAddress) {
+         Function function = getFunction(address);
+         Node caller = stack[depth-1];
+         Node node = caller.firstChild;
+         while (node != null && node.function != function) {
+            node = node.nextSibling;
+         }
+         if (node == null) {
+            node = new Node(function, caller);
+         }
+         if (depth == stack.length) {
+            Node[] largerStack = new Node[depth * 2];
+            int[] largerReturnAddresses = new int[depth * 2];
+            System.arraycopy(stack, 0, largerStack, 0, depth);
+            System.arraycopy(returnAddresses, 0, largerReturnAddresses, 0, depth);
+            stack = largerStack;
+            returnAddresses = largerReturnAddresses;
+         }
+         stack[depth] = node;
+         returnAddresses[depth] = returnAddress;
+         depth++;
+         function.calls++;
+         function.active++;
+      }
+   
+      // Pop the call returning to the given address, and any calls above it.  If none
+   	// does, pop the innermost call if the return was through $ra.
+       private void leave(int address, boolean throughRA) {
+         int frame = depth - 1;
+         while (frame > 0 && returnAddresses[frame] != address) {
+            frame--;
+         }
+         if (frame == 0) {
+            if (!throughRA) {
+               return;
+            }
+            frame = Math.max(depth - 1, 1);
+         }
+         while (depth > frame) {
+            depth--;
+            stack[depth].function.active--;
+            stack[depth] = null;
+         }
+      }
+   
+      // The function entered at the given address.
+       private Function getFunction(int address) {
+         Integer key = Integer.valueOf(address);
+         Function function = (Function) functionsByAddress.get(key);
+         if (function == null) {
+            String name = getFunctionName(address);
+            function = (Function) functionsByName.get(name);
+            if (function == null) {
+               function = new Function(name);
+               functionsByName.put(name, function);
+            }
+            functionsByAddress.put(key, function);
+         }
+         return function;
+      }
+   
+      // The text label at or nearest before an address, in the symbol table of the file
+   	// the address is in or the global symbol table, or the address if there is none.
+       private static String getFunctionName(int address) {
+         MachineContext context = MachineContext.current();
+         ArrayList symbols = new ArrayList(context.getSymbolTable().getTextSymbols());
+         try {
+            ProgramStatement statement = context.getMemory().getStatementNoNotify(address);
+            if (statement != null && statement.getSourceMIPSprogram() != null) {
+               symbols.addAll(statement.getSourceMIPSprogram().getLocalSymbolTable().getTextSymbols());
+            }
+         } 
+            catch (AddressErrorException e) { } // only global labels, then
+         Symbol nearest = null;
+         for (int i = 0; i < symbols.size(); i++) {
+            Symbol symbol = (Symbol) symbols.get(i);
+            int symbolAddress = symbol.getAddress();
+            // Same sign keeps user and kernel text apart.
+            if (symbolAddress <= address && (symbolAddress < 0) == (address < 0)
+                && (nearest == null || symbolAddress > nearest.getAddress())) {
+               nearest = symbol;
+            }
+         }
+         return (nearest == null) ? Binary.intToHexString(address) : nearest.getName();
+      }
+   
+   /**
+    * Totals of one function, as computed by getFunctions().  All functions with the
+    * same name are one.
+    */
+       public static final class Function {
+         private final String name;
+         private long calls;
+         private long exclusive;
+         private long inclusive;
+         private int active; // number of its calls on the shadow stack
+      
+          private Function(String name) {
+            this.name = name;
+         }
+      
+      /**
+       * @return the function's name
+       */
+          public String getName() {
+            return name;
+         }
+      
+      /**
+       * @return the number of times the function was called, counting the outermost
+       * function as called once
+       */
+          public long getCalls() {
+            return calls;
+         }
+      
+      /**
+       * @return the number of instructions executed in the function itself
+       */
+          public long getExclusive() {
+            return exclusive;
+         }
+      
+      /**
+       * @return the number of instructions executed in the function and the functions
+       * it called
+       */
+          public long getInclusive() {
+            return inclusive;
+         }
+      }
+   
+      // A node of the calling context tree: a function as reached by one chain of calls.
+       private static final class Node {
+         private final Function function;
+         private final Node parent;
+         private final boolean recursive; // true if the function is also an ancestor
+         private Node firstChild;
+         private Node nextSibling;
+         private long count; // instructions executed in the function with this stack
+         private long total; // including calls, while computing totals
+      
+          private Node(Function function, Node parent) {
+            this.function = function;
+            this.parent = parent;
+            this.recursive = function.active > 0;
+            if (parent != null) {
+               nextSibling = parent.firstChild;
+               parent.firstChild = this;
+            }
+         }
+      }
+   }
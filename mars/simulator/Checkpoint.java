@@ -0,0 +1,181 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import java.io.*;
+   import java.util.*;
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+/**
+ * Saves the complete state of a simulated machine to a compact binary checkpoint
+ * file, and restores it, so a long-running simulation can be resumed from a saved
+ * point instead of being executed again from the start.
+ * <p>
+ * A checkpoint holds the general purpose registers with the program counter, hi and
+ * lo; the coprocessor 0 and 1 registers and condition flags; any pending delayed
+ * branch; the heap pointer and every allocated 4K block of memory, with the text
+ * segments as binary machine code; the table of files opened by the MIPS program;
+ * and the random number streams.  The memory configuration is recorded and must be
+ * the same when the checkpoint is restored.
+ * <p>
+ * Source information is not saved.  Restore into a machine that has the same
+ * program assembled to keep it: statements unchanged since assembly are retained.
+ * Checkpoints should be taken and restored only while the machine is not running.
+ *
+ * @version October 2014
+ */
+
+    public class Checkpoint {
+      private static final int MAGIC = 0x4D41524B; // "MARK"
+      private static final int VERSION = 2;
+   
+   /**
+    * Save the state of the current machine context.
+    * @param file the checkpoint file to write
+    * @throws IOException if the file cannot be written
+    */
+       public static void save(File file) throws IOException {
+         save(MachineContext.current(), file);
+      }
+   
+   /**
+    * Save the state of the given machine.
+    * @param context the machine to save
+    * @param file the checkpoint file to write
+    * @throws IOException if the file cannot be written
+    */
+       public static void save(MachineContext context, File file) throws IOException {
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+         try {
+            synchronized (context.getLock()) {
+               out.writeInt(MAGIC);
+               out.writeInt(VERSION);
+               out.writeUTF(MemoryConfigurations.getCurrentConfiguration().getConfigurationIdentifier());
+               context.getRegisterFile().writeCheckpoint(out);
+               context.getCoprocessor0().writeCheckpoint(out);
+               context.getCoprocessor1().writeCheckpoint(out);
+               context.getDelayedBranch().writeCheckpoint(out);
+               context.getMemory().writeCheckpoint(out);
+               context.getSystemIO().writeCheckpoint(out);
+               writeRandomStreams(out, context.getRandomStreams());
+            }
+         } 
+         finally {
+            out.close();
+         }
+      }
+   
+   /**
+    * Restore the state of the current machine context.
+    * @param file the checkpoint file to read
+    * @throws IOException if the file cannot be read, is not a checkpoint, or was
+    * taken with a different memory configuration
+    */
+       public static void restore(File file) throws IOException {
+         restore(MachineContext.current(), file);
+      }
+   
+   /**
+    * Restore the state of the given machine.  If the checkpoint proves to be
+    * damaged part way through, the machine is left partly restored.
+    * @param context the machine to restore
+    * @param file the checkpoint file to read
+    * @throws IOException if the file cannot be read, is not a checkpoint, or was
+    * taken with a different memory configuration
+    */
+       public static void restore(MachineContext context, File file) throws IOException {
+         DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+         try {
+            if (in.readInt() != MAGIC) {
+               throw new IOException(file+" is not a MARS checkpoint");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+               throw new IOException(file+" is a version "+version+" checkpoint, expected version "+VERSION);
+            }
+            String configuration = in.readUTF();
+            if (!configuration.equals(MemoryConfigurations.getCurrentConfiguration().getConfigurationIdentifier())) {
+               throw new IOException(file+" was taken with memory configuration "+configuration);
+            }
+            synchronized (context.getLock()) {
+               context.getRegisterFile().readCheckpoint(in);
+               context.getCoprocessor0().readCheckpoint(in);
+               context.getCoprocessor1().readCheckpoint(in);
+               context.getDelayedBranch().readCheckpoint(in);
+               context.getMemory().readCheckpoint(in);
+               context.getSystemIO().readCheckpoint(in);
+               readRandomStreams(in, context.getRandomStreams());
+            }
+         } 
+            catch (EOFException e) {
+               throw new IOException(file+" is truncated");
+            }
+         finally {
+            in.close();
+         }
+      }
+   
+      // java.util.Random keeps its seed to itself, so the streams are saved by
+   	// serialization, as a length-prefixed block.
+       private static void writeRandomStreams(DataOutputStream out, HashMap streams) throws IOException {
+         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+         ObjectOutputStream objects = new ObjectOutputStream(bytes);
+         objects.writeObject(streams);
+         objects.close();
+         out.writeInt(bytes.size());
+         bytes.writeTo(out);
+      }
+   
+       private static void readRandomStreams(DataInputStream in, HashMap streams) throws IOException {
+         byte[] bytes = new byte[in.readInt()];
+         in.readFully(bytes);
+         // Accept only the classes that make up the map, never arbitrary objects.
+         ObjectInputStream objects = 
+            new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+               protected Class resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                  String name = desc.getName();
+                  if (!name.equals("java.util.HashMap") && !name.equals("java.util.Random") &&
+                      !name.equals("java.lang.Integer") && !name.equals("java.lang.Number") &&
+                      !name.equals("java.util.concurrent.atomic.AtomicLong")) {
+                     throw new InvalidClassException(name, "not allowed in checkpoint");
+                  }
+                  return super.resolveClass(desc);
+               }
+            };
+         try {
+            HashMap saved = (HashMap) objects.readObject();
+            streams.clear();
+            streams.putAll(saved);
+         } 
+            catch (ClassNotFoundException e) {
+               throw new IOException("invalid random streams in checkpoint");
+            }
+      }
+   }
@@ -1,4 +1,6 @@
 package mars.simulator;
+   import mars.MachineContext;
+   import java.io.*;
 
 /*
 Copyright (c) 2003-2007,  Pete Sanderson and Kenneth Vollmar
@@ -54,6 +56,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  *
  * Since only one pending delayed branch can be taken at a time, everything
  * here is done with statics.  The class itself represents the potential branch.
+ * Each MachineContext has its own, and the static methods operate on that of
+ * the calling thread's current context.
  * 
  * @author Pete Sanderson
  * @version June 2007
@@ -67,8 +71,19 @@ public class DelayedBranch {
 
    // Initially nothing is happening.
 	
-	private static int state = CLEARED;
-	private static int branchTargetAddress = 0;
+	private int state = CLEARED;
+	private int branchTargetAddress = 0;
+	
+	/**
+	 *  Create a delayed branch in the cleared state.  Used by MachineContext.
+	 */
+	public DelayedBranch() {
+	}
+	
+	// The delayed branch of the current MachineContext.
+	private static DelayedBranch current() {
+	  return MachineContext.current().getDelayedBranch();
+	}
 	
 	/**
     *  Register the fact that a successful branch is to occur.  This is called in
@@ -82,11 +97,12 @@ public class DelayedBranch {
 	 *  @param targetAddress The address to branch to after executing the next instruction
 	 */
 	public static void register(int targetAddress) {
+	  DelayedBranch branch = current();
 	  // About as clean as a switch statement can be!
-	  switch (state) {
-	    case CLEARED    :  branchTargetAddress = targetAddress;
+	  switch (branch.state) {
+	    case CLEARED    :  branch.branchTargetAddress = targetAddress;
 		 case REGISTERED :
-		 case TRIGGERED  :  state = REGISTERED;
+		 case TRIGGERED  :  branch.state = REGISTERED;
 	  }          
 	}
 
@@ -103,10 +119,11 @@ public class DelayedBranch {
 	 *
 	 */
 	 static void trigger() {
+	  DelayedBranch branch = current();
 	  // About as clean as a switch statement can be!
-	  switch (state) {
+	  switch (branch.state) {
 		 case REGISTERED :
-		 case TRIGGERED  :  state = TRIGGERED;
+		 case TRIGGERED  :  branch.state = TRIGGERED;
 		 case CLEARED    :
 	  }          
 	}
@@ -116,8 +133,9 @@ public class DelayedBranch {
 	 *  program counter to the target address.  This method has package visibility.
 	 */
 	 static void clear() {
-	  state = CLEARED;
-	  branchTargetAddress = 0; 
+	  DelayedBranch branch = current();
+	  branch.state = CLEARED;
+	  branch.branchTargetAddress = 0; 
 	}
 
    /**
@@ -129,7 +147,7 @@ public class DelayedBranch {
 	 */
 
     static boolean isRegistered() {
-	   return state == REGISTERED;
+	   return current().state == REGISTERED;
 	}
 	
    /**
@@ -140,7 +158,7 @@ public class DelayedBranch {
 	 */
 
    static boolean isTriggered() {
-	   return state == TRIGGERED;
+	   return current().state == TRIGGERED;
 	}	
 
 
@@ -153,7 +171,31 @@ public class DelayedBranch {
 	*  @return Target address of the delayed branch.
 	*/
 	 static int getBranchTargetAddress() {
-	    return branchTargetAddress;
+	    return current().branchTargetAddress;
+	}
+	
+	/**
+	 *  Write the state of this delayed branch to a checkpoint.
+	 *
+	 *  @param out stream to write the checkpoint to
+	 */
+	public void writeCheckpoint(DataOutputStream out) throws IOException {
+	  out.writeInt(state);
+	  out.writeInt(branchTargetAddress);
+	}
+	
+	/**
+	 *  Restore the state of this delayed branch from a checkpoint.
+	 *
+	 *  @param in stream to read the checkpoint from
+	 */
+	public void readCheckpoint(DataInputStream in) throws IOException {
+	  int newState = in.readInt();
+	  if (newState != CLEARED && newState != REGISTERED && newState != TRIGGERED) {
+	     throw new IOException("invalid delayed branch state "+newState+" in checkpoint");
+	  }
+	  state = newState;
+	  branchTargetAddress = in.readInt();
 	}
 	
 }  // DelayedBranch
\ No newline at end of file
@@ -0,0 +1,236 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import mars.mips.instructions.*;
+	
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+	
+/**
+ * Predecoded form of the text and kernel text segments, used by the simulator
+ * in place of Memory.getStatement() for instruction fetch.  Each segment is
+ * represented by a dense array of PredecodedInstruction objects indexed by
+ * word offset from the segment base address, (pc - textBaseAddress) >> 2.
+ * Entries are decoded on first fetch and the array grows as needed.
+ * <p>
+ * The cache belongs to a Memory object, which invalidates the affected entry
+ * whenever a statement is stored through setStatement() (this includes
+ * self-modifying code writing to the text segment) and discards the whole
+ * cache when memory is cleared.  Instructions fetched from outside the text
+ * segments (self-modifying code executing from the data segment) are never cached.
+ * <p>
+ * Memory observers expect to be notified of every instruction fetch, so while
+ * any observer is registered the fetch still goes through Memory.getStatement()
+ * and only the decoding is reused.
+ * <p>
+ * The cache also forms BasicBlocks.  Each time the simulator is about to execute
+ * an instruction it may ask for the block starting there; once an address has
+ * been asked about HOT_THRESHOLD times a block is formed and kept with the
+ * entry until any statement it contains is invalidated.
+ *
+ * @version October 2014
+ * @see PredecodedInstruction
+ */
+
+    public class ExecutionCache {
+      private static final int INITIAL_TABLE_LENGTH = 1024;
+   /** Number of times an address is reached before a block is formed there. */
+      public static final int HOT_THRESHOLD = 16;
+   
+      private Memory memory;
+      private int textBase, kernelTextBase;
+      private PredecodedInstruction[] textTable;
+      private PredecodedInstruction[] kernelTextTable;
+   
+   /**
+    * Create an empty cache for the given memory.  Segment base addresses are
+    * those of the current memory configuration.
+    * @param memory the Memory whose text segments will be cached.
+    */
+       public ExecutionCache(Memory memory) {
+         this.memory = memory;
+         this.textBase = Memory.textBaseAddress;
+         this.kernelTextBase = Memory.kernelTextBaseAddress;
+         this.textTable = new PredecodedInstruction[INITIAL_TABLE_LENGTH];
+         this.kernelTextTable = new PredecodedInstruction[INITIAL_TABLE_LENGTH];
+      }
+   
+   /**
+    * Fetch the instruction at the given address.  Same contract as Memory.getStatement()
+    * except the result is predecoded.
+    * @param address the instruction address (program counter value).
+    * @return PredecodedInstruction at that address, or null if there is no statement there.
+    * @throws AddressErrorException If address is not on word boundary or is outside text segment.
+    */
+       public PredecodedInstruction fetch(int address) throws AddressErrorException {
+         boolean inText = Memory.inTextSegment(address);
+         if (!Memory.wordAligned(address) || !(inText || Memory.inKernelTextSegment(address))) {
+            // Let Memory produce the exception or, for self-modifying code, the statement.
+            ProgramStatement statement = memory.getStatement(address);
+            return (statement == null) ? null : new PredecodedInstruction(statement);
+         }
+         PredecodedInstruction[] table = (inText) ? textTable : kernelTextTable;
+         int index = (address - ((inText) ? textBase : kernelTextBase)) >>> 2;
+         PredecodedInstruction entry = (index < table.length) ? table[index] : null;
+         if (memory.isObserved()) {
+            // Observers must still see the fetch.  Reuse the decoding if it is current.
+            ProgramStatement statement = memory.getStatement(address);
+            if (statement == null) {
+               return null;
+            }
+            if (entry != null && entry.getStatement() == statement) {
+               return entry;
+            }
+            entry = new PredecodedInstruction(statement);
+         } 
+         else {
+            if (entry != null) {
+               return entry;
+            }
+            ProgramStatement statement = memory.getStatementNoNotify(address);
+            if (statement == null) {
+               return null;
+            }
+            entry = new PredecodedInstruction(statement);
+         }
+         if (index >= table.length) {
+            table = grow(table, index, inText);
+         }
+         table[index] = entry;
+         return entry;
+      }
+   
+   /**
+    * Discard the cached entry for the given address, if any.  Called by Memory
+    * whenever a statement is stored into the text or kernel text segment.
+    * @param address text segment address whose statement has changed.
+    */
+       public void invalidate(int address) {
+         PredecodedInstruction[] table;
+         int index;
+         if (Memory.inTextSegment(address)) {
+            table = textTable;
+            index = (address - textBase) >>> 2;
+         } 
+         else if (Memory.inKernelTextSegment(address)) {
+            table = kernelTextTable;
+            index = (address - kernelTextBase) >>> 2;
+         } 
+         else {
+            return;
+         }
+         if (index < table.length) {
+            table[index] = null;
+            // Drop any block that contains the address.  Its first instruction can
+            // be no further back than the maximum block length.
+            for (int i = Math.max(0, index - BasicBlock.MAX_LENGTH + 1); i < index; i++) {
+               PredecodedInstruction entry = table[i];
+               if (entry != null && entry.block != null && entry.block.contains(address)) {
+                  entry.block = null;
+               }
+            }
+         }
+      }
+   
+   /**
+    * Get the block that starts with the given instruction, forming it if the
+    * instruction has become hot.  Must only be called while no memory observers
+    * are registered, since the instructions are fetched without notification.
+    * @param entry an instruction previously returned by fetch().
+    * @return the block starting with this instruction, or null if there is none (yet).
+    */
+       public BasicBlock getBlock(PredecodedInstruction entry) {
+         if (entry.block == null && entry.executionCount < HOT_THRESHOLD 
+             && ++entry.executionCount == HOT_THRESHOLD && entry.isBlockable()) {
+            entry.block = formBlock(entry);
+         }
+         return entry.block;
+      }
+   
+      // Collect consecutive blockable instructions, starting with the given one, until
+   	// reaching a branch or jump, something that is not blockable, or the maximum length.
+   	// Blocks never cross out of the segment they started in.
+       private BasicBlock formBlock(PredecodedInstruction first) {
+         int address = first.getAddress();
+         boolean inText = Memory.inTextSegment(address);
+         if (!inText && !Memory.inKernelTextSegment(address)) {
+            return null;  // not cached, so the block would not be kept anyway
+         }
+         PredecodedInstruction[] instructions = new PredecodedInstruction[BasicBlock.MAX_LENGTH];
+         int length = 0;
+         PredecodedInstruction entry = first;
+         while (true) {
+            instructions[length++] = entry;
+            if (entry.endsBlock() || length == BasicBlock.MAX_LENGTH) {
+               break;
+            }
+            address += Instruction.INSTRUCTION_LENGTH;
+            if (inText != Memory.inTextSegment(address) || !(inText || Memory.inKernelTextSegment(address))) {
+               break;
+            }
+            try {
+               entry = fetch(address);
+            } 
+                catch (AddressErrorException e) {
+                  break;
+               }
+            if (entry == null || !entry.isBlockable()) {
+               break;
+            }
+         }
+         PredecodedInstruction[] trimmed = new PredecodedInstruction[length];
+         System.arraycopy(instructions, 0, trimmed, 0, length);
+         return new BasicBlock(trimmed);
+      }
+   
+   /**
+    * Discard all cached entries.
+    */
+       public void clear() {
+         textTable = new PredecodedInstruction[INITIAL_TABLE_LENGTH];
+         kernelTextTable = new PredecodedInstruction[INITIAL_TABLE_LENGTH];
+      }
+   
+      // Enlarge the given table (doubling) so it includes the given index.
+       private PredecodedInstruction[] grow(PredecodedInstruction[] table, int index, boolean inText) {
+         int length = table.length;
+         while (length <= index) {
+            length <<= 1;
+         }
+         PredecodedInstruction[] bigger = new PredecodedInstruction[length];
+         System.arraycopy(table, 0, bigger, 0, table.length);
+         if (inText) {
+            textTable = bigger;
+         } 
+         else {
+            kernelTextTable = bigger;
+         }
+         return bigger;
+      }
+   }
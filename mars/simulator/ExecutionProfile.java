@@ -0,0 +1,327 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import mars.mips.instructions.*;
+   import mars.util.*;
+   import java.io.*;
+   import java.util.*;
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+/**
+ * Counts the executions of the instruction at each address, kept by the simulator
+ * itself as it runs so that no memory observer is needed.  A profile is attached to a
+ * machine with MachineContext.setExecutionProfile().  Counts are held in a two-level
+ * table shaped like the memory page table, so any address can be counted and only
+ * the 4K pages actually executed take space.
+ * <p>
+ * The report maps the counts back to the program: it gives the count of each
+ * instruction with its mnemonic and source line, the total of each source line
+ * (a pseudo-instruction is the sum of the instructions it expanded to), and the
+ * total of each mnemonic.  It is written as CSV, one section for each, separated by
+ * blank lines; or as one JSON object.
+ *
+ * @version October 2014
+ */
+
+    public class ExecutionProfile {
+    /** Name of the comma-separated values report format. */
+      public static final String CSV = "CSV";
+    /** Name of the JSON report format. */
+      public static final String JSON = "JSON";
+   
+      private static final int TABLE_LENGTH = 1024;
+      private static final int TABLE_SHIFT = 22;
+      private static final int PAGE_LENGTH_WORDS = 1024;
+      private static final int PAGE_SHIFT = 12;
+      private long[][][] directory;
+      private long total;
+   
+   /**
+    * Create a profile with all counts zero.
+    */
+       public ExecutionProfile() {
+         reset();
+      }
+   
+   /**
+    * Set all counts to zero.
+    */
+       public void reset() {
+         directory = new long[TABLE_LENGTH][][];
+         total = 0;
+      }
+   
+   /**
+    * Count the execution of consecutive instructions.  Called by the simulator after
+    * executing an instruction, or a basic block as a unit.
+    * @param address address of the first instruction executed
+    * @param executed number of instructions executed from that address
+    */
+       public void count(int address, int executed) {
+         for (int i = 0; i < executed; i++, address += Instruction.INSTRUCTION_LENGTH) {
+            long[][] table = directory[address >>> TABLE_SHIFT];
+            if (table == null) {
+               table = directory[address >>> TABLE_SHIFT] = new long[TABLE_LENGTH][];
+            }
+            long[] page = table[(address >>> PAGE_SHIFT) & (TABLE_LENGTH-1)];
+            if (page == null) {
+               page = table[(address >>> PAGE_SHIFT) & (TABLE_LENGTH-1)] = new long[PAGE_LENGTH_WORDS];
+            }
+            page[(address >>> 2) & (PAGE_LENGTH_WORDS-1)]++;
+         }
+         total += executed;
+      }
+   
+   /**
+    * @param address an instruction address
+    * @return the number of times the instruction at that address has been executed
+    */
+       public long getCount(int address) {
+         long[][] table = directory[address >>> TABLE_SHIFT];
+         long[] page = (table == null) ? null : table[(address >>> PAGE_SHIFT) & (TABLE_LENGTH-1)];
+         return (page == null) ? 0 : page[(address >>> 2) & (PAGE_LENGTH_WORDS-1)];
+      }
+   
+   /**
+    * @return the total number of instructions executed
+    */
+       public long getTotal() {
+         return total;
+      }
+   
+   /**
+    * Total the instructions executed within an address range.
+    * @param lowAddress the lowest address in the range
+    * @param highAddress the highest address in the range
+    * @return the number of instructions executed at addresses in the range
+    */
+       public long getTotal(int lowAddress, int highAddress) {
+         long sum = 0;
+         int[] addresses = getAddresses();
+         for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i] >= lowAddress && addresses[i] <= highAddress) {
+               sum += getCount(addresses[i]);
+            }
+         }
+         return sum;
+      }
+   
+   /**
+    * @return the address of every instruction executed at least once, in the order of
+    * the address space (that is, with the addresses taken as unsigned)
+    */
+       public int[] getAddresses() {
+         int size = 0;
+         int[] addresses = new int[64];
+         for (int t = 0; t < TABLE_LENGTH; t++) {
+            if (directory[t] == null) {
+               continue;
+            }
+            for (int p = 0; p < TABLE_LENGTH; p++) {
+               long[] page = directory[t][p];
+               if (page == null) {
+                  continue;
+               }
+               for (int w = 0; w < PAGE_LENGTH_WORDS; w++) {
+                  if (page[w] != 0) {
+                     if (size == addresses.length) {
+                        int[] larger = new int[size * 2];
+                        System.arraycopy(addresses, 0, larger, 0, size);
+                        addresses = larger;
+                     }
+                     addresses[size++] = (t << TABLE_SHIFT) | (p << PAGE_SHIFT) | (w << 2);
+                  }
+               }
+            }
+         }
+         int[] result = new int[size];
+         System.arraycopy(addresses, 0, result, 0, size);
+         return result;
+      }
+   
+   /**
+    * Write the profile report, taking the statement at each address from the given
+    * memory.
+    * @param out stream to write the report to
+    * @param format CSV or JSON (not case sensitive)
+    * @param memory the memory holding the program profiled
+    * @throws IllegalArgumentException if the format is not known
+    */
+       public void writeReport(PrintStream out, String format, Memory memory) {
+         boolean json;
+         if (format.equalsIgnoreCase(CSV)) {
+            json = false;
+         } 
+         else if (format.equalsIgnoreCase(JSON)) {
+            json = true;
+         } 
+         else {
+            throw new IllegalArgumentException("unknown profile format "+format);
+         }
+         int[] addresses = getAddresses();
+         // Totals by source line in order of first address, by mnemonic in order of count.
+         LinkedHashMap lines = new LinkedHashMap();
+         HashMap mnemonics = new HashMap();
+         if (json) {
+            out.println("{");
+            out.println("  \"instructions\": "+total+",");
+            out.println("  \"addresses\": [");
+         } 
+         else {
+            out.println("address,count,mnemonic,file,line,source");
+         }
+         for (int i = 0; i < addresses.length; i++) {
+            long count = getCount(addresses[i]);
+            ProgramStatement statement = null;
+            try {
+               statement = memory.getStatementNoNotify(addresses[i]);
+            } 
+               catch (AddressErrorException e) { } // report it without source
+            String mnemonic = (statement == null || statement.getInstruction() == null) 
+                              ? "" : statement.getInstruction().getName();
+            String file = (statement == null) ? "" : statement.getSourceFile();
+            int line = (statement == null) ? 0 : statement.getSourceLine();
+            String source = (statement == null || statement.getSource() == null) ? "" : statement.getSource().trim();
+            String address = Binary.intToHexString(addresses[i]);
+            if (json) {
+               out.println("    {\"address\": \""+address+"\", \"count\": "+count+", \"mnemonic\": "+jsonString(mnemonic)+
+                           ", \"file\": "+jsonString(file)+", \"line\": "+line+", \"source\": "+jsonString(source)+
+                           "}"+((i < addresses.length - 1) ? "," : ""));
+            } 
+            else {
+               out.println(address+","+count+","+mnemonic+","+csvString(file)+","+line+","+csvString(source));
+            }
+            String key = file+"\n"+line;
+            LineTotal lineTotal = (LineTotal) lines.get(key);
+            if (lineTotal == null) {
+               lineTotal = new LineTotal(file, line, source);
+               lines.put(key, lineTotal);
+            }
+            lineTotal.count += count;
+            Long mnemonicTotal = (Long) mnemonics.get(mnemonic);
+            mnemonics.put(mnemonic, Long.valueOf(count + ((mnemonicTotal == null) ? 0 : mnemonicTotal.longValue())));
+         }
+         if (json) {
+            out.println("  ],");
+            out.println("  \"lines\": [");
+         } 
+         else {
+            out.println();
+            out.println("file,line,count,source");
+         }
+         int n = 0;
+         for (Iterator it = lines.values().iterator(); it.hasNext(); n++) {
+            LineTotal lineTotal = (LineTotal) it.next();
+            if (json) {
+               out.println("    {\"file\": "+jsonString(lineTotal.file)+", \"line\": "+lineTotal.line+", \"count\": "+lineTotal.count+
+                           ", \"source\": "+jsonString(lineTotal.source)+"}"+((n < lines.size() - 1) ? "," : ""));
+            } 
+            else {
+               out.println(csvString(lineTotal.file)+","+lineTotal.line+","+lineTotal.count+","+csvString(lineTotal.source));
+            }
+         }
+         ArrayList byCount = new ArrayList(mnemonics.entrySet());
+         Collections.sort(byCount, 
+               new Comparator() {
+                   public int compare(Object a, Object b) {
+                     Map.Entry x = (Map.Entry) a;
+                     Map.Entry y = (Map.Entry) b;
+                     int order = ((Long) y.getValue()).compareTo((Long) x.getValue());
+                     return (order != 0) ? order : ((String) x.getKey()).compareTo((String) y.getKey());
+                  }
+               });
+         if (json) {
+            out.println("  ],");
+            out.println("  \"mnemonics\": [");
+         } 
+         else {
+            out.println();
+            out.println("mnemonic,count");
+         }
+         for (int i = 0; i < byCount.size(); i++) {
+            Map.Entry entry = (Map.Entry) byCount.get(i);
+            if (json) {
+               out.println("    {\"mnemonic\": "+jsonString((String) entry.getKey())+", \"count\": "+entry.getValue()+
+                           "}"+((i < byCount.size() - 1) ? "," : ""));
+            } 
+            else {
+               out.println(entry.getKey()+","+entry.getValue());
+            }
+         }
+         if (json) {
+            out.println("  ]");
+            out.println("}");
+         }
+         out.flush();
+      }
+   
+      // A CSV field, quoted if it contains a comma, quote or line break.
+       private static String csvString(String s) {
+         if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+            return s;
+         }
+         return "\""+s.replaceAll("\"", "\"\"")+"\"";
+      }
+   
+      // A JSON string literal.
+       private static String jsonString(String s) {
+         StringBuffer result = new StringBuffer("\"");
+         for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+               result.append('\\').append(c);
+            } 
+            else if (c < ' ') {
+               String hex = Integer.toHexString(c);
+               result.append("\\u").append("0000".substring(hex.length())).append(hex);
+            } 
+            else {
+               result.append(c);
+            }
+         }
+         return result.append('"').toString();
+      }
+   
+      // Total count of the instructions from one source line.
+       private static class LineTotal {
+         String file;
+         int line;
+         String source;
+         long count;
+          LineTotal(String file, int line, String source) {
+            this.file = file;
+            this.line = line;
+            this.source = source;
+         }
+      }
+   }
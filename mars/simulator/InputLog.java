@@ -0,0 +1,293 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import java.util.*;
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+/**
+ * Records the nondeterministic input of a simulated machine, so that its execution
+ * can be replayed exactly from a snapshot.  See ReverseDebugger.
+ * <p>
+ * Two kinds of input are recorded.  Input obtained by syscalls, in the order the program
+ * obtains it: lines read by the Read Integer, Float, Double, String and Char syscalls,
+ * bytes read from standard input, the seeds of random streams the program did not seed,
+ * and the system time.  And input from devices, such as the keyboard simulator tool,
+ * which arrives between instructions: memory mapped I/O words written by threads other
+ * than the MIPS program, and external interrupts.  These are recorded with the number of
+ * instructions executed when they arrived (see MachineContext.getInstructionCount()).
+ * <p>
+ * While the log is replaying, syscalls take their input from the log instead, and do
+ * not write to the console or to files, which already have that output.  Reading from
+ * files other than standard input is not recorded; files are reopened at the position
+ * they had in a snapshot and read again.  Dialog syscalls are not recorded.
+ *
+ * @version October 2014
+ */
+
+    public class InputLog {
+      // Kinds of device input.  A memory write's kind is its length in bytes.
+      private static final int INTERRUPT = 0;
+   
+      private final MachineContext context;
+      private boolean replaying;
+   
+      // Syscall input, each a String (possibly null), Long or byte[].
+      private final ArrayList inputs;
+      private int position;  // index of next input to replay
+   
+      // Device input, in parallel arrays in order of instruction count.
+      private long[] eventCounts;
+      private int[] eventKinds;
+      private int[] eventAddresses;
+      private int[] eventValues;
+      private int eventSize;
+      private int eventPosition;  // index of next event to replay
+      private boolean injectedInterrupt;
+   
+   /**
+    * Create an empty log for the given machine.  It must then be set as the machine's
+    * input log (see MachineContext.setInputLog()) to record anything.
+    * @param context the machine whose input is to be recorded
+    */
+       public InputLog(MachineContext context) {
+         this.context = context;
+         this.replaying = false;
+         this.inputs = new ArrayList();
+         this.position = 0;
+         this.eventCounts = new long[16];
+         this.eventKinds = new int[16];
+         this.eventAddresses = new int[16];
+         this.eventValues = new int[16];
+         this.eventSize = 0;
+         this.eventPosition = 0;
+      }
+   
+   /**
+    * @return true if input is taken from the log rather than recorded in it.
+    */
+       public boolean isReplaying() {
+         return replaying;
+      }
+   
+   /**
+    * Set whether input is taken from the log or recorded in it.  The machine must not be
+    * running.
+    * @param replaying true to replay recorded input, false to record new input
+    */
+       public void setReplaying(boolean replaying) {
+         this.replaying = replaying;
+      }
+   
+   /**
+    * @return the number of syscall inputs replayed or recorded so far, to be saved with a
+    * snapshot.
+    */
+       public int getPosition() {
+         return position;
+      }
+   
+   /**
+    * Go back to the given point in the log, on returning to a snapshot taken there.  Device
+    * input will be replayed from the given instruction count.
+    * @param position the position saved with the snapshot
+    * @param instructionCount the instruction count of the snapshot
+    */
+       public void setPosition(int position, long instructionCount) {
+         this.position = position;
+         this.eventPosition = findEvent(instructionCount);
+         this.injectedInterrupt = false;
+      }
+   
+   /**
+    * Record an input obtained by a syscall.  Has no effect while replaying.
+    * @param input the input, a String, Long or byte[]
+    */
+       public void add(Object input) {
+         if (!replaying) {
+            // Input past this point belongs to a run since gone back over.
+            inputs.subList(position, inputs.size()).clear();
+            inputs.add(input);
+            position++;
+         }
+      }
+   
+   /**
+    * Record an input value that is cheap to obtain, such as the time, or replay it.
+    * @param value the value obtained from its source
+    * @return the given value after recording it, or when replaying the value recorded
+    */
+       public long input(long value) {
+         if (replaying) {
+            return ((Long) next(Long.class)).longValue();
+         }
+         add(Long.valueOf(value));
+         return value;
+      }
+   
+   /**
+    * @return the next recorded input, which must be a String or null
+    */
+       public String nextString() {
+         return (String) next(String.class);
+      }
+   
+   /**
+    * @return the next recorded input, which must be a Long
+    */
+       public long nextLong() {
+         return ((Long) next(Long.class)).longValue();
+      }
+   
+   /**
+    * @return the next recorded input, which must be a byte array
+    */
+       public byte[] nextBytes() {
+         return (byte[]) next(byte[].class);
+      }
+   
+      // The next input, checked to be of the type expected.  If it is not, replay has
+   	// gone wrong: execution has diverged from that recorded.
+       private Object next(Class type) {
+         if (position >= inputs.size()) {
+            throw new IllegalStateException("input log has no more input to replay");
+         }
+         Object input = inputs.get(position);
+         if (input != null && !type.isInstance(input) || input == null && type != String.class) {
+            throw new IllegalStateException("input log out of step with execution");
+         }
+         position++;
+         return input;
+      }
+   
+   /**
+    * Record that the simulator has taken an external interrupt.  Called by the simulator.
+    * Has no effect while replaying, or for an interrupt injected by applyEvents().
+    * @param code the device interrupt code
+    */
+       public void interruptTaken(int code) {
+         if (replaying || injectedInterrupt) {
+            injectedInterrupt = false;
+            return;
+         }
+         addEvent(INTERRUPT, 0, code);
+      }
+   
+   /**
+    * Record a write to memory mapped I/O by a device rather than the MIPS program.
+    * Has no effect while replaying.
+    * @param address the address written
+    * @param length the number of bytes written: 1, 2 or 4
+    * @param value the value written
+    */
+       public void deviceWrite(int address, int length, int value) {
+         if (!replaying) {
+            addEvent(length, address, value);
+         }
+      }
+   
+       private void addEvent(int kind, int address, int value) {
+         long count = context.getInstructionCount();
+         // As in add(), drop events past this point.
+         eventSize = eventPosition;
+         if (eventSize == eventCounts.length) {
+            eventCounts = copyOf(eventCounts, eventSize * 2);
+            eventKinds = copyOf(eventKinds, eventSize * 2);
+            eventAddresses = copyOf(eventAddresses, eventSize * 2);
+            eventValues = copyOf(eventValues, eventSize * 2);
+         }
+         eventCounts[eventSize] = count;
+         eventKinds[eventSize] = kind;
+         eventAddresses[eventSize] = address;
+         eventValues[eventSize] = value;
+         eventSize++;
+         eventPosition = eventSize;
+      }
+   
+   /**
+    * Get the instruction count at which the next device input is to be replayed.
+    * @return the instruction count, or -1 if there is no more device input.
+    */
+       public long nextEventCount() {
+         return (eventPosition < eventSize) ? eventCounts[eventPosition] : -1;
+      }
+   
+   /**
+    * Replay the device input that arrived when the machine had executed as many
+    * instructions as it has now: write memory mapped I/O as the device did, and
+    * raise the interrupt it raised, to be taken by the next instruction.
+    * @throws AddressErrorException if the memory write fails
+    */
+       public void applyEvents() throws AddressErrorException {
+         long count = context.getInstructionCount();
+         while (eventPosition < eventSize && eventCounts[eventPosition] <= count) {
+            if (eventKinds[eventPosition] == INTERRUPT) {
+               Simulator.externalInterruptingDevice = eventValues[eventPosition];
+               injectedInterrupt = true;
+            } 
+            else {
+               synchronized (context.getLock()) {
+                  context.getMemory().set(eventAddresses[eventPosition], eventValues[eventPosition], eventKinds[eventPosition]);
+               }
+            }
+            eventPosition++;
+         }
+      }
+   
+      // Index of the first event at or after the given instruction count.
+       private int findEvent(long count) {
+         int low = 0;
+         int high = eventSize;
+         while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (eventCounts[middle] < count) {
+               low = middle + 1;
+            } 
+            else {
+               high = middle;
+            }
+         }
+         return low;
+      }
+   
+       private static long[] copyOf(long[] array, int length) {
+         long[] copy = new long[length];
+         System.arraycopy(array, 0, copy, 0, array.length);
+         return copy;
+      }
+   
+       private static int[] copyOf(int[] array, int length) {
+         int[] copy = new int[length];
+         System.arraycopy(array, 0, copy, 0, array.length);
+         return copy;
+      }
+   }
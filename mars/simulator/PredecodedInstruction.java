@@ -0,0 +1,364 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import mars.mips.instructions.*;
+	
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+	
+/**
+ * A basic instruction as it sits in the predecoded execution cache.  The lookups
+ * the simulator needs to execute it -- the statement at its address, its basic
+ * instruction and simulation code, and whether it may join a basic block -- are
+ * resolved once, when the statement is first fetched, instead of on every
+ * execution.
+ * <p>
+ * The common ALU, load, store and branch instructions (addu, addiu, lw, sw, sll,
+ * slt, beq, bne and the like) also have their operands unpacked into fields at that time, and are
+ * simulated here directly from them, with the same register and memory accesses
+ * in the same order as their SimulationCode.  Other instructions are simulated
+ * by their SimulationCode, which reads its operands from the statement.
+ *
+ * @version October 2014
+ * @see ExecutionCache
+ */
+
+    public final class PredecodedInstruction {
+      private final ProgramStatement statement;
+      private final BasicInstruction instruction;
+      private final SimulationCode simulationCode;
+      private final int address;
+      private final boolean blockable;
+      private final boolean endsBlock;
+      // Which of the operations below simulate() carries out itself, and its operands:
+      // register numbers and, for immediate forms, the immediate value as the
+      // SimulationCode would compute it (sign or zero extended, or shifted for lui).
+      private final int operation;
+      private final int target, source, second, immediate;
+   
+      private static final int OTHER = 0;   // use the SimulationCode
+      private static final int ADDU = 1, SUBU = 2, AND = 3, OR = 4, XOR = 5, NOR = 6,
+                               SLT = 7, SLTU = 8, ADD = 9, SUB = 10;         // rd, rs, rt
+      private static final int SLL = 11, SRL = 12, SRA = 13;                 // rd, rt, shift
+      private static final int ADDIU = 14, ANDI = 15, ORI = 16, XORI = 17,
+                               SLTI = 18, SLTIU = 19, ADDI = 20, LUI = 21;   // rt, rs, immediate
+      private static final int LW = 22, LB = 23, LBU = 24, SW = 25, SB = 26; // rt, offset, base
+      private static final int BEQ = 27, BNE = 28;                           // rs, rt, displacement
+      // Mnemonics of the operations, indexed by operation.
+      private static final String[] OPERATION_NAMES = {null, 
+            "addu", "subu", "and", "or", "xor", "nor", "slt", "sltu", "add", "sub",
+            "sll", "srl", "sra",
+            "addiu", "andi", "ori", "xori", "slti", "sltiu", "addi", "lui",
+            "lw", "lb", "lbu", "sw", "sb",
+            "beq", "bne"};
+      // Used by ExecutionCache for block formation; see ExecutionCache.getBlock().
+      int executionCount;
+      BasicBlock block;
+   
+   /**
+    * Decode the given statement.
+    * @param statement the ProgramStatement stored in the text segment.
+    */
+       public PredecodedInstruction(ProgramStatement statement) {
+         this.statement = statement;
+         this.address = statement.getAddress();
+         Instruction inst = statement.getInstruction();
+         if (inst instanceof BasicInstruction) {
+            this.instruction = (BasicInstruction) inst;
+            this.simulationCode = this.instruction.getSimulationCode();
+            String name = this.instruction.getName();
+            BasicInstructionFormat format = this.instruction.getInstructionFormat();
+            // Instructions that need the interpreter's full treatment never go into a block.
+            this.blockable = !(name.equals("syscall") || name.equals("break") || name.equals("eret"));
+            // Branches and jumps are the only other instructions that set the program counter.
+            this.endsBlock = format == BasicInstructionFormat.I_BRANCH_FORMAT 
+                              || format == BasicInstructionFormat.J_FORMAT
+                              || name.equals("jr") || name.equals("jalr");
+         } 
+         else {
+            // binary code that does not match any basic instruction
+            this.instruction = null;
+            this.simulationCode = null;
+            this.blockable = false;
+            this.endsBlock = false;
+         }
+         int op = OTHER;
+         int[] operands = statement.getOperands();
+         if (this.instruction != null && operands != null) {
+            for (int i = 1; i < OPERATION_NAMES.length; i++) {
+               if (OPERATION_NAMES[i].equals(this.instruction.getName())) {
+                  op = i;
+                  break;
+               }
+            }
+            if (operands.length < ((op == LUI) ? 2 : 3)) {
+               op = OTHER;
+            }
+         }
+         int t = 0, s = 0, u = 0, imm = 0;
+         if (op >= ADDU && op <= SRA) {
+            t = operands[0];
+            s = operands[1];
+            u = operands[2];
+         } 
+         else if (op >= ADDIU && op <= ADDI) {
+            t = operands[0];
+            s = operands[1];
+            imm = (op == ANDI || op == ORI || op == XORI) 
+                  ? operands[2] & 0x0000FFFF 
+                  : operands[2] << 16 >> 16;
+         } 
+         else if (op == LUI) {
+            t = operands[0];
+            imm = operands[1] << 16;
+         } 
+         else if (op >= BEQ) {
+            t = operands[0];
+            s = operands[1];
+            imm = operands[2];
+         } 
+         else if (op >= LW) {
+            t = operands[0];
+            s = operands[2];
+            // lw and sw use the offset as it is, the byte forms sign-extend it.
+            imm = (op == LW || op == SW) ? operands[1] : operands[1] << 16 >> 16;
+         }
+         this.operation = op;
+         this.target = t;
+         this.source = s;
+         this.second = u;
+         this.immediate = imm;
+      }
+   
+   /**
+    * Simulate execution of this instruction.  Caller is responsible for verifying
+    * that the instruction is defined (getInstruction() is not null).
+    * @throws ProcessingException if a run-time exception occurs.
+    */
+       public void simulate() throws ProcessingException {
+         switch (operation) {
+            case ADDU:
+               RegisterFile.updateRegister(target, RegisterFile.getValue(source) + RegisterFile.getValue(second));
+               return;
+            case SUBU:
+               RegisterFile.updateRegister(target, RegisterFile.getValue(source) - RegisterFile.getValue(second));
+               return;
+            case AND:
+               RegisterFile.updateRegister(target, RegisterFile.getValue(source) & RegisterFile.getValue(second));
+               return;
+            case OR:
+               RegisterFile.updateRegister(target, RegisterFile.getValue(source) | RegisterFile.getValue(second));
+               return;
+            case XOR:
+               RegisterFile.updateRegister(target, RegisterFile.getValue(source) ^ RegisterFile.getValue(second));
+               return;
+            case NOR:
+               RegisterFile.updateRegister(target, ~(RegisterFile.getValue(source) | RegisterFile.getValue(second)));
+               return;
+            case SLT:
+               RegisterFile.updateRegister(target, (RegisterFile.getValue(source) < RegisterFile.getValue(second)) ? 1 : 0);
+               return;
+            case SLTU: 
+               {
+                  int first = RegisterFile.getValue(source);
+                  int other = RegisterFile.getValue(second);
+                  RegisterFile.updateRegister(target, ((first ^ Integer.MIN_VALUE) < (other ^ Integer.MIN_VALUE)) ? 1 : 0);
+                  return;
+               }
+            case ADD: 
+               {
+                  int add1 = RegisterFile.getValue(source);
+                  int add2 = RegisterFile.getValue(second);
+                  int sum = add1 + add2;
+                  // overflow on A+B detected when A and B have same sign and A+B has other sign.
+                  if ((add1 >= 0 && add2 >= 0 && sum < 0) || (add1 < 0 && add2 < 0 && sum >= 0)) {
+                     throw new ProcessingException(statement, "arithmetic overflow", Exceptions.ARITHMETIC_OVERFLOW_EXCEPTION);
+                  }
+                  RegisterFile.updateRegister(target, sum);
+                  return;
+               }
+            case SUB: 
+               {
+                  int sub1 = RegisterFile.getValue(source);
+                  int sub2 = RegisterFile.getValue(second);
+                  int dif = sub1 - sub2;
+                  // overflow on A-B detected when A and B have opposite signs and A-B has B's sign
+                  if ((sub1 >= 0 && sub2 < 0 && dif < 0) || (sub1 < 0 && sub2 >= 0 && dif >= 0)) {
+                     throw new ProcessingException(statement, "arithmetic overflow", Exceptions.ARITHMETIC_OVERFLOW_EXCEPTION);
+                  }
+                  RegisterFile.updateRegister(target, dif);
+                  return;
+               }
+            case SLL:
+               RegisterFile.updateRegister(target, RegisterFile.getValue(source) << second);
+               return;
+            case SRL:
+               RegisterFile.updateRegister(target, RegisterFile.getValue(source) >>> second);
+               return;
+            case SRA:
+               RegisterFile.updateRegister(target, RegisterFile.getValue(source) >> second);
+               return;
+            case ADDIU:
+               RegisterFile.updateRegister(target, RegisterFile.getValue(source) + immediate);
+               return;
+            case ANDI:
+               RegisterFile.updateRegister(target, RegisterFile.getValue(source) & immediate);
+               return;
+            case ORI:
+               RegisterFile.updateRegister(target, RegisterFile.getValue(source) | immediate);
+               return;
+            case XORI:
+               RegisterFile.updateRegister(target, RegisterFile.getValue(source) ^ immediate);
+               return;
+            case SLTI:
+               RegisterFile.updateRegister(target, (RegisterFile.getValue(source) < immediate) ? 1 : 0);
+               return;
+            case SLTIU:
+               RegisterFile.updateRegister(target, 
+                  ((RegisterFile.getValue(source) ^ Integer.MIN_VALUE) < (immediate ^ Integer.MIN_VALUE)) ? 1 : 0);
+               return;
+            case ADDI: 
+               {
+                  int add1 = RegisterFile.getValue(source);
+                  int sum = add1 + immediate;
+                  if ((add1 >= 0 && immediate >= 0 && sum < 0) || (add1 < 0 && immediate < 0 && sum >= 0)) {
+                     throw new ProcessingException(statement, "arithmetic overflow", Exceptions.ARITHMETIC_OVERFLOW_EXCEPTION);
+                  }
+                  RegisterFile.updateRegister(target, sum);
+                  return;
+               }
+            case LUI:
+               RegisterFile.updateRegister(target, immediate);
+               return;
+            case LW:
+            case LB:
+            case LBU:
+            case SW:
+            case SB:
+               try {
+                  simulateMemoryAccess();
+               } 
+                   catch (AddressErrorException e) {
+                     throw new ProcessingException(statement, e);
+                  }
+               return;
+            case BEQ:
+               if (RegisterFile.getValue(target) == RegisterFile.getValue(source)) {
+                  branch();
+               }
+               return;
+            case BNE:
+               if (RegisterFile.getValue(target) != RegisterFile.getValue(source)) {
+                  branch();
+               }
+               return;
+            default:
+               simulationCode.simulate(statement);
+         }
+      }
+   
+      // Take the branch, as InstructionSet.processBranch() does.  The program counter
+      // has already been incremented past this instruction.
+       private void branch() {
+         int targetAddress = RegisterFile.getProgramCounter() + (immediate << 2);
+         if (Globals.getSettings().getDelayedBranchingEnabled()) {
+            DelayedBranch.register(targetAddress);
+         } 
+         else {
+            RegisterFile.setProgramCounter(targetAddress);
+         }
+      }
+   
+      // The loads and stores, from the effective address.
+       private void simulateMemoryAccess() throws AddressErrorException {
+         int address = RegisterFile.getValue(source) + immediate;
+         switch (operation) {
+            case LW:
+               RegisterFile.updateRegister(target, Memory.getInstance().getWord(address));
+               break;
+            case LB:
+               RegisterFile.updateRegister(target, Memory.getInstance().getByte(address) << 24 >> 24);
+               break;
+            case LBU:
+               RegisterFile.updateRegister(target, Memory.getInstance().getByte(address) & 0x000000ff);
+               break;
+            case SW:
+               Memory.getInstance().setWord(address, RegisterFile.getValue(target));
+               break;
+            case SB:
+               Memory.getInstance().setByte(address, RegisterFile.getValue(target) & 0x000000ff);
+               break;
+         }
+      }
+   
+   /**
+    * @return the ProgramStatement that was decoded.
+    */
+       public ProgramStatement getStatement() {
+         return statement;
+      }
+   
+   /**
+    * @return the BasicInstruction for this statement, or null if its binary code
+    * does not correspond to a defined instruction.
+    */
+       public BasicInstruction getInstruction() {
+         return instruction;
+      }
+   
+   /**
+    * @return the SimulationCode for this statement, null if instruction is undefined.
+    */
+       public SimulationCode getSimulationCode() {
+         return simulationCode;
+      }
+   
+   /**
+    * @return text segment address of this statement.
+    */
+       public int getAddress() {
+         return address;
+      }
+   
+   /**
+    * @return true if this instruction may be executed as part of a BasicBlock.
+    * False for undefined instructions and for syscall, break and eret.
+    */
+       public boolean isBlockable() {
+         return blockable;
+      }
+   
+   /**
+    * @return true if this instruction is a branch or jump, and therefore must
+    * be the last instruction of any BasicBlock containing it.
+    */
+       public boolean endsBlock() {
+         return endsBlock;
+      }
+   }
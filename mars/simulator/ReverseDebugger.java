@@ -0,0 +1,372 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import java.io.*;
+   import java.util.*;
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+/**
+ * Runs a program so that it can be taken back to any earlier point of its execution,
+ * however long ago, where the back-stepper can only undo its last
+ * Globals.maximumBacksteps instructions.
+ * <p>
+ * While it runs, the machine is snapshotted every so many instructions: its memory is
+ * forked, sharing unchanged pages copy-on-write, and the rest of its state saved (see
+ * MachineContext.saveState()).  Its nondeterministic input is recorded in an InputLog.
+ * To go back, the latest snapshot before the point wanted is restored and execution
+ * replayed forward from there at full speed, taking its input from the log and
+ * without repeating its output.  Going forward again replays up to the furthest point
+ * reached, then continues live.
+ * <p>
+ * The number of snapshots kept is bounded.  When it is reached every other one is
+ * dropped and the interval between them doubled, so memory stays bounded however long
+ * the run, while going back costs at most one interval of replay.
+ * <p>
+ * The machine must be run only through the debugger while it is in use, from a
+ * thread in which the machine's context is current.  Going back does not notify
+ * observers or update the GUI.
+ *
+ * @version October 2014
+ */
+
+    public class ReverseDebugger implements Observer {
+    /** Default number of instructions between snapshots, until they are thinned. */
+      public static final int DEFAULT_INTERVAL = 1 << 20;
+    /** Default maximum number of snapshots kept. */
+      public static final int DEFAULT_SNAPSHOT_LIMIT = 64;
+   
+      private final MIPSprogram program;
+      private final MachineContext context;
+      private final InputLog log;
+      private final int snapshotLimit;
+      private long interval;
+      private final ArrayList snapshots; // of Snapshot, in order of instruction count
+      private long frontier;  // furthest instruction count reached
+      private boolean applyingEvents;
+   
+   /**
+    * Start recording the execution of a program in the current machine, with the
+    * default interval and snapshot limit.  The program must be assembled and ready
+    * to run; this is the earliest point it can be taken back to.
+    * @param program the program to run
+    * @throws IOException if the first snapshot cannot be taken
+    */
+       public ReverseDebugger(MIPSprogram program) throws IOException {
+         this(program, DEFAULT_INTERVAL, DEFAULT_SNAPSHOT_LIMIT);
+      }
+   
+   /**
+    * Start recording the execution of a program in the current machine.
+    * @param program the program to run
+    * @param interval number of instructions between snapshots, until they are thinned
+    * @param snapshotLimit maximum number of snapshots kept, at least 2
+    * @throws IOException if the first snapshot cannot be taken
+    */
+       public ReverseDebugger(MIPSprogram program, int interval, int snapshotLimit) throws IOException {
+         this.program = program;
+         this.context = MachineContext.current();
+         this.log = new InputLog(context);
+         this.interval = Math.max(1, interval);
+         this.snapshotLimit = Math.max(2, snapshotLimit);
+         this.snapshots = new ArrayList();
+         this.frontier = context.getInstructionCount();
+         context.setInputLog(log);
+         try {
+            context.getMemory().addObserver(this, Memory.memoryMapBaseAddress, Memory.memoryMapLimitAddress);
+         } 
+            catch (AddressErrorException e) { } // will not occur with the configuration's own addresses
+         takeSnapshot();
+      }
+   
+   /**
+    * Stop recording.  The machine stays as it is, and can no longer be taken back.
+    */
+       public void close() {
+         context.setInputLog(null);
+         context.getMemory().deleteObserver(this);
+         snapshots.clear();
+      }
+   
+   /**
+    * @return the number of instructions the machine has executed.
+    */
+       public long getInstructionCount() {
+         return context.getInstructionCount();
+      }
+   
+   /**
+    * @return the earliest instruction count the machine can be taken back to.
+    */
+       public long getStart() {
+         return ((Snapshot) snapshots.get(0)).count;
+      }
+   
+   /**
+    * @return the furthest instruction count the machine has reached.
+    */
+       public long getFrontier() {
+         return frontier;
+      }
+   
+   /**
+    * Run the program forward, as MIPSprogram.simulateFromPC() does, replaying it up to
+    * the furthest point reached and running it live from there.
+    * @param maxSteps maximum number of instructions to execute, or -1 for no maximum
+    * @param breakPoints addresses to stop at, or null for none
+    * @return true if the program terminated, false if it stopped otherwise
+    * @throws ProcessingException if the program terminated with an error
+    * @throws IOException if a snapshot cannot be taken
+    */
+       public boolean run(int maxSteps, int[] breakPoints) throws ProcessingException, IOException {
+         long target = (maxSteps > 0) ? context.getInstructionCount() + maxSteps : Long.MAX_VALUE;
+         return runTo(target, breakPoints);
+      }
+   
+   /**
+    * Go back the given number of instructions, or to the start if there are not so many.
+    * @param steps number of instructions to go back
+    * @throws ProcessingException if replay fails, which indicates it has diverged
+    * @throws IOException if a snapshot cannot be restored
+    */
+       public void stepBack(long steps) throws ProcessingException, IOException {
+         goTo(context.getInstructionCount() - steps);
+      }
+   
+   /**
+    * Go back or forward to the point at which the machine had executed the given number
+    * of instructions, limited to the range from getStart() to getFrontier().
+    * @param instructionCount the instruction count to go to
+    * @throws ProcessingException if replay fails, which indicates it has diverged
+    * @throws IOException if a snapshot cannot be restored
+    */
+       public void goTo(long instructionCount) throws ProcessingException, IOException {
+         long target = Math.max(getStart(), Math.min(instructionCount, frontier));
+         if (target < context.getInstructionCount()) {
+            restore(snapshotBefore(target + 1));
+         }
+         replayTo(target, null);
+      }
+   
+   /**
+    * Go back to the last point before this one at which the program counter was at a
+    * breakpoint, that is, at which running forward would have stopped.  If there is none,
+    * go back to the start.
+    * @param breakPoints the breakpoint addresses
+    * @return true if a breakpoint was found, false if the machine is at the start
+    * @throws ProcessingException if replay fails, which indicates it has diverged
+    * @throws IOException if a snapshot cannot be restored
+    */
+       public boolean reverseContinue(int[] breakPoints) throws ProcessingException, IOException {
+         long current = context.getInstructionCount();
+         // Search back one interval between snapshots at a time, replaying each to find
+      	// its last breakpoint.  An interval includes its first instruction count.
+         for (int i = snapshotBefore(current); i >= 0; i--) {
+            Snapshot snapshot = (Snapshot) snapshots.get(i);
+            long end = (i + 1 < snapshots.size()) 
+                       ? Math.min(current, ((Snapshot) snapshots.get(i + 1)).count) 
+                       : current;
+            restore(i);
+            long found = -1;
+            if (isBreakpoint(breakPoints, RegisterFile.getProgramCounter())) {
+               found = snapshot.count;
+            }
+            while (!replayTo(end, breakPoints) && context.getInstructionCount() < end) {
+               found = context.getInstructionCount();
+            }
+            if (found >= 0) {
+               goTo(found);
+               return true;
+            }
+         }
+         goTo(getStart());
+         return false;
+      }
+   
+      // As runTo(), for a target no further than the frontier.  If the program ended
+   	// there with an error, the error is not raised again; it was when first run.
+       private boolean replayTo(long target, int[] breakPoints) throws ProcessingException, IOException {
+         try {
+            return runTo(target, breakPoints);
+         } 
+            catch (ProcessingException e) {
+               if (context.getInstructionCount() != frontier) {
+                  throw e;
+               }
+               return true;
+            }
+      }
+   
+      // Execute until the given instruction count, a breakpoint or the end of the program.
+   	// Up to the frontier this is a replay.  Execution is broken into runs of the
+   	// simulator that end at the frontier, where device input is to be replayed and
+   	// where a snapshot is due.  Returns true if the program terminated.
+       private boolean runTo(long target, int[] breakPoints) throws ProcessingException, IOException {
+         try {
+            while (true) {
+               long count = context.getInstructionCount();
+               if (count >= target) {
+                  return false;
+               }
+               applyEvents();
+               boolean replaying = count < frontier;
+               log.setReplaying(replaying);
+               long limit = target - count;
+               if (replaying) {
+                  limit = Math.min(limit, frontier - count);
+               }
+               long nextEvent = log.nextEventCount();
+               if (nextEvent > count) {
+                  limit = Math.min(limit, nextEvent - count);
+               }
+               long nextSnapshot = ((Snapshot) snapshots.get(snapshots.size() - 1)).count + interval;
+               if (nextSnapshot > count) {
+                  limit = Math.min(limit, nextSnapshot - count);
+               }
+               limit = Math.min(limit, Integer.MAX_VALUE);
+               boolean done;
+               try {
+                  done = program.simulateFromPC(breakPoints, (int) limit, null);
+               } 
+               finally {
+                  if (context.getInstructionCount() > frontier) {
+                     frontier = context.getInstructionCount();
+                  }
+               }
+               long executed = context.getInstructionCount() - count;
+               if (done) {
+                  return true;
+               }
+               if (!replaying && context.getInstructionCount() >= nextSnapshot) {
+                  takeSnapshot();
+               }
+               if (executed < limit || isBreakpoint(breakPoints, RegisterFile.getProgramCounter())) {
+                  return false;
+               }
+            }
+         } 
+         finally {
+            log.setReplaying(false);
+         }
+      }
+   
+      // Replay device input that arrived at this point.  Its writes are not recorded again.
+       private void applyEvents() throws ProcessingException {
+         if (log.nextEventCount() != context.getInstructionCount()) {
+            return;
+         }
+         applyingEvents = true;
+         try {
+            log.applyEvents();
+         } 
+            catch (AddressErrorException e) {
+               ErrorList el = new ErrorList();
+               el.add(new ErrorMessage((MIPSprogram)null,0,0,"cannot replay device input: "+e.getMessage()));
+               throw new ProcessingException(el);
+            } 
+         finally {
+            applyingEvents = false;
+         }
+      }
+   
+       private static boolean isBreakpoint(int[] breakPoints, int address) {
+         if (breakPoints != null) {
+            for (int i = 0; i < breakPoints.length; i++) {
+               if (breakPoints[i] == address) {
+                  return true;
+               }
+            }
+         }
+         return false;
+      }
+   
+      // Snapshot the machine as it is.  If there are then too many, drop every other one,
+   	// keeping the first and last, and take them half as often.
+       private void takeSnapshot() throws IOException {
+         Snapshot snapshot = new Snapshot();
+         snapshot.count = context.getInstructionCount();
+         snapshot.memory = context.getMemory().fork();
+         snapshot.state = context.saveState();
+         snapshot.position = log.getPosition();
+         snapshots.add(snapshot);
+         if (snapshots.size() > snapshotLimit) {
+            for (int i = 1; i < snapshots.size() - 1; i++) {
+               snapshots.remove(i);
+            }
+            interval *= 2;
+         }
+      }
+   
+      // Index of the last snapshot taken before the given instruction count, or -1.
+       private int snapshotBefore(long count) {
+         int index = -1;
+         for (int i = 0; i < snapshots.size() && ((Snapshot) snapshots.get(i)).count < count; i++) {
+            index = i;
+         }
+         return index;
+      }
+   
+       private void restore(int index) throws IOException {
+         Snapshot snapshot = (Snapshot) snapshots.get(index);
+         context.restoreState(snapshot.state, snapshot.memory, snapshot.count);
+         log.setPosition(snapshot.position, snapshot.count);
+         BackStepper backStepper = context.getBackStepper();
+         if (backStepper != null) {
+            backStepper.clear();
+         }
+      }
+   
+   /**
+    * Records writes to memory mapped I/O made by devices, such as the keyboard
+    * simulator tool, so they can be replayed.
+    * @param observable the memory
+    * @param notice the MemoryAccessNotice for the access
+    */
+       public void update(Observable observable, Object notice) {
+         if (applyingEvents || !(notice instanceof MemoryAccessNotice)) {
+            return;
+         }
+         MemoryAccessNotice access = (MemoryAccessNotice) notice;
+         if (access.getAccessType() == AccessNotice.WRITE && !access.accessIsFromMIPS()) {
+            log.deviceWrite(access.getAddress(), access.getLength(), access.getValue());
+         }
+      }
+   
+      // The state of the machine at one point: a fork of its memory, the rest of its
+   	// state, and how much of the input log it had used.
+       private static class Snapshot {
+         long count;
+         Memory memory;
+         byte[] state;
+         int position;
+      }
+   }
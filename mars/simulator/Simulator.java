@@ -44,7 +44,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 
     public class Simulator extends Observable {
       private SimThread simulatorThread;
-      private static Simulator simulator = null;  // Singleton object
       private static Runnable interactiveGUIUpdater = null;
       // Others can set this true to indicate external interrupt.  Initially used
    	// to simulate keyboard and display interrupts.  The device is identified
@@ -59,9 +58,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       public static final int NORMAL_TERMINATION = 4;
       public static final int CLIFF_TERMINATION = 5; // run off bottom of program
       public static final int PAUSE_OR_STOP = 6;
+      // Number of instructions (or basic blocks) the command-line loop executes between
+   	// checks for stop requests and external interrupts.  See SimThread.runHeadless().
+      private static final int HEADLESS_BATCH_SIZE = 1024;
    
       /**
-   	 * Returns the Simulator object
+   	 * Returns the Simulator object for the current MachineContext
    	 *
    	 * @return the Simulator object in use
    	 */
@@ -70,10 +72,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       	// Its constructor looks for the GUI, which at load time is not created yet,
       	// and incorrectly leaves interactiveGUIUpdater null!  This causes runtime
       	// exceptions while running in timed mode.
-         if (simulator==null) {
-            simulator = new Simulator();
+         MachineContext context = MachineContext.current();
+         if (context.getSimulator()==null) {
+            context.setSimulator(new Simulator());
          }
-         return simulator;
+         return context.getSimulator();
       }
    
        private Simulator() {
@@ -150,6 +153,21 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          }
       }
    
+      /**
+   	  *  Set or clear a breakpoint in the running simulation, if any.  The change
+   	  *  takes effect from the next instruction executed; the simulation does not
+   	  *  need to be restarted.
+   	  *
+   	  *  @param address instruction address of the breakpoint
+   	  *  @param set true to set the breakpoint, false to clear it
+   	  */
+       public void setBreakpoint(int address, boolean set) {
+         SimThread thread = simulatorThread;
+         if (thread != null) {
+            thread.breakPoints.set(address, set);
+         }
+      }
+   
       /* This interface is required by the Asker class in MassagesPane
        * to be notified about the fact that the user has requested to
        * stop the execution. When that happens, it must unblock the
@@ -199,14 +217,23 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    		
        class SimThread extends SwingWorker {
          private MIPSprogram p;
+         private MachineContext context; // machine to simulate, that of the thread calling simulate()
+         private Memory memory;
          private int pc, maxSteps;
-         private int[] breakPoints;
+         private BreakpointSet breakPoints;
          private boolean done;
          private ProcessingException pe;
          private volatile boolean stop = false;
          private volatile AbstractAction stopper;
          private AbstractAction starter;
          private int constructReturnReason;
+         private ExecutionCache executionCache; // null unless predecoded execution is enabled
+         private PredecodedInstruction decoded; // most recent instruction fetched through cache
+         private boolean blockExecution; // true if hot basic blocks may be executed as a unit
+         private ExecutionProfile profile; // null unless execution is being profiled
+         private CallGraphProfile callGraph; // null unless calls are being profiled
+         private BranchProfile branches; // null unless branches are being profiled
+         private Tracer trace; // null unless execution is being traced
       
       
          /**
@@ -221,9 +248,20 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
           SimThread(MIPSprogram p, int pc, int maxSteps, int[] breakPoints, AbstractAction starter) {
             super(Globals.getGui()!=null);  
             this.p = p;
+            this.context = MachineContext.current();
+            this.memory = context.getMemory();
+            // Instructions replayed by the reverse debugger were counted and traced when
+            // first executed, so a replay leaves the profiles and tracer alone.
+            InputLog log = context.getInputLog();
+            if (log == null || !log.isReplaying()) {
+               this.profile = context.getExecutionProfile();
+               this.callGraph = context.getCallGraphProfile();
+               this.branches = context.getBranchProfile();
+               this.trace = context.getTracer();
+            }
             this.pc = pc;
             this.maxSteps = maxSteps;
-            this.breakPoints = breakPoints;
+            this.breakPoints = new BreakpointSet(breakPoints);
             this.done = false;
             this.pe = null;
             this.starter = starter;
@@ -258,20 +296,26 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          	// are not (because one or the other or both is not yet enabled).
             Thread.currentThread().setPriority(Thread.NORM_PRIORITY-1);
             Thread.yield();  // let the main thread run a bit to finish updating the GUI
-         	
-            if (breakPoints == null || breakPoints.length == 0) {
-               breakPoints = null;
-            } 
-            else {
-               Arrays.sort(breakPoints);  // must be pre-sorted for binary search
+            MachineContext.setCurrent(context);
+            if (trace != null) {
+               trace.start();
             }
-            
+         	
             Simulator.getInstance().notifyObserversOfExecutionStart(maxSteps, pc);
          	
             RegisterFile.initializeProgramCounter(pc);
+            if (Globals.getSettings().getBooleanSetting(Settings.PREDECODED_EXECUTION_ENABLED)) {
+               executionCache = memory.getExecutionCache();
+               // Blocks skip the per-instruction bookkeeping these features depend on.
+               blockExecution = Globals.getSettings().getBooleanSetting(Settings.BLOCK_EXECUTION_ENABLED)
+                                && !Globals.getSettings().getDelayedBranchingEnabled()
+                                && !Globals.getSettings().getBooleanSetting(Settings.SELF_MODIFYING_CODE_ENABLED)
+                                && !Globals.getSettings().getBackSteppingEnabled()
+                                && trace == null;
+            }
             ProgramStatement statement = null;
             try {
-               statement = Globals.memory.getStatement(RegisterFile.getProgramCounter());
+               statement = fetch(RegisterFile.getProgramCounter());
             } 
                 catch (AddressErrorException e) {
                   ErrorList el = new ErrorList();
@@ -286,77 +330,96 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   this.done = true;
                   SystemIO.resetFiles(); // close any files opened in MIPS program
                   Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
-                  return new Boolean(done);
+                  return Boolean.valueOf(done);
                }
+            // Nothing to update or throttle without a GUI, so use the faster loop.  The GUI
+         	// only displays the default context, so other contexts always use it.
+            if ((!context.isDefault() || (Globals.getGui() == null && !Globals.runSpeedPanelExists)) && 
+                !Globals.getSettings().getBackSteppingEnabled()) {
+               return runHeadless(statement);
+            }
             int steps = 0;
          	
          	// *******************  PS addition 26 July 2006  **********************
-         	// A couple statements below were added for the purpose of assuring that when
-         	// "back stepping" is enabled, every instruction will have at least one entry
-         	// on the back-stepping stack.  Most instructions will because they write either
-         	// to a register or memory.  But "nop" and branches not taken do not.  When the
-         	// user is stepping backward through the program, the stack is popped and if
-         	// an instruction has no entry it will be skipped over in the process.  This has
-         	// no effect on the correctness of the mechanism but the visual jerkiness when
-         	// instruction highlighting skips such instrutions is disruptive.  Current solution
-         	// is to add a "do nothing" stack entry for instructions that do no write anything.
-         	// To keep this invisible to the "simulate()" method writer, we
-         	// will push such an entry onto the stack here if there is none for this instruction
-         	// by the time it has completed simulating.  This is done by the IF statement
-         	// just after the call to the simulate method itself.  The BackStepper method does
-         	// the aforementioned check and decides whether to push or not.  The result
-         	// is a a smoother interaction experience.  But it comes at the cost of slowing
-         	// simulation speed for flat-out runs, for every MIPS instruction executed even
-         	// though very few will require the "do nothing" stack entry.  For stepped or
-         	// timed execution the slower execution speed is not noticeable.
-         	//
-         	// To avoid this cost I tried a different technique: back-fill with "do nothings"
-         	// during the backstepping itself when this situation is recognized.  Problem
-         	// was in recognizing all possible situations in which the stack contained such
-         	// a "gap".  It became a morass of special cases and it seemed every weird test
-         	// case revealed another one.  In addition, when a program
-         	// begins with one or more such instructions ("nop" and branches not taken),
-         	// the backstep button is not enabled until a "real" instruction is executed.
-         	// This is noticeable in stepped mode.
+         	// When "back stepping" is enabled, every instruction must be known to the back-
+         	// stepper, including "nop" and branches not taken, which write nothing; otherwise
+         	// backstepping would skip over them.  This used to be assured by pushing a "do
+         	// nothing" entry after each instruction that had made none, at a cost paid by
+         	// every instruction of a flat-out run.  Now the back-stepper keeps a separate
+         	// log of instruction boundaries, and the instruction's address is simply recorded
+         	// there just before it executes.  
          	// *********************************************************************
          	
+            BackStepper backStepper = context.getBackStepper();
             int pc = 0;  // added: 7/26/06 (explanation above)
+            BasicBlock block = null;
+            int executed = 1; // number of instructions executed in one iteration
          
             while (statement != null) {
                pc = RegisterFile.getProgramCounter(); // added: 7/26/06 (explanation above)
-               RegisterFile.incrementPC();           	
+               RegisterFile.incrementPC();
+               if (blockExecution) {
+                  block = nextBlock(steps);
+                  executed = (block == null) ? 1 : block.getLength();
+               }           	
             	// Perform the MIPS instruction in synchronized block.  If external threads agree
             	// to access MIPS memory and registers only through synchronized blocks on same 
             	// lock variable, then full (albeit heavy-handed) protection of MIPS memory and 
             	// registers is assured.  Not as critical for reading from those resources.
-               synchronized (Globals.memoryAndRegistersLock) {
+               synchronized (context.getLock()) {
                   try {                      
-                     if (Simulator.externalInterruptingDevice != NO_DEVICE) {
+                     if (backStepper != null && backStepper.enabled()) {
+                        backStepper.beginInstruction(pc);
+                     }
+                     if (Simulator.externalInterruptingDevice != NO_DEVICE && context.isDefault()) {
                         int deviceInterruptCode = externalInterruptingDevice;
                         Simulator.externalInterruptingDevice = NO_DEVICE;
+                        if (context.getInputLog() != null) {
+                           context.getInputLog().interruptTaken(deviceInterruptCode);
+                        }
                         throw new ProcessingException(statement, "External Interrupt", deviceInterruptCode);
                      }
-                     BasicInstruction instruction = (BasicInstruction)statement.getInstruction();
-                     if (instruction == null) {
-                        throw new ProcessingException(statement,
-                            "undefined instruction ("+Binary.intToHexString(statement.getBinaryStatement())+")",
-                            Exceptions.RESERVED_INSTRUCTION_EXCEPTION);
+                     if (trace != null) {
+                        trace.instruction(pc);
                      }
-                     // THIS IS WHERE THE INSTRUCTION EXECUTION IS ACTUALLY SIMULATED!
-                     instruction.getSimulationCode().simulate(statement);
-                  	
-                  	// IF statement added 7/26/06 (explanation above)
-                     if (Globals.getSettings().getBackSteppingEnabled()) {
-                        Globals.program.getBackStepper().addDoNothing(pc);
+                     if (block != null) {
+                        // Execute the whole block.  See nextBlock() for when this is allowed.
+                        block.execute();
+                        pc = block.getLastAddress();
+                     } 
+                     else {
+                        BasicInstruction instruction = (decoded != null) 
+                                                      ? decoded.getInstruction() 
+                                                      : (BasicInstruction)statement.getInstruction();
+                        if (instruction == null) {
+                           throw new ProcessingException(statement,
+                               "undefined instruction ("+Binary.intToHexString(statement.getBinaryStatement())+")",
+                               Exceptions.RESERVED_INSTRUCTION_EXCEPTION);
+                        }
+                        // THIS IS WHERE THE INSTRUCTION EXECUTION IS ACTUALLY SIMULATED!
+                        if (decoded != null) {
+                           decoded.simulate();
+                        } 
+                        else {
+                           instruction.getSimulationCode().simulate(statement);
+                        }
                      }
+
                   } 
                       catch (ProcessingException pe) {
+                        if (block != null) {
+                           // Only a block's last instruction can change the program counter, so
+                        	// it is still just past the instruction that raised the exception.
+                           pc = RegisterFile.getProgramCounter() - Instruction.INSTRUCTION_LENGTH;
+                           executed = ((pc - block.getStartAddress()) >> 2) + 1;
+                        }
                         if (pe.errors() == null) {
+                           countExecuted(pc, block, executed); // the instruction ending the run counts too
                            this.constructReturnReason = NORMAL_TERMINATION;
                            this.done = true;
                            SystemIO.resetFiles(); // close any files opened in MIPS program
                            Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
-                           return new Boolean(done); // execution completed without error.
+                           return Boolean.valueOf(done); // execution completed without error.
                         } 
                         else {
                            // See if an exception handler is present.  Assume this is the case
@@ -366,22 +429,24 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                         	// MIPS program with appropriate error message.
                            ProgramStatement exceptionHandler = null;
                            try {
-                              exceptionHandler = Globals.memory.getStatement(Memory.exceptionHandlerAddress);
+                              exceptionHandler = memory.getStatement(Memory.exceptionHandlerAddress);
                            } 
                                catch (AddressErrorException aee) { } // will not occur with this well-known addres
                            if (exceptionHandler != null) {
                               RegisterFile.setProgramCounter(Memory.exceptionHandlerAddress);
                            } 
                            else {
+                              countExecuted(pc, block, executed);
                               this.constructReturnReason = EXCEPTION;
                               this.pe = pe;
                               this.done = true;
                               SystemIO.resetFiles(); // close any files opened in MIPS program
                               Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
-                              return new Boolean(done);
+                              return Boolean.valueOf(done);
                            }
                         }
                      }
+                  countExecuted(pc, block, executed);
                }// end synchronized block
             	
             	///////// DPS 15 June 2007.  Handle delayed branching if it occurs./////
@@ -399,24 +464,23 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   this.constructReturnReason = PAUSE_OR_STOP;
                   this.done = false;
                   Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
-                  return new Boolean(done);
+                  return Boolean.valueOf(done);
                }
             	//	Return if we've reached a breakpoint.					
-               if((breakPoints != null) && 
-               (Arrays.binarySearch(breakPoints,RegisterFile.getProgramCounter()) >= 0)) {
+               if (breakPoints.contains(RegisterFile.getProgramCounter())) {
                   this.constructReturnReason = BREAKPOINT;
                   this.done = false;
                   Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
-                  return new Boolean(done); // false;
+                  return Boolean.valueOf(done); // false;
                }
             	// Check number of MIPS instructions executed.  Return if at limit (-1 is no limit).
                if (maxSteps > 0) {
-                  steps++;
+                  steps += executed;
                   if (steps >= maxSteps) {
                      this.constructReturnReason = MAX_STEPS;
                      this.done = false;
                      Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
-                     return new Boolean(done);// false;
+                     return Boolean.valueOf(done);// false;
                   }
                }
             	
@@ -441,7 +505,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                // Get next instruction in preparation for next iteration.
             
                try {
-                  statement = Globals.memory.getStatement(RegisterFile.getProgramCounter());
+                  statement = fetch(RegisterFile.getProgramCounter());
                } 
                    catch (AddressErrorException e) {
                      ErrorList el = new ErrorList();
@@ -473,10 +537,224 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             this.done = true;
             SystemIO.resetFiles(); // close any files opened in MIPS program
             Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
-            return new Boolean(done); // true;  // execution completed
+            return Boolean.valueOf(done); // true;  // execution completed
          }
          
       	
+         // Count the instructions just executed: the one at pc or, if a block was
+      	// executed, that many from its start.
+          private void countExecuted(int pc, BasicBlock block, int executed) {
+            context.addInstructions(executed);
+            if (profile != null) {
+               profile.count((block == null) ? pc : block.getStartAddress(), executed);
+            }
+            if (callGraph != null || branches != null) {
+               // Only the last instruction executed can be a call, return or branch.  A
+               // block cut short by an exception ended at pc, the faulting instruction.
+               int last = (block == null || executed < block.getLength()) ? pc : block.getLastAddress();
+               ProgramStatement statement = null;
+               try {
+                  statement = memory.getStatementNoNotify(last);
+               } 
+                   catch (AddressErrorException e) { } // it was just executed
+               int word = (statement == null) ? 0 : statement.getBinaryStatement();
+               if (callGraph != null) {
+                  callGraph.count((block == null) ? pc : block.getStartAddress(), executed, last, word);
+               }
+               if (branches != null && BranchProfile.isConditionalBranch(word)) {
+                  // A taken branch has registered its target if branches are delayed,
+                  // or set the program counter to it if not.
+                  branches.branch(last, word, DelayedBranch.isRegistered() 
+                                  || RegisterFile.getProgramCounter() != last + Instruction.INSTRUCTION_LENGTH);
+               }
+            }
+         }
+      
+         // Simulation loop used when there is no GUI (e.g. run from the command line) and
+      	// backstepping is off.  It behaves the same as the loop in construct() except that
+      	// the lock is taken, and stop requests and external interrupts are checked, once per
+      	// batch of HEADLESS_BATCH_SIZE instructions (or basic blocks) rather than for every
+      	// instruction.  Breakpoints and the step limit are still checked after each one so
+      	// execution stops at exactly the same place.
+          private Object runHeadless(ProgramStatement statement) {
+            int pc = RegisterFile.getProgramCounter();
+            int steps = 0;
+            BasicBlock block = null;
+            int executed = 1; // number of instructions executed in one iteration
+            int reason = 0;   // why execution stopped, 0 while still running
+            while (statement != null && reason == 0) {
+            	// See construct() loop for stop.
+               if (stop == true) {
+                  reason = PAUSE_OR_STOP;
+                  break;
+               }
+               synchronized (context.getLock()) {
+                  for (int n = 0; n < HEADLESS_BATCH_SIZE; n++) {
+                     pc = RegisterFile.getProgramCounter();
+                     RegisterFile.incrementPC();
+                     if (blockExecution) {
+                        block = nextBlock(steps);
+                        executed = (block == null) ? 1 : block.getLength();
+                     }
+                     try {
+                        if (n == 0 && Simulator.externalInterruptingDevice != NO_DEVICE && context.isDefault()) {
+                           int deviceInterruptCode = externalInterruptingDevice;
+                           Simulator.externalInterruptingDevice = NO_DEVICE;
+                           if (context.getInputLog() != null) {
+                              context.getInputLog().interruptTaken(deviceInterruptCode);
+                           }
+                           throw new ProcessingException(statement, "External Interrupt", deviceInterruptCode);
+                        }
+                        if (trace != null) {
+                           trace.instruction(pc);
+                        }
+                        if (block != null) {
+                           block.execute();
+                           pc = block.getLastAddress();
+                        } 
+                        else if (decoded != null) {
+                           if (decoded.getInstruction() == null) {
+                              throw new ProcessingException(statement,
+                                  "undefined instruction ("+Binary.intToHexString(statement.getBinaryStatement())+")",
+                                  Exceptions.RESERVED_INSTRUCTION_EXCEPTION);
+                           }
+                           decoded.simulate();
+                        } 
+                        else {
+                           BasicInstruction instruction = (BasicInstruction)statement.getInstruction();
+                           if (instruction == null) {
+                              throw new ProcessingException(statement,
+                                  "undefined instruction ("+Binary.intToHexString(statement.getBinaryStatement())+")",
+                                  Exceptions.RESERVED_INSTRUCTION_EXCEPTION);
+                           }
+                           instruction.getSimulationCode().simulate(statement);
+                        }
+                     } 
+                         catch (ProcessingException pe) {
+                           if (block != null) {
+                              // See construct() loop.
+                              pc = RegisterFile.getProgramCounter() - Instruction.INSTRUCTION_LENGTH;
+                              executed = ((pc - block.getStartAddress()) >> 2) + 1;
+                           }
+                           if (pe.errors() == null) {
+                              countExecuted(pc, block, executed); // the instruction ending the run counts too
+                              reason = NORMAL_TERMINATION;
+                              break;
+                           }
+                           if (!enterExceptionHandler()) {
+                              countExecuted(pc, block, executed);
+                              this.pe = pe;
+                              reason = EXCEPTION;
+                              break;
+                           }
+                        }
+                     countExecuted(pc, block, executed);
+                     if (DelayedBranch.isTriggered()) {
+                        RegisterFile.setProgramCounter(DelayedBranch.getBranchTargetAddress());
+                        DelayedBranch.clear();
+                     } 
+                     else if (DelayedBranch.isRegistered()) {
+                        DelayedBranch.trigger();
+                     }
+                     if (breakPoints.contains(RegisterFile.getProgramCounter())) {
+                        reason = BREAKPOINT;
+                        break;
+                     }
+                     if (maxSteps > 0) {
+                        steps += executed;
+                        if (steps >= maxSteps) {
+                           reason = MAX_STEPS;
+                           break;
+                        }
+                     }
+                     try {
+                        statement = fetch(RegisterFile.getProgramCounter());
+                     } 
+                         catch (AddressErrorException e) {
+                           ErrorList el = new ErrorList();
+                           el.add(new ErrorMessage((MIPSprogram)null,0,0,"invalid program counter value: "+Binary.intToHexString(RegisterFile.getProgramCounter())));
+                           this.pe = new ProcessingException(el,e);
+                           // See construct() loop.
+                           Coprocessor0.updateRegister(Coprocessor0.EPC, RegisterFile.getProgramCounter());
+                           reason = EXCEPTION;
+                           break;
+                        }
+                     if (statement == null) {
+                        break;
+                     }
+                  }
+               }// end synchronized block
+            }
+            if (reason == 0) {
+               // Fell off the end of the program; see construct().
+               if (DelayedBranch.isTriggered() || DelayedBranch.isRegistered()) {
+                  DelayedBranch.clear();
+               }
+               reason = CLIFF_TERMINATION;
+            }
+            this.constructReturnReason = reason;
+            this.done = (reason != BREAKPOINT && reason != MAX_STEPS && reason != PAUSE_OR_STOP);
+            if (this.done) {
+               SystemIO.resetFiles(); // close any files opened in MIPS program
+            }
+            Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
+            return Boolean.valueOf(done);
+         }
+      
+         // Transfer control to the exception handler, if one is present.  Assume this is the
+      	// case if and only if memory location Memory.exceptionHandlerAddress (e.g. 0x80000180)
+      	// contains an instruction.  Returns false if there is no handler.
+          private boolean enterExceptionHandler() {
+            ProgramStatement exceptionHandler = null;
+            try {
+               exceptionHandler = memory.getStatement(Memory.exceptionHandlerAddress);
+            } 
+                catch (AddressErrorException aee) { } // will not occur with this well-known addres
+            if (exceptionHandler == null) {
+               return false;
+            }
+            RegisterFile.setProgramCounter(Memory.exceptionHandlerAddress);
+            return true;
+         }
+      
+         // Get the block to execute in place of the single instruction just fetched, or
+      	// null if that instruction is to be executed on its own.  A block is used only
+      	// while nothing could tell the difference: no memory observer expecting to see
+      	// each instruction fetch, no run speed limit (which sleeps after each instruction),
+      	// no breakpoint after its first instruction, and enough steps left to finish it.
+          private BasicBlock nextBlock(int steps) {
+            if (decoded == null || memory.isObserved()) {
+               return null;
+            }
+            if ((Globals.getGui() != null || Globals.runSpeedPanelExists) &&
+                RunSpeedPanel.getInstance().getRunSpeed() < RunSpeedPanel.UNLIMITED_SPEED) {
+               return null;
+            }
+            BasicBlock block = executionCache.getBlock(decoded);
+            if (block == null) {
+               return null;
+            }
+            if (maxSteps > 0 && steps + block.getLength() > maxSteps) {
+               return null;
+            }
+            if (breakPoints.containsAny(block.getStartAddress() + Instruction.INSTRUCTION_LENGTH, 
+                                        block.getLastAddress())) {
+               return null;
+            }
+            return block;
+         }
+      
+         // Fetch the statement at the given address.  If predecoded execution is enabled
+         // this goes through the execution cache and the decoded form is left in "decoded"
+         // for the execution step; otherwise "decoded" stays null.
+          private ProgramStatement fetch(int address) throws AddressErrorException {
+            if (executionCache == null) {
+               return memory.getStatement(address);
+            }
+            decoded = executionCache.fetch(address);
+            return (decoded == null) ? null : decoded.getStatement();
+         }
+         
       	/**
       	 *   This method is invoked by the SwingWorker when the "construct" method returns.  
       	 *   It will update the GUI appropriately.  According to Sun's documentation, it 
@@ -489,7 +767,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       	 
           public void finished() {
            // If running from the command-line, then there is no GUI to update.
-            if (Globals.getGui() == null) {
+           // Nor is there for any machine but the default one.
+            if (Globals.getGui() == null || !context.isDefault()) {
                return;
             }
             String starterName = (String) starter.getValue(AbstractAction.NAME);
@@ -0,0 +1,248 @@
+   package mars.simulator;
+   import java.io.*;
+   import java.nio.*;
+   import java.nio.channels.*;
+   import java.util.zip.*;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * Reads a trace written by TraceWriter, one event at a time.  For example, to count
+ * the loads of each length:
+ * <pre>
+ *   TraceReader trace = new TraceReader(file);
+ *   int kind;
+ *   while ((kind = trace.next()) != TraceReader.END) {
+ *      if (kind == TraceReader.LOAD) {
+ *         loads[trace.getLength()]++;
+ *      }
+ *   }
+ *   trace.close();
+ * </pre>
+ *
+ * @version October 2014
+ */
+
+    public class TraceReader {
+    /** Event: no more events. */
+      public static final int END = -1;
+    /** Event: an instruction executed; getAddress() is its address. */
+      public static final int INSTRUCTION = 0;
+    /** Event: a load by the last instruction; getAddress() and getLength() describe it. */
+      public static final int LOAD = TraceWriter.LOAD;
+    /** Event: a store by the last instruction; getAddress() and getLength() describe it. */
+      public static final int STORE = TraceWriter.STORE;
+   
+      private final FileChannel channel;
+      private final boolean compressed;
+      private final ByteBuffer blockHeader;
+      private ByteBuffer block;
+      private byte[] stored;
+      private byte[] records;
+      private Inflater inflater;
+      private int previousPC;
+      private int previousAddress;
+      private int run; // consecutive instructions still to be returned
+      private int address;
+      private int length;
+   
+   /**
+    * Open a trace file.
+    * @param file the file written by TraceWriter
+    * @throws IOException if the file cannot be read or is not a trace
+    */
+       public TraceReader(File file) throws IOException {
+         channel = new FileInputStream(file).getChannel();
+         blockHeader = ByteBuffer.allocate(8);
+         try {
+            if (!readFully(blockHeader) || blockHeader.getInt(0) != TraceWriter.MAGIC) {
+               throw new IOException(file+" is not a MARS trace file");
+            }
+            if (blockHeader.get(4) > TraceWriter.VERSION) {
+               throw new IOException(file+" has an unsupported trace version "+blockHeader.get(4));
+            }
+         } 
+             catch (IOException e) {
+               channel.close();
+               throw e;
+            }
+         compressed = (blockHeader.get(5) & TraceWriter.FLAG_COMPRESSED) != 0;
+         inflater = (compressed) ? new Inflater() : null;
+         block = ByteBuffer.allocateDirect(TraceWriter.BLOCK_LENGTH);
+         block.limit(0);
+      }
+   
+   /**
+    * Advance to the next event.
+    * @return the kind of event: INSTRUCTION, LOAD or STORE, or END at the end of the trace
+    * @throws IOException if the trace cannot be read or is damaged
+    */
+       public int next() throws IOException {
+         if (run > 0) {
+            run--;
+            previousPC += 4;
+            address = previousPC;
+            return INSTRUCTION;
+         }
+         if (!block.hasRemaining() && !readBlock()) {
+            return END;
+         }
+         int tag = block.get() & 0xFF;
+         switch (tag & 3) {
+            case TraceWriter.SEQUENTIAL:
+               run = tag >>> 2;
+               previousPC += 4;
+               address = previousPC;
+               return INSTRUCTION;
+            case TraceWriter.JUMP:
+               previousPC += getVariable() << 2;
+               address = previousPC;
+               return INSTRUCTION;
+            default:
+               length = 1 << ((tag >>> 2) & 3);
+               previousAddress += getVariable();
+               address = previousAddress;
+               return tag & 3;
+         }
+      }
+   
+   /**
+    * @return the address of the current event: the instruction's, or the one loaded from
+    * or stored to
+    */
+       public int getAddress() {
+         return address;
+      }
+   
+   /**
+    * @return the number of bytes loaded or stored by the current event
+    */
+       public int getLength() {
+         return length;
+      }
+   
+   /**
+    * Close the trace file.
+    * @throws IOException if it cannot be closed
+    */
+       public void close() throws IOException {
+         if (inflater != null) {
+            inflater.end();
+            inflater = null;
+         }
+         channel.close();
+      }
+   
+      // Read the next block into block, inflating it if need be.  Returns false at the end.
+       private boolean readBlock() throws IOException {
+         blockHeader.clear();
+         if (!readFully(blockHeader)) {
+            return false;
+         }
+         int length = blockHeader.getInt(0);
+         int storedLength = blockHeader.getInt(4);
+         if (length < 0 || length > TraceWriter.BLOCK_LENGTH || storedLength < 0 || (!compressed && storedLength != length)) {
+            throw new IOException("damaged trace block");
+         }
+         if (compressed) {
+            if (stored == null || stored.length < storedLength) {
+               stored = new byte[storedLength];
+            }
+            if (!readFully(ByteBuffer.wrap(stored, 0, storedLength))) {
+               throw new IOException("trace ends within a block");
+            }
+            if (records == null) {
+               records = new byte[TraceWriter.BLOCK_LENGTH];
+            }
+            inflater.reset();
+            inflater.setInput(stored, 0, storedLength);
+            try {
+               int inflated = 0;
+               while (inflated < length && !inflater.finished()) {
+                  int n = inflater.inflate(records, inflated, length - inflated);
+                  if (n == 0 && inflater.needsInput()) {
+                     break;
+                  }
+                  inflated += n;
+               }
+               if (inflated != length) {
+                  throw new IOException("damaged trace block");
+               }
+            } 
+                catch (DataFormatException e) {
+                  throw new IOException("damaged trace block: "+e.getMessage());
+               }
+            block.clear();
+            block.put(records, 0, length);
+            block.flip();
+         } 
+         else {
+            block.clear();
+            block.limit(length);
+            if (!readFully(block)) {
+               throw new IOException("trace ends within a block");
+            }
+            block.flip();
+         }
+         previousPC = 0;
+         previousAddress = 0;
+         return true;
+      }
+   
+       private int getVariable() throws IOException {
+         int bits = 0;
+         for (int shift = 0; ; shift += 7) {
+            if (!block.hasRemaining() || shift > 28) {
+               throw new IOException("damaged trace record");
+            }
+            int b = block.get();
+            bits |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+               break;
+            }
+         }
+         return (bits >>> 1) ^ -(bits & 1);
+      }
+   
+      // Fill the buffer from the file.  Returns false if the file ends first.
+       private boolean readFully(ByteBuffer bytes) throws IOException {
+         while (bytes.hasRemaining()) {
+            if (channel.read(bytes) < 0) {
+               return false;
+            }
+         }
+         return true;
+      }
+   }
@@ -0,0 +1,304 @@
+   package mars.simulator;
+   import java.io.*;
+   import java.nio.*;
+   import java.nio.channels.*;
+   import java.util.zip.*;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * Writes a trace of execution to a file: the address of each instruction executed, and
+ * the address and length of each load and store it makes.  As a Tracer, it is given
+ * each instruction just before it is executed and the accesses made by the simulating
+ * thread, so the accesses following an instruction in the trace are its own.  Read it
+ * back with TraceReader.
+ * <p>
+ * The file starts with an 8 byte header: the magic number, a version byte, a flags
+ * byte (FLAG_COMPRESSED) and two zero bytes.  Records follow in blocks, each an int
+ * giving the length of its records, an int giving the number of bytes stored, and
+ * those bytes, deflated if the flag is set.  Records are delta encoded, from the
+ * previous instruction address or the previous data address in the same block (0 at
+ * the start of a block), and begin with a byte whose low two bits give the kind:
+ * <ul>
+ * <li>SEQUENTIAL: the next 1 to 64 instructions follow each other; the high six
+ * bits give the number less one.</li>
+ * <li>JUMP: one instruction, at an address given by a variable length word delta.</li>
+ * <li>LOAD and STORE: bits 2-3 give the log2 of the length, followed by a variable
+ * length byte delta to the address.</li>
+ * </ul>
+ * Variable length deltas are zigzag encoded, 7 bits to a byte, low bits first, with
+ * the high bit set on all but the last byte.
+ * <p>
+ * Recording must not throw, so the first I/O error stops the trace and is thrown by
+ * close().
+ *
+ * @version October 2014
+ */
+
+    public class TraceWriter implements Tracer {
+    /** Magic number starting a trace file, "MTRC". */
+      public static final int MAGIC = 0x4D545243;
+    /** Version of the trace format written. */
+      public static final int VERSION = 1;
+    /** Header flag set if blocks are deflated. */
+      public static final int FLAG_COMPRESSED = 1;
+    /** Record kind: consecutive instructions. */
+      public static final int SEQUENTIAL = 0;
+    /** Record kind: an instruction not following the previous one. */
+      public static final int JUMP = 1;
+    /** Record kind: a load. */
+      public static final int LOAD = 2;
+    /** Record kind: a store. */
+      public static final int STORE = 3;
+    /** Length of the records in a block, before any compression. */
+      public static final int BLOCK_LENGTH = 1 << 20;
+   
+      private static final int MAX_RUN = 64;
+      private static final int MAX_RECORD_LENGTH = 6;
+   
+      private final FileChannel channel;
+      private final ByteBuffer buffer;
+      private final ByteBuffer blockHeader;
+      private final Deflater deflater; // null unless compressing
+      private byte[] records;
+      private byte[] compressed;
+      private Thread thread; // the thread whose memory accesses are recorded
+      private int previousPC;
+      private int previousAddress;
+      private int run; // consecutive instructions not yet written
+      private long instructions;
+      private IOException error;
+      private boolean closed;
+   
+   /**
+    * Create a trace file, ready to record.
+    * @param file the file to write, replaced if it exists
+    * @param compress true to deflate each block
+    * @throws IOException if the file cannot be written
+    */
+       public TraceWriter(File file, boolean compress) throws IOException {
+         channel = new FileOutputStream(file).getChannel();
+         buffer = ByteBuffer.allocateDirect(BLOCK_LENGTH);
+         blockHeader = ByteBuffer.allocate(8);
+         deflater = (compress) ? new Deflater(Deflater.BEST_SPEED) : null;
+         ByteBuffer header = ByteBuffer.allocate(8);
+         header.putInt(MAGIC).put((byte) VERSION).put((byte) (compress ? FLAG_COMPRESSED : 0)).putShort((short) 0);
+         header.flip();
+         try {
+            writeFully(header);
+         } 
+             catch (IOException e) {
+               channel.close();
+               throw e;
+            }
+         thread = Thread.currentThread();
+      }
+   
+   /**
+    * Record memory accesses made by the current thread from now on.  Called by the
+    * simulator when it starts running.
+    */
+       public void start() {
+         thread = Thread.currentThread();
+      }
+   
+   /**
+    * Record an instruction about to be executed.
+    * @param pc the instruction's address
+    */
+       public void instruction(int pc) {
+         if (closed) {
+            return;
+         }
+         instructions++;
+         if (pc == previousPC + 4 && run < MAX_RUN) {
+            run++;
+            previousPC = pc;
+            return;
+         }
+         if (buffer.remaining() < MAX_RECORD_LENGTH * 2) {
+            flush();
+            if (closed) {
+               return;
+            }
+         }
+         if (pc == previousPC + 4) {
+            writeRun();
+            run = 1;
+         } 
+         else {
+            writeRun();
+            buffer.put((byte) JUMP);
+            putVariable((pc - previousPC) >> 2);
+         }
+         previousPC = pc;
+      }
+   
+   /**
+    * Record a load by the instruction last recorded.  Ignored unless made by the
+    * thread that started the trace.
+    * @param address the address loaded from
+    * @param length the number of bytes loaded: 1, 2, 4 or 8
+    */
+       public void load(int address, int length) {
+         access(LOAD, address, length);
+      }
+   
+   /**
+    * Record a store by the instruction last recorded.  Ignored unless made by the
+    * thread that started the trace.
+    * @param address the address stored to
+    * @param length the number of bytes stored: 1, 2, 4 or 8
+    */
+       public void store(int address, int length) {
+         access(STORE, address, length);
+      }
+   
+   /**
+    * @return the number of instructions recorded
+    */
+       public long getInstructionCount() {
+         return instructions;
+      }
+   
+   /**
+    * Write out everything recorded and close the file.  Nothing more is recorded.
+    * @throws IOException if an error occurred writing the trace, now or earlier
+    */
+       public void close() throws IOException {
+         if (!closed) {
+            flush();
+            closed = true;
+            try {
+               channel.close();
+            } 
+                catch (IOException e) {
+                  if (error == null) {
+                     error = e;
+                  }
+               }
+            if (deflater != null) {
+               deflater.end();
+            }
+         }
+         if (error != null) {
+            throw error;
+         }
+      }
+   
+       private void access(int kind, int address, int length) {
+         if (closed || Thread.currentThread() != thread) {
+            return;
+         }
+         if (buffer.remaining() < MAX_RECORD_LENGTH * 2) {
+            flush();
+            if (closed) {
+               return;
+            }
+         }
+         writeRun();
+         int log2 = (length >= 8) ? 3 : (length >= 4) ? 2 : (length >= 2) ? 1 : 0;
+         buffer.put((byte) (kind | (log2 << 2)));
+         putVariable(address - previousAddress);
+         previousAddress = address;
+      }
+   
+      // Write the pending run of consecutive instructions, if any.
+       private void writeRun() {
+         if (run > 0) {
+            buffer.put((byte) (SEQUENTIAL | ((run - 1) << 2)));
+            run = 0;
+         }
+      }
+   
+      // Zigzag encode so small negative deltas are short too.
+       private void putVariable(int value) {
+         int bits = (value << 1) ^ (value >> 31);
+         while ((bits & ~0x7F) != 0) {
+            buffer.put((byte) ((bits & 0x7F) | 0x80));
+            bits >>>= 7;
+         }
+         buffer.put((byte) bits);
+      }
+   
+      // Write the block of records, starting a new one.  On error, stop recording.
+       private void flush() {
+         writeRun();
+         buffer.flip();
+         try {
+            if (buffer.hasRemaining()) {
+               int length = buffer.remaining();
+               ByteBuffer stored = buffer;
+               if (deflater != null) {
+                  if (records == null) {
+                     records = new byte[BLOCK_LENGTH];
+                     compressed = new byte[BLOCK_LENGTH + BLOCK_LENGTH / 1000 + 64];
+                  }
+                  buffer.get(records, 0, length);
+                  deflater.reset();
+                  deflater.setInput(records, 0, length);
+                  deflater.finish();
+                  int compressedLength = 0;
+                  while (!deflater.finished()) {
+                     compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+                  }
+                  stored = ByteBuffer.wrap(compressed, 0, compressedLength);
+               }
+               blockHeader.clear();
+               blockHeader.putInt(length).putInt(stored.remaining());
+               blockHeader.flip();
+               writeFully(blockHeader);
+               writeFully(stored);
+            }
+         } 
+             catch (IOException e) {
+               error = e;
+               closed = true;
+               try {
+                  channel.close();
+               } 
+                   catch (IOException ignored) { }
+            }
+         buffer.clear();
+         previousPC = 0;
+         previousAddress = 0;
+      }
+   
+       private void writeFully(ByteBuffer bytes) throws IOException {
+         while (bytes.hasRemaining()) {
+            channel.write(bytes);
+         }
+      }
+   }
@@ -0,0 +1,114 @@
+   package mars.simulator;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * Receives the execution of a MIPS program as it happens: the address of each
+ * instruction just before it is executed, then the loads and stores it makes.  The
+ * simulator calls instruction() itself, and Memory calls load() and store() from its
+ * access paths, so no observer is involved.  A tracer is attached to a machine with
+ * MachineContext.setTracer().  Memory may also be read and written by other threads
+ * (the GUI, for one) so implementations should only take accesses made by the thread
+ * that called start().
+ *
+ * @see TraceWriter
+ * @see CacheSweep
+ * @version October 2014
+ */
+
+    public interface Tracer {
+   
+   /**
+    * Called by the simulator when it starts running, from the thread that will
+    * simulate.
+    */
+       public void start();
+   
+   /**
+    * Called for each instruction just before it is executed.
+    * @param pc the instruction's address
+    */
+       public void instruction(int pc);
+   
+   /**
+    * Called for each load, by the instruction last given.
+    * @param address the address loaded from
+    * @param length the number of bytes loaded
+    */
+       public void load(int address, int length);
+   
+   /**
+    * Called for each store, by the instruction last given.
+    * @param address the address stored to
+    * @param length the number of bytes stored
+    */
+       public void store(int address, int length);
+   
+   /**
+    * Passes everything on to two tracers, so a machine can have both.
+    */
+       public static class Pair implements Tracer {
+         private final Tracer first, second;
+      
+      /**
+       * @param first tracer to call first
+       * @param second tracer to call second
+       */
+          public Pair(Tracer first, Tracer second) {
+            this.first = first;
+            this.second = second;
+         }
+      
+          public void start() {
+            first.start();
+            second.start();
+         }
+      
+          public void instruction(int pc) {
+            first.instruction(pc);
+            second.instruction(pc);
+         }
+      
+          public void load(int address, int length) {
+            first.load(address, length);
+            second.load(address, length);
+         }
+      
+          public void store(int address, int length) {
+            first.store(address, length);
+            second.store(address, length);
+         }
+      }
+   }
@@ -74,6 +74,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	// For MarsTool, is set true when "Connect" clicked, false when "Disconnect" clicked.
    	// For app, is set true when "Assemble and Run" clicked, false when program terminates.
       private volatile boolean observing = false;
+   	// Non-null while connected if the tool processes notices on a thread of its own.
+      private volatile AccessEventRing eventRing = null;
+      private int eventProgramCounter;
+      private static final long EVENT_RING_CLOSE_WAIT_MILLIS = 1000;
    
    	// Several structures required for stand-alone use only (not MarsTool use)
       private File mostRecentlyOpenedFile = null; 
@@ -467,11 +471,42 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 */
        public void update(Observable resource, Object accessNotice) {
          if (((AccessNotice)accessNotice).accessIsFromMIPS()) { 
+            AccessEventRing ring = eventRing;
+            if (ring != null) {
+               ring.publish(resource, (AccessNotice)accessNotice, RegisterFile.getProgramCounter());
+               return;
+            }
             processMIPSUpdate(resource, (AccessNotice)accessNotice);
             updateDisplay();
          }
       }
    	
+   	/**
+   	 * Override this method to have notices processed on a thread of the tool's own
+   	 * rather than by the thread executing the MIPS program.  The MIPS thread then only
+   	 * adds each notice to the returned ring, and processMIPSUpdate() is called from the
+   	 * ring's thread, followed by updateDisplay() after each batch of notices.  What
+   	 * happens when the tool falls behind is up to the ring's policy.  Tools doing so
+   	 * must not rely on the state of memory or registers while processing a notice, as
+   	 * the MIPS program will have moved on; the program counter at the time of access is
+   	 * available from getProgramCounterOfUpdate().  Called each time the tool connects.
+   	 * By default returns null, to process notices synchronously.
+   	 * @return a new AccessEventRing, or null to process notices synchronously
+   	 */
+       protected AccessEventRing createEventRing() {
+         return null;
+      }
+   	
+   	/**
+   	 * Value the program counter had when the access being processed by processMIPSUpdate()
+   	 * was made.  The MIPS program counter has already been advanced past the executing
+   	 * instruction at that time.
+   	 * @return the program counter
+   	 */
+       protected int getProgramCounterOfUpdate() {
+         return (eventRing == null) ? RegisterFile.getProgramCounter() : eventProgramCounter;
+      }
+   	
    	/**
    	 * Override this method to process a received notice from MIPS Observable (memory or register)
    	 * It will only be called if the notice was generated as the result of MIPS instruction execution.
@@ -507,6 +542,33 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          addAsObserver(lowMemoryAddress, highMemoryAddress);
       }
    
+   	// Called before addAsObserver() to set up asynchronous processing if the tool wants it.
+       private void startEventDelivery() {
+         AccessEventRing ring = createEventRing();
+         if (ring != null) {
+            ring.start(
+                   new AccessEventRing.Consumer() {
+                      public void accept(Observable resource, AccessNotice notice, int programCounter) {
+                        eventProgramCounter = programCounter;
+                        processMIPSUpdate(resource, notice);
+                     }
+                      public void endOfBatch() {
+                        updateDisplay();
+                     }
+                  }, getName());
+         }
+         eventRing = ring;
+      }
+   
+   	// Called after deleteAsObserver(); lets the tool finish processing what it received.
+       private void stopEventDelivery() {
+         AccessEventRing ring = eventRing;
+         if (ring != null) {
+            ring.close(EVENT_RING_CLOSE_WAIT_MILLIS);
+            eventRing = null;
+         }
+      }
+   
       /**
    	 *  Add this app/tool as an Observer of the specified subrange of MIPS memory.  Note
    	 *  that this method is not invoked automatically like the no-argument version, but
@@ -643,6 +705,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       	
           public void connect() {
             observing = true;
+            startEventDelivery();
             synchronized (Globals.memoryAndRegistersLock) {// DPS 23 July 2008
                addAsObserver();
             }
@@ -653,6 +716,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             synchronized (Globals.memoryAndRegistersLock) {// DPS 23 July 2008
                deleteAsObserver();
             }
+            stopEventDelivery();
             observing = false;
             setText(connectText);
          }
@@ -739,6 +803,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             Coprocessor1.resetRegisters();
             Coprocessor0.resetRegisters();
          	
+            startEventDelivery();
             addAsObserver();
             observing = true;
             String terminatingMessage = "Normal termination: ";
@@ -755,6 +820,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                }
             finally {
                deleteAsObserver();
+               stopEventDelivery();
                observing = false;
                operationStatusMessages.displayTerminatingMessage(terminatingMessage+fileToAssemble);
             } 
@@ -0,0 +1,360 @@
+   package mars.tools;
+   import java.util.*;
+   import java.util.concurrent.locks.LockSupport;
+   import mars.*;
+   import mars.mips.hardware.*;
+   
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+/**
+ * Carries access notices from the thread executing the MIPS program to a tool that
+ * processes them on a thread of its own, so that an analysis tool costs the simulation
+ * little more than recording each access.  The ring is single-producer: only the MIPS
+ * thread may call publish().  Memory accesses are copied into parallel arrays of
+ * primitives (type, address, length, value and program counter), since Memory reuses
+ * its notice objects; other notices, which are not reused, are kept as they are.
+ * Memory accesses are delivered through a single notice that the consumer thread
+ * refills for each one, so like the notices Memory delivers it is only valid during
+ * Consumer.accept().
+ * <p>
+ * When the consumer falls behind and the ring fills, the policy given to the
+ * constructor decides what happens to the MIPS thread: BLOCK makes it wait for room,
+ * DROP discards the access, and SAMPLE keeps only every SAMPLE_INTERVAL-th access
+ * while the ring is over half full, discarding the rest, so the tool still sees a
+ * spread of the accesses made under load.  Dropped accesses are counted.
+ * <p>
+ * Each entry records whether its access came from the MIPS program or the GUI, and
+ * the notices delivered for memory accesses answer accessIsFromMIPS() and
+ * accessIsFromGUI() from that rather than from the consumer thread.
+ *
+ * @see AbstractMarsToolAndApplication#createEventRing()
+ */
+
+    public class AccessEventRing {
+   
+     /** Policy for a full ring: the MIPS thread waits until the tool has made room. */
+      public static final int BLOCK = 0;
+     /** Policy for a full ring: accesses that do not fit are discarded. */
+      public static final int DROP = 1;
+     /** Policy for a full ring: once it is over half full, only every SAMPLE_INTERVAL-th access is kept. */
+      public static final int SAMPLE = 2;
+     /** Names of the policies, as used for the ToolEventPolicy setting. */
+      public static final String[] POLICY_NAMES = {"Block", "Drop", "Sample"};
+     /** Default number of events the ring holds. */
+      public static final int DEFAULT_CAPACITY = 1 << 16;
+     /** Interval at which accesses are kept under the SAMPLE policy. */
+      public static final int SAMPLE_INTERVAL = 16;
+      
+     // Largest number of events handed to the consumer between calls to endOfBatch().
+     // Batches are also limited to a quarter of the ring, so a blocked producer gets
+     // room back before the whole ring has been processed.
+      private static final int MAX_BATCH = 4096;
+     // How long an idle consumer, or a producer blocked on a full ring, sleeps between looks.
+      private static final long IDLE_WAIT_NANOS = 200000;
+     // Number of times a blocked producer yields before it starts sleeping.
+      private static final int SPINS_BEFORE_PARKING = 100;
+     // Values of origins[], recorded from the published notice.
+      private static final byte FROM_MIPS = 1;
+      private static final byte FROM_GUI = 2;
+   
+      private final int mask;
+      private final int batchLimit;
+      private final int policy;
+      private final int[] types, addresses, lengths, values, programCounters;
+      private final byte[] origins;          // FROM_MIPS, FROM_GUI or neither
+      private final Observable[] resources;
+      private final AccessNotice[] notices;  // null for memory accesses
+      
+     // Count of events published, written only by the producer, and of events consumed,
+     // written only by the consumer.  An event is in slot (count & mask).
+      private volatile long published = 0;
+      private volatile long consumed = 0;
+      private long consumedSeen = 0;  // producer's last look at consumed
+      private int sampleCountdown = 0;
+      private volatile long dropped = 0;
+      private volatile boolean closed = false;
+      private Thread consumerThread;
+      
+     /**
+      * Consumer of the events in a ring.  Its methods are called on the ring's own thread.
+      */
+       public interface Consumer {
+        /**
+         * Process one access.
+         * @param resource the Observable that issued the notice
+         * @param notice the access notice
+         * @param programCounter value of the program counter when the access was made
+         */
+          public void accept(Observable resource, AccessNotice notice, int programCounter);
+      	
+        /**
+         * Called after each batch of accesses, e.g. to update a display.
+         */
+          public void endOfBatch();
+      }
+   
+     /**
+      * Create a ring.  It carries nothing until start() is called.
+      * @param capacity minimum number of events it can hold; rounded up to a power of 2
+      * @param policy BLOCK, DROP or SAMPLE
+      */
+       public AccessEventRing(int capacity, int policy) {
+         if (policy != BLOCK && policy != DROP && policy != SAMPLE) {
+            throw new IllegalArgumentException("unknown policy "+policy);
+         }
+         int size = 2;
+         while (size < capacity) {
+            size <<= 1;
+         }
+         this.mask = size-1;
+         this.batchLimit = Math.max(1, Math.min(MAX_BATCH, size >> 2));
+         this.policy = policy;
+         types = new int[size];
+         addresses = new int[size];
+         lengths = new int[size];
+         values = new int[size];
+         programCounters = new int[size];
+         origins = new byte[size];
+         resources = new Observable[size];
+         notices = new AccessNotice[size];
+      }
+   
+     /**
+      * Create a ring of the default capacity using the policy named by the ToolEventPolicy setting.
+      */
+       public AccessEventRing() {
+         this(DEFAULT_CAPACITY, getPolicy(Globals.getSettings().getToolEventPolicy()));
+      }
+   
+     /**
+      * Find the policy of the given name, ignoring case.
+      * @param name one of POLICY_NAMES
+      * @return the policy, or BLOCK if the name is not recognized
+      */
+       public static int getPolicy(String name) {
+         for (int i = 0; i < POLICY_NAMES.length; i++) {
+            if (POLICY_NAMES[i].equalsIgnoreCase(name)) {
+               return i;
+            }
+         }
+         return BLOCK;
+      }
+   
+     /**
+      * Start the thread that delivers the ring's events to the consumer.
+      * @param consumer the consumer
+      * @param name name of the tool, used to name the thread
+      */
+       public synchronized void start(final Consumer consumer, String name) {
+         consumerThread = 
+               new Thread("Access events for "+name) {
+                  public void run() {
+                     consume(consumer);
+                  }
+               };
+         consumerThread.setDaemon(true);
+         consumerThread.start();
+      }
+   
+     /**
+      * Stop accepting events.  Those already published are still delivered; this waits
+      * up to the given time for that to finish.  Must not be called by the consumer.
+      * @param waitMillis longest time to wait in milliseconds, 0 not to wait
+      */
+       public void close(long waitMillis) {
+         closed = true;
+         Thread thread;
+         synchronized (this) {
+            thread = consumerThread;
+         }
+         if (thread != null && waitMillis > 0) {
+            try {
+               thread.join(waitMillis);
+            } 
+                catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+               }
+         }
+      }
+   
+     /**
+      * Add an access to the ring.  To be called only by the MIPS thread.
+      * @param resource the Observable that issued the notice
+      * @param notice the access notice; a MemoryAccessNotice is copied, others are kept
+      * @param programCounter value of the program counter
+      * @return true if the access was added, false if it was discarded
+      */
+       public boolean publish(Observable resource, AccessNotice notice, int programCounter) {
+         if (closed) {
+            return false;
+         }
+         long slot = published;
+         if (slot - consumedSeen > mask) {
+            consumedSeen = consumed;
+            if (slot - consumedSeen > mask && !waitForRoom(slot)) {
+               dropped++;
+               return false;
+            }
+         }
+         if (policy == SAMPLE && slot - consumedSeen > (mask >> 1)) {
+            consumedSeen = consumed;
+         }
+         if (policy == SAMPLE && slot - consumedSeen > (mask >> 1)) {
+            if (sampleCountdown > 0) {
+               sampleCountdown--;
+               dropped++;
+               return false;
+            }
+            sampleCountdown = SAMPLE_INTERVAL-1;
+         }
+         int i = (int) slot & mask;
+         types[i] = notice.getAccessType();
+         resources[i] = resource;
+         programCounters[i] = programCounter;
+         if (notice instanceof MemoryAccessNotice) {
+            MemoryAccessNotice m = (MemoryAccessNotice) notice;
+            addresses[i] = m.getAddress();
+            lengths[i] = m.getLength();
+            values[i] = m.getValue();
+            origins[i] = m.accessIsFromMIPS() ? FROM_MIPS : (m.accessIsFromGUI() ? FROM_GUI : 0);
+            notices[i] = null;
+         } 
+         else {
+            notices[i] = notice;
+         }
+         published = slot+1;  // volatile write makes the slot visible to the consumer
+         return true;
+      }
+   
+     /**
+      * Number of accesses discarded so far because the ring was full.
+      */
+       public long getDroppedCount() {
+         return dropped;
+      }
+   
+     /**
+      * Number of accesses waiting to be delivered.
+      */
+       public int size() {
+         return (int) (published - consumed);
+      }
+      
+     // Under the BLOCK policy wait until the slot is free, returning false only if the
+     // ring is closed meanwhile.  Other policies do not wait.
+       private boolean waitForRoom(long slot) {
+         if (policy != BLOCK) {
+            return false;
+         }
+         for (int spins = 0; slot - consumedSeen > mask; spins++) {
+            if (closed) {
+               return false;
+            }
+            if (spins < SPINS_BEFORE_PARKING) {
+               Thread.yield();
+            } 
+            else {
+               park();
+            }
+            consumedSeen = consumed;
+         }
+         return true;
+      }
+   
+     // Body of the consumer thread.  Runs until the ring is closed and empty.
+       private void consume(Consumer consumer) {
+         RingNotice memoryNotice = new RingNotice();
+         long next = consumed;
+         while (true) {
+            long available = published;
+            if (available == next) {
+               if (closed && published == next) {
+                  return;
+               }
+               park();
+               continue;
+            }
+            long end = Math.min(available, next+batchLimit);
+            for (; next < end; next++) {
+               int i = (int) next & mask;
+               AccessNotice notice = notices[i];
+               if (notice == null) {
+                  memoryNotice.set(types[i], addresses[i], lengths[i], values[i], origins[i]);
+                  notice = memoryNotice;
+               }
+               Observable resource = resources[i];
+               resources[i] = null;
+               notices[i] = null;
+               try {
+                  consumer.accept(resource, notice, programCounters[i]);
+               } 
+                   catch (RuntimeException e) {
+                     e.printStackTrace();
+                  }
+            }
+            consumed = next;  // volatile write hands the slots back to the producer
+            try {
+               consumer.endOfBatch();
+            } 
+                catch (RuntimeException e) {
+                  e.printStackTrace();
+               }
+         }
+      }
+   
+       private static void park() {
+         LockSupport.parkNanos(IDLE_WAIT_NANOS);
+      }
+   
+     // Notice the consumer thread refills for each memory access it delivers.  It was not
+     // created by the thread that made the access, so it reports the recorded origin.
+       private static class RingNotice extends MemoryAccessNotice {
+         private byte origin;
+      
+          RingNotice() {
+            super(AccessNotice.READ, 0, 0, 0);
+         }
+      
+          void set(int type, int address, int length, int value, byte origin) {
+            reset(type, address, length, value);
+            this.origin = origin;
+         }
+      
+          public boolean accessIsFromMIPS() {
+            return origin == FROM_MIPS;
+         }
+      
+          public boolean accessIsFromGUI() {
+            return origin == FROM_GUI;
+         }
+      }
+   }
@@ -0,0 +1,257 @@
+   package mars.tools;
+   import javax.swing.*;
+   import javax.swing.table.*;
+   import java.awt.*;
+   import java.awt.event.*;
+   import java.io.*;
+   import java.util.*;
+   import mars.*;
+   import mars.simulator.*;
+
+/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+	
+   /**
+	 * Call graph profiler.  Follows the calls and returns of the MIPS program to show, for
+	 * each function, how many times it was called and how many instructions were executed
+	 * in it (exclusive) and in it and everything it called (inclusive).  The call stacks
+	 * can be saved in the folded stacks format read by flame graph tools.  The counting
+	 * is done by the simulator through a CallGraphProfile, so the tool takes effect
+	 * from the next time the program is run after connecting.
+	 */
+    public class CallGraphProfiler extends AbstractMarsToolAndApplication {
+   
+      private static final long serialVersionUID = 1L;
+      private static String name = "Call Graph Profiler";
+      private static String version = "Version 1.0";
+      private static String heading = "Instructions executed by function, with and without the functions it calls";
+      private static final String[] columnNames = {"Function", "Calls", "Inclusive", "Exclusive", "Inclusive %"};
+   
+      private CallGraphProfile profile = new CallGraphProfile();
+      private FunctionTableModel tableModel;
+      private JLabel totalLabel;
+   
+   	/**
+   	 * Simple constructor, likely used to run a stand-alone call graph profiler.
+   	 * @param title String containing title for title bar
+   	 * @param heading String containing text for heading shown in upper part of window.
+   	 */
+       public CallGraphProfiler(String title, String heading) {
+         super(title,heading);
+      }
+   	 
+   	 /**
+   	  *  Simple constructor, likely used by the MARS Tools menu mechanism
+   	  */
+       public CallGraphProfiler() {
+         super(name+", "+version, heading);
+      }
+   
+   	/**
+   	 *  Required MarsTool method to return Tool name.  
+   	 *  @return  Tool name.  MARS will display this in menu item.
+   	 */
+       public String getName() {
+         return name;
+      }
+   
+   	/**
+   	 *  Builds the table of functions, and a button to save the call stacks.
+   	 */
+       protected JComponent buildMainDisplayArea() {
+         tableModel = new FunctionTableModel();
+         JTable table = new JTable(tableModel);
+         table.setPreferredScrollableViewportSize(new Dimension(480, 200));
+         totalLabel = new JLabel();
+         JButton save = new JButton("Save Folded Stacks...");
+         save.setToolTipText("Save the call stacks in the folded stacks format read by flame graph tools");
+         save.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     saveFoldedStacks();
+                  }
+               });
+         JPanel bottom = new JPanel(new BorderLayout());
+         bottom.add(totalLabel, BorderLayout.WEST);
+         bottom.add(save, BorderLayout.EAST);
+         JPanel panel = new JPanel(new BorderLayout());
+         panel.add(new JScrollPane(table), BorderLayout.CENTER);
+         panel.add(bottom, BorderLayout.SOUTH);
+         updateDisplay();
+         return panel;
+      }
+   
+   	/**
+   	 *  Rather than observe memory, attach the profile to the machine, and observe the
+   	 *  simulator to update the table each time the program stops.
+   	 */
+       protected void addAsObserver() {
+         MachineContext.current().setCallGraphProfile(profile);
+         Simulator.getInstance().addObserver(this);
+      }
+   
+   	/**
+   	 *  Detach the profile from the machine and stop observing the simulator.
+   	 */
+       protected void deleteAsObserver() {
+         if (MachineContext.current().getCallGraphProfile() == profile) {
+            MachineContext.current().setCallGraphProfile(null);
+         }
+         Simulator.getInstance().deleteObserver(this);
+      }
+   
+   	/**
+   	 *  Receives the simulator's notices.  When the program stops, the function totals
+   	 *  are taken while the simulator thread still holds them still, then shown.
+   	 */
+       public void update(Observable resource, Object notice) {
+         if (notice instanceof SimulatorNotice 
+             && ((SimulatorNotice) notice).getAction() == SimulatorNotice.SIMULATOR_STOP) {
+            updateDisplay();
+         }
+      }
+   
+   	/**
+   	 *  Discard the counts, to profile the program again from the start.
+   	 */
+       protected void reset() {
+         profile.reset();
+         updateDisplay();
+      }
+   
+   	/**
+   	 *  Take the function totals from the profile and show them.
+   	 */
+       protected void updateDisplay() {
+         final ArrayList functions = profile.getFunctions();
+         final long total = profile.getTotal();
+         SwingUtilities.invokeLater(
+                new Runnable() {
+                   public void run() {
+                     tableModel.setFunctions(functions, total);
+                     totalLabel.setText("Instructions executed: "+total);
+                  }
+               });
+      }
+   
+   	/**
+   	 *  Help button, describing the columns.
+   	 */
+       protected JComponent getHelpComponent() {
+         final String helpContent = 
+                              "Use this tool to see which functions the MIPS program spends\n"+
+                              "its instructions in.  Connect it, then run the program; the\n"+
+                              "table is updated each time the program stops.  A function is\n"+
+                              "entered by jal or jalr and left by jr $ra, and is named by the\n"+
+                              "text label at (or nearest before) its first instruction.\n"+
+                              "\n"+
+                              "Calls: number of times the function was called.\n"+
+                              "Inclusive: instructions executed in the function and in the\n"+
+                              "functions it called, with recursive calls counted once.\n"+
+                              "Exclusive: instructions executed in the function itself.\n"+
+                              "\n"+
+                              "Save Folded Stacks writes each call stack, with the instructions\n"+
+                              "executed in it, in the format read by flame graph tools such\n"+
+                              "as flamegraph.pl.  Reset discards the counts.\n";
+         JButton help = new JButton("Help");
+         help.addActionListener(
+                new ActionListener() {
+                   public void actionPerformed(ActionEvent e) {
+                     JOptionPane.showMessageDialog(theWindow, helpContent);
+                  }
+               });		
+         return help;  
+      }
+   
+      //////////////////////////////////////////////////////////////////////////////////////
+      //  Private methods defined to support the above.
+      //////////////////////////////////////////////////////////////////////////////////////
+   
+       private void saveFoldedStacks() {
+         JFileChooser chooser = new JFileChooser();
+         if (chooser.showSaveDialog(theWindow) != JFileChooser.APPROVE_OPTION) {
+            return;
+         }
+         File file = chooser.getSelectedFile();
+         try {
+            PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)));
+            profile.writeFoldedStacks(out);
+            out.close();
+         } 
+             catch (IOException e) {
+               JOptionPane.showMessageDialog(theWindow, "Error while attempting to write "+file+": "+e.getMessage());
+            }
+      }
+   
+      // One row per function, in decreasing order of inclusive count.
+       private class FunctionTableModel extends AbstractTableModel {
+         private static final long serialVersionUID = 1L;
+         private ArrayList functions = new ArrayList();
+         private long total;
+      
+          public void setFunctions(ArrayList functions, long total) {
+            this.functions = functions;
+            this.total = total;
+            fireTableDataChanged();
+         }
+      
+          public String getColumnName(int column) {
+            return columnNames[column];
+         }
+      
+          public int getColumnCount() {
+            return columnNames.length;
+         }
+      
+          public int getRowCount() {
+            return functions.size();
+         }
+      
+          public Class getColumnClass(int column) {
+            return (column == 0) ? String.class : Long.class;
+         }
+      
+          public Object getValueAt(int row, int column) {
+            CallGraphProfile.Function function = (CallGraphProfile.Function) functions.get(row);
+            switch (column) {
+               case 0: 
+                  return function.getName();
+               case 1: 
+                  return Long.valueOf(function.getCalls());
+               case 2: 
+                  return Long.valueOf(function.getInclusive());
+               case 3: 
+                  return Long.valueOf(function.getExclusive());
+               default: 
+                  return Long.valueOf((total == 0) ? 0 : function.getInclusive() * 100 / total);
+            }
+         }
+      }
+   }
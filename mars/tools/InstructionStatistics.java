@@ -262,11 +262,21 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    
    	
+   /**
+    * Instructions are categorized on a thread of the tool's own.  This needs only the
+    * address of each instruction fetch, since only self-modifying code could change the
+    * statement found there in the meantime.
+    */
+       protected AccessEventRing createEventRing() {
+         return new AccessEventRing();
+      }
+   
    /**
     * method that is called each time the MIPS simulator accesses the text segment.
     * Before an instruction is executed by the simulator, the instruction is fetched from the program memory. 
     * This memory access is observed and the corresponding instruction is decoded and categorized by the tool.
-    * According to the category the counter values are increased and the display gets updated. 
+    * According to the category the counter values are increased.  The display is updated
+ * at the end of each batch of events, not for each one.
     * 
     * @param resource the observed resource
     * @param notice signals the type of access (memory, register etc.)
@@ -300,7 +310,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                			
                   m_totalCounter ++;
                   m_counters[category] ++;
-                  updateDisplay();					
                }								
             } 
                 catch (AddressErrorException e) {			
@@ -194,6 +194,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	//  the abstract superclass.
       //////////////////////////////////////////////////////////////////////////////////////
    	
+      /**
+   	 * Count references on a thread of the tool's own, so the MIPS program need not wait
+   	 * for each one to be counted and painted.
+   	 */
+       protected AccessEventRing createEventRing() {
+         return new AccessEventRing();
+      }
+   
       /**
    	 * Update display when connected MIPS program accesses (data) memory.
    	 * @param memory the attached memory
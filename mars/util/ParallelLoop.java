@@ -0,0 +1,130 @@
+   package mars.util;
+   import mars.*;
+   import java.util.concurrent.*;
+
+
+
+	/*
+Copyright (c) 2003-2014,  Pete Sanderson and Kenneth Vollmar
+
+Developed by Pete Sanderson (psanderson@otterbein.edu)
+and Kenneth Vollmar (kenvollmar@missouristate.edu)
+
+Permission is hereby granted, free of charge, to any person obtaining 
+a copy of this software and associated documentation files (the 
+"Software"), to deal in the Software without restriction, including 
+without limitation the rights to use, copy, modify, merge, publish, 
+distribute, sublicense, and/or sell copies of the Software, and to 
+permit persons to whom the Software is furnished to do so, subject 
+to the following conditions:
+
+The above copyright notice and this permission notice shall be 
+included in all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, 
+EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF 
+MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. 
+IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR 
+ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF 
+CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION 
+WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+
+(MIT license, http://www.opensource.org/licenses/mit-license.html)
+ */
+
+
+
+
+
+/**
+ * A loop whose iterations are independent, run in parallel on a shared fork-join
+ * pool.  The range of indexes is split in halves until no more than a grain of
+ * iterations is left, and each such piece is run in order by one worker.  Every
+ * worker runs in the MachineContext of the thread that started the loop, so code
+ * reaching the memory, registers or symbol table through MachineContext.current()
+ * sees the same machine as it would have sequentially.  run() returns when all
+ * iterations are done.
+ * <p>
+ * Iterations must not depend on each other or share mutable state; results are
+ * usually left in arrays by index so the caller can combine them in order, which
+ * keeps the outcome (such as the order of error messages) the same as running the
+ * loop sequentially.  The loop is run sequentially, by the calling thread, if there
+ * is only one processor, if Globals.debug is set (so debugging output comes out in
+ * order), or if there is no more than a grain of iterations.
+ *
+ * @version October 2014
+ */
+
+    public abstract class ParallelLoop {
+      private static ForkJoinPool pool;
+   
+      private final int grain;
+   
+   /**
+    * @param grain the most iterations to run in one task, at least 1.  It should be
+    * large enough for a task to outweigh the cost of scheduling it.
+    */
+       protected ParallelLoop(int grain) {
+         this.grain = Math.max(grain, 1);
+      }
+   
+   /**
+    * Run one iteration of the loop.
+    * @param index the index of the iteration
+    */
+       protected abstract void iterate(int index);
+   
+   /**
+    * Run the iterations with indexes 0 to count-1, in parallel if worthwhile.
+    * @param count the number of iterations
+    */
+       public void run(int count) {
+         ForkJoinPool workers = getPool();
+         if (workers == null || count <= grain || Globals.debug) {
+            for (int i = 0; i < count; i++) {
+               iterate(i);
+            }
+            return;
+         }
+         workers.invoke(new Range(MachineContext.current(), 0, count));
+      }
+   
+      // The pool, made when first needed; null if there is only one processor.
+       private static synchronized ForkJoinPool getPool() {
+         if (pool == null && Runtime.getRuntime().availableProcessors() > 1) {
+            pool = new ForkJoinPool();
+         }
+         return pool;
+      }
+   
+      // Indexes from (inclusive) to (exclusive), split until no more than grain.
+       private class Range extends RecursiveAction {
+         private static final long serialVersionUID = 1L;
+         private final MachineContext context;
+         private final int from, to;
+      
+          Range(MachineContext context, int from, int to) {
+            this.context = context;
+            this.from = from;
+            this.to = to;
+         }
+      
+          protected void compute() {
+            if (to - from > grain) {
+               int middle = (from + to) >>> 1;
+               invokeAll(new Range(context, from, middle), new Range(context, middle, to));
+               return;
+            }
+            MachineContext previous = MachineContext.current();
+            MachineContext.setCurrent(context);
+            try {
+               for (int i = from; i < to; i++) {
+                  iterate(i);
+               }
+            } 
+            finally {
+               MachineContext.setCurrent(previous);
+            }
+         }
+      }
+   }
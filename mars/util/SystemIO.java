@@ -1,5 +1,6 @@
    package mars.util;
    import mars.*;
+   import mars.simulator.InputLog;
    import java.io.*;
    import javax.swing.*;
    import java.util.*;
@@ -38,6 +39,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  * run from the command line or through the GUI, then do I/O to
  * System.in and System.out in the former situation, and interact with
  * the GUI in the latter.
+ * <p>
+ * Each MachineContext has its own SystemIO, holding its open file table; the
+ * static methods operate on that of the calling thread's current context.
+ * Only the default context uses the GUI.  Any other context always uses the
+ * standard streams it was given (see MachineContext.setStandardStreams()).
  *
  * @author Pete Sanderson and Ken Vollmar
  * @version August 2003-2005
@@ -49,7 +55,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     /** Maximum number of files that can be open */
       public static final int SYSCALL_MAXFILES = 32;
     /** String used for description of file error */
-      public static String fileErrorString = new String("File operation OK");
+      private String fileErrorString = new String("File operation OK");
    
       private static final int O_RDONLY = 0x00000000;
       private static final int O_WRONLY = 0x00000001;
@@ -66,7 +72,58 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
       // Will use one buffered reader for all keyboard/redirected/piped input.
    	// Added by DPS 28 Feb 2008.  See getInputReader() below.
-      private static BufferedReader inputReader = null;
+      private BufferedReader inputReader = null;
+      private FileIOData files = new FileIOData();
+   
+    /**
+     * Create the I/O state for one machine, with no files open.  Used by
+     * MachineContext; everything else should use the static methods.
+     */
+       public SystemIO() {
+      }
+   
+    /**
+     * Use new standard streams: discard the reader used for input from the
+     * standard input stream, so the next read will use the new one, and point
+     * file descriptors 0, 1 and 2 at them.  Called when the context's standard
+     * streams are changed.
+     * @param in the new standard input stream
+     * @param out the new standard output stream
+     * @param err the new standard error stream
+     */
+       public void setStandardStreams(InputStream in, PrintStream out, PrintStream err) {
+         inputReader = null;
+         if (files.fileNames[STDIN] != null) {
+            files.streams[STDIN] = in;
+            files.streams[STDOUT] = out;
+            files.streams[STDERR] = err;
+         }
+      }
+   
+      // The SystemIO of the current MachineContext.
+       private static SystemIO current() {
+         return MachineContext.current().getSystemIO();
+      }
+   
+      // Only the default context interacts with the GUI.
+       private static boolean usingGui() {
+         return Globals.getGui() != null && MachineContext.current().isDefault();
+      }
+   
+      // The input log of the current context, if it is replaying recorded input; see
+   	// InputLog.  Input then comes from the log and output is not repeated.
+       private static InputLog replayLog() {
+         InputLog log = MachineContext.current().getInputLog();
+         return (log != null && log.isReplaying()) ? log : null;
+      }
+   
+      // Record input read by a syscall, if the current context is recording its input.
+       private static void recordInput(Object input) {
+         InputLog log = MachineContext.current().getInputLog();
+         if (log != null) {
+            log.add(input);
+         }
+      }
    
     /**
      * Implements syscall to read an integer value.  
@@ -78,7 +135,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public static int readInteger(int serviceNumber)
       {
          String input = "0";
-         if (Globals.getGui() == null)
+         InputLog replay = replayLog();
+         if (replay != null)
+         {
+            input = replay.nextString();
+         }
+         else if (!usingGui())
          {
             try
             {  
@@ -97,6 +159,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                input = Globals.getGui().getMessagesPane().getInputString(-1);
             }
          }
+         recordInput(input);
       
         // Client is responsible for catching NumberFormatException
          return new Integer(input.trim()).intValue();
@@ -113,7 +176,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public static float readFloat(int serviceNumber)
       {
          String input = "0";
-         if (Globals.getGui() == null)
+         InputLog replay = replayLog();
+         if (replay != null)
+         {
+            input = replay.nextString();
+         }
+         else if (!usingGui())
          {
             try
             {
@@ -132,6 +200,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                input = Globals.getGui().getMessagesPane().getInputString(-1);
             }
          }
+         recordInput(input);
          return new Float(input.trim()).floatValue();
       
       }
@@ -147,7 +216,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public static double readDouble(int serviceNumber)
       {
          String input = "0";
-         if (Globals.getGui() == null)
+         InputLog replay = replayLog();
+         if (replay != null)
+         {
+            input = replay.nextString();
+         }
+         else if (!usingGui())
          {
             try
             {
@@ -166,6 +240,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                input = Globals.getGui().getMessagesPane().getInputString(-1);
             }
          }
+         recordInput(input);
          return new Double(input.trim()).doubleValue();
       
       }
@@ -176,9 +251,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      */
        public static void printString(String string)
       {
-         if (Globals.getGui() == null)
+         if (replayLog() != null)
          {
-            System.out.print(string);
+            return; // already printed
+         }
+         if (!usingGui())
+         {
+            MachineContext.current().getStandardOutput().print(string);
          } 
          else
          {
@@ -197,7 +276,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public static String readString(int serviceNumber, int maxLength)
       {
          String input = "";
-         if (Globals.getGui() == null)
+         InputLog replay = replayLog();
+         if (replay != null)
+         {
+            input = replay.nextString();
+         }
+         else if (!usingGui())
          {
             try
             {
@@ -220,6 +304,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                }
             }
          }
+         recordInput(input);
       	
          if (input.length() > maxLength) {
             // Modified DPS 13-July-2011.  Originally: return input.substring(0, maxLength);
@@ -240,7 +325,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       {
          String input = "0";
          int returnValue = 0;
-         if (Globals.getGui() == null)
+         InputLog replay = replayLog();
+         if (replay != null)
+         {
+            input = replay.nextString();
+         }
+         else if (!usingGui())
          {
             try
             {
@@ -259,6 +349,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                input = Globals.getGui().getMessagesPane().getInputString(1);
             }
          }
+         recordInput(input);
          // The whole try-catch is not really necessary in this case since I'm
       	// just propagating the runtime exception (the default behavior), but 
       	// I want to make it explicit.  The client needs to catch it.
@@ -288,22 +379,28 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       {
        /////////////// DPS 8-Jan-2013  ////////////////////////////////////////////////////
        /// Write to STDOUT or STDERR file descriptor while using IDE - write to Messages pane. 
-         if ((fd==STDOUT || fd==STDERR) && Globals.getGui() != null) {
+         if ((fd==STDOUT || fd==STDERR) && usingGui()) {
             String data = new String(myBuffer);
-            Globals.getGui().getMessagesPane().postRunMessage(data);
+            if (replayLog() == null) {
+               Globals.getGui().getMessagesPane().postRunMessage(data);
+            }
             return data.length();
          }
        ///////////////////////////////////////////////////////////////////////////////////
        //// When running in command mode, code below works for either regular file or STDOUT/STDERR
       
-         if (!FileIOData.fdInUse(fd, 1)) // Check the existence of the "write" fd
+         if (!current().files.fdInUse(fd, 1)) // Check the existence of the "write" fd
          {
-            fileErrorString = new String(
+            current().fileErrorString = new String(
                     "File descriptor " + fd + " is not open for writing");
             return -1;
          }
+         if (replayLog() != null)
+         {
+            return lengthRequested; // already written
+         }
          // retrieve FileOutputStream from storage
-         OutputStream outputStream = (OutputStream) FileIOData.getStreamInUse(fd);
+         OutputStream outputStream = (OutputStream) current().files.getStreamInUse(fd);
          try
          {
             // Oct. 9 2005 Ken Vollmar
@@ -326,13 +423,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          } 
              catch (IOException e)
             {
-               fileErrorString = new String(
+               current().fileErrorString = new String(
                     "IO Exception on write of file with fd " + fd);
                return -1;
             } 
              catch (IndexOutOfBoundsException e)
             {
-               fileErrorString = new String(
+               current().fileErrorString = new String(
                     "IndexOutOfBoundsException on write of file with fd" + fd);
                return -1;
             }
@@ -350,11 +447,32 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      * @return number of bytes read, 0 on EOF, or -1 on error
      */
        public static int readFromFile(int fd, byte[] myBuffer, int lengthRequested)
+      {
+         if (fd != STDIN || MachineContext.current().getInputLog() == null)
+         {
+            return read(fd, myBuffer, lengthRequested);
+         }
+         // Standard input is recorded, and replayed when replaying.  Other files are read
+         // again from where they were in the snapshot replayed from.
+         InputLog replay = replayLog();
+         if (replay != null)
+         {
+            byte[] bytesRead = replay.nextBytes();
+            System.arraycopy(bytesRead, 0, myBuffer, 0, bytesRead.length);
+            return (int) replay.nextLong();
+         }
+         int retValue = read(fd, myBuffer, lengthRequested);
+         recordInput(myBuffer.clone());
+         recordInput(Long.valueOf(retValue));
+         return retValue;
+      }
+   
+       private static int read(int fd, byte[] myBuffer, int lengthRequested)
       {
          int retValue = -1;  
        /////////////// DPS 8-Jan-2013  //////////////////////////////////////////////////
        /// Read from STDIN file descriptor while using IDE - get input from Messages pane. 
-         if (fd==STDIN && Globals.getGui() != null) {
+         if (fd==STDIN && usingGui()) {
             String input = Globals.getGui().getMessagesPane().getInputString(lengthRequested);
             byte[] bytesRead = input.getBytes();;
             for (int i=0; i < myBuffer.length; i++) {
@@ -365,14 +483,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        ////////////////////////////////////////////////////////////////////////////////////
        //// When running in command mode, code below works for either regular file or STDIN
        
-         if (!FileIOData.fdInUse(fd, 0)) // Check the existence of the "read" fd
+         if (!current().files.fdInUse(fd, 0)) // Check the existence of the "read" fd
          {
-            fileErrorString = new String(
+            current().fileErrorString = new String(
                     "File descriptor " + fd + " is not open for reading");
             return -1;
          }
         // retrieve FileInputStream from storage
-         InputStream InputStream = (InputStream) FileIOData.getStreamInUse(fd);
+         InputStream InputStream = (InputStream) current().files.getStreamInUse(fd);
          try
          {
             // Reads up to lengthRequested bytes of data from this Input stream into an array of bytes.
@@ -385,13 +503,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          } 
              catch (IOException e)
             {
-               fileErrorString = new String(
+               current().fileErrorString = new String(
                     "IO Exception on read of file with fd " + fd);
                return -1;
             } 
              catch (IndexOutOfBoundsException e)
             {
-               fileErrorString = new String(
+               current().fileErrorString = new String(
                     "IndexOutOfBoundsException on read of file with fd" + fd);
                return -1;
             }
@@ -422,7 +540,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          int fdToUse;
       
         // Check internal plausibility of opening this file
-         fdToUse = FileIOData.nowOpening(filename, flags);
+         fdToUse = current().files.nowOpening(filename, flags);
          retValue = fdToUse; // return value is the fd
          if (fdToUse < 0)
          { 
@@ -436,11 +554,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             {
                 // Set up input stream from disk file
                inputStream = new FileInputStream(filename);
-               FileIOData.setStreamInUse(fdToUse, inputStream); // Save stream for later use
+               current().files.setStreamInUse(fdToUse, inputStream); // Save stream for later use
             } 
                 catch (FileNotFoundException e)
                {
-                  fileErrorString = new String(
+                  current().fileErrorString = new String(
                         "File " + filename + " not found, open for input.");
                   retValue = -1;
                }
@@ -450,12 +568,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             // Set up output stream to disk file
             try
             { 
-               outputStream = new FileOutputStream(filename, ((flags & O_APPEND) != 0) );
-               FileIOData.setStreamInUse(fdToUse, outputStream); // Save stream for later use
+               // When replaying, the file already has what the program writes to it.
+               outputStream = new FileOutputStream(filename, ((flags & O_APPEND) != 0) || replayLog() != null);
+               current().files.setStreamInUse(fdToUse, outputStream); // Save stream for later use
             } 
                 catch (FileNotFoundException e)
                {
-                  fileErrorString = new String(
+                  current().fileErrorString = new String(
                         "File " + filename + " not found, open for output.");
                   retValue = -1;
                }
@@ -470,7 +589,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      */
        public static void closeFile(int fd)
       {
-         FileIOData.close(fd);
+         current().files.close(fd);
       }
    
     /** 
@@ -478,7 +597,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      */
        public static void resetFiles()
       {
-         FileIOData.resetFiles();
+         current().files.resetFiles();
       }
    
      /**
@@ -488,7 +607,75 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	*/
        public static String getFileErrorMessage()
       {
-         return fileErrorString;
+         return current().fileErrorString;
+      }
+
+    /**
+     * Write the open file table to a checkpoint: the name, flag and current
+     * position of each file the MIPS program has opened.  The standard streams
+     * are not included.
+     * @param out stream to write the checkpoint to
+     * @throws IOException if writing fails
+     */
+       public void writeCheckpoint(DataOutputStream out) throws IOException
+      {
+         for (int fd = STDERR + 1; fd < SYSCALL_MAXFILES; fd++)
+         {
+            if (files.fileNames[fd] != null && files.streams[fd] != null)
+            {
+               long position = (files.fileFlags[fd] == O_RDONLY)
+                  ? ((FileInputStream) files.streams[fd]).getChannel().position()
+                  : ((FileOutputStream) files.streams[fd]).getChannel().position();
+               out.writeInt(fd);
+               out.writeUTF(files.fileNames[fd]);
+               out.writeInt(files.fileFlags[fd]);
+               out.writeLong(position);
+            }
+         }
+         out.writeInt(-1);
+      }
+   
+    /**
+     * Close all open files, then reopen those recorded in a checkpoint written
+     * by writeCheckpoint(), under the same file descriptors.  A file open for
+     * reading is positioned where it was.  A file open for writing is appended
+     * to, which continues where it was if it has not changed since.
+     * @param in stream to read the checkpoint from
+     * @throws IOException if reading fails or a file cannot be reopened
+     */
+       public void readCheckpoint(DataInputStream in) throws IOException
+      {
+         files.resetFiles();
+         int fd;
+         while ((fd = in.readInt()) != -1)
+         {
+            String filename = in.readUTF();
+            int flag = in.readInt();
+            long position = in.readLong();
+            if (fd <= STDERR || fd >= SYSCALL_MAXFILES)
+            {
+               throw new IOException("invalid file descriptor " + fd + " in checkpoint");
+            }
+            try
+            {
+               if (flag == O_RDONLY)
+               {
+                  FileInputStream stream = new FileInputStream(filename);
+                  stream.getChannel().position(position);
+                  files.setStreamInUse(fd, stream);
+               } 
+               else
+               {
+                  files.setStreamInUse(fd, new FileOutputStream(filename, true));
+               }
+            } 
+                catch (IOException e)
+               {
+                  throw new IOException("cannot reopen file " + filename + ": " + e.getMessage());
+               }
+            files.fileNames[fd] = filename;
+            files.fileFlags[fd] = flag;
+         }
       }
    
       ///////////////////////////////////////////////////////////////////////
@@ -498,10 +685,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	// transparent to it.  Lazy instantiation.  DPS.  28 Feb 2008
    	
        private static BufferedReader getInputReader() {
-         if (inputReader == null) {
-            inputReader = new BufferedReader(new InputStreamReader(System.in));  
+         SystemIO io = current();
+         if (io.inputReader == null) {
+            io.inputReader = new BufferedReader(new InputStreamReader(MachineContext.current().getStandardInput()));  
          }
-         return inputReader;
+         return io.inputReader;
       }
    	
    	
@@ -509,14 +697,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     // Maintain information on files in use. The index to the arrays is the "file descriptor."
     // Ken Vollmar, August 2005
     
-       private static class FileIOData
+       private class FileIOData
       {
-         private static String[] fileNames = new String[ SYSCALL_MAXFILES ]; // The filenames in use. Null if file descriptor i is not in use.
-         private static int[] fileFlags = new int[ SYSCALL_MAXFILES ]; // The flags of this file, 0=READ, 1=WRITE. Invalid if this file descriptor is not in use.
-         private static Object[] streams = new Object[SYSCALL_MAXFILES]; // The streams in use, associated with the filenames
+         private String[] fileNames = new String[ SYSCALL_MAXFILES ]; // The filenames in use. Null if file descriptor i is not in use.
+         private int[] fileFlags = new int[ SYSCALL_MAXFILES ]; // The flags of this file, 0=READ, 1=WRITE. Invalid if this file descriptor is not in use.
+         private Object[] streams = new Object[SYSCALL_MAXFILES]; // The streams in use, associated with the filenames
       
         // Reset all file information. Closes any open files and resets the arrays
-          private static void resetFiles()
+          private void resetFiles()
          {
             for (int i = 0; i < SYSCALL_MAXFILES; i++)
             {
@@ -525,36 +713,37 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             setupStdio();
          }
       	// DPS 8-Jan-2013
-          private static void setupStdio() {
+          private void setupStdio() {
             fileNames[STDIN]  = "STDIN";
             fileNames[STDOUT] = "STDOUT";
             fileNames[STDERR] = "STDERR";
             fileFlags[STDIN]  = SystemIO.O_RDONLY;
             fileFlags[STDOUT] = SystemIO.O_WRONLY;
             fileFlags[STDERR] = SystemIO.O_WRONLY;
-            streams[STDIN]  = System.in;
-            streams[STDOUT] = System.out;
-            streams[STDERR] = System.err;
-            System.out.flush();
-            System.err.flush();
+            MachineContext context = MachineContext.current();
+            streams[STDIN]  = context.getStandardInput();
+            streams[STDOUT] = context.getStandardOutput();
+            streams[STDERR] = context.getStandardError();
+            context.getStandardOutput().flush();
+            context.getStandardError().flush();
          }
       
         // Preserve a stream that is in use
-          private static void setStreamInUse(int fd, Object s)
+          private void setStreamInUse(int fd, Object s)
          {
             streams[fd] = s;
          
          }
       
         // Retrieve a stream for use
-          private static Object getStreamInUse(int fd)
+          private Object getStreamInUse(int fd)
          {
             return streams[fd];
          
          }
       
         // Determine whether a given filename is already in use.
-          private static boolean filenameInUse(String requestedFilename)
+          private boolean filenameInUse(String requestedFilename)
          {
             for (int i = 0; i < SYSCALL_MAXFILES; i++)
             {
@@ -572,7 +761,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          }
       
         // Determine whether a given fd is already in use with the given flag.
-          private static boolean fdInUse(int fd, int flag)
+          private boolean fdInUse(int fd, int flag)
          {
             if (fd < 0 || fd >= SYSCALL_MAXFILES)
             {
@@ -592,7 +781,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       
         // Close the file with file descriptor fd. No errors are recoverable -- if the user's
         // made an error in the call, it will come back to him.
-          private static void close(int fd)
+          private void close(int fd)
          {
             // Can't close STDIN, STDOUT, STDERR, or invalid fd
             if (fd <= STDERR || fd >= SYSCALL_MAXFILES) 
@@ -624,7 +813,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
         // Attempt to open a new file with the given flag, using the lowest available file descriptor.
         // Check that filename is not in use, flag is reasonable, and there is an available file descriptor.
         // Return: file descriptor in 0...(SYSCALL_MAXFILES-1), or -1 if error
-          private static int nowOpening(String filename, int flag)
+          private int nowOpening(String filename, int flag)
          {
             int i = 0;
             if (filenameInUse(filename))
@@ -322,19 +322,26 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                                       ? Globals.symbolTable
                							  : myMIPSprogram.getLocalSymbolTable();
             int addressBase = Globals.getGui().getMainPane().getExecutePane().getAddressDisplayBase();
-            if (textLabels.isSelected() && dataLabels.isSelected()) {
-               symbols = symbolTable.getAllSymbols();
-            } 
-            else if (textLabels.isSelected() && !dataLabels.isSelected()) {
-               symbols = symbolTable.getTextSymbols();
-            } 
-            else if (!textLabels.isSelected() && dataLabels.isSelected()) {
-               symbols = symbolTable.getDataSymbols();
+            if (sortedByAddress()) {
+               // Address order comes straight from the symbol table's address index.
+               symbols = symbolTable.getSymbolsByAddress(textLabels.isSelected(), dataLabels.isSelected(),
+                                                          tableSortComparator instanceof DescendingComparator);
             } 
             else {
-               symbols = new ArrayList();
+               if (textLabels.isSelected() && dataLabels.isSelected()) {
+                  symbols = symbolTable.getAllSymbols();
+               } 
+               else if (textLabels.isSelected() && !dataLabels.isSelected()) {
+                  symbols = symbolTable.getTextSymbols();
+               } 
+               else if (!textLabels.isSelected() && dataLabels.isSelected()) {
+                  symbols = symbolTable.getDataSymbols();
+               } 
+               else {
+                  symbols = new ArrayList();
+               }
+               Collections.sort(symbols, tableSortComparator); // DPS 25 Dec 2008
             }
-            Collections.sort(symbols, tableSortComparator); // DPS 25 Dec 2008
             labelData = new Object[symbols.size()][2];
          
             for(int i=0; i< symbols.size(); i++){//sets up the label table
@@ -507,6 +514,18 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    	
    	
+   	////////////////////////////////////////////////////////////////////////////
+   	//
+   	//  Determine whether the current sort state orders the labels by address (in 
+   	//  either direction) rather than by name.
+       private boolean sortedByAddress() {
+         Comparator comparator = (tableSortComparator instanceof DescendingComparator)
+                                 ? ((DescendingComparator)tableSortComparator).opposite
+                                 : tableSortComparator;
+         return comparator instanceof LabelAddressAscendingComparator;
+      }
+   	
+   	
    	////////////////////////////////////////////////////////////////////////////
    	//
    	//  Comparator class used to sort in ascending order a List of symbols alphabetically by name
@@ -110,7 +110,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          }
       	
           private Component buildConfigChooser() {
-            JPanel chooserPanel = new JPanel(new GridLayout(4,1));
+            JPanel chooserPanel = new JPanel(new GridLayout(0,1));
             ButtonGroup choices = new ButtonGroup();
             Iterator configurationsIterator = MemoryConfigurations.getConfigurationsIterator();
             while (configurationsIterator.hasNext()) {
@@ -738,6 +738,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             if (col != CODE_COLUMN) {
                data[row][col] = value;
                fireTableCellUpdated(row, col);
+               if (col == BREAK_COLUMN && breakpointsEnabled) {
+                  // Let a program that is already running see the change.
+                  Simulator.getInstance().setBreakpoint(intAddresses[row], ((Boolean)value).booleanValue());
+               }
                return;
             }	
          	// Handle changes in the Code column.		 
@@ -1059,6 +1063,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      breakpointsEnabled = !breakpointsEnabled;
                      check.setEnabled(breakpointsEnabled);
                      table.tableChanged(new TableModelEvent(tableModel,0,data.length-1, BREAK_COLUMN));
+                     // Let a program that is already running see the change.
+                     for (int i=0; i < data.length; i++) {
+                        if (((Boolean)data[i][BREAK_COLUMN]).booleanValue()) {
+                           Simulator.getInstance().setBreakpoint(intAddresses[i], breakpointsEnabled);
+                        }
+                     }
                   }
                }
                 public void mouseEntered(MouseEvent e) {}